@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.analysis.features;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.analysis.algorithms.FloatArraySimpleImage;
+import qupath.lib.analysis.algorithms.SimpleImage;
+
+/**
+ * Benchmark {@link HaralickFeatureComputer} for a single image region with a circular mask, 
+ * similar to how features are computed for a detection.
+ * 
+ * @author Pete Bankhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HaralickBenchmark {
+	
+	@Param({"32", "128"})
+	public int size;
+	
+	@Param({"32", "256"})
+	public int nBins;
+	
+	private SimpleImage img;
+	private SimpleImage mask;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(100L);
+		float[] pixels = new float[size * size];
+		float[] maskPixels = new float[size * size];
+		double r = size / 2.0;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				// Smooth gradient with added noise, so that the cooccurrence matrices aren't trivial
+				int ind = y * size + x;
+				pixels[ind] = (float)(x + y + random.nextGaussian() * 10);
+				double dx = x + 0.5 - r;
+				double dy = y + 0.5 - r;
+				maskPixels[ind] = dx*dx + dy*dy <= r*r ? 1 : 0;
+			}
+		}
+		img = new FloatArraySimpleImage(pixels, size, size);
+		mask = new FloatArraySimpleImage(maskPixels, size, size);
+	}
+	
+	@Benchmark
+	public HaralickFeatures measureHaralick() {
+		return HaralickFeatureComputer.measureHaralick(img, mask, nBins, Double.NaN, Double.NaN, 1);
+	}
+
+}
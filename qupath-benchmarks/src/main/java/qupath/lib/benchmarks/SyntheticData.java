@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Helper methods to generate synthetic objects & hierarchies for benchmarking.
+ * <p>
+ * All methods take a seed, so that the same data is generated each time.
+ * 
+ * @author Pete Bankhead
+ */
+public class SyntheticData {
+	
+	/**
+	 * Approximate width & height of each synthetic detection, in pixels.
+	 */
+	public static final double DETECTION_SIZE = 10;
+	
+	/**
+	 * Default names used for synthetic measurements.
+	 */
+	private static final String[] MEASUREMENT_NAMES = {
+			"Area", "Perimeter", "Circularity", "Max diameter", "Min diameter",
+			"Hematoxylin OD mean", "Hematoxylin OD std dev", "Eosin OD mean", "Eosin OD std dev", "Solidity"
+	};
+
+	/**
+	 * Create detections randomly distributed across an image.
+	 * 
+	 * @param n number of detections
+	 * @param width image width
+	 * @param height image height
+	 * @param nMeasurements number of measurements to add to each detection (may be 0)
+	 * @param seed seed for the random number generator
+	 * @return
+	 */
+	public static List<PathObject> createDetections(int n, int width, int height, int nMeasurements, long seed) {
+		Random random = new Random(seed);
+		List<PathObject> detections = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			double x = random.nextDouble() * (width - DETECTION_SIZE);
+			double y = random.nextDouble() * (height - DETECTION_SIZE);
+			ROI roi = ROIs.createEllipseROI(x, y, DETECTION_SIZE, DETECTION_SIZE, ImagePlane.getDefaultPlane());
+			MeasurementList measurements = MeasurementListFactory.createMeasurementList(nMeasurements, MeasurementList.TYPE.FLOAT);
+			for (int m = 0; m < nMeasurements; m++)
+				measurements.putMeasurement(getMeasurementName(m), random.nextDouble() * 100);
+			measurements.close();
+			detections.add(PathObjects.createDetectionObject(roi, null, measurements));
+		}
+		return detections;
+	}
+	
+	/**
+	 * Create annotations arranged on a regular grid covering an image, leaving a gap between each annotation.
+	 * 
+	 * @param nx number of annotations horizontally
+	 * @param ny number of annotations vertically
+	 * @param width image width
+	 * @param height image height
+	 * @return
+	 */
+	public static List<PathObject> createAnnotationGrid(int nx, int ny, int width, int height) {
+		List<PathObject> annotations = new ArrayList<>();
+		double w = (double)width / nx;
+		double h = (double)height / ny;
+		for (int y = 0; y < ny; y++) {
+			for (int x = 0; x < nx; x++) {
+				ROI roi = ROIs.createRectangleROI(x * w + w * 0.1, y * h + h * 0.1, w * 0.8, h * 0.8, ImagePlane.getDefaultPlane());
+				annotations.add(PathObjects.createAnnotationObject(roi));
+			}
+		}
+		return annotations;
+	}
+	
+	/**
+	 * Create a hierarchy containing a grid of annotations, with detections randomly distributed across the image 
+	 * (and so either inside an annotation, or directly below the root).
+	 * 
+	 * @param nDetections
+	 * @param width
+	 * @param height
+	 * @param nMeasurements
+	 * @param seed
+	 * @return
+	 */
+	public static PathObjectHierarchy createHierarchy(int nDetections, int width, int height, int nMeasurements, long seed) {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		hierarchy.addPathObjects(createAnnotationGrid(4, 4, width, height), false);
+		hierarchy.addPathObjects(createDetections(nDetections, width, height, nMeasurements, seed), false);
+		return hierarchy;
+	}
+	
+	/**
+	 * Get the name of a synthetic measurement.
+	 * 
+	 * @param ind
+	 * @return
+	 */
+	public static String getMeasurementName(int ind) {
+		if (ind < MEASUREMENT_NAMES.length)
+			return MEASUREMENT_NAMES[ind];
+		return "Measurement " + (ind + 1);
+	}
+
+}
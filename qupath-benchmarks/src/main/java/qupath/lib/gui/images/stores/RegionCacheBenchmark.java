@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Benchmark {@link DefaultRegionCache} when accessed by many threads at once, 
+ * as happens when the viewer & tile request threads are all busy.
+ * <p>
+ * Each call requests a random tile, and adds it to the cache if it was missing. 
+ * There are more tiles than the cache can hold, so some requests cause evictions.
+ * 
+ * @author Pete Bankhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RegionCacheBenchmark {
+	
+	private static final int TILE_SIZE = 256;
+	
+	private static final int CAPACITY = 1000;
+
+	/**
+	 * Number of segments in the cache; 1 corresponds to a single lock for the entire cache.
+	 */
+	@Param({"1", "16"})
+	public int nSegments;
+	
+	private DefaultRegionCache<BufferedImage> cache;
+	private RegionRequest[] requests;
+	private BufferedImage tile;
+	
+	@Setup
+	public void setup() {
+		long maxBytes = (long)CAPACITY * TILE_SIZE * TILE_SIZE * 4;
+		cache = new DefaultRegionCache<>(new BufferedImageSizeEstimator(), CAPACITY, maxBytes, nSegments);
+		// Share a single image between all entries - only the bookkeeping is of interest here
+		tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+		int nTilesPerSide = (int)Math.ceil(Math.sqrt(CAPACITY * 2));
+		requests = new RegionRequest[nTilesPerSide * nTilesPerSide];
+		int i = 0;
+		for (int y = 0; y < nTilesPerSide; y++) {
+			for (int x = 0; x < nTilesPerSide; x++) {
+				requests[i++] = RegionRequest.createInstance("synthetic", 1.0, x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+			}
+		}
+		for (i = 0; i < CAPACITY; i++)
+			cache.put(requests[i], tile);
+	}
+	
+	/**
+	 * Per-thread random number generator, so that threads don't contend for it.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadState {
+		
+		private Random random;
+		
+		@Setup
+		public void setup() {
+			random = new Random(Thread.currentThread().getId());
+		}
+		
+	}
+	
+	@Benchmark
+	public BufferedImage getOrPut(ThreadState state) {
+		RegionRequest request = requests[state.random.nextInt(requests.length)];
+		BufferedImage img = cache.get(request);
+		if (img == null) {
+			cache.put(request, tile);
+			return tile;
+		}
+		return img;
+	}
+
+}
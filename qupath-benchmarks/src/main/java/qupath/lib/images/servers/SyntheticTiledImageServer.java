@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * A tiled, pyramidal RGB image server that generates its pixels on request.
+ * <p>
+ * Pixel values depend only upon the pixel coordinates and resolution level, 
+ * so the same image is returned each time.
+ * 
+ * @author Pete Bankhead
+ */
+class SyntheticTiledImageServer extends AbstractTileableImageServer {
+	
+	private ImageServerMetadata originalMetadata;
+	
+	SyntheticTiledImageServer(int width, int height, int tileSize, double... downsamples) {
+		super();
+		this.originalMetadata = new ImageServerMetadata.Builder(getClass(), "synthetic://" + width + "x" + height, width, height)
+				.rgb(true)
+				.bitDepth(8)
+				.channels(ImageChannel.getDefaultRGBChannels())
+				.preferredTileSize(tileSize, tileSize)
+				.levelsFromDownsamples(downsamples)
+				.build();
+	}
+
+	@Override
+	protected BufferedImage readTile(TileRequest tileRequest) throws IOException {
+		int width = tileRequest.getTileWidth();
+		int height = tileRequest.getTileHeight();
+		int level = tileRequest.getLevel();
+		int x0 = tileRequest.getTileX();
+		int y0 = tileRequest.getTileY();
+		int[] rgb = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = (x0 + x) & 0xff;
+				int g = (y0 + y) & 0xff;
+				int b = (level * 64 + tileRequest.getZ()) & 0xff;
+				rgb[y * width + x] = (r << 16) | (g << 8) | b;
+			}
+		}
+		BufferedImage img = createDefaultRGBImage(width, height);
+		img.setRGB(0, 0, width, height, rgb, 0, width);
+		return img;
+	}
+
+	@Override
+	public String getServerType() {
+		return "Synthetic tiled image";
+	}
+
+	@Override
+	public ImageServerMetadata getOriginalMetadata() {
+		return originalMetadata;
+	}
+
+}
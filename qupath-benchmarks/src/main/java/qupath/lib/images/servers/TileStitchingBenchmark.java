@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Benchmark {@link AbstractTileableImageServer#readBufferedImage(RegionRequest)}, 
+ * where a region must be stitched together from multiple tiles (and possibly rescaled).
+ * <p>
+ * With {@code cached == true} all tiles are already cached, so the time is dominated by stitching; 
+ * otherwise, each tile is (synthetically) generated for every request.
+ * 
+ * @author Pete Bankhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileStitchingBenchmark {
+	
+	@Param({"1.0", "2.5", "4.0"})
+	public double downsample;
+	
+	@Param({"true", "false"})
+	public boolean cached;
+	
+	private Map<RegionRequest, BufferedImage> previousCache;
+	private SyntheticTiledImageServer server;
+	private RegionRequest request;
+	
+	@Setup
+	public void setup() throws IOException {
+		// The cache is set when the server is created, so needs to be in place first
+		previousCache = ImageServerProvider.getCache(BufferedImage.class);
+		ImageServerProvider.setCache(cached ? new ConcurrentHashMap<>() : null, BufferedImage.class);
+		server = new SyntheticTiledImageServer(20000, 20000, 256, 1, 4, 16);
+		// Request a region that is not aligned to tile boundaries, and spans many tiles
+		int size = (int)Math.round(1000 * downsample);
+		request = RegionRequest.createInstance(server.getPath(), downsample, 1000 + 17, 2000 + 31, size, size);
+		if (cached)
+			server.readBufferedImage(request);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		ImageServerProvider.setCache(previousCache, BufferedImage.class);
+	}
+	
+	@Benchmark
+	public BufferedImage readBufferedImage() throws IOException {
+		return server.readBufferedImage(request);
+	}
+
+}
@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.benchmarks.SyntheticData;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+/**
+ * Benchmark writing & reading data files with {@link PathIO}, using in-memory streams 
+ * so that disk performance doesn't influence the results.
+ * 
+ * @author Pete Bankhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathIOBenchmark {
+	
+	private static final int IMAGE_SIZE = 20000;
+	
+	@Param({"10000", "100000"})
+	public int nDetections;
+	
+	private ImageData<BufferedImage> imageData;
+	private byte[] bytes;
+	
+	@Setup
+	public void setup() throws IOException {
+		PathObjectHierarchy hierarchy = SyntheticData.createHierarchy(nDetections, IMAGE_SIZE, IMAGE_SIZE, 10, 100L);
+		imageData = new ImageData<>(null, hierarchy, ImageData.ImageType.BRIGHTFIELD_H_E);
+		bytes = write();
+	}
+	
+	private byte[] write() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes == null ? 1 << 20 : bytes.length);
+		PathIO.writeImageData(stream, imageData);
+		return stream.toByteArray();
+	}
+	
+	@Benchmark
+	public byte[] writeImageData() throws IOException {
+		return write();
+	}
+	
+	@Benchmark
+	public PathObjectHierarchy readHierarchy() throws IOException {
+		return PathIO.readHierarchy(new ByteArrayInputStream(bytes));
+	}
+	
+	@Benchmark
+	public PathObjectHierarchy roundTrip() throws IOException {
+		return PathIO.readHierarchy(new ByteArrayInputStream(write()));
+	}
+
+}
@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import qupath.lib.benchmarks.SyntheticData;
+
+/**
+ * Benchmark adding & retrieving values from numeric measurement lists, 
+ * as created by {@link MeasurementListFactory}.
+ * 
+ * @author Pete Bankhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeasurementListBenchmark {
+	
+	@Param({"FLOAT", "DOUBLE"})
+	public MeasurementList.TYPE type;
+	
+	@Param({"10", "50"})
+	public int nMeasurements;
+	
+	private String[] names;
+	private MeasurementList list;
+	
+	@Setup
+	public void setup() {
+		names = new String[nMeasurements];
+		for (int i = 0; i < nMeasurements; i++)
+			names[i] = SyntheticData.getMeasurementName(i);
+		list = createList();
+	}
+	
+	private MeasurementList createList() {
+		MeasurementList list = MeasurementListFactory.createMeasurementList(nMeasurements, type);
+		for (int i = 0; i < nMeasurements; i++)
+			list.putMeasurement(names[i], i);
+		list.close();
+		return list;
+	}
+	
+	@Benchmark
+	public MeasurementList putMeasurements() {
+		return createList();
+	}
+	
+	@Benchmark
+	public void getMeasurementsByName(Blackhole bh) {
+		for (String name : names)
+			bh.consume(list.getMeasurementValue(name));
+	}
+	
+	@Benchmark
+	public void getMeasurementsByIndex(Blackhole bh) {
+		int n = list.size();
+		for (int i = 0; i < n; i++)
+			bh.consume(list.getMeasurementValue(i));
+	}
+
+}
@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.benchmarks.SyntheticData;
+import qupath.lib.objects.PathObject;
+
+/**
+ * Benchmark {@link PathObjectHierarchy#addPathObjects(java.util.Collection, boolean)}, 
+ * adding detections to a hierarchy that already contains annotations (so that parents need to be resolved).
+ * <p>
+ * A new hierarchy & new detections are created before every invocation, so this is only suitable 
+ * for relatively large numbers of objects.
+ * 
+ * @author Pete Bankhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddPathObjectsBenchmark {
+	
+	private static final int IMAGE_SIZE = 20000;
+	
+	@Param({"10000", "100000"})
+	public int nDetections;
+	
+	private PathObjectHierarchy hierarchy;
+	private List<PathObject> detections;
+	
+	@Setup(Level.Invocation)
+	public void setup() {
+		hierarchy = new PathObjectHierarchy();
+		hierarchy.addPathObjects(SyntheticData.createAnnotationGrid(4, 4, IMAGE_SIZE, IMAGE_SIZE), false);
+		detections = SyntheticData.createDetections(nDetections, IMAGE_SIZE, IMAGE_SIZE, 0, 100L);
+	}
+	
+	@Benchmark
+	public PathObjectHierarchy addPathObjects() {
+		hierarchy.addPathObjects(detections, false);
+		return hierarchy;
+	}
+
+}
@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.benchmarks.SyntheticData;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Benchmark region queries using {@link PathObjectTileCache}, via {@link PathObjectHierarchy#getObjectsForRegion(Class, ImageRegion, java.util.Collection)}.
+ * <p>
+ * Query regions are approximately the size of a viewer, at different magnifications.
+ * 
+ * @author Pete Bankhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathObjectTileCacheBenchmark {
+	
+	private static final int IMAGE_SIZE = 50000;
+	
+	private static final int N_REGIONS = 256;
+	
+	@Param({"100000", "1000000"})
+	public int nDetections;
+	
+	@Param({"500", "5000"})
+	public int regionSize;
+	
+	private PathObjectHierarchy hierarchy;
+	private ImageRegion[] regions;
+	private int regionIndex = 0;
+	private List<PathObject> results = new ArrayList<>();
+	
+	@Setup
+	public void setup() {
+		hierarchy = SyntheticData.createHierarchy(nDetections, IMAGE_SIZE, IMAGE_SIZE, 0, 100L);
+		Random random = new Random(200L);
+		regions = new ImageRegion[N_REGIONS];
+		for (int i = 0; i < N_REGIONS; i++) {
+			int x = random.nextInt(IMAGE_SIZE - regionSize);
+			int y = random.nextInt(IMAGE_SIZE - regionSize);
+			regions[i] = ImageRegion.createInstance(x, y, regionSize, regionSize, 0, 0);
+		}
+		// Ensure the cache is constructed before timing begins
+		hierarchy.getObjectsForRegion(PathDetectionObject.class, regions[0], results);
+	}
+	
+	@Benchmark
+	public int getObjectsForRegion() {
+		ImageRegion region = regions[regionIndex++ % N_REGIONS];
+		results.clear();
+		hierarchy.getObjectsForRegion(PathDetectionObject.class, region, results);
+		return results.size();
+	}
+	
+	@Benchmark
+	public boolean hasObjectsForRegion() {
+		ImageRegion region = regions[regionIndex++ % N_REGIONS];
+		return hierarchy.hasObjectsForRegion(PathDetectionObject.class, region);
+	}
+
+}
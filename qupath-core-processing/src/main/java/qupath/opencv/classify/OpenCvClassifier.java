@@ -42,6 +42,7 @@ import java.util.Map;
 import qupath.lib.analysis.stats.RunningStatistics;
 import qupath.lib.classifiers.Normalization;
 import qupath.lib.classifiers.PathObjectClassifier;
+import qupath.lib.measurements.MeasurementColumns;
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.classes.PathClass;
@@ -294,18 +295,19 @@ public abstract class OpenCvClassifier<T extends StatModel> implements PathObjec
 
 		Mat results = new Mat();
 
+		// Get all the measurements at once, to avoid looking up names for every object
+		float[] values = MeasurementColumns.getFloatMatrix(pathObjects, measurements);
+		int offset = 0;
 		for (PathObject pathObject : pathObjects) {
-			MeasurementList measurementList = pathObject.getMeasurementList();
-			int idx = 0;
-			for (String m : measurements) {
-				double value = measurementList.getMeasurementValue(m);
+			for (int idx = 0; idx < array.length; idx++) {
+				double value = values[offset + idx];
 				
 				if (normScale != null && normOffset != null)
 					value = (value + normOffset[idx]) * normScale[idx];
 				
 				array[idx] = (float)value;
-				idx++;
 			}
+			offset += array.length;
 			
 //			FloatIndexer indexerSamples = samples.createIndexer();
 //			indexerSamples.put(0L, 0L, array);
@@ -36,6 +36,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -76,7 +77,10 @@ public class PathIO {
 	public static String readSerializedServerPath(final File file) throws FileNotFoundException, IOException, ClassNotFoundException {
 		String serverPath = null;
 		try (FileInputStream fileIn = new FileInputStream(file)) {
-			ObjectInputStream inStream = new ObjectInputStream(new BufferedInputStream(fileIn));
+			BufferedInputStream stream = new BufferedInputStream(fileIn);
+			if (QPDataFormat.isQPDataStream(stream))
+				return QPDataReader.readServerPath(stream);
+			ObjectInputStream inStream = new ObjectInputStream(stream);
 			// Check the first line, then read the server path if it is valid
 			String firstLine = inStream.readUTF();
 			if (firstLine.startsWith("Data file version")) {
@@ -91,8 +95,13 @@ public class PathIO {
 		if (file == null)
 			return null;
 		logger.info("Reading data from {}...", file.getName());
-		try (FileInputStream stream = new FileInputStream(file)) {
-			imageData = readImageDataSerialized(stream, imageData, server, cls);	
+		try (FileInputStream fileIn = new FileInputStream(file)) {
+			BufferedInputStream stream = new BufferedInputStream(fileIn, 1 << 16);
+			// Detections can be loaded lazily from binary files
+			if (QPDataFormat.isQPDataStream(stream))
+				imageData = readImageDataBinary(stream, imageData, server, cls, file.toPath());
+			else
+				imageData = readImageDataLegacy(stream, imageData, server, cls);
 			// Set the last saved path (actually the path from which this was opened)
 			if (imageData != null)
 				imageData.setLastSavedPath(file.getAbsolutePath(), true);
@@ -103,14 +112,45 @@ public class PathIO {
 		}
 	}
 	
-	@SuppressWarnings("unchecked")
 	private static <T> ImageData<T> readImageDataSerialized(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws IOException {
+		BufferedInputStream bufferedStream = new BufferedInputStream(stream, 1 << 16);
+		if (QPDataFormat.isQPDataStream(bufferedStream))
+			return readImageDataBinary(bufferedStream, imageData, server, cls, null);
+		return readImageDataLegacy(bufferedStream, imageData, server, cls);
+	}
+	
+	/**
+	 * Read ImageData in the binary format.
+	 * 
+	 * @param stream
+	 * @param imageData
+	 * @param server
+	 * @param cls
+	 * @param path if not null, detections will be loaded lazily from this file whenever they are needed
+	 * @return
+	 * @throws IOException
+	 */
+	private static <T> ImageData<T> readImageDataBinary(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls, Path path) throws IOException {
+		long startTime = System.currentTimeMillis();
+		try (InputStream inStream = stream) {
+			QPDataReader reader = new QPDataReader(inStream);
+			PathObjectHierarchy hierarchy = reader.readHierarchy(path);
+			imageData = updateImageData(imageData, server, cls, reader.getServerPath(), hierarchy,
+					reader.getImageType(), reader.getColorDeconvolutionStains(), reader.getWorkflow(), reader.getProperties());
+			long endTime = System.currentTimeMillis();
+			logger.debug(String.format("Hierarchy with %d object(s) read in %.2f seconds", hierarchy.nObjects(), (endTime - startTime)/1000.));
+		}
+		return imageData;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> ImageData<T> readImageDataLegacy(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws IOException {
 		
 		long startTime = System.currentTimeMillis();
 		Locale locale = Locale.getDefault(Category.FORMAT);
 		boolean localeChanged = false;
 
-		try (ObjectInputStream inStream = new ObjectInputStream(new BufferedInputStream(stream))) {
+		try (ObjectInputStream inStream = new ObjectInputStream(stream)) {
 			String serverPath = null;
 			PathObjectHierarchy hierarchy = null;
 			ImageData.ImageType imageType = null;
@@ -182,44 +222,12 @@ public class PathIO {
 				}
 			}
 
-			// Create an entirely new ImageData if necessary
-			if (imageData == null || !(imageData.getServer().equals(server) || imageData.getServerPath().equals(serverPath))) {
-				// Create a new server if we need to
-				if (server == null) {
-					try {
-						server = ImageServerProvider.buildServer(serverPath, cls);
-					} catch (Exception e) {
-						logger.error(e.getLocalizedMessage());
-					};
-					if (server == null) {
-						logger.error("Warning: Unable to create server for path " + serverPath);
-						//							throw new RuntimeException("Warning: Unable to create server for path " + serverPath);
-					}
-				}
-				// TODO: Make this less clumsy... but for now we need to ensure we have a fully-initialized hierarchy (which deserialization alone doesn't achieve)
-				PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
-				hierarchy2.setHierarchy(hierarchy);
-				hierarchy = hierarchy2;
-
-				imageData = new ImageData<>(server, hierarchy, imageType);
-			} else {
-				if (imageType != null)
-					imageData.setImageType(imageType);
-				// Set the new hierarchy
-				imageData.getHierarchy().setHierarchy(hierarchy);
-			}
-			// Set the other properties we have just read
-			if (workflow != null) {
-				imageData.getHistoryWorkflow().clear();
-				imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
-			}
-			if (stains != null) {
-				imageData.setColorDeconvolutionStains(stains);
-			}
-			if (propertyMap != null) {
-				for (Entry<String, Object> entry : propertyMap.entrySet())
-					imageData.setProperty(entry.getKey(), entry.getValue());
-			}
+			// TODO: Make this less clumsy... but for now we need to ensure we have a fully-initialized hierarchy (which deserialization alone doesn't achieve)
+			PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
+			hierarchy2.setHierarchy(hierarchy);
+			hierarchy = hierarchy2;
+			
+			imageData = updateImageData(imageData, server, cls, serverPath, hierarchy, imageType, stains, workflow, propertyMap);
 
 			long endTime = System.currentTimeMillis();
 
@@ -238,6 +246,46 @@ public class PathIO {
 		return imageData;
 	}
 	
+	/**
+	 * Update an existing ImageData with the contents read from a file, or create a new ImageData if necessary.
+	 */
+	private static <T> ImageData<T> updateImageData(ImageData<T> imageData, ImageServer<T> server, Class<T> cls, String serverPath, PathObjectHierarchy hierarchy,
+			ImageData.ImageType imageType, ColorDeconvolutionStains stains, Workflow workflow, Map<String, Object> propertyMap) {
+		// Create an entirely new ImageData if necessary
+		if (imageData == null || !(imageData.getServer().equals(server) || imageData.getServerPath().equals(serverPath))) {
+			// Create a new server if we need to
+			if (server == null) {
+				try {
+					server = ImageServerProvider.buildServer(serverPath, cls);
+				} catch (Exception e) {
+					logger.error(e.getLocalizedMessage());
+				};
+				if (server == null) {
+					logger.error("Warning: Unable to create server for path " + serverPath);
+				}
+			}
+			imageData = new ImageData<>(server, hierarchy, imageType);
+		} else {
+			if (imageType != null)
+				imageData.setImageType(imageType);
+			// Set the new hierarchy
+			imageData.getHierarchy().setHierarchy(hierarchy);
+		}
+		// Set the other properties we have just read
+		if (workflow != null) {
+			imageData.getHistoryWorkflow().clear();
+			imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
+		}
+		if (stains != null) {
+			imageData.setColorDeconvolutionStains(stains);
+		}
+		if (propertyMap != null) {
+			for (Entry<String, Object> entry : propertyMap.entrySet())
+				imageData.setProperty(entry.getKey(), entry.getValue());
+		}
+		return imageData;
+	}
+	
 	
 //	/**
 //	 * Test if a specified file can be identified as a zip file.
@@ -279,6 +327,9 @@ public class PathIO {
 	
 	/**
 	 * Read ImageData from a File into an existing ImageData object, or create a new one if required.
+	 * <p>
+	 * If the file uses the binary format, only annotations, TMA cores &amp; other non-detection objects are read immediately; 
+	 * detections are then loaded as they are requested from the hierarchy (e.g. for a specific region).
 	 * 
 	 * @param file
 	 * @param imageData
@@ -295,6 +346,9 @@ public class PathIO {
 	
 	/**
 	 * Write (binary) file containing ImageData for later use.
+	 * <p>
+	 * Since v0.2.0 this uses a compact, tiled binary format that can be read much faster than the previous
+	 * (Java serialization-based) format.  Files written using the previous format can still be read.
 	 * 
 	 * @param file
 	 * @param imageData
@@ -302,6 +356,9 @@ public class PathIO {
 	public static void writeImageData(final File file, final ImageData<?> imageData) throws FileNotFoundException, IOException {
 		File backup = null;
 		
+		// Ensure all objects have been read before the file is overwritten - since they might be read from the same file
+		imageData.getHierarchy().loadDeferredObjects();
+		
 		try (var stream = new FileOutputStream(file)) {
 
 			// Backup any existing file... just in case of disaster
@@ -311,7 +368,7 @@ public class PathIO {
 				fileCopy.renameTo(backup);
 			}
 			
-			writeImageDataSerialized(stream, imageData);
+			writeImageData(stream, imageData);
 			
 			// Remember the saved path
 			imageData.setLastSavedPath(file.getAbsolutePath(), true);
@@ -323,12 +380,26 @@ public class PathIO {
 	}
 	
 	
+	/**
+	 * Write ImageData to an OutputStream, using the binary format.  The stream will be closed on completion.
+	 * 
+	 * @param stream
+	 * @param imageData
+	 * @throws IOException
+	 */
 	public static void writeImageData(final OutputStream stream, final ImageData<?> imageData) throws IOException {
-		writeImageDataSerialized(stream, imageData);
+		new QPDataWriter().writeImageData(stream, imageData);
 	}
 	
 
-	private static void writeImageDataSerialized(final OutputStream stream, final ImageData<?> imageData) throws IOException {
+	/**
+	 * Write ImageData using Java serialization, as used before the introduction of the binary format.
+	 * 
+	 * @param stream
+	 * @param imageData
+	 * @throws IOException
+	 */
+	static void writeImageDataSerialized(final OutputStream stream, final ImageData<?> imageData) throws IOException {
 				
 		try (OutputStream outputStream = new BufferedOutputStream(stream)) {
 			long startTime = System.currentTimeMillis();
@@ -401,10 +472,17 @@ public class PathIO {
 	 */
 	public static PathObjectHierarchy readHierarchy(final InputStream fileIn) throws IOException {
 
+		BufferedInputStream stream = new BufferedInputStream(fileIn, 1 << 16);
+		if (QPDataFormat.isQPDataStream(stream)) {
+			try (InputStream inStream = stream) {
+				return new QPDataReader(inStream).readHierarchy();
+			}
+		}
+		
 		Locale locale = Locale.getDefault(Category.FORMAT);
 		boolean localeChanged = false;
 
-		try (ObjectInputStream inStream = new ObjectInputStream(new BufferedInputStream(fileIn))) {
+		try (ObjectInputStream inStream = new ObjectInputStream(stream)) {
 			if (!inStream.readUTF().startsWith("Data file version")) {
 				logger.error("Input stream is not from a valid QuPath data file!");
 			}
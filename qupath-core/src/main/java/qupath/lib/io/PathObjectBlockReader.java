@@ -0,0 +1,474 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathRootObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Helper class to decode blocks of PathObjects written by a {@link PathObjectBlockWriter}.
+ * <p>
+ * Strings are shared between all blocks read by the same reader, so that (for example) measurement names
+ * are only stored once in memory.
+ * 
+ * @author Pete Bankhead
+ * 
+ * @see PathObjectBlockWriter
+ */
+class PathObjectBlockReader {
+
+	final private static Logger logger = LoggerFactory.getLogger(PathObjectBlockReader.class);
+
+	private Map<String, String> stringPool = new ConcurrentHashMap<>();
+
+	/**
+	 * Objects decoded from a single block, along with references to their parents.
+	 */
+	static class Block {
+
+		final PathObject[] objects;
+		final int[] parents;
+
+		private Block(int n) {
+			objects = new PathObject[n];
+			parents = new int[n];
+		}
+
+		/**
+		 * Add all objects in this block to their parents.
+		 * 
+		 * @param baseObjects objects in the base block (i.e. the one including the root object), or null if this is the base block
+		 */
+		void attachToParents(final PathObject[] baseObjects) {
+			for (int i = 0; i < objects.length; i++) {
+				int ref = parents[i];
+				PathObject parent;
+				if (ref < 0)
+					parent = objects[-(ref + 1)];
+				else if (baseObjects == null)
+					parent = ref == i ? null : objects[ref];
+				else
+					parent = baseObjects[ref];
+				if (parent != null && objects[i] != null)
+					parent.addPathObject(objects[i]);
+			}
+		}
+
+	}
+
+
+	/**
+	 * Read a block from a stream.
+	 * 
+	 * @param in
+	 * @param rootObject existing root object that should be used for any root object within the block (may be null)
+	 * @return
+	 * @throws IOException
+	 */
+	Block readBlock(final DataInputStream in, final PathObject rootObject) throws IOException {
+		int nObjects = in.readInt();
+		int[] lengths = new int[QPDataFormat.N_SECTIONS];
+		int total = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			lengths[i] = in.readInt();
+			total += lengths[i];
+		}
+		byte[] bytes = new byte[total];
+		in.readFully(bytes);
+		return readBlock(nObjects, lengths, ByteBuffer.wrap(bytes), rootObject);
+	}
+
+	/**
+	 * Read a block from a byte array, including the number of objects &amp; section lengths.
+	 * 
+	 * @param bytes
+	 * @param rootObject
+	 * @return
+	 * @throws IOException
+	 */
+	Block readBlock(final byte[] bytes, final PathObject rootObject) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int nObjects = buffer.getInt();
+		int[] lengths = new int[QPDataFormat.N_SECTIONS];
+		for (int i = 0; i < lengths.length; i++)
+			lengths[i] = buffer.getInt();
+		return readBlock(nObjects, lengths, buffer.slice(), rootObject);
+	}
+
+
+	private Block readBlock(final int nObjects, final int[] lengths, final ByteBuffer buffer, final PathObject rootObject) throws IOException {
+		ByteBuffer[] sections = new ByteBuffer[lengths.length];
+		int pos = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			ByteBuffer section = buffer.duplicate();
+			section.position(pos);
+			section.limit(pos + lengths[i]);
+			sections[i] = section.slice();
+			pos += lengths[i];
+		}
+
+		String[] strings = readStrings(sections[QPDataFormat.SECTION_STRINGS]);
+		PathClass[] pathClasses = readPathClasses(sections[QPDataFormat.SECTION_CLASSES], strings);
+		Schema[] schemas = readSchemas(sections[QPDataFormat.SECTION_SCHEMAS], strings);
+
+		ByteBuffer types = sections[QPDataFormat.SECTION_TYPES];
+		ByteBuffer parents = sections[QPDataFormat.SECTION_PARENTS];
+		ByteBuffer classes = sections[QPDataFormat.SECTION_PATH_CLASSES];
+		ByteBuffer probabilities = sections[QPDataFormat.SECTION_PROBABILITIES];
+		ByteBuffer flagsBuffer = sections[QPDataFormat.SECTION_FLAGS];
+		ByteBuffer sparse = sections[QPDataFormat.SECTION_SPARSE];
+		ByteBuffer measurements = sections[QPDataFormat.SECTION_MEASUREMENTS];
+		ByteBuffer values = sections[QPDataFormat.SECTION_MEASUREMENT_VALUES];
+		RoiReader roiReader = new RoiReader(sections);
+
+		Block block = new Block(nObjects);
+		for (int i = 0; i < nObjects; i++) {
+			byte type = types.get();
+			block.parents[i] = parents.getInt();
+			int classIndex = classes.getInt();
+			PathClass pathClass = classIndex < 0 ? null : pathClasses[classIndex];
+			double probability = probabilities.getFloat();
+			byte flags = flagsBuffer.get();
+
+			String name = (flags & QPDataFormat.FLAG_NAME) != 0 ? strings[sparse.getInt()] : null;
+			Integer color = (flags & QPDataFormat.FLAG_COLOR) != 0 ? Integer.valueOf(sparse.getInt()) : null;
+			String[] metadata = null;
+			if ((flags & QPDataFormat.FLAG_METADATA) != 0) {
+				int n = sparse.getInt();
+				metadata = new String[n * 2];
+				for (int j = 0; j < metadata.length; j++) {
+					int ind = sparse.getInt();
+					metadata[j] = ind < 0 ? null : strings[ind];
+				}
+			}
+
+			ROI roi = roiReader.readROI();
+			ROI nucleus = (flags & QPDataFormat.FLAG_NUCLEUS) != 0 ? roiReader.readROI() : null;
+
+			MeasurementList list = null;
+			int schemaIndex = measurements.getInt();
+			if (schemaIndex >= 0) {
+				boolean isDetection = type == QPDataFormat.TYPE_DETECTION || type == QPDataFormat.TYPE_CELL || type == QPDataFormat.TYPE_TILE;
+				list = schemas[schemaIndex].createNextList(values, isDetection);
+			}
+
+			PathObject pathObject;
+			switch (type) {
+			case QPDataFormat.TYPE_ROOT:
+				pathObject = rootObject == null ? new PathRootObject() : rootObject;
+				if (list != null)
+					addMeasurements(pathObject, list);
+				break;
+			case QPDataFormat.TYPE_ANNOTATION:
+				pathObject = PathObjects.createAnnotationObject(roi, pathClass, list);
+				break;
+			case QPDataFormat.TYPE_DETECTION:
+				pathObject = PathObjects.createDetectionObject(roi, pathClass, list);
+				break;
+			case QPDataFormat.TYPE_CELL:
+				pathObject = PathObjects.createCellObject(roi, nucleus, pathClass, list);
+				break;
+			case QPDataFormat.TYPE_TILE:
+				pathObject = PathObjects.createTileObject(roi, pathClass, list);
+				break;
+			case QPDataFormat.TYPE_TMA_CORE:
+				TMACoreObject core = new TMACoreObject();
+				core.setROI(roi);
+				core.setMissing((flags & QPDataFormat.FLAG_MISSING) != 0);
+				if (list != null)
+					addMeasurements(core, list);
+				pathObject = core;
+				break;
+			case QPDataFormat.TYPE_SERIALIZED:
+				pathObject = (PathObject)roiReader.readBlob();
+				block.objects[i] = pathObject;
+				continue;
+			default:
+				throw new IOException("Unknown object type " + type);
+			}
+
+			if (type != QPDataFormat.TYPE_ROOT) {
+				if (pathClass != null || !Double.isNaN(probability))
+					pathObject.setPathClass(pathClass, probability);
+				if ((flags & QPDataFormat.FLAG_LOCKED) != 0)
+					pathObject.setLocked(true);
+			}
+			if (name != null)
+				pathObject.setName(name);
+			// Set color after classification, since setting a classification resets the color
+			if (color != null)
+				pathObject.setColorRGB(color);
+			if (metadata != null) {
+				for (int j = 0; j < metadata.length; j += 2) {
+					if (metadata[j] == null && pathObject instanceof PathAnnotationObject)
+						((PathAnnotationObject)pathObject).setDescription(metadata[j+1]);
+					else if (pathObject instanceof TMACoreObject)
+						((TMACoreObject)pathObject).putMetadataValue(metadata[j], metadata[j+1]);
+				}
+			}
+			block.objects[i] = pathObject;
+		}
+		return block;
+	}
+
+
+	private static void addMeasurements(final PathObject pathObject, final MeasurementList list) {
+		MeasurementList target = pathObject.getMeasurementList();
+		for (int i = 0; i < list.size(); i++)
+			target.putMeasurement(list.getMeasurementName(i), list.getMeasurementValue(i));
+		target.close();
+	}
+
+
+	private String[] readStrings(final ByteBuffer buffer) {
+		int n = buffer.getInt();
+		String[] strings = new String[n];
+		for (int i = 0; i < n; i++) {
+			int length = buffer.getInt();
+			if (length < 0)
+				continue;
+			String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			String existing = stringPool.putIfAbsent(s, s);
+			strings[i] = existing == null ? s : existing;
+		}
+		return strings;
+	}
+
+	private static PathClass[] readPathClasses(final ByteBuffer buffer, final String[] strings) {
+		int n = buffer.getInt();
+		PathClass[] pathClasses = new PathClass[n];
+		for (int i = 0; i < n; i++) {
+			int parentIndex = buffer.getInt();
+			String name = strings[buffer.getInt()];
+			boolean hasColor = buffer.get() != 0;
+			int color = buffer.getInt();
+			PathClass parent = parentIndex < 0 ? null : pathClasses[parentIndex];
+			pathClasses[i] = PathClassFactory.getDerivedPathClass(parent, name, hasColor ? Integer.valueOf(color) : null);
+		}
+		return pathClasses;
+	}
+
+	private static Schema[] readSchemas(final ByteBuffer buffer, final String[] strings) {
+		int n = buffer.getInt();
+		Schema[] schemas = new Schema[n];
+		int offset = 0;
+		for (int i = 0; i < n; i++) {
+			byte kind = buffer.get();
+			int nRows = buffer.getInt();
+			int nNames = buffer.getInt();
+			List<String> names = new ArrayList<>(nNames);
+			for (int j = 0; j < nNames; j++)
+				names.add(strings[buffer.getInt()]);
+			schemas[i] = new Schema(kind, nRows, Collections.unmodifiableList(names), offset);
+			offset += nRows * nNames * (kind == QPDataFormat.MEASUREMENTS_FLOAT ? 4 : 8);
+		}
+		return schemas;
+	}
+
+
+	/**
+	 * Measurement names &amp; the location of the (column-ordered) values for all objects using these names.
+	 * <p>
+	 * Columns are decoded in full when first needed, since reading values for one object at a time
+	 * directly from the column-ordered buffer would be very cache-unfriendly.
+	 */
+	private static class Schema {
+
+		private final byte kind;
+		private final int nRows;
+		private final List<String> names;
+		private final int offset;
+
+		private float[][] floatColumns;
+		private double[][] doubleColumns;
+		private int row = 0;
+
+		Schema(final byte kind, final int nRows, final List<String> names, final int offset) {
+			this.kind = kind;
+			this.nRows = nRows;
+			this.names = names;
+			this.offset = offset;
+		}
+
+		private void decodeColumns(final ByteBuffer values) {
+			int n = names.size();
+			ByteBuffer buffer = values.duplicate();
+			buffer.position(offset);
+			if (kind == QPDataFormat.MEASUREMENTS_FLOAT) {
+				floatColumns = new float[n][nRows];
+				var floatBuffer = buffer.asFloatBuffer();
+				for (int c = 0; c < n; c++)
+					floatBuffer.get(floatColumns[c]);
+			} else {
+				doubleColumns = new double[n][nRows];
+				var doubleBuffer = buffer.asDoubleBuffer();
+				for (int c = 0; c < n; c++)
+					doubleBuffer.get(doubleColumns[c]);
+			}
+		}
+
+		MeasurementList createNextList(final ByteBuffer values, final boolean isDetection) {
+			if (floatColumns == null && doubleColumns == null)
+				decodeColumns(values);
+			int n = names.size();
+			MeasurementList list;
+			if (kind == QPDataFormat.MEASUREMENTS_FLOAT) {
+				list = MeasurementListFactory.createMeasurementList(n, MeasurementList.TYPE.FLOAT);
+				for (int c = 0; c < n; c++)
+					list.addMeasurement(names.get(c), floatColumns[c][row]);
+			} else {
+				list = MeasurementListFactory.createMeasurementList(n, isDetection ? MeasurementList.TYPE.DOUBLE : MeasurementList.TYPE.GENERAL);
+				for (int c = 0; c < n; c++)
+					list.addMeasurement(names.get(c), doubleColumns[c][row]);
+			}
+			list.close();
+			row++;
+			return list;
+		}
+
+	}
+
+
+	/**
+	 * Read ROIs from the ROI sections of a block.
+	 */
+	private static class RoiReader {
+
+		private ByteBuffer info, doubles, floats, segments, blobs;
+
+		RoiReader(final ByteBuffer[] sections) {
+			info = sections[QPDataFormat.SECTION_ROI_INFO];
+			doubles = sections[QPDataFormat.SECTION_ROI_DOUBLES];
+			floats = sections[QPDataFormat.SECTION_ROI_FLOATS];
+			segments = sections[QPDataFormat.SECTION_ROI_SEGMENTS];
+			blobs = sections[QPDataFormat.SECTION_BLOBS];
+		}
+
+		ROI readROI() throws IOException {
+			byte type = info.get();
+			if (type == QPDataFormat.ROI_NONE)
+				return null;
+			ImagePlane plane = ImagePlane.getPlaneWithChannel(info.getInt(), info.getInt(), info.getInt());
+			switch (type) {
+			case QPDataFormat.ROI_RECTANGLE:
+				return ROIs.createRectangleROI(doubles.getDouble(), doubles.getDouble(), doubles.getDouble(), doubles.getDouble(), plane);
+			case QPDataFormat.ROI_ELLIPSE:
+				return ROIs.createEllipseROI(doubles.getDouble(), doubles.getDouble(), doubles.getDouble(), doubles.getDouble(), plane);
+			case QPDataFormat.ROI_LINE:
+				return ROIs.createLineROI(doubles.getDouble(), doubles.getDouble(), doubles.getDouble(), doubles.getDouble(), plane);
+			case QPDataFormat.ROI_POLYGON:
+			case QPDataFormat.ROI_POLYLINE:
+			case QPDataFormat.ROI_POINTS:
+				int n = info.getInt();
+				float[] x = readFloats(n);
+				float[] y = readFloats(n);
+				if (type == QPDataFormat.ROI_POLYGON)
+					return ROIs.createPolygonROI(x, y, plane);
+				if (type == QPDataFormat.ROI_POLYLINE)
+					return ROIs.createPolylineROI(x, y, plane);
+				return ROIs.createPointsROI(x, y, plane);
+			case QPDataFormat.ROI_AREA:
+				int windingRule = info.get();
+				int nSegments = info.getInt();
+				Path2D path = new Path2D.Float(windingRule, nSegments);
+				for (int i = 0; i < nSegments; i++) {
+					int segment = segments.get();
+					switch (segment) {
+					case PathIterator.SEG_MOVETO:
+						path.moveTo(floats.getFloat(), floats.getFloat());
+						break;
+					case PathIterator.SEG_LINETO:
+						path.lineTo(floats.getFloat(), floats.getFloat());
+						break;
+					case PathIterator.SEG_QUADTO:
+						path.quadTo(floats.getFloat(), floats.getFloat(), floats.getFloat(), floats.getFloat());
+						break;
+					case PathIterator.SEG_CUBICTO:
+						path.curveTo(floats.getFloat(), floats.getFloat(), floats.getFloat(), floats.getFloat(), floats.getFloat(), floats.getFloat());
+						break;
+					case PathIterator.SEG_CLOSE:
+						path.closePath();
+						break;
+					default:
+						throw new IOException("Unknown path segment type " + segment);
+					}
+				}
+				return ROIs.createAreaROI(path, plane);
+			case QPDataFormat.ROI_SERIALIZED:
+				return (ROI)readBlob();
+			default:
+				throw new IOException("Unknown ROI type " + type);
+			}
+		}
+
+		private float[] readFloats(final int n) {
+			float[] values = new float[n];
+			floats.asFloatBuffer().get(values);
+			floats.position(floats.position() + n * 4);
+			return values;
+		}
+
+		Object readBlob() throws IOException {
+			int length = blobs.getInt();
+			var stream = new ByteArrayInputStream(blobs.array(), blobs.arrayOffset() + blobs.position(), length);
+			blobs.position(blobs.position() + length);
+			try (var in = new ObjectInputStream(stream)) {
+				return in.readObject();
+			} catch (ClassNotFoundException e) {
+				logger.error("Unable to find class", e);
+				return null;
+			}
+		}
+
+	}
+
+}
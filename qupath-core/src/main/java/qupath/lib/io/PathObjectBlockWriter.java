@@ -0,0 +1,642 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.awt.geom.PathIterator;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.objects.MetadataStore;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathRootObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.roi.AreaROI;
+import qupath.lib.roi.EllipseROI;
+import qupath.lib.roi.LineROI;
+import qupath.lib.roi.PointsROI;
+import qupath.lib.roi.PolygonROI;
+import qupath.lib.roi.PolylineROI;
+import qupath.lib.roi.ROIHelpers;
+import qupath.lib.roi.RectangleROI;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Helper class to encode a block of PathObjects in a columnar, binary form.
+ * <p>
+ * Objects are added one at a time (parents before children), and the encoded block can then be written
+ * with {@link #writeTo(DataOutputStream)}.  Strings (e.g. names, measurement names), classifications and
+ * measurement lists with the same names are pooled within the block.
+ * <p>
+ * Each object is referenced to its parent with an integer: values &ge; 0 are indices into the
+ * block containing the root object, while negative values {@code -(i+1)} refer to object {@code i}
+ * within the current block.
+ * 
+ * @author Pete Bankhead
+ * 
+ * @see PathObjectBlockReader
+ */
+class PathObjectBlockWriter {
+
+	private Section[] sections = new Section[QPDataFormat.N_SECTIONS];
+
+	private Map<String, Integer> strings = new HashMap<>();
+	private List<String> stringList = new ArrayList<>();
+
+	private Map<PathClass, Integer> pathClasses = new IdentityHashMap<>();
+	private List<PathClass> pathClassList = new ArrayList<>();
+
+	private Map<MeasurementSchema, MeasurementSchema> schemas = new HashMap<>();
+	private List<MeasurementSchema> schemaList = new ArrayList<>();
+
+	private int nObjects = 0;
+	private int typeMask = 0;
+	private final SortedSet<Integer> baseParentRefs = new TreeSet<>();
+	private boolean finished = false;
+
+	private double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+	PathObjectBlockWriter() {
+		for (int i = 0; i < sections.length; i++)
+			sections[i] = new Section(1024);
+	}
+
+	/**
+	 * Get the number of objects added to the block.
+	 * @return
+	 */
+	int nObjects() {
+		return nObjects;
+	}
+
+	/**
+	 * Get a mask with bit {@code (1 << type)} set for each object type added to the block.
+	 * @return
+	 * @see QPDataFormat#TYPE_ROOT
+	 */
+	int getTypeMask() {
+		return typeMask;
+	}
+
+	/**
+	 * Get the parent references that refer to objects outside the block (i.e. in the base block), in ascending order.
+	 * @return
+	 */
+	int[] getBaseParentRefs() {
+		return baseParentRefs.stream().mapToInt(i -> i).toArray();
+	}
+
+	double getMinX() {
+		return minX;
+	}
+
+	double getMinY() {
+		return minY;
+	}
+
+	double getMaxX() {
+		return maxX;
+	}
+
+	double getMaxY() {
+		return maxY;
+	}
+
+	/**
+	 * Add an object to the block.  Child objects are not added, unless the object needs to be
+	 * stored using Java serialization (in which case the children are included automatically).
+	 * 
+	 * @param pathObject
+	 * @param parentRef reference to the parent object, see class description
+	 * @return true if the child objects were already included, and so should not be added separately
+	 * @throws IOException
+	 */
+	boolean addObject(final PathObject pathObject, final int parentRef) throws IOException {
+		if (finished)
+			throw new IllegalStateException("Cannot add objects after the block has been finished!");
+		byte type = getType(pathObject);
+		nObjects++;
+		typeMask |= 1 << type;
+		if (parentRef >= 0)
+			baseParentRefs.add(parentRef);
+
+		sections[QPDataFormat.SECTION_TYPES].putByte(type);
+		sections[QPDataFormat.SECTION_PARENTS].putInt(parentRef);
+
+		if (type == QPDataFormat.TYPE_SERIALIZED) {
+			sections[QPDataFormat.SECTION_PATH_CLASSES].putInt(-1);
+			sections[QPDataFormat.SECTION_PROBABILITIES].putFloat(Float.NaN);
+			sections[QPDataFormat.SECTION_FLAGS].putByte((byte)0);
+			sections[QPDataFormat.SECTION_MEASUREMENTS].putInt(-1);
+			writeROI(null);
+			writeBlob(pathObject);
+			updateBounds(pathObject.getROI());
+			return true;
+		}
+
+		PathClass pathClass = type == QPDataFormat.TYPE_ROOT ? null : pathObject.getPathClass();
+		sections[QPDataFormat.SECTION_PATH_CLASSES].putInt(getPathClassIndex(pathClass));
+		sections[QPDataFormat.SECTION_PROBABILITIES].putFloat((float)pathObject.getClassProbability());
+
+		// Flags & sparse values
+		String name = pathObject.getName();
+		Integer color = pathObject.getColorRGB();
+		Map<String, String> metadata = pathObject instanceof MetadataStore ? ((MetadataStore)pathObject).getMetadataMap() : null;
+		String description = pathObject instanceof PathAnnotationObject ? ((PathAnnotationObject)pathObject).getDescription() : null;
+		ROI nucleus = pathObject instanceof PathCellObject ? ((PathCellObject)pathObject).getNucleusROI() : null;
+
+		byte flags = 0;
+		if (type != QPDataFormat.TYPE_ROOT && pathObject.isLocked())
+			flags |= QPDataFormat.FLAG_LOCKED;
+		if (name != null)
+			flags |= QPDataFormat.FLAG_NAME;
+		if (color != null)
+			flags |= QPDataFormat.FLAG_COLOR;
+		if ((metadata != null && !metadata.isEmpty()) || description != null)
+			flags |= QPDataFormat.FLAG_METADATA;
+		if (nucleus != null)
+			flags |= QPDataFormat.FLAG_NUCLEUS;
+		if (pathObject instanceof TMACoreObject && ((TMACoreObject)pathObject).isMissing())
+			flags |= QPDataFormat.FLAG_MISSING;
+		sections[QPDataFormat.SECTION_FLAGS].putByte(flags);
+
+		Section sparse = sections[QPDataFormat.SECTION_SPARSE];
+		if (name != null)
+			sparse.putInt(getStringIndex(name));
+		if (color != null)
+			sparse.putInt(color.intValue());
+		if ((flags & QPDataFormat.FLAG_METADATA) != 0) {
+			if (description != null) {
+				sparse.putInt(1);
+				sparse.putInt(getStringIndex(null));
+				sparse.putInt(getStringIndex(description));
+			} else {
+				sparse.putInt(metadata.size());
+				for (var entry : metadata.entrySet()) {
+					sparse.putInt(getStringIndex(entry.getKey()));
+					sparse.putInt(getStringIndex(entry.getValue()));
+				}
+			}
+		}
+
+		// ROIs
+		ROI roi = pathObject.getROI();
+		writeROI(roi);
+		updateBounds(roi);
+		if (nucleus != null)
+			writeROI(nucleus);
+
+		// Measurements
+		writeMeasurements(pathObject);
+		return false;
+	}
+
+
+	/**
+	 * Write the encoded block, i.e. the number of objects, the length of each section &amp; then the sections themselves.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeTo(final DataOutputStream out) throws IOException {
+		finish();
+		out.writeInt(nObjects);
+		for (Section section : sections)
+			out.writeInt(section.size());
+		for (Section section : sections)
+			section.writeTo(out);
+	}
+
+	/**
+	 * Get the total number of bytes that will be written by {@link #writeTo(DataOutputStream)}.
+	 * <p>
+	 * Note that this calls {@link #finish()}, so no more objects may be added afterwards.
+	 * 
+	 * @return
+	 */
+	int getLength() {
+		finish();
+		int length = 4 + 4 * sections.length;
+		for (Section section : sections)
+			length += section.size();
+		return length;
+	}
+
+	/**
+	 * Finish encoding, so that the lengths of all sections are known.  No more objects may be added after this.
+	 */
+	void finish() {
+		if (finished)
+			return;
+		// Strings need to be written last, since they may be added when writing classes & schemas
+		writePathClasses();
+		writeSchemas();
+		writeStrings();
+		finished = true;
+	}
+
+
+	private void updateBounds(final ROI roi) {
+		if (roi == null || Double.isNaN(roi.getBoundsX()))
+			return;
+		minX = Math.min(minX, roi.getBoundsX());
+		minY = Math.min(minY, roi.getBoundsY());
+		maxX = Math.max(maxX, roi.getBoundsX() + roi.getBoundsWidth());
+		maxY = Math.max(maxY, roi.getBoundsY() + roi.getBoundsHeight());
+	}
+
+	private void writeStrings() {
+		Section section = sections[QPDataFormat.SECTION_STRINGS];
+		section.putInt(stringList.size());
+		for (String s : stringList) {
+			if (s == null) {
+				section.putInt(-1);
+				continue;
+			}
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			section.putInt(bytes.length);
+			section.putBytes(bytes);
+		}
+	}
+
+	private void writePathClasses() {
+		Section section = sections[QPDataFormat.SECTION_CLASSES];
+		section.putInt(pathClassList.size());
+		for (PathClass pathClass : pathClassList) {
+			PathClass parent = pathClass.getParentClass();
+			section.putInt(parent == null ? -1 : pathClasses.get(parent));
+			section.putInt(getStringIndex(pathClass.getName()));
+			Integer color = pathClass.getColor();
+			section.putByte(color == null ? (byte)0 : (byte)1);
+			section.putInt(color == null ? 0 : color.intValue());
+		}
+	}
+
+	private void writeSchemas() {
+		Section section = sections[QPDataFormat.SECTION_SCHEMAS];
+		section.putInt(schemaList.size());
+		Section values = sections[QPDataFormat.SECTION_MEASUREMENT_VALUES];
+		for (MeasurementSchema schema : schemaList) {
+			section.putByte(schema.kind);
+			section.putInt(schema.nRows);
+			section.putInt(schema.names.length);
+			for (String name : schema.names)
+				section.putInt(getStringIndex(name));
+			schema.writeColumns(values);
+		}
+	}
+
+	private int getStringIndex(final String s) {
+		Integer ind = strings.get(s);
+		if (ind == null) {
+			ind = stringList.size();
+			strings.put(s, ind);
+			stringList.add(s);
+		}
+		return ind;
+	}
+
+	private int getPathClassIndex(final PathClass pathClass) {
+		if (pathClass == null)
+			return -1;
+		Integer ind = pathClasses.get(pathClass);
+		if (ind == null) {
+			// Ensure parents are always written first
+			if (pathClass.getParentClass() != null)
+				getPathClassIndex(pathClass.getParentClass());
+			getStringIndex(pathClass.getName());
+			ind = pathClassList.size();
+			pathClasses.put(pathClass, ind);
+			pathClassList.add(pathClass);
+		}
+		return ind;
+	}
+
+	private void writeMeasurements(final PathObject pathObject) {
+		Section section = sections[QPDataFormat.SECTION_MEASUREMENTS];
+		if (!pathObject.hasMeasurements()) {
+			section.putInt(-1);
+			return;
+		}
+		MeasurementList list = pathObject.getMeasurementList();
+		int n = list.size();
+		// Use float values for detections, as this is the default (and most common) in QuPath
+		byte kind = pathObject.isDetection() && !list.supportsDynamicMeasurements() ?
+				QPDataFormat.MEASUREMENTS_FLOAT : QPDataFormat.MEASUREMENTS_DOUBLE;
+		MeasurementSchema schema = new MeasurementSchema(kind, list.getMeasurementNames().toArray(String[]::new));
+		MeasurementSchema existing = schemas.get(schema);
+		if (existing == null) {
+			schema.index = schemaList.size();
+			schemas.put(schema, schema);
+			schemaList.add(schema);
+			for (String name : schema.names)
+				getStringIndex(name);
+		} else
+			schema = existing;
+		section.putInt(schema.index);
+		schema.addRow(list, n);
+	}
+
+
+	private void writeBlob(final Object object) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try (var stream = new ObjectOutputStream(bytes)) {
+			stream.writeObject(object);
+		}
+		Section section = sections[QPDataFormat.SECTION_BLOBS];
+		section.putInt(bytes.size());
+		section.putBytes(bytes.toByteArray());
+	}
+
+
+	private void writeROI(final ROI roi) throws IOException {
+		Section info = sections[QPDataFormat.SECTION_ROI_INFO];
+		byte type = getRoiType(roi);
+		info.putByte(type);
+		if (type == QPDataFormat.ROI_NONE)
+			return;
+		info.putInt(roi.getC());
+		info.putInt(roi.getZ());
+		info.putInt(roi.getT());
+		Section doubles = sections[QPDataFormat.SECTION_ROI_DOUBLES];
+		Section floats = sections[QPDataFormat.SECTION_ROI_FLOATS];
+		switch (type) {
+		case QPDataFormat.ROI_RECTANGLE:
+		case QPDataFormat.ROI_ELLIPSE:
+			doubles.putDouble(roi.getBoundsX());
+			doubles.putDouble(roi.getBoundsY());
+			doubles.putDouble(roi.getBoundsWidth());
+			doubles.putDouble(roi.getBoundsHeight());
+			break;
+		case QPDataFormat.ROI_LINE:
+			LineROI line = (LineROI)roi;
+			doubles.putDouble(line.getX1());
+			doubles.putDouble(line.getY1());
+			doubles.putDouble(line.getX2());
+			doubles.putDouble(line.getY2());
+			break;
+		case QPDataFormat.ROI_POLYGON:
+		case QPDataFormat.ROI_POLYLINE:
+		case QPDataFormat.ROI_POINTS:
+			float[] x = ROIHelpers.getVerticesX(roi);
+			float[] y = ROIHelpers.getVerticesY(roi);
+			info.putInt(x.length);
+			floats.putFloats(x);
+			floats.putFloats(y);
+			break;
+		case QPDataFormat.ROI_AREA:
+			Section segments = sections[QPDataFormat.SECTION_ROI_SEGMENTS];
+			PathIterator iterator = roi.getShape().getPathIterator(null);
+			info.putByte((byte)iterator.getWindingRule());
+			int startPos = info.size();
+			info.putInt(0);
+			int nSegments = 0;
+			float[] coords = new float[6];
+			while (!iterator.isDone()) {
+				int segment = iterator.currentSegment(coords);
+				segments.putByte((byte)segment);
+				floats.putFloats(coords, nCoordinates(segment));
+				nSegments++;
+				iterator.next();
+			}
+			info.putInt(startPos, nSegments);
+			break;
+		case QPDataFormat.ROI_SERIALIZED:
+		default:
+			writeBlob(roi);
+		}
+	}
+
+	static int nCoordinates(final int segmentType) {
+		switch (segmentType) {
+		case PathIterator.SEG_MOVETO:
+		case PathIterator.SEG_LINETO:
+			return 2;
+		case PathIterator.SEG_QUADTO:
+			return 4;
+		case PathIterator.SEG_CUBICTO:
+			return 6;
+		case PathIterator.SEG_CLOSE:
+		default:
+			return 0;
+		}
+	}
+
+	private static byte getRoiType(final ROI roi) {
+		if (roi == null)
+			return QPDataFormat.ROI_NONE;
+		Class<?> cls = roi.getClass();
+		if (cls == RectangleROI.class)
+			return QPDataFormat.ROI_RECTANGLE;
+		if (cls == EllipseROI.class)
+			return QPDataFormat.ROI_ELLIPSE;
+		if (cls == LineROI.class)
+			return QPDataFormat.ROI_LINE;
+		if (cls == PolygonROI.class)
+			return QPDataFormat.ROI_POLYGON;
+		if (cls == PolylineROI.class)
+			return QPDataFormat.ROI_POLYLINE;
+		if (cls == PointsROI.class)
+			return QPDataFormat.ROI_POINTS;
+		if (roi instanceof AreaROI)
+			return QPDataFormat.ROI_AREA;
+		return QPDataFormat.ROI_SERIALIZED;
+	}
+
+	/**
+	 * Get the type code for an object.  Only the exact (known) classes are supported directly;
+	 * any other subclasses are stored using Java serialization.
+	 * 
+	 * @param pathObject
+	 * @return
+	 */
+	private static byte getType(final PathObject pathObject) {
+		Class<?> cls = pathObject.getClass();
+		if (cls == PathRootObject.class)
+			return QPDataFormat.TYPE_ROOT;
+		if (cls == PathAnnotationObject.class)
+			return QPDataFormat.TYPE_ANNOTATION;
+		if (cls == PathDetectionObject.class)
+			return QPDataFormat.TYPE_DETECTION;
+		if (cls == PathCellObject.class)
+			return QPDataFormat.TYPE_CELL;
+		if (cls == PathTileObject.class)
+			return QPDataFormat.TYPE_TILE;
+		if (cls == TMACoreObject.class)
+			return QPDataFormat.TYPE_TMA_CORE;
+		return QPDataFormat.TYPE_SERIALIZED;
+	}
+
+
+	/**
+	 * A list of measurement names shared by objects within the block, along with the values for
+	 * all these objects (which are written column-by-column).
+	 */
+	private static class MeasurementSchema {
+
+		private final byte kind;
+		private final String[] names;
+		private final int hash;
+
+		private int index;
+		private int nRows = 0;
+		private double[] values;
+
+		MeasurementSchema(final byte kind, final String[] names) {
+			this.kind = kind;
+			this.names = names;
+			this.hash = 31 * Arrays.hashCode(names) + kind;
+		}
+
+		void addRow(final MeasurementList list, final int n) {
+			if (values == null)
+				values = new double[Math.max(n * 16, 16)];
+			else if (values.length < (nRows + 1) * n)
+				values = Arrays.copyOf(values, Math.max(values.length * 2, (nRows + 1) * n));
+			int offset = nRows * n;
+			for (int i = 0; i < n; i++)
+				values[offset + i] = list.getMeasurementValue(i);
+			nRows++;
+		}
+
+		void writeColumns(final Section section) {
+			int n = names.length;
+			for (int c = 0; c < n; c++) {
+				for (int r = 0; r < nRows; r++) {
+					double val = values[r * n + c];
+					if (kind == QPDataFormat.MEASUREMENTS_FLOAT)
+						section.putFloat((float)val);
+					else
+						section.putDouble(val);
+				}
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof MeasurementSchema))
+				return false;
+			MeasurementSchema other = (MeasurementSchema)obj;
+			return kind == other.kind && hash == other.hash && Arrays.equals(names, other.names);
+		}
+
+	}
+
+
+	/**
+	 * Growable buffer used to store a single section of the block.
+	 */
+	private static class Section {
+
+		private ByteBuffer buffer;
+
+		Section(int capacity) {
+			buffer = ByteBuffer.allocate(capacity);
+		}
+
+		private void ensureCapacity(int extra) {
+			if (buffer.remaining() >= extra)
+				return;
+			int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+			ByteBuffer buffer2 = ByteBuffer.allocate(capacity);
+			buffer.flip();
+			buffer2.put(buffer);
+			buffer = buffer2;
+		}
+
+		int size() {
+			return buffer.position();
+		}
+
+		void putByte(byte val) {
+			ensureCapacity(1);
+			buffer.put(val);
+		}
+
+		void putInt(int val) {
+			ensureCapacity(4);
+			buffer.putInt(val);
+		}
+
+		void putInt(int pos, int val) {
+			buffer.putInt(pos, val);
+		}
+
+		void putFloat(float val) {
+			ensureCapacity(4);
+			buffer.putFloat(val);
+		}
+
+		void putDouble(double val) {
+			ensureCapacity(8);
+			buffer.putDouble(val);
+		}
+
+		void putFloats(float[] vals) {
+			putFloats(vals, vals.length);
+		}
+
+		void putFloats(float[] vals, int n) {
+			ensureCapacity(n * 4);
+			buffer.asFloatBuffer().put(vals, 0, n);
+			buffer.position(buffer.position() + n * 4);
+		}
+
+		void putBytes(byte[] vals) {
+			ensureCapacity(vals.length);
+			buffer.put(vals);
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			out.write(buffer.array(), 0, buffer.position());
+		}
+
+	}
+
+}
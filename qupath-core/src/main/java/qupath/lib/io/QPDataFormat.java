@@ -0,0 +1,239 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and small helper methods defining the binary, tiled .qpdata format.
+ * <p>
+ * The layout of a file is:
+ * <ul>
+ *   <li>{@link #MAGIC} and {@link #VERSION}</li>
+ *   <li>the image server path</li>
+ *   <li>a (small) Java-serialized block containing the image type, stains, workflow &amp; properties</li>
+ *   <li>a single block containing the root object, annotations, TMA cores and any other non-detection objects</li>
+ *   <li>the TMA grid, stored as indices into the previous block</li>
+ *   <li>a sequence of {@link #RECORD_CHUNK} records, each containing the detections with centroids inside one
+ *   tile of the image (along with any descendants of these detections)</li>
+ *   <li>{@link #RECORD_END}, followed by an index of all chunks &amp; a fixed-length footer giving the index location.
+ *   For each chunk, the index gives its location, bounds &amp; object types, along with the IDs (i.e. indices in the base block) 
+ *   of all the objects to which the chunk's objects should be added as children.</li>
+ * </ul>
+ * Each block of objects is stored in a columnar way by {@link PathObjectBlockWriter}, with its own string pool,
+ * so that chunks can be decoded independently of one another.
+ * 
+ * @author Pete Bankhead
+ */
+final class QPDataFormat {
+
+	private QPDataFormat() {}
+
+	/**
+	 * 'QPDT' - distinguishes the format from Java serialization streams (which start with 0xACED).
+	 */
+	static final int MAGIC = 0x51504454;
+
+	/**
+	 * Version 1 &amp; 2 used Java serialization; version 3 is the first binary, tiled format.
+	 */
+	static final int VERSION = 3;
+
+	/**
+	 * Default width &amp; height of the image tiles used to group detections into chunks.
+	 */
+	static final int DEFAULT_CHUNK_SIZE = 2048;
+
+	/**
+	 * Length of the footer, i.e. index offset (long) &amp; magic number (int).
+	 */
+	static final int FOOTER_LENGTH = 12;
+
+	static final byte RECORD_END = 0;
+	static final byte RECORD_CHUNK = 1;
+
+	// Object types
+	static final byte TYPE_ROOT = 0;
+	static final byte TYPE_ANNOTATION = 1;
+	static final byte TYPE_DETECTION = 2;
+	static final byte TYPE_CELL = 3;
+	static final byte TYPE_TILE = 4;
+	static final byte TYPE_TMA_CORE = 5;
+	static final byte TYPE_SERIALIZED = 6;
+
+	// Object flags
+	static final byte FLAG_LOCKED = 1;
+	static final byte FLAG_NAME = 1 << 1;
+	static final byte FLAG_COLOR = 1 << 2;
+	static final byte FLAG_METADATA = 1 << 3;
+	static final byte FLAG_NUCLEUS = 1 << 4;
+	static final byte FLAG_MISSING = 1 << 5;
+
+	// ROI types
+	static final byte ROI_NONE = 0;
+	static final byte ROI_RECTANGLE = 1;
+	static final byte ROI_ELLIPSE = 2;
+	static final byte ROI_LINE = 3;
+	static final byte ROI_POLYGON = 4;
+	static final byte ROI_POLYLINE = 5;
+	static final byte ROI_POINTS = 6;
+	static final byte ROI_AREA = 7;
+	static final byte ROI_SERIALIZED = 8;
+
+	// Measurement list types
+	static final byte MEASUREMENTS_NONE = 0;
+	static final byte MEASUREMENTS_FLOAT = 1;
+	static final byte MEASUREMENTS_DOUBLE = 2;
+
+	/**
+	 * Number of sections written for each block of objects.
+	 */
+	static final int N_SECTIONS = 16;
+
+	// Sections within a block
+	static final int SECTION_STRINGS = 0;
+	static final int SECTION_CLASSES = 1;
+	static final int SECTION_SCHEMAS = 2;
+	static final int SECTION_TYPES = 3;
+	static final int SECTION_PARENTS = 4;
+	static final int SECTION_PATH_CLASSES = 5;
+	static final int SECTION_PROBABILITIES = 6;
+	static final int SECTION_FLAGS = 7;
+	static final int SECTION_SPARSE = 8;
+	static final int SECTION_ROI_INFO = 9;
+	static final int SECTION_ROI_DOUBLES = 10;
+	static final int SECTION_ROI_FLOATS = 11;
+	static final int SECTION_ROI_SEGMENTS = 12;
+	static final int SECTION_MEASUREMENTS = 13;
+	static final int SECTION_MEASUREMENT_VALUES = 14;
+	static final int SECTION_BLOBS = 15;
+
+
+	/**
+	 * Check if the next bytes of a stream correspond to the binary format, without consuming them.
+	 * 
+	 * @param stream an input stream supporting mark/reset
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean isQPDataStream(final BufferedInputStream stream) throws IOException {
+		stream.mark(4);
+		try {
+			int magic = new DataInputStream(stream).readInt();
+			return magic == MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			stream.reset();
+		}
+	}
+
+	/**
+	 * Write a String of any length as UTF-8, prefixed by its length in bytes (or -1 for null).
+	 * 
+	 * @param out
+	 * @param s
+	 * @throws IOException
+	 */
+	static void writeString(final DataOutputStream out, final String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a String written with {@link #writeString(DataOutputStream, String)}.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static String readString(final DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		byte[] bytes = new byte[n];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read a block of bytes prefixed by its length.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] readBytes(final DataInputStream in) throws IOException {
+		int n = in.readInt();
+		byte[] bytes = new byte[n];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Read the header (magic number &amp; version) of a binary stream, throwing an exception if it is invalid.
+	 * 
+	 * @param in
+	 * @return the version
+	 * @throws IOException
+	 */
+	static int readHeader(final DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Input stream does not contain valid QuPath data!");
+		int version = in.readInt();
+		if (version > VERSION)
+			throw new IOException("Data file version " + version + " is not supported (latest supported version is " + VERSION + ")");
+		return version;
+	}
+
+	/**
+	 * Skip bytes from an input stream, throwing an exception if this isn't possible.
+	 * 
+	 * @param stream
+	 * @param n
+	 * @throws IOException
+	 */
+	static void skipFully(final InputStream stream, long n) throws IOException {
+		while (n > 0) {
+			long skipped = stream.skip(n);
+			if (skipped <= 0) {
+				if (stream.read() < 0)
+					throw new IOException("Unexpected end of stream");
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+}
@@ -0,0 +1,399 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathRootObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.helpers.PathObjectTools;
+import qupath.lib.objects.hierarchy.DeferredObjectLoader;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Load chunks of detections from a binary .qpdata file on demand, using the chunk index at the end of the file.
+ * <p>
+ * The index records the IDs of the objects in the base block to which each chunk's objects belong, 
+ * so that the children of any object can be loaded without reading other chunks.
+ * <p>
+ * The file is kept open until all chunks have been loaded (or the loader is no longer reachable),
+ * so that it can still be read if it is moved or replaced in the meantime.
+ * 
+ * @author Pete Bankhead
+ * 
+ * @see QPDataReader
+ */
+class QPDataObjectLoader implements DeferredObjectLoader {
+
+	final private static Logger logger = LoggerFactory.getLogger(QPDataObjectLoader.class);
+
+	private static final Cleaner cleaner = Cleaner.create();
+
+	/**
+	 * Minimum length of each entry in the chunk index (i.e. without any parent IDs).
+	 */
+	private static final int MIN_INDEX_ENTRY_LENGTH = 8 + 4 * 5 + 8 * 4 + 4;
+
+	/**
+	 * Classes corresponding to each known object type in {@link QPDataFormat}, indexed by type code.
+	 */
+	private static final List<Class<? extends PathObject>> TYPE_CLASSES = List.of(
+			PathRootObject.class, PathAnnotationObject.class, PathDetectionObject.class, PathCellObject.class,
+			PathTileObject.class, TMACoreObject.class);
+
+	private final Path path;
+	private final FileChannel channel;
+	private final Cleaner.Cleanable cleanable;
+
+	private final PathObjectBlockReader blockReader;
+	// Objects in the base block, indexed by ID
+	private final PathObject[] baseObjects;
+	private final Map<PathObject, Integer> baseIDs = new IdentityHashMap<>();
+	// Number of chunks not yet loaded that contain children of each base object
+	private final int[] nDeferredChunksByID;
+
+	private final List<Chunk> chunks;
+	private int nDeferred = 0;
+
+	private QPDataObjectLoader(final Path path, final FileChannel channel, final List<Chunk> chunks, final PathObjectBlockReader blockReader, final PathObject[] baseObjects) {
+		this.path = path;
+		this.channel = channel;
+		this.chunks = chunks;
+		this.blockReader = blockReader;
+		this.baseObjects = baseObjects;
+		this.nDeferredChunksByID = new int[baseObjects.length];
+		for (int i = 0; i < baseObjects.length; i++)
+			baseIDs.put(baseObjects[i], i);
+		for (Chunk chunk : chunks) {
+			nDeferred += chunk.nObjects;
+			for (int id : chunk.parentIDs)
+				nDeferredChunksByID[id]++;
+		}
+		this.cleanable = cleaner.register(this, new ChannelCloser(channel));
+	}
+
+	/**
+	 * Create a loader for the chunks in a file, or null if the file does not contain any chunks.
+	 * 
+	 * @param path
+	 * @param blockReader reader used to decode the base block (so that strings may be shared)
+	 * @param baseObjects objects in the base block, to which loaded objects may be added
+	 * @return
+	 * @throws IOException
+	 */
+	static QPDataObjectLoader createLoader(final Path path, final PathObjectBlockReader blockReader, final PathObject[] baseObjects) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			List<Chunk> chunks = readIndex(channel, baseObjects.length);
+			if (chunks.isEmpty()) {
+				channel.close();
+				return null;
+			}
+			return new QPDataObjectLoader(path, channel, chunks, blockReader, baseObjects);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static List<Chunk> readIndex(final FileChannel channel, final int nBaseObjects) throws IOException {
+		long size = channel.size();
+		ByteBuffer footer = readFully(channel, size - QPDataFormat.FOOTER_LENGTH, QPDataFormat.FOOTER_LENGTH);
+		long indexOffset = footer.getLong();
+		if (footer.getInt() != QPDataFormat.MAGIC)
+			throw new IOException("Chunk index not found!");
+		ByteBuffer index = readFully(channel, indexOffset, (int)(size - QPDataFormat.FOOTER_LENGTH - indexOffset));
+		index.getInt(); // Chunk size
+		int n = index.getInt();
+		if (index.remaining() < n * MIN_INDEX_ENTRY_LENGTH)
+			throw new IOException("Invalid chunk index!");
+		List<Chunk> chunks = new ArrayList<>(n);
+		try {
+			for (int i = 0; i < n; i++) {
+				Chunk chunk = new Chunk(index);
+				for (int id : chunk.parentIDs) {
+					if (id < 0 || id >= nBaseObjects)
+						throw new IOException("Invalid parent ID " + id + " in chunk index!");
+				}
+				chunks.add(chunk);
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid chunk index!", e);
+		}
+		if (index.hasRemaining())
+			throw new IOException("Invalid chunk index!");
+		return chunks;
+	}
+
+	private static ByteBuffer readFully(final FileChannel channel, long position, final int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of file");
+			position += n;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Override
+	public synchronized boolean hasDeferredObjects(final ImageRegion region) {
+		if (nDeferred == 0)
+			return false;
+		if (region == null)
+			return true;
+		return hasDeferredChunks(chunk -> chunk.intersects(region));
+	}
+
+	@Override
+	public synchronized boolean hasDeferredObjects(final Class<? extends PathObject> cls) {
+		if (nDeferred == 0)
+			return false;
+		if (cls == null)
+			return true;
+		int mask = getTypeMask(cls);
+		return hasDeferredChunks(chunk -> (chunk.typeMask & mask) != 0);
+	}
+
+	@Override
+	public synchronized boolean hasDeferredChildren(final PathObject parent, final boolean includeDescendants) {
+		if (nDeferred == 0)
+			return false;
+		Integer id = baseIDs.get(parent);
+		if (id != null && nDeferredChunksByID[id] > 0)
+			return true;
+		if (!includeDescendants)
+			return false;
+		for (int i = 0; i < nDeferredChunksByID.length; i++) {
+			if (nDeferredChunksByID[i] > 0 && PathObjectTools.isAncestor(baseObjects[i], parent))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized Collection<PathObject> getParentsWithDeferredChildren() {
+		List<PathObject> parents = new ArrayList<>();
+		for (int i = 0; i < nDeferredChunksByID.length; i++) {
+			if (nDeferredChunksByID[i] > 0)
+				parents.add(baseObjects[i]);
+		}
+		return parents;
+	}
+
+	@Override
+	public synchronized Map<PathObject, List<PathObject>> loadObjectsForRegion(final ImageRegion region) {
+		return loadChunks(chunk -> region == null || chunk.intersects(region));
+	}
+
+	@Override
+	public synchronized Map<PathObject, List<PathObject>> loadObjects(final Class<? extends PathObject> cls) {
+		int mask = cls == null ? -1 : getTypeMask(cls);
+		return loadChunks(chunk -> (chunk.typeMask & mask) != 0);
+	}
+
+	@Override
+	public synchronized Map<PathObject, List<PathObject>> loadChildObjects(final PathObject parent, final boolean includeDescendants) {
+		if (nDeferred == 0)
+			return Collections.emptyMap();
+		// Identify the IDs of all the parents whose children should be loaded
+		boolean[] parentIDs = new boolean[baseObjects.length];
+		Integer id = baseIDs.get(parent);
+		if (id != null)
+			parentIDs[id] = true;
+		if (includeDescendants) {
+			for (int i = 0; i < nDeferredChunksByID.length; i++) {
+				if (nDeferredChunksByID[i] > 0 && PathObjectTools.isAncestor(baseObjects[i], parent))
+					parentIDs[i] = true;
+			}
+		}
+		return loadChunks(chunk -> {
+			for (int parentID : chunk.parentIDs) {
+				if (parentIDs[parentID])
+					return true;
+			}
+			return false;
+		});
+	}
+
+	@Override
+	public synchronized int nDeferredObjects() {
+		return nDeferred;
+	}
+
+	private boolean hasDeferredChunks(final Predicate<Chunk> predicate) {
+		for (Chunk chunk : chunks) {
+			if (!chunk.loaded && predicate.test(chunk))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Load all chunks that have not yet been loaded &amp; match a predicate.
+	 */
+	private Map<PathObject, List<PathObject>> loadChunks(final Predicate<Chunk> predicate) {
+		if (nDeferred == 0)
+			return Collections.emptyMap();
+		long startTime = System.currentTimeMillis();
+		Map<PathObject, List<PathObject>> pathObjects = new LinkedHashMap<>();
+		int nChunks = 0;
+		int nObjects = 0;
+		for (Chunk chunk : chunks) {
+			if (chunk.loaded || !predicate.test(chunk))
+				continue;
+			// Mark as loaded even if reading fails, to avoid repeatedly trying (and failing) to read the same chunk
+			chunk.loaded = true;
+			nDeferred -= chunk.nObjects;
+			for (int id : chunk.parentIDs)
+				nDeferredChunksByID[id]--;
+			try {
+				ByteBuffer buffer = readFully(channel, chunk.offset, chunk.length);
+				PathObjectBlockReader.Block block = blockReader.readBlock(buffer.array(), null);
+				// Attach objects to parents within the chunk, and group the others by the ID of their parent in the base block
+				for (int i = 0; i < block.objects.length; i++) {
+					PathObject pathObject = block.objects[i];
+					if (pathObject == null)
+						continue;
+					int ref = block.parents[i];
+					if (ref < 0) {
+						PathObject parent = block.objects[-(ref + 1)];
+						if (parent != null)
+							parent.addPathObject(pathObject);
+					} else {
+						pathObjects.computeIfAbsent(baseObjects[ref], p -> new ArrayList<>()).add(pathObject);
+						nObjects++;
+					}
+				}
+				nChunks++;
+			} catch (IOException e) {
+				logger.error("Unable to read objects from " + path, e);
+			}
+		}
+		if (nDeferred == 0)
+			cleanable.clean();
+		long endTime = System.currentTimeMillis();
+		logger.debug("Loaded {} object(s) from {} chunk(s) in {} ms", nObjects, nChunks, endTime - startTime);
+		return pathObjects;
+	}
+
+	/**
+	 * Get a mask with bits set for all the object types that might be instances of the specified class.
+	 * Each known type corresponds to exactly one class, while serialized objects might be of any class.
+	 */
+	private static int getTypeMask(final Class<? extends PathObject> cls) {
+		int mask = 1 << QPDataFormat.TYPE_SERIALIZED;
+		for (int type = 0; type < TYPE_CLASSES.size(); type++) {
+			if (cls.isAssignableFrom(TYPE_CLASSES.get(type)))
+				mask |= 1 << type;
+		}
+		return mask;
+	}
+
+
+	/**
+	 * Location &amp; bounds of a chunk within the file.
+	 */
+	private static class Chunk {
+
+		private final long offset;
+		private final int length;
+		private final int nObjects;
+		private final int typeMask;
+		private final int z, t;
+		private final double minX, minY, maxX, maxY;
+		private final int[] parentIDs;
+
+		private boolean loaded = false;
+
+		Chunk(final ByteBuffer buffer) {
+			offset = buffer.getLong();
+			length = buffer.getInt();
+			nObjects = buffer.getInt();
+			typeMask = buffer.getInt();
+			z = buffer.getInt();
+			t = buffer.getInt();
+			minX = buffer.getDouble();
+			minY = buffer.getDouble();
+			maxX = buffer.getDouble();
+			maxY = buffer.getDouble();
+			parentIDs = new int[buffer.getInt()];
+			for (int i = 0; i < parentIDs.length; i++)
+				parentIDs[i] = buffer.getInt();
+		}
+
+		boolean intersects(final ImageRegion region) {
+			return region.getZ() == z && region.getT() == t &&
+					minX <= region.getMaxX() && maxX >= region.getMinX() &&
+					minY <= region.getMaxY() && maxY >= region.getMinY();
+		}
+
+	}
+
+
+	/**
+	 * Close the file channel once the loader is no longer needed.  This must not reference the loader itself.
+	 */
+	private static class ChannelCloser implements Runnable {
+
+		private final FileChannel channel;
+
+		ChannelCloser(final FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void run() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Unable to close file channel", e);
+			}
+		}
+
+	}
+
+}
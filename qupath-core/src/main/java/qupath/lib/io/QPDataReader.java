@@ -0,0 +1,212 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Locale.Category;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.color.ColorDeconvolutionStains;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.plugins.workflow.Workflow;
+
+/**
+ * Read data written in the binary, tiled .qpdata format.
+ * <p>
+ * The header &amp; image metadata are read on construction; the object hierarchy can then be read
+ * with {@link #readHierarchy()}.  Reading is sequential, so the stream does not need to support seeking.
+ * <p>
+ * Alternatively, if the data is being read from a file, {@link #readHierarchy(Path)} can be used to read only
+ * the non-detection objects immediately, while chunks of detections are loaded when they are needed.
+ * 
+ * @author Pete Bankhead
+ * 
+ * @see QPDataWriter
+ * @see QPDataFormat
+ */
+class QPDataReader {
+
+	final private static Logger logger = LoggerFactory.getLogger(QPDataReader.class);
+
+	private final DataInputStream in;
+
+	private String serverPath;
+	private ImageData.ImageType imageType;
+	private ColorDeconvolutionStains stains;
+	private Workflow workflow;
+	private Map<String, Object> propertyMap;
+
+	/**
+	 * Create a reader for the specified stream, reading the header &amp; image metadata.
+	 * 
+	 * @param stream
+	 * @throws IOException if the stream does not contain data in the expected format
+	 */
+	QPDataReader(final InputStream stream) throws IOException {
+		in = stream instanceof DataInputStream ? (DataInputStream)stream : new DataInputStream(stream);
+		QPDataFormat.readHeader(in);
+		serverPath = QPDataFormat.readString(in);
+		readMetadata(QPDataFormat.readBytes(in));
+	}
+
+	/**
+	 * Read only the server path from a stream.
+	 * 
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	static String readServerPath(final InputStream stream) throws IOException {
+		var in = new DataInputStream(stream);
+		QPDataFormat.readHeader(in);
+		return QPDataFormat.readString(in);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readMetadata(final byte[] bytes) throws IOException {
+		Locale locale = Locale.getDefault(Category.FORMAT);
+		boolean localeChanged = false;
+		try (var inStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			Object input = inStream.readObject();
+			if (input instanceof Locale && !input.equals(locale)) {
+				Locale.setDefault(Category.FORMAT, (Locale)input);
+				localeChanged = true;
+			}
+			imageType = (ImageData.ImageType)inStream.readObject();
+			stains = (ColorDeconvolutionStains)inStream.readObject();
+			workflow = (Workflow)inStream.readObject();
+			propertyMap = (Map<String, Object>)inStream.readObject();
+		} catch (ClassNotFoundException e) {
+			logger.error("Unable to find class", e);
+		} finally {
+			if (localeChanged)
+				Locale.setDefault(Category.FORMAT, locale);
+		}
+	}
+
+	String getServerPath() {
+		return serverPath;
+	}
+
+	ImageData.ImageType getImageType() {
+		return imageType;
+	}
+
+	ColorDeconvolutionStains getColorDeconvolutionStains() {
+		return stains;
+	}
+
+	Workflow getWorkflow() {
+		return workflow;
+	}
+
+	Map<String, Object> getProperties() {
+		return propertyMap;
+	}
+
+	/**
+	 * Read the full object hierarchy.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	PathObjectHierarchy readHierarchy() throws IOException {
+		return readHierarchy(null);
+	}
+
+	/**
+	 * Read the object hierarchy, optionally deferring the loading of chunks of detections until they are needed.
+	 *
+	 * @param path the path of the file being read, used to load chunks on demand; if null, all objects are read immediately
+	 * @return
+	 * @throws IOException
+	 * @see PathObjectHierarchy#setDeferredObjectLoader(qupath.lib.objects.hierarchy.DeferredObjectLoader)
+	 */
+	PathObjectHierarchy readHierarchy(final Path path) throws IOException {
+		long startTime = System.currentTimeMillis();
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObjectBlockReader blockReader = new PathObjectBlockReader();
+
+		PathObjectBlockReader.Block base = blockReader.readBlock(in, hierarchy.getRootObject());
+		readTMAGrid(hierarchy, base.objects);
+		base.attachToParents(null);
+
+		if (path != null) {
+			var loader = QPDataObjectLoader.createLoader(path, blockReader, base.objects);
+			if (loader != null)
+				hierarchy.setDeferredObjectLoader(loader);
+			long endTime = System.currentTimeMillis();
+			logger.debug(String.format("Hierarchy read with %d deferred object(s) in %.2f seconds",
+					loader == null ? 0 : loader.nDeferredObjects(), (endTime - startTime)/1000.));
+			return hierarchy;
+		}
+
+		int nChunks = 0;
+		byte record;
+		while ((record = in.readByte()) == QPDataFormat.RECORD_CHUNK) {
+			in.readInt();
+			blockReader.readBlock(in, null).attachToParents(base.objects);
+			nChunks++;
+		}
+		if (record != QPDataFormat.RECORD_END)
+			throw new IOException("Unknown record type " + record);
+
+		long endTime = System.currentTimeMillis();
+		logger.debug(String.format("Hierarchy read from %d chunk(s) in %.2f seconds", nChunks, (endTime - startTime)/1000.));
+		return hierarchy;
+	}
+
+	private void readTMAGrid(final PathObjectHierarchy hierarchy, final PathObject[] objects) throws IOException {
+		int gridWidth = in.readInt();
+		if (gridWidth < 0)
+			return;
+		int nCores = in.readInt();
+		List<TMACoreObject> cores = new ArrayList<>(nCores);
+		for (int i = 0; i < nCores; i++) {
+			int ind = in.readInt();
+			if (ind >= 0 && objects[ind] instanceof TMACoreObject)
+				cores.add((TMACoreObject)objects[ind]);
+		}
+		if (cores.size() == nCores)
+			hierarchy.setTMAGrid(new DefaultTMAGrid(cores, gridWidth));
+		else
+			logger.warn("Unable to restore TMA grid - expected {} cores, but found {}", nCores, cores.size());
+	}
+
+}
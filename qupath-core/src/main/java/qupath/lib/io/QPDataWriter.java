@@ -0,0 +1,308 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Locale.Category;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.TMAGrid;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Write ImageData using the binary, tiled .qpdata format.
+ * <p>
+ * Detections are grouped into chunks according to the image tile containing their centroid, and each chunk
+ * is encoded &amp; written separately - so that memory use while writing is bounded by the size of the
+ * largest chunk, rather than the size of the entire hierarchy.
+ * 
+ * @author Pete Bankhead
+ * 
+ * @see QPDataReader
+ * @see QPDataFormat
+ */
+class QPDataWriter {
+
+	final private static Logger logger = LoggerFactory.getLogger(QPDataWriter.class);
+
+	private int chunkSize = QPDataFormat.DEFAULT_CHUNK_SIZE;
+
+	QPDataWriter() {}
+
+	/**
+	 * Write ImageData to a stream.  The stream will be closed on completion.
+	 * 
+	 * @param stream
+	 * @param imageData
+	 * @throws IOException
+	 */
+	void writeImageData(final OutputStream stream, final ImageData<?> imageData) throws IOException {
+		long startTime = System.currentTimeMillis();
+		try (var counter = new CountingOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+			var out = new DataOutputStream(counter);
+			out.writeInt(QPDataFormat.MAGIC);
+			out.writeInt(QPDataFormat.VERSION);
+			QPDataFormat.writeString(out, imageData.getServerPath());
+
+			// Write the main image metadata (small, so use Java serialization)
+			var bytes = new ByteArrayOutputStream();
+			try (var outStream = new ObjectOutputStream(bytes)) {
+				outStream.writeObject(Locale.getDefault(Category.FORMAT));
+				outStream.writeObject(imageData.getImageType());
+				outStream.writeObject(imageData.getColorDeconvolutionStains());
+				outStream.writeObject(imageData.getHistoryWorkflow());
+				// Write any remaining (serializable) properties
+				Map<String, Object> map = new HashMap<>();
+				for (Entry<String, Object> entry : imageData.getProperties().entrySet()) {
+					if (entry.getValue() instanceof Serializable)
+						map.put(entry.getKey(), entry.getValue());
+					else
+						logger.error("Property not serializable and will not be saved!  Key: " + entry.getKey() + ", Value: " + entry.getValue());
+				}
+				outStream.writeObject(map);
+			}
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+
+			PathObjectHierarchy hierarchy = imageData.getHierarchy();
+			logger.info(String.format("Writing object hierarchy with %d object(s)...", hierarchy.nObjects()));
+			writeHierarchy(out, counter, hierarchy);
+			out.flush();
+		}
+		long endTime = System.currentTimeMillis();
+		logger.info(String.format("Image data written in %.2f seconds", (endTime - startTime)/1000.));
+	}
+
+
+	private void writeHierarchy(final DataOutputStream out, final CountingOutputStream counter, final PathObjectHierarchy hierarchy) throws IOException {
+		// Ensure we have all the objects
+		hierarchy.loadDeferredObjects();
+		
+		// Add all non-detection objects to the base block, and group detections by tile
+		Map<PathObject, Integer> ids = new IdentityHashMap<>();
+		Map<ChunkKey, List<PathObject>> chunks = new TreeMap<>();
+		PathObjectBlockWriter base = new PathObjectBlockWriter();
+		PathObject root = hierarchy.getRootObject();
+		ids.put(root, 0);
+		// The root object refers to itself as parent
+		base.addObject(root, 0);
+		addToBase(root, base, ids, chunks);
+		base.writeTo(out);
+
+		// Write the TMA grid as indices into the base block
+		TMAGrid tmaGrid = hierarchy.getTMAGrid();
+		if (tmaGrid == null)
+			out.writeInt(-1);
+		else {
+			out.writeInt(tmaGrid.getGridWidth());
+			out.writeInt(tmaGrid.nCores());
+			for (TMACoreObject core : tmaGrid.getTMACoreList()) {
+				Integer id = ids.get(core);
+				out.writeInt(id == null ? -1 : id);
+			}
+		}
+
+		// Write chunks, remembering their locations for the index
+		List<ChunkIndexEntry> index = new ArrayList<>();
+		for (Entry<ChunkKey, List<PathObject>> entry : chunks.entrySet()) {
+			PathObjectBlockWriter block = new PathObjectBlockWriter();
+			for (PathObject pathObject : entry.getValue())
+				addToChunk(pathObject, ids.get(pathObject.getParent()), block);
+			out.writeByte(QPDataFormat.RECORD_CHUNK);
+			out.writeInt(block.getLength());
+			var indexEntry = new ChunkIndexEntry(entry.getKey(), counter.getCount(), block);
+			block.writeTo(out);
+			index.add(indexEntry);
+		}
+		out.writeByte(QPDataFormat.RECORD_END);
+
+		// Write the index & footer
+		long indexOffset = counter.getCount();
+		out.writeInt(chunkSize);
+		out.writeInt(index.size());
+		for (ChunkIndexEntry entry : index)
+			entry.writeTo(out);
+		out.writeLong(indexOffset);
+		out.writeInt(QPDataFormat.MAGIC);
+	}
+
+	private void addToBase(final PathObject parent, final PathObjectBlockWriter base, final Map<PathObject, Integer> ids, final Map<ChunkKey, List<PathObject>> chunks) throws IOException {
+		if (!parent.hasChildren())
+			return;
+		int parentID = ids.get(parent);
+		for (PathObject child : parent.getChildObjects()) {
+			if (child.isDetection()) {
+				chunks.computeIfAbsent(getChunkKey(child.getROI()), k -> new ArrayList<>()).add(child);
+				continue;
+			}
+			ids.put(child, base.nObjects());
+			if (!base.addObject(child, parentID))
+				addToBase(child, base, ids, chunks);
+		}
+	}
+
+	private static void addToChunk(final PathObject pathObject, final int parentRef, final PathObjectBlockWriter block) throws IOException {
+		int ref = -(block.nObjects() + 1);
+		if (block.addObject(pathObject, parentRef) || !pathObject.hasChildren())
+			return;
+		for (PathObject child : pathObject.getChildObjects())
+			addToChunk(child, ref, block);
+	}
+
+	private ChunkKey getChunkKey(final ROI roi) {
+		if (roi == null)
+			return new ChunkKey(0, 0, 0, 0);
+		double x = roi.getCentroidX();
+		double y = roi.getCentroidY();
+		int tileX = Double.isFinite(x) ? (int)Math.floor(x / chunkSize) : 0;
+		int tileY = Double.isFinite(y) ? (int)Math.floor(y / chunkSize) : 0;
+		return new ChunkKey(roi.getT(), roi.getZ(), tileY, tileX);
+	}
+
+
+	/**
+	 * Key used to identify (and sort) chunks by timepoint, z-slice &amp; tile position.
+	 */
+	private static class ChunkKey implements Comparable<ChunkKey> {
+
+		private final int t, z, tileY, tileX;
+
+		ChunkKey(final int t, final int z, final int tileY, final int tileX) {
+			this.t = t;
+			this.z = z;
+			this.tileY = tileY;
+			this.tileX = tileX;
+		}
+
+		@Override
+		public int compareTo(ChunkKey o) {
+			int c = Integer.compare(t, o.t);
+			if (c == 0)
+				c = Integer.compare(z, o.z);
+			if (c == 0)
+				c = Integer.compare(tileY, o.tileY);
+			if (c == 0)
+				c = Integer.compare(tileX, o.tileX);
+			return c;
+		}
+
+	}
+
+
+	/**
+	 * Location &amp; bounds of a chunk within the file.
+	 */
+	private static class ChunkIndexEntry {
+
+		private final ChunkKey key;
+		private final long offset;
+		private final int length;
+		private final int nObjects;
+		private final int typeMask;
+		private final int[] parentIDs;
+		private final double minX, minY, maxX, maxY;
+
+		ChunkIndexEntry(final ChunkKey key, final long offset, final PathObjectBlockWriter block) {
+			this.key = key;
+			this.offset = offset;
+			this.length = block.getLength();
+			this.nObjects = block.nObjects();
+			this.typeMask = block.getTypeMask();
+			this.parentIDs = block.getBaseParentRefs();
+			this.minX = block.getMinX();
+			this.minY = block.getMinY();
+			this.maxX = block.getMaxX();
+			this.maxY = block.getMaxY();
+		}
+
+		void writeTo(final DataOutputStream out) throws IOException {
+			out.writeLong(offset);
+			out.writeInt(length);
+			out.writeInt(nObjects);
+			out.writeInt(typeMask);
+			out.writeInt(key.z);
+			out.writeInt(key.t);
+			out.writeDouble(minX);
+			out.writeDouble(minY);
+			out.writeDouble(maxX);
+			out.writeDouble(maxY);
+			out.writeInt(parentIDs.length);
+			for (int id : parentIDs)
+				out.writeInt(id);
+		}
+
+	}
+
+
+	/**
+	 * OutputStream that keeps track of the number of bytes written, so that chunks can be indexed.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count = 0;
+
+		CountingOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+	}
+
+}
@@ -0,0 +1,559 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.io.ObjectStreamException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MeasurementList that stores its values in a table shared with other lists that have exactly the same
+ * measurement names (i.e. the same schema).
+ * <p>
+ * Each table is divided into blocks, each containing one float array per measurement (i.e. a column),
+ * and a closed list simply references a block and its row within it.  These are published together as a single 
+ * immutable {@link TableRow}, so that a list read without synchronization never pairs a block with a row from elsewhere.
+ * This means that the memory required per list is approximately 4 bytes per measurement, plus a small
+ * fixed overhead, and that values of the same measurement for different objects are stored contiguously.
+ * <p>
+ * While a list is open, measurements are stored privately in the same way as for a {@link NumericMeasurementList.FloatList}.
+ * Values are only moved to the shared table when {@link #close()} is called, so it is important to close lists
+ * once they have been populated.  Values of existing measurements can be changed without reopening a closed list,
+ * but adding or removing measurements causes the list to be reopened - and the values copied out of the shared table.
+ * <p>
+ * Tables belong to a {@link MeasurementTables}: new lists use the default tables, and are moved into the tables of a 
+ * hierarchy when their objects are added to it.
+ * Rows given up when a list is reopened, cleared or moved to other tables are reused by the next list closed with 
+ * the same schema; a block is freed once all the lists referencing it have been garbage collected.
+ * <p>
+ * Dynamic measurements cannot be stored in a table. If one is added, the list keeps all its measurements privately 
+ * in the same way as a {@link DefaultMeasurementList}.
+ * 
+ * @author Pete Bankhead
+ */
+class ColumnarMeasurementList implements MeasurementList {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of rows for the first block created for a schema; subsequent blocks double in size until reaching MAX_BLOCK_ROWS.
+	 */
+	private static final int MIN_BLOCK_ROWS = 16;
+
+	/**
+	 * Maximum number of rows in a single block.
+	 */
+	private static final int MAX_BLOCK_ROWS = 4096;
+
+	/**
+	 * Private storage, used while the list is open - or always, if the list contains dynamic measurements.
+	 * This is either a FloatList or a DefaultMeasurementList.
+	 */
+	private transient MeasurementList openList;
+
+	/**
+	 * Shared storage, used when the list is closed.  If both this and openList are null, the list is empty.
+	 */
+	private transient volatile TableRow tableRow;
+
+	/**
+	 * Tables in which the values should be stored when the list is closed, or null to use the default tables.
+	 */
+	private transient MeasurementTables tables;
+
+
+	ColumnarMeasurementList() {
+		super();
+	}
+
+
+	/**
+	 * Description of the measurements stored in a table, shared between all lists using the table.
+	 */
+	static class Schema {
+
+		private final MeasurementTables tables;
+		private final List<String> names;
+		private final Map<String, Integer> map;
+
+		private WeakReference<Block> currentBlock;
+		private int nextBlockRows = MIN_BLOCK_ROWS;
+
+		/**
+		 * Blocks that may contain rows given up by other lists.
+		 * References are weak, so that a block can still be freed once no list refers to it.
+		 */
+		private final List<WeakReference<Block>> blocksWithFreeRows = new ArrayList<>();
+
+		Schema(final MeasurementTables tables, final List<String> names) {
+			this.tables = tables;
+			this.names = Collections.unmodifiableList(new ArrayList<>(names));
+			this.map = new HashMap<>();
+			int i = 0;
+			for (String name : this.names)
+				map.put(name, i++);
+		}
+
+		MeasurementTables getTables() {
+			return tables;
+		}
+
+		List<String> getNames() {
+			return names;
+		}
+
+		int size() {
+			return names.size();
+		}
+
+		int getIndex(final String name) {
+			Integer ind = map.get(name);
+			return ind == null ? -1 : ind;
+		}
+
+		/**
+		 * Get a block that has space for at least one more row, preferring rows that have been given up by other lists
+		 * and otherwise creating a new block if necessary.
+		 * Must be called while synchronized on this schema.
+		 * 
+		 * @return
+		 */
+		private Block getBlockWithSpace() {
+			while (!blocksWithFreeRows.isEmpty()) {
+				int last = blocksWithFreeRows.size() - 1;
+				Block block = blocksWithFreeRows.get(last).get();
+				if (block != null && block.nFreeRows > 0)
+					return block;
+				blocksWithFreeRows.remove(last);
+				if (block != null)
+					block.inFreeList = false;
+			}
+			Block block = currentBlock == null ? null : currentBlock.get();
+			if (block == null || block.nRows == block.capacity) {
+				block = new Block(this, nextBlockRows);
+				currentBlock = new WeakReference<>(block);
+				nextBlockRows = Math.min(MAX_BLOCK_ROWS, nextBlockRows * 2);
+			}
+			return block;
+		}
+
+		/**
+		 * Allocate a row for a list.
+		 * Must be called while synchronized on this schema.
+		 * 
+		 * @return
+		 */
+		private TableRow allocateRow() {
+			Block block = getBlockWithSpace();
+			int row;
+			if (block.nFreeRows > 0)
+				row = block.freeRows[--block.nFreeRows];
+			else
+				row = block.nRows++;
+			return new TableRow(block, row);
+		}
+
+		/**
+		 * Give up a row that is no longer used by any list, so that it can be reused.
+		 * Must be called while synchronized on this schema.
+		 * 
+		 * @param block
+		 * @param row
+		 */
+		private void releaseRow(final Block block, final int row) {
+			if (block.freeRows == null)
+				block.freeRows = new int[block.capacity];
+			block.freeRows[block.nFreeRows++] = row;
+			if (!block.inFreeList) {
+				blocksWithFreeRows.add(new WeakReference<>(block));
+				block.inFreeList = true;
+			}
+		}
+
+	}
+
+
+	/**
+	 * A block of rows within the table for a specific schema, with one float array per measurement.
+	 */
+	static class Block {
+
+		private final Schema schema;
+		private final float[][] columns;
+		private final int capacity;
+		private int nRows = 0;
+
+		// Rows given up by lists that no longer use them; these fields are guarded by the schema lock
+		private int[] freeRows;
+		private int nFreeRows = 0;
+		private boolean inFreeList = false;
+
+		private Block(final Schema schema, final int capacity) {
+			this.schema = schema;
+			this.capacity = capacity;
+			this.columns = new float[schema.size()][capacity];
+		}
+
+		Schema getSchema() {
+			return schema;
+		}
+
+		float[] getColumn(final int col) {
+			return columns[col];
+		}
+
+		/**
+		 * Get the number of rows in this block that are currently used by lists.
+		 * 
+		 * @return
+		 */
+		int nUsedRows() {
+			synchronized (schema) {
+				return nRows - nFreeRows;
+			}
+		}
+
+	}
+
+
+	/**
+	 * A row within a block, used to store the values of a closed list.
+	 */
+	static class TableRow {
+
+		private final Block block;
+		private final int row;
+
+		private TableRow(final Block block, final int row) {
+			this.block = block;
+			this.row = row;
+		}
+
+		Block getBlock() {
+			return block;
+		}
+
+		int getRow() {
+			return row;
+		}
+
+		private float get(final int col) {
+			return block.columns[col][row];
+		}
+
+		private void set(final int col, final float value) {
+			block.columns[col][row] = value;
+		}
+
+	}
+
+
+	/**
+	 * Get the row containing the values for this list, or null if the list is open or empty.
+	 * Callers should read both the block and row from the same returned object.
+	 * 
+	 * @return
+	 */
+	TableRow getTableRow() {
+		return tableRow;
+	}
+
+
+	@Override
+	public synchronized void close() {
+		if (openList == null)
+			return;
+		// Dynamic measurements can't be stored in the table
+		if (openList.supportsDynamicMeasurements()) {
+			openList.close();
+			return;
+		}
+		List<String> names = openList.getMeasurementNames();
+		if (names.isEmpty()) {
+			openList = null;
+			return;
+		}
+		Schema schema = (tables == null ? MeasurementTables.getDefaultTables() : tables).getSchema(names);
+		TableRow newRow;
+		synchronized (schema) {
+			newRow = schema.allocateRow();
+		}
+		for (int c = 0; c < schema.size(); c++)
+			newRow.set(c, (float)openList.getMeasurementValue(c));
+		tableRow = newRow;
+		openList = null;
+	}
+
+	/**
+	 * Move the values of this list into the specified tables, if it is closed and they are currently stored elsewhere.
+	 * If the list is open, its values will be stored in the tables when it is closed.
+	 * 
+	 * @param targetTables
+	 * @return true if the values were moved, false otherwise
+	 */
+	synchronized boolean moveToTables(final MeasurementTables targetTables) {
+		tables = targetTables;
+		TableRow oldRow = tableRow;
+		if (oldRow == null || oldRow.block.schema.tables == targetTables)
+			return false;
+		Schema schema = targetTables.getSchema(oldRow.block.schema.names);
+		TableRow newRow;
+		synchronized (schema) {
+			newRow = schema.allocateRow();
+		}
+		for (int c = 0; c < schema.size(); c++)
+			newRow.set(c, oldRow.get(c));
+		tableRow = newRow;
+		releaseRow(oldRow);
+		return true;
+	}
+
+	/**
+	 * Give up a row in the shared table, so that it can be reused by another list.
+	 * 
+	 * @param r
+	 */
+	private static void releaseRow(final TableRow r) {
+		Schema schema = r.block.schema;
+		synchronized (schema) {
+			schema.releaseRow(r.block, r.row);
+		}
+	}
+
+	/**
+	 * Ensure the list is open, copying values out of the shared table if necessary.
+	 */
+	private void ensureListOpen() {
+		if (openList != null)
+			return;
+		openList = copyToList(new NumericMeasurementList.FloatList(size()));
+	}
+
+	/**
+	 * Ensure the list is open and able to store dynamic measurements, copying values out of the shared table 
+	 * (or the previous private storage) if necessary.
+	 */
+	private void ensureDynamicListOpen() {
+		if (openList != null && openList.supportsDynamicMeasurements())
+			return;
+		MeasurementList list = new DefaultMeasurementList(size());
+		if (openList != null) {
+			for (int i = 0; i < openList.size(); i++)
+				list.addMeasurement(openList.getMeasurementName(i), openList.getMeasurementValue(i));
+			openList = list;
+		} else
+			openList = copyToList(list);
+	}
+
+	/**
+	 * Copy the values from the shared table into a list, giving up the row previously used.
+	 * 
+	 * @param list
+	 * @return the list
+	 */
+	private MeasurementList copyToList(final MeasurementList list) {
+		TableRow r = tableRow;
+		if (r != null) {
+			Schema schema = r.block.schema;
+			for (int c = 0; c < schema.size(); c++)
+				list.addMeasurement(schema.names.get(c), r.get(c));
+			tableRow = null;
+			releaseRow(r);
+		}
+		return list;
+	}
+
+	@Override
+	public synchronized boolean addMeasurement(String name, double value) {
+		ensureListOpen();
+		return openList.addMeasurement(name, value);
+	}
+
+	@Override
+	public synchronized Measurement putMeasurement(Measurement measurement) {
+		if (measurement.isDynamic()) {
+			ensureDynamicListOpen();
+			return openList.putMeasurement(measurement);
+		}
+		String name = measurement.getName();
+		double value = measurement.getValue();
+		TableRow r = tableRow;
+		int ind = r == null ? -1 : r.block.schema.getIndex(name);
+		if (ind >= 0) {
+			r.set(ind, (float)value);
+			return MeasurementFactory.createMeasurement(name, value);
+		}
+		ensureListOpen();
+		return openList.putMeasurement(measurement);
+	}
+
+	@Override
+	public synchronized void putMeasurement(String name, double value) {
+		// Update the shared table directly if we can
+		TableRow r = tableRow;
+		int ind = r == null ? -1 : r.block.schema.getIndex(name);
+		if (ind >= 0) {
+			r.set(ind, (float)value);
+			return;
+		}
+		ensureListOpen();
+		openList.putMeasurement(name, value);
+	}
+
+	@Override
+	public List<String> getMeasurementNames() {
+		MeasurementList list = openList;
+		if (list != null)
+			return list.getMeasurementNames();
+		TableRow r = tableRow;
+		return r == null ? Collections.emptyList() : r.block.schema.names;
+	}
+
+	@Override
+	public String getMeasurementName(int ind) {
+		return getMeasurementNames().get(ind);
+	}
+
+	@Override
+	public double getMeasurementValue(int ind) {
+		TableRow r = tableRow;
+		if (r != null) {
+			if (ind >= 0 && ind < r.block.columns.length)
+				return r.get(ind);
+			return Double.NaN;
+		}
+		MeasurementList list = openList;
+		return list == null ? Double.NaN : list.getMeasurementValue(ind);
+	}
+
+	@Override
+	public double getMeasurementValue(String name) {
+		TableRow r = tableRow;
+		if (r != null) {
+			int ind = r.block.schema.getIndex(name);
+			return ind >= 0 ? r.get(ind) : Double.NaN;
+		}
+		MeasurementList list = openList;
+		return list == null ? Double.NaN : list.getMeasurementValue(name);
+	}
+
+	@Override
+	public boolean containsAllNamedMeasurements(Collection<String> keys) {
+		TableRow r = tableRow;
+		if (r != null)
+			return r.block.schema.names == keys || r.block.schema.map.keySet().containsAll(keys);
+		MeasurementList list = openList;
+		return list == null ? keys.isEmpty() : list.containsAllNamedMeasurements(keys);
+	}
+
+	@Override
+	public boolean containsNamedMeasurement(String name) {
+		TableRow r = tableRow;
+		if (r != null)
+			return r.block.schema.map.containsKey(name);
+		MeasurementList list = openList;
+		return list == null ? false : list.containsNamedMeasurement(name);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public int size() {
+		TableRow r = tableRow;
+		if (r != null)
+			return r.block.schema.size();
+		MeasurementList list = openList;
+		return list == null ? 0 : list.size();
+	}
+
+	@Override
+	public boolean supportsDynamicMeasurements() {
+		return true;
+	}
+
+	@Override
+	public synchronized void removeMeasurements(String... measurementNames) {
+		ensureListOpen();
+		openList.removeMeasurements(measurementNames);
+	}
+
+	@Override
+	public synchronized void clear() {
+		TableRow r = tableRow;
+		openList = null;
+		tableRow = null;
+		if (r != null)
+			releaseRow(r);
+	}
+
+	/**
+	 * Create a (closed) FloatList containing the same measurements as this list.
+	 * 
+	 * @return
+	 */
+	private synchronized NumericMeasurementList.FloatList toFloatList() {
+		int n = size();
+		NumericMeasurementList.FloatList list = new NumericMeasurementList.FloatList(n);
+		for (int i = 0; i < n; i++)
+			list.addMeasurement(getMeasurementName(i), getMeasurementValue(i));
+		list.close();
+		return list;
+	}
+
+	/**
+	 * Serialize as a FloatList, since the shared table cannot be serialized along with the list - 
+	 * or as a DefaultMeasurementList, if the list contains dynamic measurements.
+	 * 
+	 * @return
+	 * @throws ObjectStreamException
+	 */
+	private synchronized Object writeReplace() throws ObjectStreamException {
+		if (openList != null && openList.supportsDynamicMeasurements())
+			return openList;
+		return toFloatList();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		int n = size();
+		sb.append("[");
+		for (int i = 0; i < n; i++) {
+			sb.append(getMeasurementName(i)).append(": ").append(getMeasurementValue(i));
+			if (i < n - 1)
+				sb.append(", ");
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
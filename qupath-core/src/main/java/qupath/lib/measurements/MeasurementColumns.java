@@ -0,0 +1,268 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import qupath.lib.objects.PathObject;
+
+/**
+ * Static methods to get or set the values of measurements for many objects at once.
+ * <p>
+ * Compared to calling {@link MeasurementList#getMeasurementValue(String)} for every object and measurement,
+ * measurement names are only looked up once for each distinct set of measurement names,
+ * and values are read directly from shared storage wherever possible (see {@link MeasurementListFactory}).
+ * <p>
+ * Missing values are returned as NaN. Objects without measurements are treated as having all values missing.
+ * 
+ * @author Pete Bankhead
+ */
+public class MeasurementColumns {
+
+	private MeasurementColumns() {}
+
+	/**
+	 * Get the values of a single measurement for a collection of objects.
+	 * 
+	 * @param pathObjects
+	 * @param name
+	 * @return an array with one entry per object, in the order in which the objects are returned by the collection's iterator
+	 */
+	public static double[] getDoubleValues(final Collection<? extends PathObject> pathObjects, final String name) {
+		return getDoubleColumns(pathObjects, Collections.singletonList(name))[0];
+	}
+
+	/**
+	 * Get the values of several measurements for a collection of objects, as float columns.
+	 * 
+	 * @param pathObjects
+	 * @param names
+	 * @return an array of shape {@code [names.size()][pathObjects.size()]}
+	 */
+	public static float[][] getFloatColumns(final Collection<? extends PathObject> pathObjects, final List<String> names) {
+		int nNames = names.size();
+		float[][] columns = new float[nNames][pathObjects.size()];
+		ColumnResolver resolver = new ColumnResolver(names);
+		int i = 0;
+		for (PathObject pathObject : pathObjects) {
+			MeasurementList list = pathObject.hasMeasurements() ? pathObject.getMeasurementList() : null;
+			if (resolver.resolve(list)) {
+				for (int k = 0; k < nNames; k++)
+					columns[k][i] = resolver.getValue(k);
+			} else {
+				for (int k = 0; k < nNames; k++)
+					columns[k][i] = list == null ? Float.NaN : (float)list.getMeasurementValue(names.get(k));
+			}
+			i++;
+		}
+		return columns;
+	}
+
+	/**
+	 * Get the values of several measurements for a collection of objects, as double columns.
+	 * 
+	 * @param pathObjects
+	 * @param names
+	 * @return an array of shape {@code [names.size()][pathObjects.size()]}
+	 */
+	public static double[][] getDoubleColumns(final Collection<? extends PathObject> pathObjects, final List<String> names) {
+		int nNames = names.size();
+		double[][] columns = new double[nNames][pathObjects.size()];
+		ColumnResolver resolver = new ColumnResolver(names);
+		int i = 0;
+		for (PathObject pathObject : pathObjects) {
+			MeasurementList list = pathObject.hasMeasurements() ? pathObject.getMeasurementList() : null;
+			if (resolver.resolve(list)) {
+				for (int k = 0; k < nNames; k++)
+					columns[k][i] = resolver.getValue(k);
+			} else {
+				for (int k = 0; k < nNames; k++)
+					columns[k][i] = list == null ? Double.NaN : list.getMeasurementValue(names.get(k));
+			}
+			i++;
+		}
+		return columns;
+	}
+
+	/**
+	 * Get the values of several measurements for a collection of objects, as a dense row-major matrix
+	 * (i.e. with the values for each object stored consecutively).
+	 * 
+	 * @param pathObjects
+	 * @param names
+	 * @return an array of length {@code pathObjects.size() * names.size()}
+	 */
+	public static float[] getFloatMatrix(final Collection<? extends PathObject> pathObjects, final List<String> names) {
+		int nNames = names.size();
+		float[] matrix = new float[nNames * pathObjects.size()];
+		ColumnResolver resolver = new ColumnResolver(names);
+		int offset = 0;
+		for (PathObject pathObject : pathObjects) {
+			MeasurementList list = pathObject.hasMeasurements() ? pathObject.getMeasurementList() : null;
+			if (resolver.resolve(list)) {
+				for (int k = 0; k < nNames; k++)
+					matrix[offset + k] = resolver.getValue(k);
+			} else {
+				for (int k = 0; k < nNames; k++)
+					matrix[offset + k] = list == null ? Float.NaN : (float)list.getMeasurementValue(names.get(k));
+			}
+			offset += nNames;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Set the values of several measurements for a collection of objects, adding the measurements if necessary.
+	 * <p>
+	 * The measurement list of each object is closed afterwards.
+	 * 
+	 * @param pathObjects
+	 * @param names
+	 * @param columns an array of shape {@code [names.size()][pathObjects.size()]}, as returned by {@link #getFloatColumns(Collection, List)}
+	 */
+	public static void putFloatColumns(final Collection<? extends PathObject> pathObjects, final List<String> names, final float[][] columns) {
+		checkColumns(pathObjects, names, columns.length, columns.length == 0 ? 0 : columns[0].length);
+		int nNames = names.size();
+		ColumnResolver resolver = new ColumnResolver(names);
+		int i = 0;
+		for (PathObject pathObject : pathObjects) {
+			MeasurementList list = pathObject.getMeasurementList();
+			if (!resolver.resolve(list) || !resolver.hasAllColumns()) {
+				for (int k = 0; k < nNames; k++)
+					list.putMeasurement(names.get(k), columns[k][i]);
+				list.close();
+			} else {
+				for (int k = 0; k < nNames; k++)
+					resolver.setValue(k, columns[k][i]);
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Set the values of several measurements for a collection of objects, adding the measurements if necessary.
+	 * <p>
+	 * The measurement list of each object is closed afterwards.
+	 * 
+	 * @param pathObjects
+	 * @param names
+	 * @param columns an array of shape {@code [names.size()][pathObjects.size()]}, as returned by {@link #getDoubleColumns(Collection, List)}
+	 */
+	public static void putDoubleColumns(final Collection<? extends PathObject> pathObjects, final List<String> names, final double[][] columns) {
+		checkColumns(pathObjects, names, columns.length, columns.length == 0 ? 0 : columns[0].length);
+		int nNames = names.size();
+		ColumnResolver resolver = new ColumnResolver(names);
+		int i = 0;
+		for (PathObject pathObject : pathObjects) {
+			MeasurementList list = pathObject.getMeasurementList();
+			if (!resolver.resolve(list) || !resolver.hasAllColumns()) {
+				for (int k = 0; k < nNames; k++)
+					list.putMeasurement(names.get(k), columns[k][i]);
+				list.close();
+			} else {
+				for (int k = 0; k < nNames; k++)
+					resolver.setValue(k, (float)columns[k][i]);
+			}
+			i++;
+		}
+	}
+
+	private static void checkColumns(final Collection<? extends PathObject> pathObjects, final List<String> names, int nColumns, int nRows) {
+		if (nColumns != names.size())
+			throw new IllegalArgumentException("Number of columns (" + nColumns + ") does not match the number of names (" + names.size() + ")");
+		if (nColumns > 0 && nRows != pathObjects.size())
+			throw new IllegalArgumentException("Column length (" + nRows + ") does not match the number of objects (" + pathObjects.size() + ")");
+	}
+
+
+	/**
+	 * Helper class to give direct access to the shared storage used by {@link ColumnarMeasurementList},
+	 * caching the column indices for the most recent schema.
+	 */
+	private static class ColumnResolver {
+
+		private final List<String> names;
+		private final float[][] columns;
+
+		private ColumnarMeasurementList.Schema schema;
+		private ColumnarMeasurementList.Block block;
+		private int[] indices;
+		private boolean hasAllColumns;
+		private int row;
+
+		ColumnResolver(final List<String> names) {
+			this.names = names;
+			this.columns = new float[names.size()][];
+			this.indices = new int[names.size()];
+		}
+
+		/**
+		 * Prepare to access the values for a specific list.
+		 * 
+		 * @param list
+		 * @return true if the values can be accessed directly, false if they should be requested from the list itself
+		 */
+		boolean resolve(final MeasurementList list) {
+			if (!(list instanceof ColumnarMeasurementList))
+				return false;
+			// Read the block and row from a single snapshot, since either may change if the row is reused
+			ColumnarMeasurementList.TableRow tableRow = ((ColumnarMeasurementList)list).getTableRow();
+			if (tableRow == null)
+				return false;
+			ColumnarMeasurementList.Block currentBlock = tableRow.getBlock();
+			row = tableRow.getRow();
+			if (currentBlock != block) {
+				if (currentBlock.getSchema() != schema) {
+					schema = currentBlock.getSchema();
+					hasAllColumns = true;
+					for (int k = 0; k < indices.length; k++) {
+						indices[k] = schema.getIndex(names.get(k));
+						hasAllColumns = hasAllColumns && indices[k] >= 0;
+					}
+				}
+				block = currentBlock;
+				for (int k = 0; k < indices.length; k++)
+					columns[k] = indices[k] < 0 ? null : block.getColumn(indices[k]);
+			}
+			return true;
+		}
+
+		boolean hasAllColumns() {
+			return hasAllColumns;
+		}
+
+		float getValue(final int k) {
+			float[] column = columns[k];
+			return column == null ? Float.NaN : column[row];
+		}
+
+		void setValue(final int k, final float value) {
+			columns[k][row] = value;
+		}
+
+	}
+
+}
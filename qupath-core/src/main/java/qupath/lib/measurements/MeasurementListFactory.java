@@ -27,6 +27,8 @@ package qupath.lib.measurements;
  * Factory for creating new measurement lists.
  * 
  * For efficiently, (static) Float lists are generally preferred for detection objects.
+ * These store their values in tables shared between lists with the same measurement names, 
+ * and so should be closed once they have been populated.
  * 
  * @author Pete Bankhead
  *
@@ -40,7 +42,7 @@ public class MeasurementListFactory {
 		case DOUBLE:
 			return new NumericMeasurementList.DoubleList(capacity);
 		case FLOAT:
-			return new NumericMeasurementList.FloatList(capacity);
+			return new ColumnarMeasurementList();
 		case GENERAL:
 		default:
 			return new DefaultMeasurementList(capacity);
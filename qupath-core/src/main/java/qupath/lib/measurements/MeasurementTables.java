@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import qupath.lib.objects.PathObject;
+
+/**
+ * Tables used to store the values of measurement lists created with {@link MeasurementList.TYPE#FLOAT}, 
+ * with one table per distinct set of measurement names.
+ * <p>
+ * Newly-closed lists store their values in a set of default tables. Each hierarchy has its own tables, and moves 
+ * the values of objects added to it into these - so that objects in different images don't share storage, 
+ * and threads working on different images don't need to synchronize on the same tables.
+ * 
+ * @author Pete Bankhead
+ */
+public class MeasurementTables {
+
+	private static final MeasurementTables DEFAULT_TABLES = new MeasurementTables();
+
+	private final Map<List<String>, WeakReference<ColumnarMeasurementList.Schema>> schemas = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a new, empty set of tables.
+	 */
+	public MeasurementTables() {
+		super();
+	}
+
+	/**
+	 * Get the tables used for lists that haven't been moved elsewhere.
+	 * 
+	 * @return
+	 */
+	static MeasurementTables getDefaultTables() {
+		return DEFAULT_TABLES;
+	}
+
+	/**
+	 * Get the schema corresponding to a list of names, creating a new one if necessary.
+	 * 
+	 * @param names
+	 * @return
+	 */
+	ColumnarMeasurementList.Schema getSchema(final List<String> names) {
+		WeakReference<ColumnarMeasurementList.Schema> ref = schemas.get(names);
+		ColumnarMeasurementList.Schema schema = ref == null ? null : ref.get();
+		if (schema != null)
+			return schema;
+		synchronized (schemas) {
+			ref = schemas.get(names);
+			schema = ref == null ? null : ref.get();
+			if (schema == null) {
+				// Remove entries for schemas that are no longer used
+				schemas.values().removeIf(r -> r.get() == null);
+				schema = new ColumnarMeasurementList.Schema(this, names);
+				schemas.put(schema.getNames(), new WeakReference<>(schema));
+			}
+			return schema;
+		}
+	}
+
+	/**
+	 * Move the measurement values of the specified objects into these tables, if they are stored in other tables.
+	 * Measurement lists that don't use tables are unchanged.
+	 * 
+	 * @param pathObjects
+	 * @return the number of measurement lists whose values were moved
+	 */
+	public int addMeasurements(final Collection<? extends PathObject> pathObjects) {
+		int n = 0;
+		for (PathObject pathObject : pathObjects) {
+			if (!pathObject.hasMeasurements())
+				continue;
+			MeasurementList list = pathObject.getMeasurementList();
+			if (list instanceof ColumnarMeasurementList && ((ColumnarMeasurementList)list).moveToTables(this))
+				n++;
+		}
+		return n;
+	}
+
+}
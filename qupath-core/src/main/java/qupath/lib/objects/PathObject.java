@@ -36,6 +36,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.measurements.MeasurementListFactory;
@@ -70,6 +71,9 @@ public abstract class PathObject implements Externalizable {
 
 	transient private Collection<PathObject> cachedUnmodifiableChildren = null;
 	
+	// Function used to load child objects on demand, or null if all children have been loaded
+	transient private volatile Consumer<PathObject> deferredChildLoader = null;
+	
 
 	/**
 	 * Create a PathObject with a specific measurement list.
@@ -178,7 +182,7 @@ public abstract class PathObject implements Externalizable {
 			else
 				return String.format(" - %d points", nPoints);
 		}
-		if (!hasChildren())
+		if (!hasLoadedChildren())
 			return "";
 		if (childList.size() == 1)
 			return " - 1 object";
@@ -208,7 +212,7 @@ public abstract class PathObject implements Externalizable {
 	}
 	
 	private void addPathObjectImpl(PathObject pathObject) {
-		ensureChildList(nChildObjects() + 1);
+		ensureChildList(nLoadedChildObjects() + 1);
 		// Make sure the object is removed from any other parent
 		if (pathObject.parent != this) {
 			if (pathObject.parent != null && pathObject.parent.childList != null)
@@ -225,7 +229,7 @@ public abstract class PathObject implements Externalizable {
 	private void addPathObjectsImpl(Collection<? extends PathObject> pathObjects) {
 		if (pathObjects == null || pathObjects.isEmpty())
 			return;
-		ensureChildList(nChildObjects() + pathObjects.size());
+		ensureChildList(nLoadedChildObjects() + pathObjects.size());
 		// Make sure the object is removed from any other parent
 		Iterator<? extends PathObject> iter = pathObjects.iterator();
 		PathObject lastBatchRemoveParent = null;
@@ -365,7 +369,7 @@ public abstract class PathObject implements Externalizable {
 	}
 
 	public void removePathObject(PathObject pathObject) {
-		if (!hasChildren())
+		if (!hasLoadedChildren())
 			return;
 		if (pathObject.parent == this)
 			pathObject.parent = null; //.setParent(null);
@@ -373,7 +377,7 @@ public abstract class PathObject implements Externalizable {
 	}
 	
 	public void removePathObjects(Collection<PathObject> pathObjects) {
-		if (!hasChildren())
+		if (!hasLoadedChildren())
 			return;
 		for (PathObject pathObject : pathObjects) {
 			if (pathObject.parent == this)
@@ -383,7 +387,7 @@ public abstract class PathObject implements Externalizable {
 	}
 	
 	public void clearPathObjects() {
-		if (!hasChildren())
+		if (!hasLoadedChildren())
 			return;
 		for (PathObject pathObject : childList) {
 			if (pathObject.parent == this)
@@ -392,14 +396,64 @@ public abstract class PathObject implements Externalizable {
 		childList.clear();
 	}
 	
+	/**
+	 * Get the number of child objects.
+	 * If some children have not yet been loaded (see {@link #hasDeferredChildren()}), this will first attempt to load them.
+	 * 
+	 * @return
+	 */
 	public int nChildObjects() {
-		return childList == null ? 0 : childList.size();
+		loadDeferredChildren();
+		return nLoadedChildObjects();
 	}
 	
+	/**
+	 * Returns true if the object has child objects, including any that have not yet been loaded.
+	 * 
+	 * @return
+	 */
 	public boolean hasChildren() {
+		return deferredChildLoader != null || hasLoadedChildren();
+	}
+	
+	private int nLoadedChildObjects() {
+		return childList == null ? 0 : childList.size();
+	}
+	
+	private boolean hasLoadedChildren() {
 		return childList != null && !childList.isEmpty();
 	}
 	
+	/**
+	 * Set a function used to load child objects on demand, e.g. because they are stored in a file and have not yet been read.
+	 * The function is called with this object whenever the child objects are requested, until it is reset to null.
+	 * <p>
+	 * This is intended for use by a {@link qupath.lib.objects.hierarchy.PathObjectHierarchy} that loads objects lazily;
+	 * it should not generally be called elsewhere.
+	 * 
+	 * @param loader the function, or null if all children have been loaded
+	 */
+	public void setDeferredChildLoader(Consumer<PathObject> loader) {
+		this.deferredChildLoader = loader;
+	}
+	
+	/**
+	 * Returns true if some child objects have not yet been loaded.
+	 * Requesting the children will generally cause them to be loaded, although this might not be possible 
+	 * (e.g. while the hierarchy is being read by the current thread).
+	 * 
+	 * @return
+	 */
+	public boolean hasDeferredChildren() {
+		return deferredChildLoader != null;
+	}
+	
+	private void loadDeferredChildren() {
+		var loader = deferredChildLoader;
+		if (loader != null)
+			loader.accept(this);
+	}
+	
 	public boolean hasROI() {
 		return getROI() != null;
 	}
@@ -440,9 +494,12 @@ public abstract class PathObject implements Externalizable {
 	/**
 	 * Get a list of child objects.
 	 * In the current implementation, this is immutable - it cannot be modified directly!
+	 * <p>
+	 * If some children have not yet been loaded (see {@link #hasDeferredChildren()}), this will first attempt to load them.
 	 * @return
 	 */
 	public Collection<PathObject> getChildObjects() {
+		loadDeferredChildren();
 		if (childList == null)
 			return Collections.emptyList();
 		if (cachedUnmodifiableChildren == null)
@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Interface for adding objects to a {@link PathObjectHierarchy} on demand, rather than all at once.
+ * <p>
+ * This makes it possible to (for example) open a data file containing millions of detections quickly,
+ * only reading the detections for the parts of the image that are actually being viewed or queried.
+ * <p>
+ * Each object that is loaded is returned along with the object that was its parent when it was saved.  
+ * Parents are identified by a stable ID (rather than by their position within the hierarchy), and it is up 
+ * to the hierarchy to add the loaded objects to their parents - or to find new parents, if necessary.
+ * Implementations should be thread-safe.
+ * 
+ * @author Pete Bankhead
+ * 
+ * @see PathObjectHierarchy#setDeferredObjectLoader(DeferredObjectLoader)
+ */
+public interface DeferredObjectLoader {
+
+	/**
+	 * Check whether any objects that might overlap the specified region have not yet been loaded.
+	 * 
+	 * @param region the region of interest, or null if the entire image should be considered
+	 * @return
+	 */
+	public boolean hasDeferredObjects(ImageRegion region);
+
+	/**
+	 * Check whether any objects of a specified type have not yet been loaded.
+	 * 
+	 * @param cls the type of object (including subclasses), or null if all objects should be considered
+	 * @return
+	 */
+	public boolean hasDeferredObjects(Class<? extends PathObject> cls);
+
+	/**
+	 * Check whether any children of an object have not yet been loaded.
+	 * 
+	 * @param parent
+	 * @param includeDescendants if true, also check for children of any descendants of the parent
+	 * @return
+	 */
+	public boolean hasDeferredChildren(PathObject parent, boolean includeDescendants);
+
+	/**
+	 * Get all the objects that have child objects that have not yet been loaded.
+	 * 
+	 * @return
+	 */
+	public Collection<PathObject> getParentsWithDeferredChildren();
+
+	/**
+	 * Load all objects that might overlap the specified region.
+	 * 
+	 * @param region the region of interest, or null if all objects should be loaded
+	 * @return the newly-loaded objects, grouped according to the parent they had when saved; descendants of the loaded objects are already attached
+	 */
+	public Map<PathObject, List<PathObject>> loadObjectsForRegion(ImageRegion region);
+
+	/**
+	 * Load all objects that might include objects of the specified type.
+	 * 
+	 * @param cls the type of object (including subclasses), or null if all objects should be loaded
+	 * @return the newly-loaded objects, grouped according to the parent they had when saved; descendants of the loaded objects are already attached
+	 */
+	public Map<PathObject, List<PathObject>> loadObjects(Class<? extends PathObject> cls);
+
+	/**
+	 * Load all the children of an object.
+	 * 
+	 * @param parent
+	 * @param includeDescendants if true, also load children of any descendants of the parent
+	 * @return the newly-loaded objects, grouped according to the parent they had when saved; descendants of the loaded objects are already attached
+	 */
+	public Map<PathObject, List<PathObject>> loadChildObjects(PathObject parent, boolean includeDescendants);
+
+	/**
+	 * Get the number of objects that have not yet been loaded.
+	 * 
+	 * @return
+	 */
+	public int nDeferredObjects();
+
+}
@@ -29,20 +29,29 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.Vector;
+
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import qupath.lib.measurements.MeasurementTables;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathDetectionObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathRootObject;
 import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.TemporaryObject;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
@@ -59,6 +68,11 @@ import qupath.lib.roi.interfaces.ROI;
  * to maintain a more consistent structure (e.g. by automatically inserting objects as children of the objects whose ROI completely
  * contains the object to be added), along with a spatial cache so that objects can be extracted if their ROIs overlap with a specified region.
  * <p>
+ * Methods that query the hierarchy structure may be called concurrently from different threads, while methods that change
+ * the structure (e.g. adding or removing objects) are exclusive.  Changes made by modifying child objects directly
+ * (i.e. not via the hierarchy) are not protected in this way, and so should be avoided if the hierarchy may be accessed
+ * from other threads at the same time.
+ * <p>
  * Note: Be cautious when deserializing - it may not result in a hierarchy in a valid state.
  * As a workaround, you can construct a new PathObjectHierarchy and call setHierarchy(deserializedHierarchy) to
  * ensure that you have a properly-constructed hierarchy with the same data within it.
@@ -71,6 +85,11 @@ public final class PathObjectHierarchy implements Serializable {
 	private static final long serialVersionUID = 1L;
 	
 	final private static Logger logger = LoggerFactory.getLogger(PathObjectHierarchy.class);
+	
+	/**
+	 * Minimum number of detections passed to {@link #addPathObjects(Collection, boolean)} before they are added in bulk.
+	 */
+	private final static int MIN_DETECTIONS_FOR_BULK_INSERTION = 1000;
 			
 	// TODO: Make this a choice - currently a cell object is considered 'inside' if its nucleus is fully contained (as cell boundaries themselves are a little more questionable)
 	/*
@@ -92,8 +111,13 @@ public final class PathObjectHierarchy implements Serializable {
 
 	
 	
-	private TMAGrid tmaGrid = null;
-	private PathObject rootObject = new PathRootObject();
+	private volatile TMAGrid tmaGrid = null;
+	private volatile PathObject rootObject = new PathRootObject();
+	
+	// Lock to allow the hierarchy to be queried concurrently, but only modified by one thread at a time
+	transient private ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+	transient private Lock r = rwl.readLock();
+	transient private Lock w = rwl.writeLock();
 	
 	transient private PathObjectSelectionModel selectionModel = new PathObjectSelectionModel();
 	transient private Vector<PathObjectHierarchyListener> listeners = new Vector<>();
@@ -101,6 +125,12 @@ public final class PathObjectHierarchy implements Serializable {
 	// Cache enabling faster access of objects according to location
 	transient private PathObjectTileCache tileCache = new PathObjectTileCache(this);
 
+	// Tables storing the measurements of objects in this hierarchy, separately from those of other images
+	transient private MeasurementTables measurementTables = new MeasurementTables();
+
+	// Optional loader for objects that should only be added to the hierarchy when they are needed
+	transient private volatile DeferredObjectLoader deferredLoader = null;
+
 	
 	public PathObjectHierarchy() {
 		super();
@@ -112,8 +142,202 @@ public final class PathObjectHierarchy implements Serializable {
 	 * 
 	 * @return
 	 */
-	public synchronized boolean isEmpty() {
-		return (tmaGrid == null || tmaGrid.nCores() == 0) && !rootObject.hasChildren();// && featureMaps.isEmpty();
+	public boolean isEmpty() {
+		return (tmaGrid == null || tmaGrid.nCores() == 0) && !rootObject.hasChildren() && !hasDeferredObjects();// && featureMaps.isEmpty();
+	}
+	
+	/**
+	 * Set a loader that can add objects to this hierarchy on demand.
+	 * <p>
+	 * Objects will be loaded automatically for any region requested with {@link #getObjectsForRegion(Class, ImageRegion, Collection)}
+	 * or {@link #getObjectsForROI(Class, ROI)}, while methods that need to consider the entire hierarchy (e.g. {@link #getDetectionObjects()})
+	 * will cause all remaining objects of the relevant type to be loaded.  Structural changes made via the hierarchy will first load any objects that might be affected.
+	 * <p>
+	 * Children are also loaded whenever they are requested from their parent (e.g. by {@link PathObject#getChildObjects()}), unless the hierarchy 
+	 * is being read by the same thread; {@link PathObject#hasDeferredChildren()} can be used to check whether any children are still pending.
+	 * 
+	 * @param loader the loader, or null if no objects should be loaded on demand
+	 */
+	public void setDeferredObjectLoader(DeferredObjectLoader loader) {
+		w.lock();
+		try {
+			setDeferredChildLoaders(deferredLoader, false);
+			this.deferredLoader = loader;
+			setDeferredChildLoaders(loader, true);
+		} finally {
+			w.unlock();
+		}
+	}
+	
+	/**
+	 * Install (or remove) the functions that load the children of objects on demand.
+	 */
+	private void setDeferredChildLoaders(DeferredObjectLoader loader, boolean install) {
+		if (loader == null)
+			return;
+		for (PathObject parent : loader.getParentsWithDeferredChildren())
+			parent.setDeferredChildLoader(install ? this::loadDeferredChildren : null);
+	}
+	
+	/**
+	 * Check if any objects belonging to this hierarchy have not yet been loaded.
+	 * 
+	 * @return
+	 * @see #setDeferredObjectLoader(DeferredObjectLoader)
+	 */
+	public boolean hasDeferredObjects() {
+		var loader = deferredLoader;
+		return loader != null && loader.nDeferredObjects() > 0;
+	}
+	
+	/**
+	 * Ensure that all objects have been loaded, if a {@link DeferredObjectLoader} has been set.
+	 */
+	public void loadDeferredObjects() {
+		loadDeferredObjects((ImageRegion)null);
+	}
+	
+	/**
+	 * Load any objects that might be found within a region.
+	 * 
+	 * @param region the region, or null if all objects should be loaded
+	 */
+	private void loadDeferredObjects(ImageRegion region) {
+		var loader = deferredLoader;
+		if (loader == null || !loader.hasDeferredObjects(region) || !canLoadDeferredObjects())
+			return;
+		w.lock();
+		try {
+			if (loader == deferredLoader)
+				addDeferredObjects(loader, loader.loadObjectsForRegion(region));
+		} finally {
+			w.unlock();
+		}
+	}
+	
+	/**
+	 * Load any objects of the specified type.
+	 * 
+	 * @param cls the type of object, or null if all objects should be loaded
+	 */
+	private void loadDeferredObjects(Class<? extends PathObject> cls) {
+		var loader = deferredLoader;
+		if (loader == null || !loader.hasDeferredObjects(cls) || !canLoadDeferredObjects())
+			return;
+		w.lock();
+		try {
+			if (loader == deferredLoader)
+				addDeferredObjects(loader, loader.loadObjects(cls));
+		} finally {
+			w.unlock();
+		}
+	}
+	
+	/**
+	 * Load any objects that might be affected by structural changes involving the specified object.
+	 * This includes all its descendants, as well as any objects within its ROI.
+	 * 
+	 * @param pathObject
+	 */
+	private void loadDeferredObjects(PathObject pathObject) {
+		var loader = deferredLoader;
+		if (loader == null)
+			return;
+		if (pathObject == null || !pathObject.hasROI() || pathObject.isRootObject()) {
+			loadDeferredObjects((ImageRegion)null);
+			return;
+		}
+		if (loader.hasDeferredChildren(pathObject, true) && canLoadDeferredObjects()) {
+			w.lock();
+			try {
+				if (loader == deferredLoader)
+					addDeferredObjects(loader, loader.loadChildObjects(pathObject, true));
+			} finally {
+				w.unlock();
+			}
+		}
+		loadDeferredObjects(ImageRegion.createInstance(pathObject.getROI()));
+	}
+	
+	/**
+	 * Load the children of an object, if they have not already been loaded.
+	 * This is called by the object itself whenever its children are requested.
+	 * 
+	 * @param parent
+	 */
+	private void loadDeferredChildren(PathObject parent) {
+		var loader = deferredLoader;
+		if (loader == null || !loader.hasDeferredChildren(parent, false)) {
+			parent.setDeferredChildLoader(null);
+			return;
+		}
+		if (!canLoadDeferredObjects())
+			return;
+		w.lock();
+		try {
+			if (loader == deferredLoader)
+				addDeferredObjects(loader, loader.loadChildObjects(parent, false));
+		} finally {
+			w.unlock();
+		}
+	}
+	
+	/**
+	 * Loading objects changes the hierarchy &amp; tile cache, which isn't possible if the current thread is only reading either of them.
+	 * 
+	 * @return
+	 */
+	private boolean canLoadDeferredObjects() {
+		if (tileCache.isLockedByCurrentThread()) {
+			logger.trace("Unable to load deferred objects while the object cache is being updated");
+			return false;
+		}
+		if (rwl.getReadHoldCount() > 0 && !rwl.isWriteLockedByCurrentThread()) {
+			logger.trace("Unable to load deferred objects while the hierarchy is being read");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Add objects returned by the deferred loader to the hierarchy.
+	 * Objects are added to the parent they had when saved if it is still in the hierarchy, or otherwise to the object that would now contain them.
+	 * This should only be called while holding the write lock.
+	 * 
+	 * @param loader
+	 * @param pathObjectsByParent
+	 */
+	private void addDeferredObjects(DeferredObjectLoader loader, Map<PathObject, List<PathObject>> pathObjectsByParent) {
+		if (!pathObjectsByParent.isEmpty()) {
+			List<PathObject> orphans = new ArrayList<>();
+			for (Entry<PathObject, List<PathObject>> entry : pathObjectsByParent.entrySet()) {
+				PathObject parent = entry.getKey();
+				if (!loader.hasDeferredChildren(parent, false))
+					parent.setDeferredChildLoader(null);
+				// The parent might have been removed from the hierarchy since the objects were saved
+				if (inHierarchy(parent))
+					parent.addPathObjects(entry.getValue());
+				else
+					orphans.addAll(entry.getValue());
+			}
+			if (!orphans.isEmpty()) {
+				logger.debug("Finding new parents for {} deferred object(s)", orphans.size());
+				tileCache.hasObjectsForRegion(PathAnnotationObject.class, null, true);
+				PathObject rootObject = getRootObject();
+				boolean includeTMACores = tmaGrid != null;
+				Map<PathObject, PointOnGeometryLocator> locators = new HashMap<>();
+				for (PathObject pathObject : orphans) {
+					PathObject parent = pathObject.hasROI() ? findParentForDetection(pathObject, rootObject, includeTMACores, locators) : rootObject;
+					parent.addPathObject(pathObject);
+				}
+			}
+			List<PathObject> pathObjects = new ArrayList<>();
+			for (List<PathObject> list : pathObjectsByParent.values())
+				pathObjects.addAll(list);
+			tileCache.addObjectsToCache(pathObjects);
+		}
+		if (loader.nDeferredObjects() == 0)
+			deferredLoader = null;
 	}
 	
 	public void addPathObjectListener(PathObjectHierarchyListener listener) {
@@ -128,10 +352,20 @@ public final class PathObjectHierarchy implements Serializable {
 		return rootObject;
 	}
 		
-	public synchronized TMAGrid getTMAGrid() {
+	public TMAGrid getTMAGrid() {
 		return tmaGrid;
 	}
 	
+	/**
+	 * Get statistics describing how often the spatial cache used to find objects by region has been rebuilt or updated.
+	 * This is useful to diagnose performance problems when the hierarchy changes frequently.
+	 * 
+	 * @return a snapshot of the current statistics
+	 */
+	public TileCacheStatistics getTileCacheStatistics() {
+		return tileCache.getStatistics();
+	}
+	
 	public PathObjectSelectionModel getSelectionModel() {
 		return selectionModel;
 	}
@@ -150,57 +384,79 @@ public final class PathObjectHierarchy implements Serializable {
 //		this.changing = changing;
 //	}
 	
-	public synchronized void setTMAGrid(TMAGrid tmaGrid) {
-		clearTMAGrid();
-		if (tmaGrid == null)
-			return;
-		this.tmaGrid = tmaGrid;
-		updateTMAHierarchy();
+	public void setTMAGrid(TMAGrid tmaGrid) {
+		w.lock();
+		try {
+			loadDeferredObjects();
+			clearTMAGrid();
+			if (tmaGrid == null)
+				return;
+			this.tmaGrid = tmaGrid;
+			updateTMAHierarchy();
+		} finally {
+			w.unlock();
+		}
 	}
 	
 	// TODO: Improve TMA grid modification whenever many detection objects already exist
-	synchronized void clearTMAGrid() {
-		if (tmaGrid == null)
-			return;
-		removeObjects(new ArrayList<>(tmaGrid.getTMACoreList()), true);
+	void clearTMAGrid() {
+		w.lock();
+		try {
+			if (tmaGrid == null)
+				return;
+			removeObjects(new ArrayList<>(tmaGrid.getTMACoreList()), true);
 //		for (TMACoreObject core : tmaGrid.getTMACoreList())
 //			removeObject(core, true);
 //		this.tmaGrid = null;
-		// Notify listeners of changes
-		fireHierarchyChangedEvent(getRootObject());
+			// Notify listeners of changes
+			fireHierarchyChangedEvent(getRootObject());
+		} finally {
+			w.unlock();
+		}
 	}
 	
-	public synchronized boolean removeObject(PathObject pathObject, boolean keepChildren) {
+	public boolean removeObject(PathObject pathObject, boolean keepChildren) {
 		return removeObject(pathObject, keepChildren, true);
 	}
 	
-	public synchronized boolean removeObject(PathObject pathObject, boolean keepChildren, boolean fireEvent) {
-		// Check the object is within the hierarchy & has a valid parent (from which it can be removed)
-		PathObject pathObjectParent = pathObject.getParent();
-		if (!inHierarchy(pathObject) || pathObjectParent == null) {
-			logger.warn(pathObject + " could not be removed from the hierarchy");
-			return false;
-		}
+	public boolean removeObject(PathObject pathObject, boolean keepChildren, boolean fireEvent) {
+		w.lock();
+		try {
+			loadDeferredObjects(pathObject);
+			// Check the object is within the hierarchy & has a valid parent (from which it can be removed)
+			PathObject pathObjectParent = pathObject.getParent();
+			if (!inHierarchy(pathObject) || pathObjectParent == null) {
+				logger.warn(pathObject + " could not be removed from the hierarchy");
+				return false;
+			}
 
-		// Can't keep children if there aren't any
-		boolean hasChildren = pathObject.hasChildren();
+			// Can't keep children if there aren't any
+			boolean hasChildren = pathObject.hasChildren();
+			// Children of temporary objects aren't visible to all listeners, so they need to be reported as added when they are kept
+			List<PathObject> childrenAdded = keepChildren && hasChildren && pathObject instanceof TemporaryObject ?
+					new ArrayList<>(pathObject.getChildObjects()) : null;
 		
-		pathObjectParent.removePathObject(pathObject);
+			pathObjectParent.removePathObject(pathObject);
 
-		// Assign the children to the parent object, if necessary
-		if (keepChildren && hasChildren) {
-			// We create a new array list because getPathObjectList returns an unmodifiable collection
+			// Assign the children to the parent object, if necessary
+			if (keepChildren && hasChildren) {
+				// We create a new array list because getPathObjectList returns an unmodifiable collection
 //			List<PathObject> list = new ArrayList<>(pathObject.getPathObjectList());
-			pathObjectParent.addPathObjects(pathObject.getChildObjects());
+				pathObjectParent.addPathObjects(pathObject.getChildObjects());
 //			pathObject.clearPathObjects(); // Clear child objects, just in case
+			}
+			if (fireEvent) {
+				if (childrenAdded != null)
+					fireHierarchyChangedEvent(this, pathObjectParent, childrenAdded, Collections.singletonList(pathObject));
+				else if (keepChildren || !hasChildren)
+					fireObjectRemovedEvent(this, pathObject, pathObjectParent);
+				else
+					fireHierarchyChangedEvent(this, pathObjectParent, Collections.emptyList(), Collections.singletonList(pathObject));
+			}
+			return true;
+		} finally {
+			w.unlock();
 		}
-		if (fireEvent) {
-			if (keepChildren || !hasChildren)
-				fireObjectRemovedEvent(this, pathObject, pathObjectParent);
-			else
-				fireHierarchyChangedEvent(this, pathObjectParent);
-		}
-		return true;
 	}
 	
 	/**
@@ -210,47 +466,60 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param pathObjects
 	 * @param keepChildren
 	 */
-	public synchronized void removeObjects(Collection<? extends PathObject> pathObjects, boolean keepChildren) {
+	public void removeObjects(Collection<? extends PathObject> pathObjects, boolean keepChildren) {
+		w.lock();
+		try {
+			if (pathObjects.isEmpty())
+				return;
 		
-		if (pathObjects.isEmpty())
-			return;
+			if (deferredLoader != null) {
+				if (pathObjects.size() == 1)
+					loadDeferredObjects(pathObjects.iterator().next());
+				else
+					loadDeferredObjects();
+			}
 		
-		List<PathObject> pathObjectSet = new ArrayList<>(pathObjects);
-		pathObjectSet.sort((o1, o2) -> Integer.compare(o2.getLevel(), o1.getLevel()));
+			List<PathObject> pathObjectSet = new ArrayList<>(pathObjects);
+			pathObjectSet.sort((o1, o2) -> Integer.compare(o2.getLevel(), o1.getLevel()));
 		
-		// Determine the parents for each object
-		Map<PathObject, List<PathObject>> map = new HashMap<>();
-		for (PathObject pathObject : pathObjectSet) {
-			PathObject parent = pathObject.getParent();
-			if (parent == null)
-				continue;
-			List<PathObject> list = map.get(parent);
-			if (list == null) {
-				list = new ArrayList<>();
-				map.put(parent, list);
+			// Determine the parents for each object
+			Map<PathObject, List<PathObject>> map = new HashMap<>();
+			for (PathObject pathObject : pathObjectSet) {
+				PathObject parent = pathObject.getParent();
+				if (parent == null)
+					continue;
+				List<PathObject> list = map.get(parent);
+				if (list == null) {
+					list = new ArrayList<>();
+					map.put(parent, list);
+				}
+				list.add(pathObject);
 			}
-			list.add(pathObject);
-		}
 		
-		if (map.isEmpty())
-			return;
+			if (map.isEmpty())
+				return;
 		
-		// Loop through and remove objects
-		for (Entry<PathObject, List<PathObject>> entry : map.entrySet()) {
-			PathObject parent = entry.getKey();
-			List<PathObject> children = entry.getValue();
-			parent.removePathObjects(children);
-			if (keepChildren) {
-				for (PathObject child : children) {
-					if (child.hasChildren()) {
-						List<PathObject> newChildList = new ArrayList<>(child.getChildObjects());
-						newChildList.removeAll(pathObjects);
-						parent.addPathObjects(newChildList);
+			// Loop through and remove objects
+			List<PathObject> removed = new ArrayList<>();
+			for (Entry<PathObject, List<PathObject>> entry : map.entrySet()) {
+				PathObject parent = entry.getKey();
+				List<PathObject> children = entry.getValue();
+				parent.removePathObjects(children);
+				removed.addAll(children);
+				if (keepChildren) {
+					for (PathObject child : children) {
+						if (child.hasChildren()) {
+							List<PathObject> newChildList = new ArrayList<>(child.getChildObjects());
+							newChildList.removeAll(pathObjects);
+							parent.addPathObjects(newChildList);
+						}
 					}
 				}
 			}
+			fireHierarchyChangedEvent(this, getRootObject(), Collections.emptyList(), removed);
+		} finally {
+			w.unlock();
 		}
-		fireHierarchyChangedEvent(this);
 	}
 	
 	
@@ -261,7 +530,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param pathObject
 	 * @return
 	 */
-	private synchronized boolean inHierarchy(PathObject pathObject) { // made private as only called here
+	private boolean inHierarchy(PathObject pathObject) { // made private as only called here
 		if (pathObject == null)
 			return false;
 		while (pathObject.getParent() != null)
@@ -270,7 +539,7 @@ public final class PathObjectHierarchy implements Serializable {
 	}
 	
 	
-	private synchronized void updateTMAHierarchy() {
+	private void updateTMAHierarchy() {
 		if (tmaGrid == null)
 			return;
 
@@ -309,48 +578,53 @@ public final class PathObjectHierarchy implements Serializable {
 //J		return true;
 //J	}
 	
-	// TODO: Be very cautious about this!!!!  Use of tileCache inside a synchronized method might lead to deadlocks?
-	private synchronized boolean addPathObjectToList(PathObject pathObjectParent, PathObject pathObject, boolean avoidDuplicates, boolean fireChangeEvents) {
+	// Note that the tile cache is used while holding the write lock, so the cache itself must never try to lock the hierarchy
+	private boolean addPathObjectToList(PathObject pathObjectParent, PathObject pathObject, boolean avoidDuplicates, boolean fireChangeEvents) {
+		w.lock();
+		try {
+			if (pathObject != null && !pathObject.isDetection())
+				logger.trace("Adding {} to hierarchy", pathObject);
 		
-		if (pathObject != null && !pathObject.isDetection())
-			logger.trace("Adding {} to hierarchy", pathObject);
+			// Ensure any objects that might become children have been loaded
+			if (!pathObject.isDetection())
+				loadDeferredObjects(pathObject);
 		
-		// Get all the annotations that might be a parent of this object
-		var region = ImageRegion.createInstance(pathObject.getROI());
-		Collection<PathObject> tempSet = new HashSet<>();
-		tempSet.add(getRootObject());
-		tileCache.getObjectsForRegion(PathAnnotationObject.class, region, tempSet, true);
-		if (tmaGrid != null)
-			tileCache.getObjectsForRegion(TMACoreObject.class, region, tempSet, true);
+			// Get all the annotations that might be a parent of this object
+			var region = ImageRegion.createInstance(pathObject.getROI());
+			Collection<PathObject> tempSet = new HashSet<>();
+			tempSet.add(getRootObject());
+			tileCache.getObjectsForRegion(PathAnnotationObject.class, region, tempSet, true);
+			if (tmaGrid != null)
+				tileCache.getObjectsForRegion(TMACoreObject.class, region, tempSet, true);
 		
-		if (pathObjectParent != null) {
-			tempSet.removeIf(p -> p != pathObjectParent && !PathObjectTools.isAncestor(p, pathObjectParent));
-		}
+			if (pathObjectParent != null) {
+				tempSet.removeIf(p -> p != pathObjectParent && !PathObjectTools.isAncestor(p, pathObjectParent));
+			}
 
-		var possibleObjects = new ArrayList<PathObject>(tempSet);
-		Collections.sort(possibleObjects, (p1, p2) -> -Integer.compare(p1.getLevel(), p2.getLevel()));
+			var possibleObjects = new ArrayList<PathObject>(tempSet);
+			Collections.sort(possibleObjects, (p1, p2) -> -Integer.compare(p1.getLevel(), p2.getLevel()));
 
-		for (PathObject possibleParent : possibleObjects) {
-			if (possibleParent == pathObject || possibleParent.isDetection())
-				continue;
-			boolean addObject = possibleParent.isRootObject();
-			if (!addObject) {
-				if (pathObject.isDetection())
-					addObject = tileCache.containsCentroid(possibleParent, pathObject);
-				else
-					addObject = tileCache.covers(possibleParent, pathObject) ||
-									pathObjectParent != null && possibleParent == pathObjectParent;
-			}
-			if (addObject) {
-				if (pathObject.getParent() == possibleParent)
-					return false;
+			for (PathObject possibleParent : possibleObjects) {
+				if (possibleParent == pathObject || possibleParent.isDetection())
+					continue;
+				boolean addObject = possibleParent.isRootObject();
+				if (!addObject) {
+					if (pathObject.isDetection())
+						addObject = tileCache.containsCentroid(possibleParent, pathObject);
+					else
+						addObject = tileCache.covers(possibleParent, pathObject) ||
+										pathObjectParent != null && possibleParent == pathObjectParent;
+				}
+				if (addObject) {
+					if (pathObject.getParent() == possibleParent)
+						return false;
 				
-				var previousChildren = new HashSet<>(possibleParent.getChildObjects());
-				possibleParent.addPathObject(pathObject);
-				// If we have a non-detection, consider reassigning child objects
-				if (!pathObject.isDetection()) {
+					var previousChildren = new HashSet<>(possibleParent.getChildObjects());
+					possibleParent.addPathObject(pathObject);
+					// If we have a non-detection, consider reassigning child objects
+					if (!pathObject.isDetection()) {
 //					long startTime = System.currentTimeMillis();
-					pathObject.addPathObjects(filterObjectsForROI(pathObject.getROI(), previousChildren));
+						pathObject.addPathObjects(filterObjectsForROI(pathObject.getROI(), previousChildren));
 					
 //					var toAdd = previousChildren.parallelStream().filter(child -> {
 //						if (child.isDetection())
@@ -372,15 +646,18 @@ public final class PathObjectHierarchy implements Serializable {
 //					}
 //					long endTime = System.currentTimeMillis();
 //					System.err.println("Add time: " + (endTime - startTime));
-				}
+					}
 				
-				// Notify listeners of changes, if required
-				if (fireChangeEvents)
-					fireObjectAddedEvent(this, pathObject);
-				return true;
+					// Notify listeners of changes, if required
+					if (fireChangeEvents)
+						fireObjectAddedEvent(this, pathObject);
+					return true;
+				}
 			}
+			return true;
+		} finally {
+			w.unlock();
 		}
-		return true;
 	}
 	
 	
@@ -392,7 +669,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param avoidDuplicates
 	 * @return
 	 */
-	public synchronized boolean addPathObject(PathObject pathObject, boolean avoidDuplicates) {
+	public boolean addPathObject(PathObject pathObject, boolean avoidDuplicates) {
 		return addPathObject(pathObject, avoidDuplicates, true);
 	}
 	
@@ -405,46 +682,166 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param fireUpdate
 	 * @return
 	 */
-	public synchronized boolean addPathObjectBelowParent(PathObject pathObjectParent, PathObject pathObject, boolean avoidDuplicates, boolean fireUpdate) {
+	public boolean addPathObjectBelowParent(PathObject pathObjectParent, PathObject pathObject, boolean avoidDuplicates, boolean fireUpdate) {
 		if (pathObjectParent == null)
 			return addPathObject(pathObject, avoidDuplicates, fireUpdate);
 		else
 			return addPathObjectToList(pathObjectParent, pathObject, avoidDuplicates, fireUpdate);
 	}
 	
-	public synchronized boolean addPathObject(PathObject pathObject, boolean avoidDuplicates, boolean fireUpdate) {
+	public boolean addPathObject(PathObject pathObject, boolean avoidDuplicates, boolean fireUpdate) {
 		if (pathObject == getRootObject() || !pathObject.hasROI())
 			return false;
 		return addPathObjectToList(getRootObject(), pathObject, avoidDuplicates, fireUpdate);
 	}
 	
-	public synchronized boolean addPathObjects(Collection<? extends PathObject> pathObjects, boolean avoidDuplicates) {
-		boolean changes = false;
-		int n = pathObjects.size();
-		int counter = 0;
-		for (PathObject pathObject : pathObjects) {
-			if (n > 10000) {
-				if (counter % 1000 == 0)
+	/**
+	 * Add multiple objects to the hierarchy, firing a single 'hierarchy changed' event afterwards if anything changed.
+	 * <p>
+	 * When many detections are added, their parents are identified in parallel and the detections are then
+	 * added to each parent in a single batch, which is much faster than adding the detections one by one.
+	 * Any other objects are added first, since they may become parents of the detections.
+	 * 
+	 * @param pathObjects
+	 * @param avoidDuplicates
+	 * @return true if the hierarchy changed
+	 */
+	public boolean addPathObjects(Collection<? extends PathObject> pathObjects, boolean avoidDuplicates) {
+		w.lock();
+		try {
+			if (pathObjects.size() >= MIN_DETECTIONS_FOR_BULK_INSERTION) {
+				List<PathObject> detections = new ArrayList<>();
+				List<PathObject> others = new ArrayList<>();
+				for (PathObject pathObject : pathObjects) {
+					if (pathObject.isDetection())
+						detections.add(pathObject);
+					else
+						others.add(pathObject);
+				}
+				if (detections.size() >= MIN_DETECTIONS_FOR_BULK_INSERTION) {
+					List<PathObject> added = new ArrayList<>();
+					for (PathObject pathObject : others) {
+						if (addPathObjectToList(getRootObject(), pathObject, avoidDuplicates, false)) {
+							// No event has been fired, but the cache needs to know about possible parents for the detections
+							tileCache.addObjectsToCache(Collections.singletonList(pathObject));
+							added.add(pathObject);
+						}
+					}
+					addDetectionsInBulk(detections, added);
+					if (added.isEmpty())
+						return false;
+					fireHierarchyChangedEvent(this, getRootObject(), added, Collections.emptyList());
+					return true;
+				}
+			}
+			List<PathObject> added = new ArrayList<>();
+			int n = pathObjects.size();
+			int counter = 0;
+			for (PathObject pathObject : pathObjects) {
+				if (n > 10000) {
+					if (counter % 1000 == 0)
+						logger.debug("Adding {} of {}", counter, n);
+				} else if (n > 1000 && counter % 100 == 0)
 					logger.debug("Adding {} of {}", counter, n);
-			} else if (n > 1000 && counter % 100 == 0)
-				logger.debug("Adding {} of {}", counter, n);
-			changes = addPathObjectToList(getRootObject(), pathObject, avoidDuplicates, false) || changes;
-			counter++;
-		}
-		if (changes)
-			fireHierarchyChangedEvent(getRootObject());
+				if (addPathObjectToList(getRootObject(), pathObject, avoidDuplicates, false))
+					added.add(pathObject);
+				counter++;
+			}
+			if (added.isEmpty())
+				return false;
+			fireHierarchyChangedEvent(this, getRootObject(), added, Collections.emptyList());
 //			fireChangeEvent(getRootObject());
-		return changes;
+			return true;
+		} finally {
+			w.unlock();
+		}
 	}
 	
-	public synchronized void clearAll() {
-		getRootObject().clearPathObjects();
-		tmaGrid = null;
-		fireHierarchyChangedEvent(getRootObject());
+	/**
+	 * Add detections to the hierarchy, without firing any events.
+	 * Parents are identified in parallel, with the detections then being added to each parent in a single batch.
+	 * This should only be called while holding the write lock.
+	 * 
+	 * @param detections
+	 * @param added list to which the detections that were added should be appended
+	 */
+	private void addDetectionsInBulk(List<PathObject> detections, List<PathObject> added) {
+		long startTime = System.currentTimeMillis();
+		PathObject rootObject = getRootObject();
+		// Ensure the cache is up-to-date before querying it from multiple threads
+		tileCache.hasObjectsForRegion(PathAnnotationObject.class, null, true);
+		
+		// Identify parents in parallel, reusing the locator for each possible parent across detections
+		boolean includeTMACores = tmaGrid != null;
+		Map<PathObject, PointOnGeometryLocator> locators = new ConcurrentHashMap<>();
+		PathObject[] parents = new PathObject[detections.size()];
+		IntStream.range(0, parents.length).parallel().forEach(i -> {
+			PathObject pathObject = detections.get(i);
+			if (pathObject.hasROI())
+				parents[i] = findParentForDetection(pathObject, rootObject, includeTMACores, locators);
+		});
+		
+		// Group detections by parent, so that each parent's child list is only updated once
+		Map<PathObject, List<PathObject>> childrenByParent = new IdentityHashMap<>();
+		for (int i = 0; i < parents.length; i++) {
+			PathObject parent = parents[i];
+			PathObject pathObject = detections.get(i);
+			if (parent == null || pathObject.getParent() == parent)
+				continue;
+			childrenByParent.computeIfAbsent(parent, p -> new ArrayList<>()).add(pathObject);
+		}
+		int n = 0;
+		for (Entry<PathObject, List<PathObject>> entry : childrenByParent.entrySet()) {
+			entry.getKey().addPathObjects(entry.getValue());
+			added.addAll(entry.getValue());
+			n += entry.getValue().size();
+		}
+		long endTime = System.currentTimeMillis();
+		logger.debug("Added {} detection(s) to {} parent(s) in {} ms", n, childrenByParent.size(), endTime - startTime);
+	}
+	
+	/**
+	 * Find the deepest annotation (or TMA core) in the hierarchy that contains the centroid of a detection, or the root object if there is none.
+	 * This may be called from multiple threads, and so only uses the tile cache (and not any methods of the hierarchy that require a lock).
+	 */
+	private PathObject findParentForDetection(PathObject pathObject, PathObject rootObject, boolean includeTMACores, Map<PathObject, PointOnGeometryLocator> locators) {
+		var region = ImageRegion.createInstance(pathObject.getROI());
+		List<PathObject> possibleParents = new ArrayList<>();
+		tileCache.getObjectsForRegion(PathAnnotationObject.class, region, possibleParents, true);
+		if (includeTMACores)
+			tileCache.getObjectsForRegion(TMACoreObject.class, region, possibleParents, true);
+		PathObject parent = rootObject;
+		int parentLevel = 0;
+		for (PathObject possibleParent : possibleParents) {
+			if (possibleParent == pathObject || possibleParent.isDetection())
+				continue;
+			int level = possibleParent.getLevel();
+			if (level <= parentLevel || !PathObjectTools.isAncestor(possibleParent, rootObject))
+				continue;
+			var locator = locators.computeIfAbsent(possibleParent, p -> tileCache.getLocator(p.getROI(), true));
+			if (tileCache.containsCentroid(locator, pathObject)) {
+				parent = possibleParent;
+				parentLevel = level;
+			}
+		}
+		return parent;
+	}
+	
+	public void clearAll() {
+		w.lock();
+		try {
+			setDeferredChildLoaders(deferredLoader, false);
+			deferredLoader = null;
+			getRootObject().clearPathObjects();
+			tmaGrid = null;
+			fireHierarchyChangedEvent(getRootObject());
+		} finally {
+			w.unlock();
+		}
 	}
 	
 	
-	private synchronized void addPathObjectsRecursively(PathObject pathObject, Collection<PathObject> pathObjects, Class<? extends PathObject> cls) {
+	private void addPathObjectsRecursively(PathObject pathObject, Collection<PathObject> pathObjects, Class<? extends PathObject> cls) {
 		// Prefer to iterate through long lists and process as we go, rather than handle one object per method call
 		addPathObjectsRecursively(Collections.singleton(pathObject), pathObjects, cls);
 	}
@@ -460,7 +857,7 @@ public final class PathObjectHierarchy implements Serializable {
 		}
 	}
 
-	public synchronized Collection<PathObject> getPointObjects(Class<? extends PathObject> cls) {
+	public Collection<PathObject> getPointObjects(Class<? extends PathObject> cls) {
 		Collection<PathObject> pathObjects = getObjects(null, cls);
 		if (!pathObjects.isEmpty()) {
 			Iterator<PathObject> iter = pathObjects.iterator();
@@ -498,13 +895,21 @@ public final class PathObjectHierarchy implements Serializable {
 		if (pathObjects == null)
 			pathObjects = new ArrayList<>();
 		
+		// Only load deferred objects that might be of the requested type
+		loadDeferredObjects(cls);
+		
 		// If we want annotations, it can be much faster to get them from the tile cache than to sift through a potentially large number of detections
 		if (PathAnnotationObject.class == cls && tileCache != null && tileCache.isActive()) {
 			pathObjects.addAll(tileCache.getObjectsForRegion(cls, null, null, true));
 			return pathObjects;
 		}
 		
-		addPathObjectsRecursively(getRootObject(), pathObjects, cls);
+		r.lock();
+		try {
+			addPathObjectsRecursively(getRootObject(), pathObjects, cls);
+		} finally {
+			r.unlock();
+		}
 		return pathObjects;
 	}
 	
@@ -516,12 +921,19 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param cls
 	 * @return
 	 */
-	public synchronized List<PathObject> getDescendantObjects(PathObject pathObject, List<PathObject> pathObjects, Class<? extends PathObject> cls) {
+	public List<PathObject> getDescendantObjects(PathObject pathObject, List<PathObject> pathObjects, Class<? extends PathObject> cls) {
 		if (pathObjects == null)
 			pathObjects = new ArrayList<>();
-		if (pathObject == null || !pathObject.hasChildren())
+		if (pathObject == null)
 			return pathObjects;
-		addPathObjectsRecursively(pathObject.getChildObjects(), pathObjects, cls);
+		loadDeferredObjects(pathObject);
+		r.lock();
+		try {
+			if (pathObject.hasChildren())
+				addPathObjectsRecursively(pathObject.getChildObjects(), pathObjects, cls);
+		} finally {
+			r.unlock();
+		}
 		return pathObjects;
 	}
 	
@@ -531,10 +943,15 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param pathObject
 	 */
 	public void updateObject(PathObject pathObject) {
-		if (inHierarchy(pathObject))
-			removeObject(pathObject, true, false);
-		addPathObject(pathObject, true, false);
-		fireObjectsChangedEvent(this, Collections.singletonList(pathObject), false);
+		w.lock();
+		try {
+			if (inHierarchy(pathObject))
+				removeObject(pathObject, true, false);
+			addPathObject(pathObject, true, false);
+			fireObjectsChangedEvent(this, Collections.singletonList(pathObject), false);
+		} finally {
+			w.unlock();
+		}
 	}
 	
 	
@@ -544,7 +961,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param list - optional list into which the objects should be added (may be null)
 	 * @return
 	 */
-	public synchronized List<PathObject> getFlattenedObjectList(List<PathObject> list) {
+	public List<PathObject> getFlattenedObjectList(List<PathObject> list) {
 		if (list == null)
 			list = new ArrayList<>(nObjects());
 		getObjects(list, PathObject.class);
@@ -552,17 +969,35 @@ public final class PathObjectHierarchy implements Serializable {
 	}
 	
 	
-	public synchronized int nObjects() {
-		int count = PathObjectTools.countDescendants(getRootObject());
+	public int nObjects() {
+		int count;
+		r.lock();
+		try {
+			count = PathObjectTools.countDescendants(getRootObject());
+		} finally {
+			r.unlock();
+		}
+		var loader = deferredLoader;
+		if (loader != null)
+			count += loader.nDeferredObjects();
 		return count;
 	}
 	
-	public synchronized void setHierarchy(PathObjectHierarchy hierarchy) {
-		if (this == hierarchy)
-			return;
-		rootObject = hierarchy.getRootObject();
-		tmaGrid = hierarchy.tmaGrid;
-		fireHierarchyChangedEvent(rootObject);
+	public void setHierarchy(PathObjectHierarchy hierarchy) {
+		w.lock();
+		try {
+			if (this == hierarchy)
+				return;
+			rootObject = hierarchy.getRootObject();
+			tmaGrid = hierarchy.tmaGrid;
+			setDeferredChildLoaders(deferredLoader, false);
+			deferredLoader = hierarchy.deferredLoader;
+			// Objects should now be loaded into this hierarchy
+			setDeferredChildLoaders(deferredLoader, true);
+			fireHierarchyChangedEvent(rootObject);
+		} finally {
+			w.unlock();
+		}
 	}
 	
 	/**
@@ -577,7 +1012,9 @@ public final class PathObjectHierarchy implements Serializable {
 		if (roi.isEmpty() || !roi.isArea())
 			return Collections.emptyList();
 		
-		Collection<PathObject> pathObjects = tileCache.getObjectsForRegion(cls, ImageRegion.createInstance(roi), new HashSet<>(), true);
+		var region = ImageRegion.createInstance(roi);
+		loadDeferredObjects(region);
+		Collection<PathObject> pathObjects = tileCache.getObjectsForRegion(cls, region, new HashSet<>(), true);
 		return filterObjectsForROI(roi, pathObjects);
 	}
 	
@@ -611,56 +1048,75 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects) {
+		loadDeferredObjects(region);
 		return tileCache.getObjectsForRegion(cls, region, pathObjects, true);
 	}
 	
 	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region) {
+		loadDeferredObjects(region);
 		return tileCache.hasObjectsForRegion(cls, region, true);
 	}
 	
 	
-	synchronized void fireObjectRemovedEvent(Object source, PathObject pathObject, PathObject previousParent) {
+	void fireObjectRemovedEvent(Object source, PathObject pathObject, PathObject previousParent) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectRemovedEvent(source, this, previousParent, pathObject);
 		fireEvent(event);
 	}
 
-	synchronized void fireObjectAddedEvent(Object source, PathObject pathObject) {
+	void fireObjectAddedEvent(Object source, PathObject pathObject) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectAddedEvent(source, this, pathObject.getParent(), pathObject);
 		fireEvent(event);
 	}
 	
 	
-	public synchronized void fireObjectMeasurementsChangedEvent(Object source, Collection<PathObject> pathObjects) {
+	public void fireObjectMeasurementsChangedEvent(Object source, Collection<PathObject> pathObjects) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectsChangedEvent(source, this, HierarchyEventType.CHANGE_MEASUREMENTS, pathObjects, false);
 		fireEvent(event);
 	}
 	
-	public synchronized void fireObjectClassificationsChangedEvent(Object source, Collection<PathObject> pathObjects) {
+	public void fireObjectClassificationsChangedEvent(Object source, Collection<PathObject> pathObjects) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectsChangedEvent(source, this, HierarchyEventType.CHANGE_CLASSIFICATION, pathObjects, false);
 		fireEvent(event);
 	}
 	
 
-	public synchronized void fireObjectsChangedEvent(Object source, Collection<? extends PathObject> pathObjects) {
+	public void fireObjectsChangedEvent(Object source, Collection<? extends PathObject> pathObjects) {
 		fireObjectsChangedEvent(source, pathObjects, false);
 	}
 
-	public synchronized void fireObjectsChangedEvent(Object source, Collection<? extends PathObject> pathObjects, boolean isChanging) {
+	public void fireObjectsChangedEvent(Object source, Collection<? extends PathObject> pathObjects, boolean isChanging) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectsChangedEvent(source, this, HierarchyEventType.CHANGE_OTHER, pathObjects, isChanging);
 		fireEvent(event);
 	}
 	
-	public synchronized void fireHierarchyChangedEvent(Object source, PathObject pathObject) {
+	public void fireHierarchyChangedEvent(Object source, PathObject pathObject) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createStructureChangeEvent(source, this, pathObject);
 		fireEvent(event);
 	}
 
-	public synchronized void fireHierarchyChangedEvent(Object source) {
+	/**
+	 * Fire a structure change event, specifying exactly which objects were added to and removed from the hierarchy.
+	 * This enables listeners (including the hierarchy's own spatial cache) to update themselves without needing to 
+	 * check all objects below the base object.
+	 * 
+	 * @param source
+	 * @param pathObject the base object, below which the structure changed
+	 * @param pathObjectsAdded objects added to the hierarchy, along with any descendants added with them
+	 * @param pathObjectsRemoved objects removed from the hierarchy, along with any descendants that are still their children
+	 */
+	public void fireHierarchyChangedEvent(Object source, PathObject pathObject, Collection<? extends PathObject> pathObjectsAdded, Collection<? extends PathObject> pathObjectsRemoved) {
+		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createStructureChangeEvent(source, this, pathObject, pathObjectsAdded, pathObjectsRemoved);
+		fireEvent(event);
+	}
+
+	public void fireHierarchyChangedEvent(Object source) {
 		fireHierarchyChangedEvent(source, getRootObject());
 	}
 	
 	
 	void fireEvent(PathObjectHierarchyEvent event) {
+		if (event.isStructureChangeEvent())
+			addMeasurementsToTables(event);
 		if (listeners != null) {
 			for (PathObjectHierarchyListener listener : listeners.toArray(new PathObjectHierarchyListener[0]))
 				listener.hierarchyChanged(event);
@@ -668,6 +1124,50 @@ public final class PathObjectHierarchy implements Serializable {
 	}
 	
 	
+	/**
+	 * Move the measurements of objects added to the hierarchy into the hierarchy's own tables.
+	 * <p>
+	 * Only objects named by the event as added are moved; events that don't list their added objects 
+	 * (e.g. a general change below the root) would otherwise require the whole hierarchy to be checked. 
+	 * Measurements of any objects that aren't moved remain valid - they are just stored in other tables.
+	 * 
+	 * @param event
+	 */
+	private void addMeasurementsToTables(PathObjectHierarchyEvent event) {
+		if (measurementTables == null || event.isChanging())
+			return;
+		List<PathObject> pathObjects = new ArrayList<>();
+		switch (event.getEventType()) {
+		case ADDED:
+			for (PathObject pathObject : event.getChangedObjects())
+				addLoadedDescendants(pathObject, pathObjects);
+			break;
+		case REMOVED:
+			return;
+		default:
+			var added = event.getAddedObjects();
+			if (added == null)
+				return;
+			pathObjects.addAll(added);
+		}
+		int n = measurementTables.addMeasurements(pathObjects);
+		if (n > 0)
+			logger.trace("Moved measurements for {} object(s) into hierarchy tables", n);
+	}
+	
+	/**
+	 * Add an object and its descendants to a list, without loading any deferred objects.
+	 * Deferred objects are read when they are needed, and don't use the default tables.
+	 */
+	private static void addLoadedDescendants(PathObject pathObject, List<PathObject> pathObjects) {
+		pathObjects.add(pathObject);
+		if (!pathObject.hasChildren() || pathObject.hasDeferredChildren())
+			return;
+		for (PathObject child : pathObject.getChildObjects())
+			addLoadedDescendants(child, pathObjects);
+	}
+	
+	
 	@Override
 	public String toString() {
 		return "Hierarchy: " + nObjects() + " objects";
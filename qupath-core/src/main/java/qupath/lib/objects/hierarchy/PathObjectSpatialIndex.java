@@ -0,0 +1,552 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Spatial index for the bounding boxes of PathObject ROIs.
+ * <p>
+ * Bounds are stored in primitive (float) arrays, rather than as one envelope object per PathObject.
+ * Most objects are held in a packed R-tree, with objects sorted along a Hilbert curve and grouped into nodes
+ * of fixed size.  Objects added after the tree was last packed are held in an unsorted list &amp; checked
+ * individually; removed objects are simply cleared.  The tree should be repacked with {@link #pack()}
+ * whenever {@link #needsPacking()} returns true.
+ * <p>
+ * Float bounds are rounded outwards, so queries may return objects whose bounds are very slightly outside
+ * the query region - but never miss objects inside it.
+ * <p>
+ * This class is not thread-safe; access should be synchronized externally.
+ * 
+ * @author Pete Bankhead
+ */
+class PathObjectSpatialIndex {
+
+	private static final int NODE_SIZE = 16;
+
+	/**
+	 * Minimum number of unpacked or removed objects before repacking is recommended.
+	 */
+	private static final int MIN_CHANGES_FOR_PACKING = 256;
+
+	/**
+	 * Maximum number of unpacked objects before repacking is recommended, since these need to be checked for every query.
+	 */
+	private static final int MAX_UNPACKED = 8192;
+
+	private PathObject[] objects = new PathObject[64];
+	// Bounds as minX, minY, maxX, maxY for each object
+	private float[] bounds = new float[64 * 4];
+	private int[] z = new int[64];
+	private int[] t = new int[64];
+
+	// Number of slots used (including those for objects that have been removed)
+	private int size = 0;
+	// Number of slots containing removed objects
+	private int nRemoved = 0;
+	// Number of slots (at the start of the arrays) included in the packed tree
+	private int nPacked = 0;
+
+	// Bounds for nodes of the packed tree, arranged by level (starting from the leaves)
+	private float[] nodeBounds = new float[0];
+	private int[] levelStarts = new int[0];
+
+	private final IdentitySlotMap slots = new IdentitySlotMap();
+
+	/**
+	 * Add an object to the index, or update its bounds if it is already present.
+	 * Objects without ROIs are ignored.
+	 * 
+	 * @param pathObject
+	 */
+	void add(final PathObject pathObject) {
+		ROI roi = pathObject.getROI();
+		if (roi == null)
+			return;
+		remove(pathObject);
+		if (size == objects.length)
+			grow();
+		int slot = size++;
+		objects[slot] = pathObject;
+		double x = roi.getBoundsX();
+		double y = roi.getBoundsY();
+		int ind = slot * 4;
+		bounds[ind] = floorFloat(x);
+		bounds[ind+1] = floorFloat(y);
+		bounds[ind+2] = ceilFloat(x + roi.getBoundsWidth());
+		bounds[ind+3] = ceilFloat(y + roi.getBoundsHeight());
+		z[slot] = roi.getZ();
+		t[slot] = roi.getT();
+		slots.put(pathObject, slot);
+	}
+
+	/**
+	 * Remove an object from the index.
+	 * 
+	 * @param pathObject
+	 * @return true if the object was found &amp; removed, false otherwise
+	 */
+	boolean remove(final PathObject pathObject) {
+		int slot = slots.remove(pathObject);
+		if (slot < 0)
+			return false;
+		objects[slot] = null;
+		nRemoved++;
+		return true;
+	}
+
+	/**
+	 * Ensure that the bounds stored for an object match its current ROI, adding the object if it is not
+	 * already present (or removing it if it no longer has a ROI).
+	 * 
+	 * @param pathObject
+	 * @return true if the index was changed, false if the object was already present with the same bounds
+	 */
+	boolean update(final PathObject pathObject) {
+		ROI roi = pathObject.getROI();
+		int slot = slots.get(pathObject);
+		if (roi == null)
+			return slot >= 0 && remove(pathObject);
+		if (slot >= 0) {
+			double x = roi.getBoundsX();
+			double y = roi.getBoundsY();
+			int ind = slot * 4;
+			if (bounds[ind] == floorFloat(x) &&
+					bounds[ind+1] == floorFloat(y) &&
+					bounds[ind+2] == ceilFloat(x + roi.getBoundsWidth()) &&
+					bounds[ind+3] == ceilFloat(y + roi.getBoundsHeight()) &&
+					z[slot] == roi.getZ() && t[slot] == roi.getT())
+				return false;
+		}
+		add(pathObject);
+		return true;
+	}
+
+	boolean contains(final PathObject pathObject) {
+		return slots.get(pathObject) >= 0;
+	}
+
+	int size() {
+		return size - nRemoved;
+	}
+
+	void clear() {
+		Arrays.fill(objects, 0, size, null);
+		size = 0;
+		nRemoved = 0;
+		nPacked = 0;
+		nodeBounds = new float[0];
+		levelStarts = new int[0];
+		slots.clear();
+	}
+
+	/**
+	 * Query if enough objects have been added or removed since the tree was packed that it should be packed again.
+	 * @return
+	 */
+	boolean needsPacking() {
+		int nUnpacked = size - nPacked;
+		return nUnpacked > Math.max(MIN_CHANGES_FOR_PACKING, Math.min(size / 4, MAX_UNPACKED)) ||
+				nRemoved > Math.max(MIN_CHANGES_FOR_PACKING, size / 2);
+	}
+
+	/**
+	 * Add objects overlapping a region to a collection.
+	 * 
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @param z z-slice of the ROIs, or -1 if ROIs on all planes should be returned
+	 * @param t timepoint of the ROIs; ignored if z is -1
+	 * @param pathObjects collection to which objects should be added
+	 */
+	void query(final double minX, final double minY, final double maxX, final double maxY, final int z, final int t, final Collection<PathObject> pathObjects) {
+		search(floorFloat(minX), floorFloat(minY), ceilFloat(maxX), ceilFloat(maxY), z, t, pathObjects);
+	}
+
+	/**
+	 * Add all objects in the index to a collection.
+	 * 
+	 * @param pathObjects
+	 */
+	void getAll(final Collection<PathObject> pathObjects) {
+		for (int i = 0; i < size; i++) {
+			if (objects[i] != null)
+				pathObjects.add(objects[i]);
+		}
+	}
+
+	/**
+	 * Query if any objects overlap a region.
+	 * 
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @param z z-slice of the ROIs, or -1 if ROIs on all planes should be considered
+	 * @param t timepoint of the ROIs; ignored if z is -1
+	 * @return
+	 */
+	boolean hasObjects(final double minX, final double minY, final double maxX, final double maxY, final int z, final int t) {
+		return search(floorFloat(minX), floorFloat(minY), ceilFloat(maxX), ceilFloat(maxY), z, t, null) > 0;
+	}
+
+	/**
+	 * Search the index, adding objects to the collection if it is not null or else stopping at the first object found.
+	 * @return the number of objects found
+	 */
+	private int search(final float minX, final float minY, final float maxX, final float maxY, final int z, final int t, final Collection<PathObject> pathObjects) {
+		int count = 0;
+		// Search the packed tree, using an explicit stack containing (level, node) pairs
+		int nLevels = levelStarts.length;
+		if (nLevels > 0) {
+			int[] stack = new int[2 * (NODE_SIZE * nLevels + 1)];
+			int top = 0;
+			stack[top++] = nLevels - 1;
+			stack[top++] = 0;
+			while (top > 0) {
+				int node = stack[--top];
+				int level = stack[--top];
+				int ind = (levelStarts[level] + node) * 4;
+				if (!intersects(nodeBounds, ind, minX, minY, maxX, maxY))
+					continue;
+				int firstChild = node * NODE_SIZE;
+				if (level == 0) {
+					int end = Math.min(firstChild + NODE_SIZE, nPacked);
+					for (int i = firstChild; i < end; i++) {
+						if (matches(i, minX, minY, maxX, maxY, z, t)) {
+							count++;
+							if (pathObjects == null)
+								return count;
+							pathObjects.add(objects[i]);
+						}
+					}
+				} else {
+					int end = Math.min(firstChild + NODE_SIZE, levelStarts[level] - levelStarts[level-1]);
+					for (int i = firstChild; i < end; i++) {
+						stack[top++] = level - 1;
+						stack[top++] = i;
+					}
+				}
+			}
+		}
+		// Check everything added since packing
+		for (int i = nPacked; i < size; i++) {
+			if (matches(i, minX, minY, maxX, maxY, z, t)) {
+				count++;
+				if (pathObjects == null)
+					return count;
+				pathObjects.add(objects[i]);
+			}
+		}
+		return count;
+	}
+
+	private boolean matches(final int i, final float minX, final float minY, final float maxX, final float maxY, final int z, final int t) {
+		return objects[i] != null &&
+				(z < 0 || (this.z[i] == z && this.t[i] == t)) &&
+				intersects(bounds, i * 4, minX, minY, maxX, maxY);
+	}
+
+	private static boolean intersects(final float[] bounds, final int ind, final float minX, final float minY, final float maxX, final float maxY) {
+		return bounds[ind] <= maxX && bounds[ind+1] <= maxY && bounds[ind+2] >= minX && bounds[ind+3] >= minY;
+	}
+
+	/**
+	 * Pack all objects into the tree, discarding removed objects.
+	 * Objects are sorted along a Hilbert curve (according to the centers of their bounding boxes),
+	 * so that nearby objects are likely to be stored in the same node.
+	 */
+	void pack() {
+		int n = size - nRemoved;
+		if (n == 0) {
+			clear();
+			return;
+		}
+		// Determine the extent of all objects
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			if (objects[i] == null)
+				continue;
+			int ind = i * 4;
+			minX = Math.min(minX, bounds[ind]);
+			minY = Math.min(minY, bounds[ind+1]);
+			maxX = Math.max(maxX, bounds[ind+2]);
+			maxY = Math.max(maxY, bounds[ind+3]);
+		}
+		double scaleX = maxX > minX ? 65535.0 / (maxX - minX) : 0;
+		double scaleY = maxY > minY ? 65535.0 / (maxY - minY) : 0;
+
+		// Sort by Hilbert value, storing the original slot in the lower bits so that we can sort primitives
+		// (the Hilbert value is unsigned, so we drop its lowest bit to keep the key positive)
+		long[] keys = new long[n];
+		int k = 0;
+		for (int i = 0; i < size; i++) {
+			if (objects[i] == null)
+				continue;
+			int ind = i * 4;
+			int hx = (int)((((double)bounds[ind] + bounds[ind+2]) / 2.0 - minX) * scaleX);
+			int hy = (int)((((double)bounds[ind+1] + bounds[ind+3]) / 2.0 - minY) * scaleY);
+			keys[k++] = ((long)(hilbert(hx, hy) >>> 1) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		// Rearrange the arrays in sorted order
+		int capacity = Math.max(64, n + n / 2);
+		PathObject[] objects2 = new PathObject[capacity];
+		float[] bounds2 = new float[capacity * 4];
+		int[] z2 = new int[capacity];
+		int[] t2 = new int[capacity];
+		slots.clear();
+		for (int i = 0; i < n; i++) {
+			int slot = (int)keys[i];
+			objects2[i] = objects[slot];
+			System.arraycopy(bounds, slot * 4, bounds2, i * 4, 4);
+			z2[i] = z[slot];
+			t2[i] = t[slot];
+			slots.put(objects2[i], i);
+		}
+		objects = objects2;
+		bounds = bounds2;
+		z = z2;
+		t = t2;
+		size = n;
+		nRemoved = 0;
+		nPacked = n;
+
+		// Build the tree levels
+		int nLevels = 1;
+		int nNodes = 0;
+		for (int count = n; ; nLevels++) {
+			count = (count + NODE_SIZE - 1) / NODE_SIZE;
+			nNodes += count;
+			if (count == 1)
+				break;
+		}
+		levelStarts = new int[nLevels];
+		nodeBounds = new float[nNodes * 4];
+		int levelStart = 0;
+		int nChildren = n;
+		float[] childBounds = bounds;
+		int childStart = 0;
+		for (int level = 0; level < nLevels; level++) {
+			levelStarts[level] = levelStart;
+			int count = (nChildren + NODE_SIZE - 1) / NODE_SIZE;
+			for (int node = 0; node < count; node++) {
+				float nMinX = Float.POSITIVE_INFINITY, nMinY = Float.POSITIVE_INFINITY;
+				float nMaxX = Float.NEGATIVE_INFINITY, nMaxY = Float.NEGATIVE_INFINITY;
+				int end = Math.min((node + 1) * NODE_SIZE, nChildren);
+				for (int c = node * NODE_SIZE; c < end; c++) {
+					int ind = (childStart + c) * 4;
+					nMinX = Math.min(nMinX, childBounds[ind]);
+					nMinY = Math.min(nMinY, childBounds[ind+1]);
+					nMaxX = Math.max(nMaxX, childBounds[ind+2]);
+					nMaxY = Math.max(nMaxY, childBounds[ind+3]);
+				}
+				int ind = (levelStart + node) * 4;
+				nodeBounds[ind] = nMinX;
+				nodeBounds[ind+1] = nMinY;
+				nodeBounds[ind+2] = nMaxX;
+				nodeBounds[ind+3] = nMaxY;
+			}
+			childBounds = nodeBounds;
+			childStart = levelStart;
+			nChildren = count;
+			levelStart += count;
+		}
+	}
+
+	private void grow() {
+		int capacity = objects.length * 2;
+		objects = Arrays.copyOf(objects, capacity);
+		bounds = Arrays.copyOf(bounds, capacity * 4);
+		z = Arrays.copyOf(z, capacity);
+		t = Arrays.copyOf(t, capacity);
+	}
+
+	private static float floorFloat(final double value) {
+		float f = (float)value;
+		return f > value ? Math.nextDown(f) : f;
+	}
+
+	private static float ceilFloat(final double value) {
+		float f = (float)value;
+		return f < value ? Math.nextUp(f) : f;
+	}
+
+	/**
+	 * Compute the position of a point along a Hilbert curve covering a 65536 x 65536 grid.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 * @see <a href="https://github.com/rawrunprotected/hilbert_curves">https://github.com/rawrunprotected/hilbert_curves</a>
+	 */
+	static int hilbert(int x, int y) {
+		int a = x ^ y;
+		int b = 0xFFFF ^ a;
+		int c = 0xFFFF ^ (x | y);
+		int d = x & (y ^ 0xFFFF);
+
+		int A = a | (b >>> 1);
+		int B = (a >>> 1) ^ a;
+		int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+		int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+		a = A; b = B; c = C; d = D;
+		A = ((a & (a >>> 2)) ^ (b & (b >>> 2)));
+		B = ((a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2)));
+		C ^= ((a & (c >>> 2)) ^ (b & (d >>> 2)));
+		D ^= ((b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2)));
+
+		a = A; b = B; c = C; d = D;
+		A = ((a & (a >>> 4)) ^ (b & (b >>> 4)));
+		B = ((a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4)));
+		C ^= ((a & (c >>> 4)) ^ (b & (d >>> 4)));
+		D ^= ((b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4)));
+
+		a = A; b = B; c = C; d = D;
+		C ^= ((a & (c >>> 8)) ^ (b & (d >>> 8)));
+		D ^= ((b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8)));
+
+		a = C ^ (C >>> 1);
+		b = D ^ (D >>> 1);
+
+		int i0 = x ^ y;
+		int i1 = b | (0xFFFF ^ (i0 | a));
+
+		return (interleave(i1) << 1) | interleave(i0);
+	}
+
+	private static int interleave(int x) {
+		x = (x | (x << 8)) & 0x00FF00FF;
+		x = (x | (x << 4)) & 0x0F0F0F0F;
+		x = (x | (x << 2)) & 0x33333333;
+		x = (x | (x << 1)) & 0x55555555;
+		return x;
+	}
+
+
+	/**
+	 * Map from objects (compared by identity) to slot indices, using open addressing
+	 * so that no objects need to be created per entry.
+	 */
+	private static class IdentitySlotMap {
+
+		private Object[] keys = new Object[64];
+		private int[] values = new int[64];
+		private int size = 0;
+
+		private int indexFor(final Object key, final int length) {
+			int h = System.identityHashCode(key);
+			h ^= (h >>> 16);
+			h *= 0x85ebca6b;
+			h ^= (h >>> 13);
+			return h & (length - 1);
+		}
+
+		int get(final Object key) {
+			int mask = keys.length - 1;
+			for (int i = indexFor(key, keys.length); keys[i] != null; i = (i + 1) & mask) {
+				if (keys[i] == key)
+					return values[i];
+			}
+			return -1;
+		}
+
+		void put(final Object key, final int value) {
+			if ((size + 1) * 2 > keys.length)
+				resize(keys.length * 2);
+			int mask = keys.length - 1;
+			int i = indexFor(key, keys.length);
+			while (keys[i] != null) {
+				if (keys[i] == key) {
+					values[i] = value;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+			size++;
+		}
+
+		/**
+		 * Remove a key, returning its value or -1 if the key was not found.
+		 */
+		int remove(final Object key) {
+			int mask = keys.length - 1;
+			int i = indexFor(key, keys.length);
+			while (keys[i] != key) {
+				if (keys[i] == null)
+					return -1;
+				i = (i + 1) & mask;
+			}
+			int value = values[i];
+			keys[i] = null;
+			size--;
+			// Shift back any following entries that would otherwise no longer be found
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (keys[j] == null)
+					break;
+				int home = indexFor(keys[j], keys.length);
+				// Move the entry if its home position is not within (i, j] (cyclically)
+				if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					keys[j] = null;
+					i = j;
+				}
+			}
+			return value;
+		}
+
+		void clear() {
+			Arrays.fill(keys, null);
+			size = 0;
+		}
+
+		private void resize(final int length) {
+			Object[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new Object[length];
+			values = new int[length];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null)
+					put(oldKeys[i], oldValues[i]);
+			}
+		}
+
+	}
+
+}
@@ -23,6 +23,7 @@
 
 package qupath.lib.objects.hierarchy;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -38,15 +40,12 @@ import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
 import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
 import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.Location;
 import org.locationtech.jts.geom.Polygonal;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
-import org.locationtech.jts.index.SpatialIndex;
-import org.locationtech.jts.index.quadtree.Quadtree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,7 +54,6 @@ import qupath.lib.objects.TemporaryObject;
 import qupath.lib.objects.helpers.PathObjectTools;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
-import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.interfaces.ROI;
 
@@ -78,24 +76,34 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	final private static Logger logger = LoggerFactory.getLogger(PathObjectTileCache.class);
 	
 	/**
-	 * Largest positive envelope, used when all objects are requested.
+	 * Store a spatial index according to the class of PathObject.
+	 * Objects are found in the index by identity, so they can be removed even if their ROI has been replaced.
 	 */
-	private final static Envelope MAX_ENVELOPE = new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
+	private Map<Class<? extends PathObject>, PathObjectSpatialIndex> map = new HashMap<>();
 	
 	/**
-	 * Keep a map of envelopes per ROI; ROIs should be immutable.
+	 * Flag that objects have been added or removed since the spatial indexes were last packed.
 	 */
-	private Map<ROI, Envelope> envelopeMap = new WeakHashMap<>();
+	private volatile boolean indexesChanged = false;
 	
 	/**
-	 * Keep a map of envelopes per object, because potentially an object might have its ROI replaced behind our back...
+	 * Objects below which the hierarchy structure has changed in an unknown way since the cache was last used
+	 * (i.e. because the event did not say which objects were added or removed).
+	 * These are checked (in one batch) the next time the cache is needed, rather than rebuilding the entire cache.
 	 */
-	private Map<PathObject, Envelope> lastEnvelopeMap = new WeakHashMap<>();
+	private Set<PathObject> pendingStructureChanges = new HashSet<>();
+	private volatile boolean structureChangesPending = false;
 	
 	/**
-	 * Store a spatial index according to the class of PathObject.
+	 * Root object when the cache was last constructed; if this changes, the cache needs to be rebuilt.
 	 */
-	private Map<Class<? extends PathObject>, SpatialIndex> map = new HashMap<>();
+	private PathObject cachedRootObject;
+	
+	private volatile long nRebuilds = 0L;
+	private volatile long rebuildTimeNanos = 0L;
+	private volatile long nIncrementalUpdates = 0L;
+	private volatile long incrementalUpdateTimeNanos = 0L;
+	private volatile long nIndexOperations = 0L;
 	
 	/**
 	 * Map to cache Geometries, specifically for annotations.
@@ -118,6 +126,16 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 			hierarchy.addPathObjectListener(this);
 	}
 	
+	/**
+	 * Returns true if the current thread holds either the read or write lock of the cache.
+	 * In this case, the cache cannot be updated by the current thread until the lock is released.
+	 * 
+	 * @return
+	 */
+	boolean isLockedByCurrentThread() {
+		return rwl.isWriteLockedByCurrentThread() || rwl.getReadHoldCount() > 0;
+	}
+	
 	public void resetCache() {
 		isActive = false;
 		logger.trace("Cache reset!");
@@ -129,15 +147,22 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		w.lock();
 		try {
 	//		logger.info("Skipping cache reconstruction...");
-			long startTime = System.currentTimeMillis();
+			long startTime = System.nanoTime();
 			isActive = true;
 			if (limitToClass == null)
 				map.clear();
 			else
 				map.remove(limitToClass);
-			addToCache(hierarchy.getRootObject(), true, limitToClass);
-			long endTime = System.currentTimeMillis();
-			logger.debug("Cache reconstructed in " + (endTime - startTime)/1000.);
+			cachedRootObject = hierarchy.getRootObject();
+			pendingStructureChanges.clear();
+			structureChangesPending = false;
+			addToCache(cachedRootObject, true, limitToClass);
+			packIndexes();
+			long elapsed = System.nanoTime() - startTime;
+			nRebuilds++;
+			rebuildTimeNanos += elapsed;
+			logger.debug("Cache reconstructed in {} ms ({} rebuild(s), {} ms in total)",
+					elapsed / 1_000_000, nRebuilds, rebuildTimeNanos / 1_000_000);
 		} finally {
 			w.unlock();
 		}
@@ -148,6 +173,145 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	private void ensureCacheConstructed() {
 		if (!isActive())
 			constructCache(null);
+		else if (indexesChanged || structureChangesPending) {
+			w.lock();
+			try {
+				if (structureChangesPending)
+					applyStructureChanges();
+				packIndexes();
+			} finally {
+				w.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Update the cache to reflect all unknown structure changes since it was last used, without rebuilding it entirely.
+	 * Only the region occupied by each changed object is checked: objects there that are no longer in the hierarchy are removed, 
+	 * and objects below each changed object are added (or have their bounds updated) if necessary.
+	 * This doesn't acquire the lock!
+	 */
+	private void applyStructureChanges() {
+		if (!isActive())
+			return;
+		PathObject rootObject = hierarchy.getRootObject();
+		if (rootObject != cachedRootObject) {
+			constructCache(null);
+			return;
+		}
+		long startTime = System.nanoTime();
+		int nRemoved = 0;
+		int nUpdated = 0;
+		List<PathObject> list = new ArrayList<>();
+		for (PathObject pathObject : pendingStructureChanges) {
+			// Skip objects with an ancestor that will be updated anyway
+			if (hasAncestorIn(pathObject, pendingStructureChanges))
+				continue;
+			// Descendants are expected to fall within the bounds of their ancestor, so we only need to check that region
+			ROI roi = pathObject.getROI();
+			for (PathObjectSpatialIndex index : map.values()) {
+				list.clear();
+				index.query(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsX() + roi.getBoundsWidth(), roi.getBoundsY() + roi.getBoundsHeight(), -1, -1, list);
+				for (PathObject temp : list) {
+					if (!isDescendant(temp, rootObject) && index.remove(temp)) {
+						nIndexOperations++;
+						nRemoved++;
+					}
+				}
+			}
+			if (isDescendant(pathObject, rootObject))
+				nUpdated += updateCache(pathObject, true);
+		}
+		if (nRemoved > 0)
+			indexesChanged = true;
+		pendingStructureChanges.clear();
+		structureChangesPending = false;
+		long elapsed = recordIncrementalUpdate(startTime);
+		logger.debug("Cache updated in {} ms ({} removed, {} added or updated)", elapsed / 1_000_000, nRemoved, nUpdated);
+	}
+	
+	private long recordIncrementalUpdate(long startTime) {
+		long elapsed = System.nanoTime() - startTime;
+		nIncrementalUpdates++;
+		incrementalUpdateTimeNanos += elapsed;
+		return elapsed;
+	}
+	
+	private static boolean isDescendant(PathObject pathObject, PathObject rootObject) {
+		while (pathObject.getParent() != null)
+			pathObject = pathObject.getParent();
+		return pathObject == rootObject;
+	}
+	
+	private static boolean hasAncestorIn(PathObject pathObject, Set<PathObject> pathObjects) {
+		PathObject parent = pathObject.getParent();
+		while (parent != null) {
+			if (pathObjects.contains(parent))
+				return true;
+			parent = parent.getParent();
+		}
+		return false;
+	}
+	
+	/**
+	 * Get the number of times the cache has been constructed from scratch.
+	 * @return
+	 */
+	public long getRebuildCount() {
+		return nRebuilds;
+	}
+	
+	/**
+	 * Get the total time spent constructing the cache from scratch, in milliseconds.
+	 * @return
+	 */
+	public long getRebuildTimeMillis() {
+		return rebuildTimeNanos / 1_000_000;
+	}
+	
+	/**
+	 * Get the number of times the cache has been updated incrementally in response to hierarchy changes.
+	 * @return
+	 */
+	public long getIncrementalUpdateCount() {
+		return nIncrementalUpdates;
+	}
+	
+	/**
+	 * Get the number of times an object has been added to, removed from or updated within the spatial indexes.
+	 * This provides a measure of how much work has been needed to keep the cache up-to-date.
+	 * @return
+	 */
+	public long getIndexOperationCount() {
+		return nIndexOperations;
+	}
+	
+	/**
+	 * Get the total time spent updating the cache incrementally, in milliseconds.
+	 * @return
+	 */
+	public long getIncrementalUpdateTimeMillis() {
+		return incrementalUpdateTimeNanos / 1_000_000;
+	}
+	
+	/**
+	 * Get a snapshot of all the statistics describing the work done to keep the cache up-to-date.
+	 * @return
+	 */
+	public TileCacheStatistics getStatistics() {
+		return new TileCacheStatistics(nRebuilds, getRebuildTimeMillis(), nIncrementalUpdates, getIncrementalUpdateTimeMillis(), nIndexOperations);
+	}
+	
+	/**
+	 * Repack any spatial indexes that have changed substantially since they were last packed.
+	 * This doesn't acquire the lock!
+	 */
+	private void packIndexes() {
+		for (PathObjectSpatialIndex index : map.values()) {
+			if (index.needsPacking())
+				index.pack();
+		}
+		indexesChanged = false;
 	}
 	
 	// TRUE if the cache has been constructed
@@ -169,13 +333,14 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		if (pathObject.hasROI()) {
 			Class<? extends PathObject> cls = pathObject.getClass();
 			if (limitToClass == null || cls == limitToClass) {
-				SpatialIndex mapObjects = map.get(cls);
+				PathObjectSpatialIndex mapObjects = map.get(cls);
 				if (mapObjects == null) {
-					mapObjects = createSpatialIndex();
+					mapObjects = new PathObjectSpatialIndex();
 					map.put(cls, mapObjects);
 				}
-				Envelope envelope = getEnvelope(pathObject);
-				mapObjects.insert(envelope, pathObject);
+				mapObjects.add(pathObject);
+				nIndexOperations++;
+				indexesChanged = true;
 			}
 		}
 		
@@ -186,6 +351,55 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		}
 	}
 
+	/**
+	 * Ensure a PathObject is in the cache with up-to-date bounds, optionally including children.
+	 * This doesn't acquire the lock!
+	 * 
+	 * @param pathObject
+	 * @param includeChildren
+	 * @return the number of objects that were added or updated
+	 */
+	private int updateCache(PathObject pathObject, boolean includeChildren) {
+		if (!isActive())
+			return 0;
+		
+		int count = 0;
+		PathObjectSpatialIndex mapObjects = map.get(pathObject.getClass());
+		if (mapObjects == null && pathObject.hasROI()) {
+			mapObjects = new PathObjectSpatialIndex();
+			map.put(pathObject.getClass(), mapObjects);
+		}
+		if (mapObjects != null) {
+			nIndexOperations++;
+			if (mapObjects.update(pathObject)) {
+				indexesChanged = true;
+				count++;
+			}
+		}
+		
+		if (includeChildren && !(pathObject instanceof TemporaryObject) && pathObject.hasChildren()) {
+			for (PathObject child : pathObject.getChildObjects().toArray(PathObject[]::new))
+				count += updateCache(child, includeChildren);
+		}
+		return count;
+	}
+
+	/**
+	 * Add objects to the cache, without considering their children.
+	 * This is used when objects are added to the hierarchy without firing an event, e.g. because they are loaded lazily.
+	 * 
+	 * @param pathObjects
+	 */
+	void addObjectsToCache(Collection<PathObject> pathObjects) {
+		w.lock();
+		try {
+			for (PathObject pathObject : pathObjects)
+				addToCache(pathObject, false, null);
+		} finally {
+			w.unlock();
+		}
+	}
+
 	Geometry getGeometry(ROI roi) {
 		var geometry = geometryMap.get(roi);
 		if (geometry == null)
@@ -294,32 +508,6 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	}
 	
 	
-	private SpatialIndex createSpatialIndex() {
-		return new Quadtree();
-//		return new STRtree();
-	}
-	
-	private Envelope getEnvelope(PathObject pathObject) {
-		var envelope = getEnvelope(pathObject.getROI());
-		lastEnvelopeMap.put(pathObject, envelope);
-		return envelope;
-	}
-	
-	private Envelope getEnvelope(ROI roi) {
-		var envelope = envelopeMap.get(roi);
-		if (envelope == null) {
-			envelope = new Envelope(roi.getBoundsX(), roi.getBoundsX() + roi.getBoundsWidth(),
-					roi.getBoundsY(), roi.getBoundsY() + roi.getBoundsHeight());
-			envelopeMap.put(roi, envelope);
-		}
-		return envelope;
-	}
-	
-	private Envelope getEnvelope(ImageRegion region) {
-		return new Envelope(region.getMinX(), region.getMaxX(),
-				region.getMinY(), region.getMaxY());
-	}
-	
 	
 	
 	/**
@@ -333,36 +521,52 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		if (!isActive())
 			return;
 		
-		SpatialIndex mapObjects = map.get(pathObject.getClass());
+		PathObjectSpatialIndex mapObjects = map.get(pathObject.getClass());
+		if (mapObjects != null && mapObjects.remove(pathObject)) {
+			nIndexOperations++;
+			logger.trace("Removed {} from cache", pathObject);
+			indexesChanged = true;
+		} else
+			logger.trace("Unable to remove {} from cache", pathObject);
 		
-		// We can remove objects from a Quadtree
-		if (mapObjects instanceof Quadtree) {
-			Envelope envelope = lastEnvelopeMap.get(pathObject);
-			envelope = MAX_ENVELOPE;
-//				System.err.println("Before: " + mapObjects.query(MAX_ENVELOPE).size());
-			if (envelope != null) {
-				if (mapObjects.remove(envelope, pathObject)) {
-					logger.debug("Removed {} from cache", pathObject);
-				} else
-					logger.debug("Unable to remove {} from cache", pathObject);
-			} else {
-				logger.debug("No envelope found for {}", pathObject);					
-			}
-//				System.err.println("After: " + mapObjects.query(MAX_ENVELOPE).size());
-			// Remove the children
-			if (removeChildren) {
-				for (PathObject child : pathObject.getChildObjects())
+		// Remove the children that were removed along with the object (rather than reassigned to another parent)
+		if (removeChildren && !(pathObject instanceof TemporaryObject)) {
+			for (PathObject child : pathObject.getChildObjects()) {
+				if (child.getParent() == pathObject)
 					removeFromCache(child, removeChildren);
 			}
-		} else if (mapObjects instanceof SpatialIndex && !removeChildren) {
-			// We can't remove objects from a STRtree, but since we're just removing one object we can rebuild only the cache for this class
-			constructCache(pathObject.getClass());
-		} else {
-			// If we need to remove multiple objects, better to just rebuild the entire cache
-			constructCache(null);
 		}
 	}
 	
+	/**
+	 * Add an object that has been added to the hierarchy, along with any descendants that are not already in the cache.
+	 * Descendants that are already in the cache are assumed to have been reassigned from elsewhere in the hierarchy,
+	 * and so are not checked further.
+	 * This doesn't acquire the lock!
+	 * 
+	 * @param pathObject
+	 * @return the number of objects added
+	 */
+	private int addNewToCache(PathObject pathObject) {
+		int count = 0;
+		PathObjectSpatialIndex mapObjects = map.get(pathObject.getClass());
+		if (pathObject.hasROI() && (mapObjects == null || !mapObjects.contains(pathObject))) {
+			addToCache(pathObject, false, null);
+			count++;
+		} else if (mapObjects != null) {
+			// The object may have been moved within the hierarchy; ensure the bounds are correct
+			updateCache(pathObject, false);
+		}
+		if (!(pathObject instanceof TemporaryObject) && pathObject.hasChildren()) {
+			for (PathObject child : pathObject.getChildObjects().toArray(PathObject[]::new)) {
+				PathObjectSpatialIndex childObjects = map.get(child.getClass());
+				if (childObjects == null || !childObjects.contains(child))
+					count += addNewToCache(child);
+			}
+		}
+		return count;
+	}
+	
 	
 //	/**
 //	 * Add a PathObject to the cache.  Child objects are not added.
@@ -394,27 +598,30 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects, boolean includeSubclasses) {
 		ensureCacheConstructed();
 		
-		var envelope = region == null ? MAX_ENVELOPE : getEnvelope(region);
-		
 		int z = region == null ? -1 : region.getZ();
 		int t = region == null ? -1 : region.getT();
 		r.lock();
 		try {
 			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
+			List<PathObject> list = null;
+			for (Entry<Class<? extends PathObject>, PathObjectSpatialIndex> entry : map.entrySet()) {
 				if (cls == null || (includeSubclasses && cls.isAssignableFrom(entry.getKey())) || cls.isInstance(entry.getKey())) {
 					if (entry.getValue() != null) {
-						var list = entry.getValue().query(envelope);
+						if (list == null)
+							list = new ArrayList<>();
+						else
+							list.clear();
+						if (region == null)
+							entry.getValue().getAll(list);
+						else
+							entry.getValue().query(region.getMinX(), region.getMinY(), region.getMaxX(), region.getMaxY(), z, t, list);
 						if (pathObjects == null)
 							pathObjects = new HashSet<PathObject>();
 						
 						// Add all objects that have a parent, i.e. might be in the hierarchy
-						for (PathObject pathObject : (List<PathObject>)list) {
-							var roi = pathObject.getROI();
-							if (roi == null || region == null || (roi.getZ() == z && roi.getT() == t)) {
-								if (pathObject.getParent() != null || pathObject.isRootObject())
-									pathObjects.add(pathObject);
-							}
+						for (PathObject pathObject : list) {
+							if (pathObject.getParent() != null || pathObject.isRootObject())
+								pathObjects.add(pathObject);
 						}
 					}
 //						pathObjects = entry.getValue().getObjectsForRegion(region, pathObjects);
@@ -432,19 +639,14 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, boolean includeSubclasses) {
 		ensureCacheConstructed();
 		
-		var envelope = getEnvelope(region);
-		
-		int z = region == null ? -1 : region.getZ();
-		int t = region == null ? -1 : region.getT();
 		r.lock();
 		try {
 			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
+			for (Entry<Class<? extends PathObject>, PathObjectSpatialIndex> entry : map.entrySet()) {
 				if (cls == null || cls.isInstance(entry.getKey()) || (includeSubclasses && cls.isAssignableFrom(entry.getKey()))) {
 					if (entry.getValue() != null) {
-						var list = (List<PathObject>)entry.getValue().query(envelope);
-						if (list.stream().anyMatch(p -> p.hasROI() && 
-								(region == null || (p.getROI().getZ() == z && p.getROI().getT() == t))))
+						if (region == null ? entry.getValue().size() > 0 :
+								entry.getValue().hasObjects(region.getMinX(), region.getMinY(), region.getMaxX(), region.getMaxY(), region.getZ(), region.getT()))
 							return true;
 //						if (entry.getValue().hasObjectsForRegion(region))
 //							return true;
@@ -491,29 +693,66 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 
 	@Override
 	public void hierarchyChanged(final PathObjectHierarchyEvent event) {
+		// If the cache isn't active, there's nothing to update... it will be constructed when it is needed
+		if (!isActive())
+			return;
 		w.lock();
 		try {
-			boolean singleChange = event.getChangedObjects().size() == 1;
-			PathObject singleObject = singleChange ? event.getChangedObjects().get(0) : null;
-			if (singleChange && event.getEventType() == HierarchyEventType.ADDED) {
-				removeFromCache(singleObject, false);
-				addToCache(singleObject, false, singleObject.getClass());
-			} else if (singleChange && event.getEventType() == HierarchyEventType.REMOVED) {
-				removeFromCache(singleObject, false);
-			} else if (event.getEventType() == HierarchyEventType.OTHER_STRUCTURE_CHANGE) {// || event.getEventType() == HierarchyEventType.CHANGE_OTHER) {
-//				if (singleChange && !singleObject.isRootObject()) {
-//					removeFromCache(singleObject, false);
-//					addToCache(singleObject, false, singleObject.getClass());					
-//				} else
-//				System.err.println(event);
-				if (!event.isChanging())
+			long startTime = System.nanoTime();
+			switch (event.getEventType()) {
+			case ADDED:
+				// Objects may have been added along with their descendants, or taken existing objects as children
+				for (PathObject pathObject : event.getChangedObjects())
+					addNewToCache(pathObject);
+				recordIncrementalUpdate(startTime);
+				break;
+			case REMOVED:
+				// Any children will have been kept in the hierarchy (otherwise we'd have a structure change event)
+				for (PathObject pathObject : event.getChangedObjects())
+					removeFromCache(pathObject, false);
+				recordIncrementalUpdate(startTime);
+				break;
+			case OTHER_STRUCTURE_CHANGE:
+				if (event.isChanging())
+					break;
+				var added = event.getAddedObjects();
+				var removed = event.getRemovedObjects();
+				if (added != null && removed != null) {
+					// We know exactly what has changed, so only need to update those objects
+					for (PathObject pathObject : removed)
+						removeFromCache(pathObject, true);
+					for (PathObject pathObject : added)
+						addNewToCache(pathObject);
+					recordIncrementalUpdate(startTime);
+					break;
+				}
+				// Defer updates until the cache is next needed, so that multiple changes can be handled together
+				PathObject base = event.getStructureChangeBase();
+				if (base == null || base.isRootObject() || !base.hasROI()) {
+					// Anything might have changed - so rebuild when the cache is next needed
 					resetCache();
+				} else {
+					pendingStructureChanges.add(base);
+					structureChangesPending = true;
+				}
+				break;
+			case CHANGE_OTHER:
+				// ROIs may have changed
+				if (!event.isChanging()) {
+					PathObject rootObject = hierarchy.getRootObject();
+					for (PathObject pathObject : event.getChangedObjects()) {
+						if (isDescendant(pathObject, rootObject))
+							updateCache(pathObject, false);
+					}
+					recordIncrementalUpdate(startTime);
+				}
+				break;
+			default:
+				break;
 			}
 		} finally {
 			w.unlock();
 		}
-//		else if (event.getEventType() == HierarchyEventType.OBJECT_CHANGE)
-//			resetCache(); // TODO: Check if full change is necessary for object change events			
 	}
 	
 }
@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+/**
+ * A snapshot of the work done to keep the spatial cache of a {@link PathObjectHierarchy} up-to-date.
+ * <p>
+ * This can be used to check whether the cache is being rebuilt from scratch when an incremental update would be expected.
+ * 
+ * @author Pete Bankhead
+ */
+public final class TileCacheStatistics {
+
+	private final long nRebuilds;
+	private final long rebuildTimeMillis;
+	private final long nIncrementalUpdates;
+	private final long incrementalUpdateTimeMillis;
+	private final long nIndexOperations;
+
+	TileCacheStatistics(final long nRebuilds, final long rebuildTimeMillis, final long nIncrementalUpdates, final long incrementalUpdateTimeMillis, final long nIndexOperations) {
+		this.nRebuilds = nRebuilds;
+		this.rebuildTimeMillis = rebuildTimeMillis;
+		this.nIncrementalUpdates = nIncrementalUpdates;
+		this.incrementalUpdateTimeMillis = incrementalUpdateTimeMillis;
+		this.nIndexOperations = nIndexOperations;
+	}
+
+	/**
+	 * Get the number of times the cache has been constructed from scratch.
+	 * @return
+	 */
+	public long getRebuildCount() {
+		return nRebuilds;
+	}
+
+	/**
+	 * Get the total time spent constructing the cache from scratch, in milliseconds.
+	 * @return
+	 */
+	public long getRebuildTimeMillis() {
+		return rebuildTimeMillis;
+	}
+
+	/**
+	 * Get the number of times the cache has been updated incrementally in response to hierarchy changes.
+	 * @return
+	 */
+	public long getIncrementalUpdateCount() {
+		return nIncrementalUpdates;
+	}
+
+	/**
+	 * Get the total time spent updating the cache incrementally, in milliseconds.
+	 * @return
+	 */
+	public long getIncrementalUpdateTimeMillis() {
+		return incrementalUpdateTimeMillis;
+	}
+
+	/**
+	 * Get the number of times an object has been added to, removed from or updated within the spatial indexes.
+	 * @return
+	 */
+	public long getIndexOperationCount() {
+		return nIndexOperations;
+	}
+
+	@Override
+	public String toString() {
+		return "TileCacheStatistics [rebuilds=" + nRebuilds + " (" + rebuildTimeMillis + " ms), incremental updates=" 
+				+ nIncrementalUpdates + " (" + incrementalUpdateTimeMillis + " ms), index operations=" + nIndexOperations + "]";
+	}
+
+}
@@ -54,6 +54,8 @@ public class PathObjectHierarchyEvent {
 	private PathObject parentObject;
 	private HierarchyEventType type;
 	private List<PathObject> pathObjects;
+	private List<PathObject> pathObjectsAdded;
+	private List<PathObject> pathObjectsRemoved;
 	private boolean isChanging;
 
 	PathObjectHierarchyEvent(final Object source, final PathObjectHierarchy hierarchy, final HierarchyEventType type, final PathObject parentObject, final List<PathObject> pathObjects, final boolean isChanging) {
@@ -75,6 +77,26 @@ public class PathObjectHierarchyEvent {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.OTHER_STRUCTURE_CHANGE, parentObject, new ArrayList<>(0), false);						
 	}
 
+	/**
+	 * Create a structure change event for which the objects added to and removed from the hierarchy are known.
+	 * This enables listeners to update themselves incrementally, without needing to check all objects below the base object.
+	 * 
+	 * @param source
+	 * @param hierarchy
+	 * @param parentObject the base object, below which the structure changed
+	 * @param pathObjectsAdded objects newly added to the hierarchy, along with any descendants added with them
+	 * @param pathObjectsRemoved objects removed from the hierarchy, along with any descendants that are still their children
+	 * @return
+	 * @see #getAddedObjects()
+	 * @see #getRemovedObjects()
+	 */
+	public static PathObjectHierarchyEvent createStructureChangeEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, Collection<? extends PathObject> pathObjectsAdded, Collection<? extends PathObject> pathObjectsRemoved) {
+		var event = new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.OTHER_STRUCTURE_CHANGE, parentObject, new ArrayList<>(0), false);
+		event.pathObjectsAdded = Collections.unmodifiableList(new ArrayList<>(pathObjectsAdded));
+		event.pathObjectsRemoved = Collections.unmodifiableList(new ArrayList<>(pathObjectsRemoved));
+		return event;
+	}
+
 	public static PathObjectHierarchyEvent createObjectAddedEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, PathObject pathObjectAdded) {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.ADDED, parentObject, Collections.singletonList(pathObjectAdded), false);				
 	}
@@ -114,6 +136,26 @@ public class PathObjectHierarchyEvent {
 		return pathObjects;
 	}
 	
+	/**
+	 * For a structure change event, the objects that were added to the hierarchy (along with any descendants added with them).
+	 * Objects that were already in the hierarchy, but have been given a new parent, may also be included.
+	 * 
+	 * @return the added objects, or null if these are not known (in which case anything below {@link #getStructureChangeBase()} may have changed)
+	 */
+	public List<PathObject> getAddedObjects() {
+		return pathObjectsAdded;
+	}
+	
+	/**
+	 * For a structure change event, the objects that were removed from the hierarchy.
+	 * Any descendants that are still children of these objects were removed along with them.
+	 * 
+	 * @return the removed objects, or null if these are not known (in which case anything below {@link #getStructureChangeBase()} may have changed)
+	 */
+	public List<PathObject> getRemovedObjects() {
+		return pathObjectsRemoved;
+	}
+	
 	public HierarchyEventType getEventType() {
 		return type;
 	}
@@ -23,19 +23,24 @@
 
 package qupath.lib.plugins;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import qupath.lib.common.SimpleThreadFactory;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.objects.PathObject;
@@ -46,7 +51,16 @@ import qupath.lib.objects.hierarchy.PathObjectHierarchy;
  * Abstract PluginRunner to help with the creation of plugin runners for specific circumstances,
  * e.g. running through a GUI, or from a command line only.
  * 
- * Note!  This makes use of a static threadpool, which will be reused by all inheriting classes.
+ * Note!  This makes use of a static {@link ForkJoinPool}, which will be reused by all inheriting classes.
+ * The pool is not shut down after tasks have completed, so that threads can be reused by subsequent commands.
+ * <p>
+ * Tasks may themselves call {@link #runTasks(Collection)} to run subtasks in the same pool; in this case the waiting
+ * thread is compensated for (see {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)}), no additional progress monitor
+ * is shown and the subtasks are cancelled along with their parent.
+ * <p>
+ * Tasks implementing {@link PrioritizedTask} are started in order of decreasing priority.
+ * Cancellation via the {@link SimpleProgressMonitor} is cooperative: tasks that have not yet started are skipped, 
+ * and running tasks can check {@link #isCurrentTaskCancelled()} to stop early.
  * 
  * @author Pete Bankhead
  *
@@ -57,17 +71,38 @@ public abstract class AbstractPluginRunner<T> implements PluginRunner<T> {
 	final private static Logger logger = LoggerFactory.getLogger(AbstractPluginRunner.class);
 
 	private static int numThreadsRequested = Runtime.getRuntime().availableProcessors();
-	private static int counter = 0;
+	private static AtomicInteger counter = new AtomicInteger(0);
 
-	private static ExecutorService pool;
-	private ExecutorCompletionService<Runnable> service;
-
-	private Map<Future<Runnable>, Runnable> pendingTasks = new HashMap<>();
+	private static ForkJoinPool pool;
+	
+	/**
+	 * Number of top-level batches currently running in each pool, so that a pool that has been replaced is only shut down once it is no longer used.
+	 * Guarded by the class lock.
+	 */
+	private static Map<ForkJoinPool, Integer> nActiveBatches = new IdentityHashMap<>();
+	
+	/**
+	 * Time to wait for a task to complete before checking again whether the tasks have been cancelled.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL_MILLIS = 100;
+	
+	/**
+	 * The batch of tasks to which the task running in the current thread belongs, if any.
+	 */
+	private static ThreadLocal<TaskBatch> currentBatch = new ThreadLocal<>();
 	
 	private boolean batchMode = false;
-	private SimpleProgressMonitor monitor;
 	
-	private boolean tasksCancelled = false;
+	/**
+	 * The most recent top-level batch started by each thread, used to report whether its tasks were cancelled.
+	 * Cancellation is tracked per batch, so that concurrent calls to {@link #runTasks(Collection)} don't interfere.
+	 */
+	private final ThreadLocal<TaskBatch> lastBatch = new ThreadLocal<>();
+	
+	/**
+	 * The most recent top-level batch started by any thread.
+	 */
+	private volatile TaskBatch latestBatch;
 	
 	protected AbstractPluginRunner(final boolean batchMode) {
 		this.batchMode = batchMode;
@@ -95,9 +130,87 @@ public abstract class AbstractPluginRunner<T> implements PluginRunner<T> {
 		if (numThreadsRequested == n)
 			return;
 		numThreadsRequested = n;
-		// Need to shutdown the pool for this to take effect
-		if (pool != null)
-			pool.shutdown();
+		// Replace the pool for this to take effect - the previous pool is only shut down after any tasks running in it have completed
+		if (pool != null) {
+			ForkJoinPool previousPool = pool;
+			pool = createPool();
+			if (!nActiveBatches.containsKey(previousPool))
+				previousPool.shutdown();
+		}
+	}
+	
+	/**
+	 * Get the shared pool used to run tasks, creating it if necessary.
+	 * 
+	 * @return
+	 */
+	synchronized static ForkJoinPool getPool() {
+		if (pool == null || pool.isShutdown())
+			pool = createPool();
+		return pool;
+	}
+	
+	private static ForkJoinPool createPool() {
+		int n = getNumThreads();
+		int poolNumber = counter.incrementAndGet();
+		AtomicInteger threadCounter = new AtomicInteger(0);
+		// Worker threads are daemon threads, so the pool doesn't inhibit application shutdown
+		ForkJoinPool newPool = new ForkJoinPool(n, p -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			thread.setName("plugin-runner-" + poolNumber + "-" + threadCounter.incrementAndGet());
+			return thread;
+		}, null, true);
+		logger.debug("New threadpool created with {} threads", n);
+		return newPool;
+	}
+	
+	/**
+	 * Get the shared pool, and record that a batch of tasks will run in it.
+	 * {@link #releasePool(ForkJoinPool)} must be called when the batch is complete.
+	 * 
+	 * @return
+	 */
+	private synchronized static ForkJoinPool acquirePool() {
+		ForkJoinPool currentPool = getPool();
+		nActiveBatches.merge(currentPool, 1, Integer::sum);
+		return currentPool;
+	}
+	
+	/**
+	 * Record that a batch of tasks has finished running in a pool, shutting down the pool if it has been replaced &amp; is no longer used.
+	 * 
+	 * @param batchPool
+	 */
+	private synchronized static void releasePool(ForkJoinPool batchPool) {
+		int n = nActiveBatches.merge(batchPool, -1, Integer::sum);
+		if (n > 0)
+			return;
+		nActiveBatches.remove(batchPool);
+		if (batchPool != pool) {
+			logger.debug("Shutting down previous threadpool");
+			batchPool.shutdown();
+		}
+	}
+	
+	/**
+	 * Query whether the current thread is running a task submitted by a plugin runner.
+	 * If so, any call to {@link #runTasks(Collection)} will run the tasks as subtasks.
+	 * 
+	 * @return
+	 */
+	protected static boolean isRunningInTask() {
+		return currentBatch.get() != null;
+	}
+	
+	/**
+	 * Query whether the tasks to which the task running in the current thread belongs have been cancelled.
+	 * Long-running tasks may call this to stop early when the user cancels a command.
+	 * 
+	 * @return true if the current thread is running a task that has been cancelled, false otherwise
+	 */
+	public static boolean isCurrentTaskCancelled() {
+		TaskBatch batch = currentBatch.get();
+		return batch != null && batch.isCancelled();
 	}
 	
 	/**
@@ -171,112 +284,190 @@ public abstract class AbstractPluginRunner<T> implements PluginRunner<T> {
 	 * @see qupath.lib.plugins.PluginRunner#runTasks(java.util.Collection)
 	 */
 	@Override
-	public synchronized void runTasks(Collection<Runnable> tasks) {
+	public void runTasks(Collection<Runnable> tasks) {
 		
 		if (tasks.isEmpty())
 			return;
 		
-		// Reset cancelled status
-		tasksCancelled = false;
+		TaskBatch parent = currentBatch.get();
 		
-		// Ensure we have a pool
-		if (pool == null || pool.isShutdown()) {
-			int n = getNumThreads();
-			pool = Executors.newFixedThreadPool(n, new SimpleThreadFactory("plugin-runner-"+(+counter)+"-", false));
-			logger.debug("New threadpool created with {} threads", n);
-			service = new ExecutorCompletionService<>(pool);
-		} else if (service == null)
-			service = new ExecutorCompletionService<>(pool);
+		// Only show progress for the outermost tasks
+		SimpleProgressMonitor monitor = parent == null ? makeProgressMonitor() : null;
+		if (monitor != null)
+			monitor.startMonitoring(null, tasks.size(), true);
 		
-		monitor = makeProgressMonitor();
-		monitor.startMonitoring(null, tasks.size(), true);
-		for (Runnable task : tasks) {
-			Future<Runnable> future = service.submit(task, task);
-			pendingTasks.put(future, task);
+		// Subtasks run in the same pool as their parent, even if the shared pool has since been replaced
+		ForkJoinPool batchPool = parent == null ? acquirePool() : parent.pool;
+		try {
+			TaskBatch batch = new TaskBatch(this, batchPool, parent, monitor);
+			if (parent == null) {
+				lastBatch.set(batch);
+				latestBatch = batch;
+			}
+			batch.submitAll(tasks);
+			batch.awaitCompletion();
+		} finally {
+			if (parent == null)
+				releasePool(batchPool);
 		}
-		// TODO: See if this needs to be shutdown here, or there's a better way..?
-		// In any case, it was inhibiting application shutdown just letting it be...
-		pool.shutdown();
-		if (!pendingTasks.isEmpty())
-			awaitCompletion();
 	}
 	
 	
-//	/* (non-Javadoc)
-//	 * @see qupath.lib.plugins.PluginRunner#isRunning()
-//	 */
-//	@Override
-//	public boolean isRunning() {
-//		return !pendingTasks.isEmpty();
-//	}
-
-	
 	/**
-	 * Await the completion of currently-running tasks, notifying any listener if necessary.
+	 * A collection of tasks submitted together by a single call to {@link #runTasks(Collection)}.
 	 */
-	protected void awaitCompletion() {
-		try {
-			while (!pendingTasks.isEmpty()) {
-				Future<Runnable> future = null;
-				// Check if the monitor has been cancelled; if so, do any post processing if a task is available and otherwise cancel remaining ones
-				if (!tasksCancelled && monitor != null && monitor.cancelled() && (future = service.poll()) == null) {
-					// Cancel all enqueued tasks
-					for (Future<?> entry : pendingTasks.keySet().toArray(new Future<?>[0])) {
-						if (entry.cancel(true)) {
-							pendingTasks.remove(entry);
-							monitor.updateProgress(1, "", null);
-						} else
-							logger.debug("Cancel returned false for {}", entry);
+	private static class TaskBatch {
+		
+		private final AbstractPluginRunner<?> runner;
+		private final ForkJoinPool pool;
+		private final TaskBatch parent;
+		private final SimpleProgressMonitor monitor;
+		private final ExecutorCompletionService<Runnable> service;
+		private final Map<Future<Runnable>, Runnable> pendingTasks = new HashMap<>();
+		
+		private volatile boolean cancelled = false;
+		
+		TaskBatch(final AbstractPluginRunner<?> runner, final ForkJoinPool pool, final TaskBatch parent, final SimpleProgressMonitor monitor) {
+			this.runner = runner;
+			this.pool = pool;
+			this.parent = parent;
+			this.monitor = monitor;
+			this.service = new ExecutorCompletionService<>(pool);
+		}
+		
+		boolean isCancelled() {
+			return cancelled || (monitor != null && monitor.cancelled()) || (parent != null && parent.isCancelled());
+		}
+		
+		void submitAll(final Collection<Runnable> tasks) {
+			// Start the highest priority tasks first (the pool uses FIFO scheduling)
+			List<Runnable> sortedTasks = new ArrayList<>(tasks);
+			sortedTasks.sort(Comparator.comparingInt((Runnable r) -> getPriority(r)).reversed());
+			for (Runnable task : sortedTasks) {
+				Future<Runnable> future = service.submit(() -> runTask(task), task);
+				pendingTasks.put(future, task);
+			}
+		}
+		
+		private void runTask(final Runnable task) {
+			if (isCancelled())
+				return;
+			TaskBatch previous = currentBatch.get();
+			currentBatch.set(this);
+			try {
+				task.run();
+			} finally {
+				currentBatch.set(previous);
+			}
+		}
+		
+		/**
+		 * Wait for the next task to complete, checking periodically whether the tasks have been cancelled.
+		 * If called from a thread within the pool, the pool may create another thread to maintain parallelism while waiting.
+		 * 
+		 * @return the next completed task, or null if no task completed before the tasks were cancelled
+		 * @throws InterruptedException
+		 */
+		private Future<Runnable> takeNext() throws InterruptedException {
+			NextTaskBlocker blocker = new NextTaskBlocker();
+			ForkJoinPool.managedBlock(blocker);
+			return blocker.future;
+		}
+		
+		private class NextTaskBlocker implements ForkJoinPool.ManagedBlocker {
+			
+			private Future<Runnable> future;
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (future == null)
+					future = service.poll(CANCEL_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				if (future == null)
+					future = service.poll();
+				return future != null;
+			}
+			
+		}
+		
+		private void cancelPendingTasks() {
+			for (Future<?> entry : pendingTasks.keySet().toArray(new Future<?>[0])) {
+				// Tasks that have already completed will be handled when they are taken from the completion service
+				if (entry.isDone())
+					continue;
+				if (entry.cancel(true)) {
+					pendingTasks.remove(entry);
+					if (monitor != null)
+						monitor.updateProgress(1, "", null);
+				} else
+					logger.trace("Cancel returned false for {}", entry);
+			}
+		}
+
+		/**
+		 * Await the completion of currently-running tasks, notifying any listener if necessary.
+		 */
+		void awaitCompletion() {
+			try {
+				while (!pendingTasks.isEmpty()) {
+					// Check if the tasks have been cancelled; if so, cancel all enqueued tasks
+					// (post-processing is still applied to any tasks that have already completed)
+					Future<Runnable> future = takeNext();
+					if (!cancelled && isCancelled()) {
+						cancelled = true;
+						cancelPendingTasks();
 					}
-					tasksCancelled = true;
-				}
-				future = future == null ? service.take() : future;
-//				logger.warn("Future: {}", future);
-				// If the task finished without being cancelled, run post-processing if required & update the progress monitor
-				if (!future.isCancelled()) {
-					Runnable runnable = future.get();
-					PathTask task = runnable instanceof PathTask ? (PathTask)runnable : null;
-					if (task != null) {
-						// Do post-processing if necessary - this includes updating the monitor
-						postProcess(runnable);
-					} else {
-						updateMonitor(task);
+					if (future == null)
+						continue;
+					// If the task finished without being cancelled, run post-processing if required & update the progress monitor
+					if (!future.isCancelled()) {
+						Runnable runnable = future.get();
+						// Do post-processing if necessary
+						if (runnable instanceof PathTask)
+							runner.postProcess(runnable);
+						updateMonitor(runnable, monitor);
 					}
+					pendingTasks.remove(future);
 				}
-				pendingTasks.remove(future);
+				if (monitor != null)
+					monitor.pluginCompleted("Tasks completed!");
+			} catch (InterruptedException e) {
+				logger.error("Plugin interrupted: {}", e.getLocalizedMessage(), e);
+				cancelPendingTasks();
+				if (monitor != null)
+					monitor.pluginCompleted("Completed with error " + e.getLocalizedMessage());
+			} catch (ExecutionException e) {
+				logger.error("Error running plugin: {}", e.getLocalizedMessage(), e);
+				cancelPendingTasks();
+				if (monitor != null)
+					monitor.pluginCompleted("Completed with error " + e.getLocalizedMessage());
+			} catch (Exception e) {
+				logger.error("Error running plugin: {}", e.getLocalizedMessage(), e);
+				cancelPendingTasks();
+				if (monitor != null)
+					monitor.pluginCompleted("Completed with error " + e.getLocalizedMessage());
+			} finally {
+				pendingTasks.clear();
 			}
-			if (monitor != null)
-				monitor.pluginCompleted("Tasks completed!");
-		} catch (InterruptedException e) {
-			logger.error("Plugin interrupted: {}", e.getLocalizedMessage(), e);
-			monitor.pluginCompleted("Completed with error " + e.getLocalizedMessage());
-		} catch (ExecutionException e) {
-			logger.error("Error running plugin: {}", e.getLocalizedMessage(), e);
-//			Throwable e2 = e;
-//			while ((e2 = e2.getCause()) != null) {
-//				e2 = e2.fillInStackTrace();
-//				logger.error("CAUSING Error running plugin: {}", e2.getLocalizedMessage(), e2);
-//			}
-//			e.printStackTrace();
-			if (pool != null)
-				pool.shutdownNow();
-			monitor.pluginCompleted("Completed with error " + e.getLocalizedMessage());
-		} catch (Exception e) {
-			logger.error("Error running plugin: {}", e.getLocalizedMessage(), e);
-			if (pool != null)
-				pool.shutdownNow();
-			monitor.pluginCompleted("Completed with error " + e.getLocalizedMessage());
-		} finally {
-			pendingTasks.clear();
 		}
+		
+	}
+	
+	
+	private static int getPriority(final Runnable task) {
+		return task instanceof PrioritizedTask ? ((PrioritizedTask)task).getPriority() : 0;
 	}
 
 	
 	/**
 	 * Perform post-processing after a task has complete.
 	 * 
-	 * This is necessary to call the taskComplete method (if the Runnable is an instance of PathTask),
-	 * and also to update any progress monitor.
+	 * This is necessary to call the taskComplete method (if the Runnable is an instance of PathTask).
+	 * Any progress monitor is updated after this method returns.
 	 * 
 	 * Note: Subclasses may choose to override this method so that it is called on a particular thread
 	 * (e.g. with Platform.runLater() or SwingUtilities.invokeLater).
@@ -288,21 +479,31 @@ public abstract class AbstractPluginRunner<T> implements PluginRunner<T> {
 		if (task != null) {
 			task.taskComplete();
 		}
-//		runnable.getClass().getSimpleName()
-//		System.err.println("Updating monitor from post processing");
-		updateMonitor(task);
 	}
 	
-	private void updateMonitor(final PathTask task) {
+	private static void updateMonitor(final Runnable runnable, final SimpleProgressMonitor monitor) {
 		if (monitor == null)
 			return;
-		String text = task == null ? "Completed" : task.getLastResultsDescription();
+		String text = runnable instanceof PathTask ? ((PathTask)runnable).getLastResultsDescription() : "Completed";
 		monitor.updateProgress(1, text, null);
 	}
 	
+	/**
+	 * Query whether tasks were cancelled.
+	 * <p>
+	 * If called from within a task run by this runner, this refers to the batch containing the task. 
+	 * Otherwise, it refers to the last top-level call to {@link #runTasks(Collection)} from the current thread, 
+	 * or from any thread if the current thread has not run any tasks.
+	 */
 	@Override
 	public boolean isCancelled() {
-		return tasksCancelled;
+		TaskBatch batch = currentBatch.get();
+		if (batch != null && batch.runner == this)
+			return batch.isCancelled();
+		batch = lastBatch.get();
+		if (batch == null)
+			batch = latestBatch;
+		return batch != null && batch.cancelled;
 	}
 	
 
@@ -129,6 +129,7 @@ public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetecti
 		}
 		
 		List<ParallelTileObject> tileList = new ArrayList<>();
+		List<Runnable> tileTasks = new ArrayList<>();
 		AtomicInteger countdown = new AtomicInteger(pathROIs.size());
 		for (ROI pathROI : pathROIs) {
 			ParallelTileObject tile = new ParallelTileObject(pathROI, imageData.getHierarchy(), countdown);
@@ -138,8 +139,10 @@ public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetecti
 					tile.suggestNeighbor(tileTemp);
 			}
 			tileList.add(tile);
-			tasks.add(DetectionPluginTools.createRunnableTask(createDetector(imageData, params), params, imageData, tile));
+			tileTasks.add(DetectionPluginTools.createRunnableTask(createDetector(imageData, params), params, imageData, tile));
 		}
+		// Let the scheduler decide which tile each task should process when it is run
+		tasks.addAll(new TileScheduler(tileList, tileTasks).createTasks());
 		imageData.getHierarchy().fireHierarchyChangedEvent(this);
 	}
 	
@@ -26,11 +26,13 @@ package qupath.lib.plugins;
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -67,7 +69,10 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 	boolean isComplete = false;
 	Rectangle2D bounds;
 	PathObjectHierarchy hierarchy;
-	Map<ParallelTileObject, Rectangle2D> map = new HashMap<>();
+	// Neighbors may notify this tile from different threads
+	Map<ParallelTileObject, Rectangle2D> map = new ConcurrentHashMap<>();
+	// Flag that the detections have been merged into the parent, so this isn't done twice
+	private final AtomicBoolean merged = new AtomicBoolean(false);
 
 	ParallelTileObject(final ROI pathROI, final PathObjectHierarchy hierarchy, final AtomicInteger countdown) {
 		super(pathROI);
@@ -249,22 +254,22 @@ public class ParallelTileObject extends PathTileObject implements TemporaryObjec
 		if (map.isEmpty() && getParent() != null) {
 			if (countdown == null) {
 				hierarchy.removeObject(this, true);
-			} else if (countdown.decrementAndGet() == 0) {
+			} else {
+				// Overlaps with all neighbors have been resolved, so we can merge our detections into the parent now -
+				// rather than waiting for all tiles to be complete.
+				// This is done via the hierarchy, so that it holds the write lock & notifies listeners of the objects added.
+				if (!merged.compareAndSet(false, true))
+					return true;
 				PathObject parent = getParent();
-				List<PathObject> parallelObjects = new ArrayList<>();
-				for (PathObject temp : parent.getChildObjects()) {
-					if (temp instanceof ParallelTileObject) {
-						parallelObjects.add(temp);
-					}
+				hierarchy.removeObject(this, true);
+				
+				if (countdown.decrementAndGet() == 0) {
+					if (parent.hasChildren() && parent instanceof PathROIObject)
+						((PathROIObject)parent).setLocked(true);
+	
+					// Notify listeners that all tiles are complete; the objects have already been added
+					hierarchy.fireHierarchyChangedEvent(this, parent, Collections.emptyList(), Collections.emptyList());
 				}
-				parent.removePathObjects(parallelObjects);
-				for (PathObject temp : parallelObjects)
-					parent.addPathObjects(temp.getChildObjects());
-
-				if (parent.hasChildren() && parent instanceof PathROIObject)
-					((PathROIObject)parent).setLocked(true);
-
-				hierarchy.fireHierarchyChangedEvent(parent);
 			}
 			return true;
 			//				getParent().removePathObject(this);
@@ -0,0 +1,42 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.plugins;
+
+/**
+ * Helper interface to define tasks that should be started before (or after) others when run by a {@link PluginRunner}.
+ * 
+ * @author Pete Bankhead
+ * 
+ */
+public interface PrioritizedTask extends Runnable {
+	
+	/**
+	 * Get the priority of this task.  Tasks with higher priorities are started first; 
+	 * tasks that do not implement this interface have a priority of 0.
+	 * 
+	 * @return
+	 */
+	public int getPriority();
+
+}
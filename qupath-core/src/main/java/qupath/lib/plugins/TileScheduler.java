@@ -0,0 +1,258 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.plugins;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helper class to decide the order in which the tiles of a large region should be processed.
+ * <p>
+ * Tiles are ordered along a Hilbert curve, so that tiles processed around the same time tend to be close together
+ * (which helps image tiles to be reused from the cache).  However, where possible adjacent tiles are not processed
+ * at the same time, to reduce contention when resolving overlaps between tiles.
+ * <p>
+ * Rather than assigning a tile to each task in advance, each task requests the next tile when it starts running.
+ * 
+ * @author Pete Bankhead
+ * 
+ */
+class TileScheduler {
+
+	private final List<ParallelTileObject> pending = new ArrayList<>();
+	private final Map<ParallelTileObject, Runnable> taskMap = new LinkedHashMap<>();
+	private final Map<ParallelTileObject, List<ParallelTileObject>> neighbors = new LinkedHashMap<>();
+	private final Set<ParallelTileObject> running = new HashSet<>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param tiles the tiles to process
+	 * @param tasks the task used to process each tile, in the same order as the tiles
+	 */
+	TileScheduler(final List<ParallelTileObject> tiles, final List<Runnable> tasks) {
+		if (tiles.size() != tasks.size())
+			throw new IllegalArgumentException("Number of tiles (" + tiles.size() + ") does not match the number of tasks (" + tasks.size() + ")");
+		for (int i = 0; i < tiles.size(); i++)
+			taskMap.put(tiles.get(i), tasks.get(i));
+
+		// Determine which tiles touch or overlap
+		for (ParallelTileObject tile : tiles) {
+			Rectangle2D expanded = new Rectangle2D.Double(tile.bounds.getX() - 1, tile.bounds.getY() - 1, tile.bounds.getWidth() + 2, tile.bounds.getHeight() + 2);
+			List<ParallelTileObject> list = new ArrayList<>();
+			for (ParallelTileObject other : tiles) {
+				if (other != tile && expanded.intersects(other.bounds))
+					list.add(other);
+			}
+			neighbors.put(tile, list);
+		}
+
+		// Order tiles along a Hilbert curve, using a grid based on the spacing between tile centers
+		double[] cx = new double[tiles.size()];
+		double[] cy = new double[tiles.size()];
+		double[] widths = new double[tiles.size()];
+		double[] heights = new double[tiles.size()];
+		for (int i = 0; i < tiles.size(); i++) {
+			Rectangle2D bounds = tiles.get(i).bounds;
+			cx[i] = bounds.getCenterX();
+			cy[i] = bounds.getCenterY();
+			widths[i] = bounds.getWidth();
+			heights[i] = bounds.getHeight();
+		}
+		int[] gx = getGridCoordinates(cx, widths);
+		int[] gy = getGridCoordinates(cy, heights);
+		int maxGrid = 1;
+		for (int i = 0; i < tiles.size(); i++)
+			maxGrid = Math.max(maxGrid, Math.max(gx[i], gy[i]));
+		int n = Integer.highestOneBit(maxGrid) * 2;
+		Map<ParallelTileObject, Long> order = new HashMap<>();
+		for (int i = 0; i < tiles.size(); i++)
+			order.put(tiles.get(i), hilbertIndex(n, gx[i], gy[i]));
+		pending.addAll(tiles);
+		pending.sort(Comparator.comparingLong(t -> order.get(t)));
+	}
+
+	/**
+	 * Convert center coordinates into integer grid coordinates.
+	 * The grid spacing is the smallest gap between distinct centers that is at least half the median tile size,
+	 * so that tiles that have been clipped at the edge of a region are still assigned to the nearest row or column.
+	 * 
+	 * @param centers
+	 * @param sizes
+	 * @return
+	 */
+	private static int[] getGridCoordinates(final double[] centers, final double[] sizes) {
+		if (centers.length == 0)
+			return new int[0];
+		double[] sortedSizes = sizes.clone();
+		Arrays.sort(sortedSizes);
+		double typical = Math.max(1, sortedSizes[sortedSizes.length / 2]);
+		double[] sorted = centers.clone();
+		Arrays.sort(sorted);
+		double spacing = Double.POSITIVE_INFINITY;
+		for (int i = 1; i < sorted.length; i++) {
+			double gap = sorted[i] - sorted[i-1];
+			if (gap >= typical / 2)
+				spacing = Math.min(spacing, gap);
+		}
+		if (!Double.isFinite(spacing))
+			spacing = typical;
+		int[] grid = new int[centers.length];
+		for (int i = 0; i < centers.length; i++)
+			grid[i] = (int)Math.round((centers[i] - sorted[0]) / spacing);
+		return grid;
+	}
+
+	/**
+	 * Compute the distance along a Hilbert curve filling an n x n grid for the point (x, y).
+	 * 
+	 * @param n grid size; must be a power of 2
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	static long hilbertIndex(final int n, int x, int y) {
+		long d = 0;
+		for (int s = n / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+			// Rotate
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int temp = x;
+				x = y;
+				y = temp;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Get the tiles in the order in which they would be processed if they were run sequentially.
+	 * 
+	 * @return
+	 */
+	synchronized List<ParallelTileObject> getPendingTiles() {
+		return new ArrayList<>(pending);
+	}
+
+	/**
+	 * Get the next tile to process, and mark it as running.
+	 * This is the first pending tile along the curve that has no running neighbors, or else the first pending tile.
+	 * 
+	 * @return the next tile, or null if there are no more tiles to process
+	 */
+	synchronized ParallelTileObject nextTile() {
+		if (pending.isEmpty())
+			return null;
+		int ind = 0;
+		for (int i = 0; i < pending.size(); i++) {
+			if (!hasRunningNeighbor(pending.get(i))) {
+				ind = i;
+				break;
+			}
+		}
+		ParallelTileObject tile = pending.remove(ind);
+		running.add(tile);
+		return tile;
+	}
+
+	private boolean hasRunningNeighbor(final ParallelTileObject tile) {
+		for (ParallelTileObject neighbor : neighbors.get(tile)) {
+			if (running.contains(neighbor))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Notify the scheduler that processing of a tile has finished.
+	 * 
+	 * @param tile
+	 */
+	synchronized void tileFinished(final ParallelTileObject tile) {
+		running.remove(tile);
+	}
+
+	/**
+	 * Create one task per tile.  Each task processes the next tile returned by {@link #nextTile()} when it is run.
+	 * 
+	 * @return
+	 */
+	List<Runnable> createTasks() {
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < taskMap.size(); i++)
+			tasks.add(new ScheduledTileTask());
+		return tasks;
+	}
+
+
+	/**
+	 * Task that runs the tile task for whichever tile the scheduler provides next.
+	 */
+	private class ScheduledTileTask implements PathTask {
+
+		private Runnable delegate;
+
+		@Override
+		public void run() {
+			ParallelTileObject tile = nextTile();
+			if (tile == null)
+				return;
+			delegate = taskMap.get(tile);
+			try {
+				delegate.run();
+			} finally {
+				tileFinished(tile);
+			}
+		}
+
+		@Override
+		public void taskComplete() {
+			if (delegate instanceof PathTask)
+				((PathTask)delegate).taskComplete();
+		}
+
+		@Override
+		public String getLastResultsDescription() {
+			if (delegate instanceof PathTask)
+				return ((PathTask)delegate).getLastResultsDescription();
+			return null;
+		}
+
+	}
+
+}
@@ -24,11 +24,11 @@
 package qupath.lib.plugins.objects;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +37,7 @@ import qupath.lib.classifiers.PathClassificationLabellingHelper;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.measurements.MeasurementColumns;
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathDetectionObject;
@@ -195,13 +196,10 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 	 * @param withinClass
 	 * @param useLegacyNames
 	 */
-//	public static Set<String> smoothMeasurements(List<PathObject> pathObjects, List<String> measurements, double fwhmPixels) {
 	public static void smoothMeasurements(List<PathObject> pathObjects, List<String> measurements, double fwhmPixels, String fwhmString, boolean withinClass, boolean useLegacyNames) {
 		if (measurements.isEmpty() || pathObjects.size() <= 1)
 			return; //Collections.emptySet();
 		
-//		Set<String> measurementsAdded = new LinkedHashSet<>();
-		
 		if (fwhmString == null)
 			fwhmString = String.format("%.2f px", fwhmPixels);
 
@@ -212,30 +210,7 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 		double maxDistSq = maxDist * maxDist; // Maximum separation
 
 		int nObjects = pathObjects.size();
-		//		int counter = 0;
-
-		// Sort by x-coordinate - this gives us a method of breaking early
-		Collections.sort(pathObjects, new Comparator<PathObject>() {
-			@Override
-			public int compare(PathObject o1, PathObject o2) {
-				double x1 = o1.getROI().getCentroidX();
-				double x2 = o2.getROI().getCentroidX();
-//				int value = Double.compare(x1, x2);
-//				if (value == 0) {
-//					System.out.println(x1 + " vs. " + x2);
-//					System.out.println(String.format("(%.2f, %.2f) vs (%.2f, %.2f)", o1.getROI().getCentroidX(), o1.getROI().getCentroidY(), o2.getROI().getCentroidX(), o2.getROI().getCentroidY()));				}
-				return Double.compare(x1, x2);
-//				if (x1 > x2)
-//					return 1;
-//				if (x2 < x1)
-//					return -1;
-//				System.out.println(x1 + " vs. " + x2);
-//				System.out.println(String.format("(%.2f, %.2f) vs (%.2f, %.2f)", o1.getROI().getCentroidX(), o1.getROI().getCentroidY(), o2.getROI().getCentroidX(), o2.getROI().getCentroidY()));
-//				return 0;
-//				return (int)Math.signum(o1.getROI().getCentroidX() - o2.getROI().getCentroidX());
-			}
-		});
-		
+		int nMeasurements = measurements.size();
 		
 		// Create a LUT for distances - calculating exp every time is expensive
 		double[] distanceWeights = new double[(int)(maxDist + .5) + 1];
@@ -243,16 +218,10 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 			distanceWeights[i] = Math.exp(-(i * i)/sigma2);
 		}
 		
-
-		System.currentTimeMillis();
-		
 		float[] xCentroids = new float[nObjects];
 		float[] yCentroids = new float[nObjects];
 		PathClass[] pathClasses = new PathClass[nObjects];
-		int[] nearbyDetectionCounts = new int[nObjects];
-		float[][] measurementsWeighted = new float[nObjects][measurements.size()];
-		float[][] measurementDenominators = new float[nObjects][measurements.size()];
-		float[][] measurementValues = new float[nObjects][measurements.size()];
+		int nDetections = 0;
 		for (int i = 0; i < nObjects; i++) {
 			PathObject pathObject = pathObjects.get(i);
 			if (withinClass)
@@ -260,17 +229,85 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 			ROI roi = pathObject.getROI();
 			xCentroids[i] = (float)roi.getCentroidX();
 			yCentroids[i] = (float)roi.getCentroidY();
-			MeasurementList measurementList = pathObject.getMeasurementList();
-			int ind = 0;
-			for (String name : measurements) {
-				float value = (float)measurementList.getMeasurementValue(name);
-				
-				measurementValues[i][ind] = value;   // Used to cache values
-				measurementsWeighted[i][ind] = value; // Based on distances and measurements
-				measurementDenominators[i][ind] = 1; // Based on distances along
-				ind++;
-			}
+			if (pathObject instanceof PathDetectionObject)
+				nDetections++;
 		}
+		
+		// Get all the measurements at once, to avoid looking up names for every object.
+		// Values are stored by column, and the smoothed values start as the object's own value (with a weight of 1)
+		float[][] measurementColumns = MeasurementColumns.getFloatColumns(pathObjects, measurements);
+		float[][] smoothedColumns = new float[nMeasurements][];
+		for (int ind = 0; ind < nMeasurements; ind++)
+			smoothedColumns[ind] = measurementColumns[ind].clone();
+		float[] maxDenominators = new float[nObjects];
+		Arrays.fill(maxDenominators, 1f);
+		float[] nearbyDetectionCounts = new float[nObjects];
+		
+		// Bin centroids into a grid, so that only objects in the surrounding cells need to be checked.
+		// Each object gathers the values of its own neighbors, so rows of the grid can be processed in parallel.
+		CentroidGrid grid = new CentroidGrid(xCentroids, yCentroids, maxDist);
+		IntStream.range(0, grid.nRows).parallel().forEach(row -> {
+			NeighborList neighbors = new NeighborList();
+			for (int col = 0; col < grid.nCols; col++) {
+				int cell = row * grid.nCols + col;
+				for (int p = grid.cellStart[cell]; p < grid.cellStart[cell+1]; p++) {
+					int i = grid.sortedIndices[p];
+					double xi = xCentroids[i];
+					double yi = yCentroids[i];
+					PathClass pathClass = pathClasses[i];
+					
+					// Find all neighbors within the maximum separation, and their weights
+					neighbors.clear();
+					int count = 0;
+					for (int r = Math.max(0, row-1); r <= Math.min(grid.nRows-1, row+1); r++) {
+						for (int c = Math.max(0, col-1); c <= Math.min(grid.nCols-1, col+1); c++) {
+							int cellNeighbor = r * grid.nCols + c;
+							for (int q = grid.cellStart[cellNeighbor]; q < grid.cellStart[cellNeighbor+1]; q++) {
+								int j = grid.sortedIndices[q];
+								if (j == i)
+									continue;
+								double xj = xCentroids[j];
+								double yj = yCentroids[j];
+								double distSq = (xj - xi)*(xj - xi) + (yj - yi)*(yj - yi);
+								// Check if we are close enough to have an influence
+								if (distSq > maxDistSq)
+									continue;
+								// Check if the class is ok, if check needed
+								if (withinClass && pathClass != pathClasses[j])
+									continue;
+								// Update the counts, if close enough
+								if (distSq < fwhmPixels2)
+									count++;
+								neighbors.add(j, distanceWeights[(int)(Math.sqrt(distSq) + .5)]);
+							}
+						}
+					}
+					nearbyDetectionCounts[i] = count;
+					if (neighbors.size == 0)
+						continue;
+					
+					// Accumulate weighted values one measurement column at a time
+					float maxDenominator = Float.NEGATIVE_INFINITY;
+					for (int ind = 0; ind < nMeasurements; ind++) {
+						float[] column = measurementColumns[ind];
+						double weighted = column[i];
+						double denominator = 1;
+						for (int n = 0; n < neighbors.size; n++) {
+							float value = column[neighbors.indices[n]];
+							if (Float.isNaN(value))
+								continue;
+							double weight = neighbors.weights[n];
+							weighted += value * weight;
+							denominator += weight;
+						}
+						smoothedColumns[ind][i] = (float)(weighted / denominator);
+						if (denominator > maxDenominator)
+							maxDenominator = (float)denominator;
+					}
+					maxDenominators[i] = maxDenominator;
+				}
+			}
+		});
 
 		String prefix, postfix, denomName, countsName;
 		
@@ -289,99 +326,139 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 //			countsName = prefix + "Nearby detection counts";
 		}
 		
-		// Loop through objects, computing predominant class based on distance weighting
-		for (int i = 0; i < nObjects; i++) {
-			// Extract the current class index
-			PathObject pathObject = pathObjects.get(i);
-			PathClass pathClass = pathClasses[i];
-			MeasurementList measurementList = pathObject.getMeasurementList();
-			float[] mValues = measurementValues[i];
-			float[] mWeighted = measurementsWeighted[i];
-			float[] mDenominator = measurementDenominators[i];
-			
-			// Compute centroid distances
-			double xi = xCentroids[i];
-			double yi = yCentroids[i];
-			for (int j = i+1; j < nObjects; j++) {
-				
-				double xj = xCentroids[j];
-				double yj = yCentroids[j];
-				//				counter++;
-				// Break early if we are already too far away
-				if (Math.abs(xj - xi) > maxDist) {
-					break;
+		// Store the measurements - detections also receive the density & counts
+		List<String> smoothedNames = new ArrayList<>();
+		for (String name : measurements)
+			smoothedNames.add(prefix + name + postfix);
+		List<String> detectionNames = new ArrayList<>(smoothedNames);
+		List<float[]> detectionColumns = new ArrayList<>(Arrays.asList(smoothedColumns));
+		if (denomName != null) {
+			detectionNames.add(denomName);
+			detectionColumns.add(maxDenominators);
+		}
+		detectionNames.add(countsName);
+		detectionColumns.add(nearbyDetectionCounts);
+		
+		if (nDetections == nObjects) {
+			MeasurementColumns.putFloatColumns(pathObjects, detectionNames, detectionColumns.toArray(new float[0][]));
+		} else {
+			int[] detectionInds = new int[nDetections];
+			int[] otherInds = new int[nObjects - nDetections];
+			List<PathObject> detections = new ArrayList<>();
+			List<PathObject> others = new ArrayList<>();
+			for (int i = 0; i < nObjects; i++) {
+				PathObject pathObject = pathObjects.get(i);
+				if (pathObject instanceof PathDetectionObject) {
+					detectionInds[detections.size()] = i;
+					detections.add(pathObject);
+				} else {
+					otherInds[others.size()] = i;
+					others.add(pathObject);
 				}
-
-				double distSq = (xj - xi)*(xj - xi) + (yj - yi)*(yj - yi);
-//				// Check if we are close enough to have an influence
-				if (distSq > maxDistSq || Double.isNaN(distSq))
-					continue;
-				
-				// Check if the class is ok, if check needed
-				if (withinClass && pathClass != pathClasses[j])
+			}
+			MeasurementColumns.putFloatColumns(detections, detectionNames, selectRows(detectionColumns.toArray(new float[0][]), detectionInds));
+			MeasurementColumns.putFloatColumns(others, smoothedNames, selectRows(smoothedColumns, otherInds));
+		}
+		
+//		return measurementsAdded;
+	}
+	
+	
+	private static float[][] selectRows(final float[][] columns, final int[] inds) {
+		float[][] selected = new float[columns.length][inds.length];
+		for (int c = 0; c < columns.length; c++) {
+			for (int i = 0; i < inds.length; i++)
+				selected[c][i] = columns[c][inds[i]];
+		}
+		return selected;
+	}
+	
+	
+	/**
+	 * Grid of centroids, with a cell size of at least the maximum separation at which objects influence one another.
+	 * This means that only the 8 surrounding cells need to be searched for neighbors.
+	 * <p>
+	 * Objects with NaN centroids are not added to any cell.
+	 */
+	private static class CentroidGrid {
+		
+		final int nCols, nRows;
+		final int[] cellStart;
+		final int[] sortedIndices;
+		
+		CentroidGrid(final float[] x, final float[] y, final double maxDist) {
+			int n = x.length;
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				if (Float.isNaN(x[i]) || Float.isNaN(y[i]))
 					continue;
-				
-				// Update the counts, if close enough
-				if (distSq < fwhmPixels2) {
-					nearbyDetectionCounts[i]++;
-					nearbyDetectionCounts[j]++;
-				}
-
-				// Update the class weights for both objects currently being tested
-				// Compute weight based on centroid distances
-//				double weight = Math.exp(-distSq/sigma2);
-				double weight = distanceWeights[(int)(Math.sqrt(distSq) + .5)];// * pathObjects.get(j).getClassProbability();
-				float [] temp = measurementValues[j];
-				float [] tempWeighted = measurementsWeighted[j];
-				float [] tempDenominator = measurementDenominators[j];
-				for (int ind = 0; ind < measurements.size(); ind++) {
-					float tempVal = temp[ind];
-					if (Float.isNaN(tempVal))
-						continue;
-					mWeighted[ind] += tempVal * weight;
-					mDenominator[ind] += weight;
-					
-					float tempVal2 = mValues[ind];
-					if (Float.isNaN(tempVal2))
-						continue;
-					tempWeighted[ind] += tempVal2 * weight;
-					tempDenominator[ind] += weight;
-				}
+				minX = Math.min(minX, x[i]);
+				maxX = Math.max(maxX, x[i]);
+				minY = Math.min(minY, y[i]);
+				maxY = Math.max(maxY, y[i]);
 			}
-			
-			// Store the measurements
-			int ind = 0;
-			float maxDenominator = Float.NEGATIVE_INFINITY;
-			for (String name : measurements) {
-//				if (name.contains(" - Smoothed (FWHM ") || name.startsWith("Smoothed denominator (local density, ") || name.startsWith("Nearby detection counts"))
-//					continue;
-				float denominator = mDenominator[ind];
-				if (denominator > maxDenominator)
-					maxDenominator = denominator;
-				
-				String nameToAdd = prefix + name + postfix;
-				measurementList.putMeasurement(nameToAdd, mWeighted[ind] / denominator);
-				
-//				measurementsAdded.add(nameToAdd);
-//				measurementList.putMeasurement(name + " - weighted sum", mWeighted[ind]); // TODO: Support optionally providing weighted sums
-				
-//				measurementList.addMeasurement(name + " - smoothed", mWeighted[ind] / mDenominator[ind]);
-				ind++;
+			if (minX > maxX) {
+				minX = maxX = minY = maxY = 0;
 			}
-			if (pathObject instanceof PathDetectionObject && denomName != null) {
-				measurementList.putMeasurement(denomName, maxDenominator);
-//				measurementsAdded.add(denomName);
+			// Increase the cell size if necessary, so that sparse objects don't result in a huge number of empty cells
+			double cellSize = Math.max(maxDist, 1.0);
+			double maxCells = 4.0 * n + 1024;
+			double nCells = ((maxX - minX) / cellSize + 1) * ((maxY - minY) / cellSize + 1);
+			if (nCells > maxCells)
+				cellSize *= Math.sqrt(nCells / maxCells);
+			nCols = (int)((maxX - minX) / cellSize) + 1;
+			nRows = (int)((maxY - minY) / cellSize) + 1;
+			
+			// Sort object indices by cell
+			int[] cells = new int[n];
+			cellStart = new int[nCols * nRows + 1];
+			for (int i = 0; i < n; i++) {
+				if (Float.isNaN(x[i]) || Float.isNaN(y[i])) {
+					cells[i] = -1;
+					continue;
+				}
+				int col = Math.min(nCols-1, (int)((x[i] - minX) / cellSize));
+				int row = Math.min(nRows-1, (int)((y[i] - minY) / cellSize));
+				cells[i] = row * nCols + col;
+				cellStart[cells[i]+1]++;
 			}
-			if (pathObject instanceof PathDetectionObject && countsName != null) {
-				measurementList.putMeasurement(countsName, nearbyDetectionCounts[i]);
-//				measurementsAdded.add(countsName);
+			for (int c = 0; c < nCols * nRows; c++)
+				cellStart[c+1] += cellStart[c];
+			sortedIndices = new int[cellStart[nCols * nRows]];
+			int[] next = Arrays.copyOf(cellStart, nCols * nRows);
+			for (int i = 0; i < n; i++) {
+				if (cells[i] >= 0)
+					sortedIndices[next[cells[i]]++] = i;
 			}
-			measurementList.close();
 		}
 		
-		System.currentTimeMillis();
+	}
+	
+	
+	/**
+	 * Reusable list of neighbor indices and weights for a single object.
+	 */
+	private static class NeighborList {
+		
+		private int size = 0;
+		private int[] indices = new int[64];
+		private double[] weights = new double[64];
+		
+		void clear() {
+			size = 0;
+		}
+		
+		void add(final int ind, final double weight) {
+			if (size == indices.length) {
+				indices = Arrays.copyOf(indices, size * 2);
+				weights = Arrays.copyOf(weights, size * 2);
+			}
+			indices[size] = ind;
+			weights[size] = weight;
+			size++;
+		}
 		
-//		return measurementsAdded;
 	}
 
 	@Override
@@ -759,8 +759,9 @@ class DefaultProject implements Project<BufferedImage> {
 				return null;
 			ImageData<BufferedImage> imageData = null;
 			if (Files.exists(path)) {
-				try (var stream = Files.newInputStream(path)) {
-					imageData = PathIO.readImageData(stream, null, server, BufferedImage.class);
+				try {
+					// Read from a file (rather than a stream) so that detections can be loaded lazily
+					imageData = PathIO.readImageData(path.toFile(), null, server, BufferedImage.class);
 					imageData.setLastSavedPath(path.toString(), true);
 					return imageData;
 				} catch (IOException e) {
@@ -776,6 +777,9 @@ class DefaultProject implements Project<BufferedImage> {
 			var pathEntry = getEntryPath(true);
 			var pathData = getImageDataPath();
 			
+			// Ensure all objects have been read, since they might be read lazily from the file we're about to replace
+			imageData.getHierarchy().loadDeferredObjects();
+			
 			// If we already have a file, back it up first
 			var pathBackup = Paths.get(pathData.toString() + ".bkp");
 			if (Files.exists(pathData))
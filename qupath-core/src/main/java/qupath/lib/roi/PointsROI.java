@@ -79,7 +79,7 @@ public class PointsROI extends AbstractPathROI implements ROIWithHull, PathPoint
 		recomputeBounds();
 	}
 	
-	private PointsROI(float[] x, float[] y, int c, int z, int t) {
+	PointsROI(float[] x, float[] y, int c, int z, int t) {
 		super(c, z, t);
 		if (x.length != y.length)
 			throw new IllegalArgumentException("Lengths of x and y arrays are not the same! " + x.length + " and " + y.length);
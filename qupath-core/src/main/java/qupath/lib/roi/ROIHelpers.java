@@ -102,5 +102,54 @@ public class ROIHelpers {
 	public static boolean isSimplePolyline(final ROI roi) {
 		return roi instanceof PolylineROI;
 	}
+	
+	/**
+	 * Get the x coordinates of the vertices of a polygon, polyline or points ROI.
+	 * <p>
+	 * For polygons and polylines this avoids creating intermediate {@link Point2} objects, 
+	 * which can be useful when very large numbers of ROIs need to be processed (e.g. when writing data).
+	 * 
+	 * @param roi
+	 * @return the x coordinates, or null if the ROI does not have a simple list of vertices
+	 * 
+	 * @see #getVerticesY(ROI)
+	 */
+	public static float[] getVerticesX(final ROI roi) {
+		if (roi instanceof PolygonROI)
+			return ((PolygonROI)roi).getVertices().getX(null);
+		if (roi instanceof PolylineROI)
+			return ((PolylineROI)roi).getVertices().getX(null);
+		if (roi instanceof PointsROI) {
+			var points = roi.getPolygonPoints();
+			float[] x = new float[points.size()];
+			for (int i = 0; i < x.length; i++)
+				x[i] = (float)points.get(i).getX();
+			return x;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the y coordinates of the vertices of a polygon, polyline or points ROI.
+	 * 
+	 * @param roi
+	 * @return the y coordinates, or null if the ROI does not have a simple list of vertices
+	 * 
+	 * @see #getVerticesX(ROI)
+	 */
+	public static float[] getVerticesY(final ROI roi) {
+		if (roi instanceof PolygonROI)
+			return ((PolygonROI)roi).getVertices().getY(null);
+		if (roi instanceof PolylineROI)
+			return ((PolylineROI)roi).getVertices().getY(null);
+		if (roi instanceof PointsROI) {
+			var points = roi.getPolygonPoints();
+			float[] y = new float[points.size()];
+			for (int i = 0; i < y.length; i++)
+				y[i] = (float)points.get(i).getY();
+			return y;
+		}
+		return null;
+	}
 
 }
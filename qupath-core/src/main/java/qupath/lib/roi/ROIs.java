@@ -84,10 +84,39 @@ public class ROIs {
 		return new PointsROI(points, plane.getC(), plane.getZ(), plane.getT());
 	}
 
+	/**
+	 * Create a points ROI directly from arrays of x and y point coordinates.
+	 * <p>
+	 * The arrays are not retained, so can be reused by the caller.
+	 *
+	 * @param x
+	 * @param y
+	 * @param plane
+	 * @return
+	 * @throws IllegalArgumentException if the arrays have different lengths
+	 */
+	public static PathPoints createPointsROI(float[] x, float[] y, ImagePlane plane) {
+		return new PointsROI(x, y, plane.getC(), plane.getZ(), plane.getT());
+	}
+
 	public static PolygonROI createPolygonROI(List<Point2> points, ImagePlane plane) {
 		return new PolygonROI(points, plane.getC(), plane.getZ(), plane.getT());
 	}
 	
+	/**
+	 * Create a polygon ROI directly from arrays of x and y vertex coordinates.
+	 * <p>
+	 * The arrays are copied, so can be reused by the caller.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param plane
+	 * @return
+	 */
+	public static PolygonROI createPolygonROI(float[] x, float[] y, ImagePlane plane) {
+		return new PolygonROI(x, y, plane.getC(), plane.getZ(), plane.getT());
+	}
+	
 	public static PolygonROI createPolygonROI(double x, double y, ImagePlane plane) {
 		return new PolygonROI(Collections.singletonList(new Point2(x, y)), plane.getC(), plane.getZ(), plane.getT());
 	}
@@ -96,6 +125,20 @@ public class ROIs {
 		return new PolylineROI(points, plane.getC(), plane.getZ(), plane.getT());
 	}
 	
+	/**
+	 * Create a polyline ROI directly from arrays of x and y vertex coordinates.
+	 * <p>
+	 * The arrays are copied, so can be reused by the caller.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param plane
+	 * @return
+	 */
+	public static PolylineROI createPolylineROI(float[] x, float[] y, ImagePlane plane) {
+		return new PolylineROI(x, y, plane.getC(), plane.getZ(), plane.getT());
+	}
+	
 	public static PolylineROI createPolylineROI(double x, double y, ImagePlane plane) {
 		return new PolylineROI(Collections.singletonList(new Point2(x, y)), plane.getC(), plane.getZ(), plane.getT());
 	}
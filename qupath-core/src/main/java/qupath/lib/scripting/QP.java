@@ -63,6 +63,7 @@ import qupath.lib.objects.hierarchy.TMAGrid;
 import qupath.lib.plugins.CommandLinePluginRunner;
 import qupath.lib.plugins.PathPlugin;
 import qupath.lib.plugins.workflow.RunSavedClassifierWorkflowStep;
+import qupath.lib.projects.Project;
 import qupath.lib.regions.ImagePlane;
 import qupath.lib.roi.ROIs;
 import qupath.lib.roi.interfaces.ROI;
@@ -93,7 +94,9 @@ public class QP {
 	final public static ImageData.ImageType FLUORESCENCE = ImageData.ImageType.FLUORESCENCE;
 	final public static ImageData.ImageType OTHER = ImageData.ImageType.OTHER;
 	
-	private static WeakHashMap<Thread, ImageData<?>> batchImageData = new WeakHashMap<>();
+	private static Map<Thread, ImageData<?>> batchImageData = Collections.synchronizedMap(new WeakHashMap<>());
+	
+	private static Map<Thread, Project<?>> batchProject = Collections.synchronizedMap(new WeakHashMap<>());
 	
 	
 	/**
@@ -117,6 +120,28 @@ public class QP {
 		return batchImageData.get(Thread.currentThread());
 	}
 	
+	/**
+	 * Set the Project to use for batch processing.  This will be local for the current thread.
+	 * @param project
+	 * @return the previous project set for the current thread, or null
+	 */
+	public static Project<?> setBatchProject(final Project<?> project) {
+		Thread thread = Thread.currentThread();
+		logger.trace("Setting project for {} to {}", thread, project);
+		if (project == null)
+			return batchProject.remove(thread);
+		return batchProject.put(thread, project);
+	}
+	
+	/**
+	 * Get the Project set for batch processing with the current thread.
+	 * 
+	 * @return The Project set with setBatchProject, or null if no Project has been set for the current thread.
+	 */
+	public static Project<?> getBatchProject() {
+		return batchProject.get(Thread.currentThread());
+	}
+	
 //	public static ImageData<?> getCurrentImageData() {
 //		// Try the batch image data first
 //		ImageData<?> imageData = getBatchImageData();
@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import qupath.lib.geom.Point2;
+import qupath.lib.images.ImageData;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.helpers.PathObjectTools;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.AreaROI;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+public class TestPathIO {
+
+	private static final double tol = 1e-4;
+
+	@Test
+	public void test_BinaryRoundTrip() throws IOException {
+		PathObjectHierarchy hierarchy = createHierarchy();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PathIO.writeImageData(bytes, new ImageData<BufferedImage>(null, hierarchy, ImageData.ImageType.FLUORESCENCE));
+		PathObjectHierarchy hierarchy2 = PathIO.readHierarchy(new ByteArrayInputStream(bytes.toByteArray()));
+		testEqualHierarchies(hierarchy, hierarchy2);
+	}
+
+	@Test
+	public void test_LegacyRead() throws IOException {
+		PathObjectHierarchy hierarchy = createHierarchy();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PathIO.writeImageDataSerialized(bytes, new ImageData<BufferedImage>(null, hierarchy, ImageData.ImageType.FLUORESCENCE));
+		PathObjectHierarchy hierarchy2 = PathIO.readHierarchy(new ByteArrayInputStream(bytes.toByteArray()));
+		testEqualHierarchies(hierarchy, hierarchy2);
+	}
+
+	@Test
+	public void test_DeferredRead() throws IOException {
+		PathObjectHierarchy hierarchy = createHierarchy();
+		File file = File.createTempFile("test", ".qpdata");
+		file.deleteOnExit();
+		try (var stream = new FileOutputStream(file)) {
+			PathIO.writeImageData(stream, new ImageData<BufferedImage>(null, hierarchy, ImageData.ImageType.FLUORESCENCE));
+		}
+		PathObjectHierarchy hierarchy2;
+		try (var stream = new FileInputStream(file)) {
+			hierarchy2 = new QPDataReader(stream).readHierarchy(file.toPath());
+		}
+		assertTrue(hierarchy2.hasDeferredObjects());
+		assertEquals(hierarchy.nObjects(), hierarchy2.nObjects());
+		assertEquals(hierarchy.getAnnotationObjects().size(), hierarchy2.getAnnotationObjects().size());
+		assertTrue(hierarchy2.hasDeferredObjects());
+		
+		// Requesting a region should load only the detections that are needed
+		ImageRegion region = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		Collection<PathObject> detections = hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null);
+		Collection<PathObject> detections2 = hierarchy2.getObjectsForRegion(PathDetectionObject.class, region, null);
+		// Spatial cache queries can return extra objects, so compare only those that really overlap the region
+		detections.removeIf(p -> !intersects(p.getROI(), region));
+		detections2.removeIf(p -> !intersects(p.getROI(), region));
+		assertFalse(detections.isEmpty());
+		assertEquals(detections.size(), detections2.size());
+		assertTrue(hierarchy2.hasDeferredObjects());
+		assertEquals(hierarchy.nObjects(), hierarchy2.nObjects());
+		
+		// Requesting all detections should load everything
+		assertEquals(hierarchy.getDetectionObjects().size(), hierarchy2.getDetectionObjects().size());
+		assertFalse(hierarchy2.hasDeferredObjects());
+		testEqualHierarchies(hierarchy, hierarchy2);
+	}
+
+
+	@Test
+	public void test_DeferredReadParentChanged() throws IOException {
+		PathObjectHierarchy hierarchy = createHierarchy();
+		int nDetections = hierarchy.getDetectionObjects().size();
+		File file = File.createTempFile("test", ".qpdata");
+		file.deleteOnExit();
+		try (var stream = new FileOutputStream(file)) {
+			PathIO.writeImageData(stream, new ImageData<BufferedImage>(null, hierarchy, ImageData.ImageType.FLUORESCENCE));
+		}
+		
+		// Requesting the children of an object should load them
+		PathObjectHierarchy hierarchy2 = readHierarchy(file);
+		PathObject region2 = getRegionAnnotation(hierarchy2);
+		assertTrue(region2.hasDeferredChildren());
+		assertEquals(getRegionAnnotation(hierarchy).nChildObjects(), region2.nChildObjects());
+		assertFalse(region2.hasDeferredChildren());
+		
+		// Removing a parent via the hierarchy should load its children first, so that they are kept
+		hierarchy2 = readHierarchy(file);
+		region2 = getRegionAnnotation(hierarchy2);
+		PathObject parent = region2.getParent();
+		assertTrue(hierarchy2.removeObject(region2, true));
+		assertFalse(region2.hasChildren());
+		assertFalse(hierarchy2.hasDeferredObjects());
+		assertEquals(nDetections, hierarchy2.getDetectionObjects().size());
+		for (PathObject detection : hierarchy2.getDetectionObjects()) {
+			assertTrue(PathObjectTools.isAncestor(detection, hierarchy2.getRootObject()));
+			if (detection instanceof PathCellObject)
+				assertSame(parent, detection.getParent());
+		}
+		
+		// Editing the ROI of a parent should load its children before it is updated
+		hierarchy2 = readHierarchy(file);
+		region2 = getRegionAnnotation(hierarchy2);
+		ROI roi = ROIs.createRectangleROI(0, 0, 2000, 2000, ImagePlane.getDefaultPlane());
+		((PathAnnotationObject)region2).setROI(roi);
+		hierarchy2.updateObject(region2);
+		assertFalse(region2.hasDeferredChildren());
+		int nInside = 0;
+		for (PathObject detection : hierarchy2.getDetectionObjects()) {
+			if (!(detection instanceof PathCellObject))
+				continue;
+			boolean inside = roi.getShape().contains(detection.getROI().getCentroidX(), detection.getROI().getCentroidY());
+			assertEquals(inside, detection.getParent() == region2);
+			if (inside)
+				nInside++;
+		}
+		assertTrue(nInside > 0);
+		
+		// Removing a parent directly means that its children should find a new parent when they are loaded
+		hierarchy2 = readHierarchy(file);
+		region2 = getRegionAnnotation(hierarchy2);
+		region2.getParent().removePathObject(region2);
+		assertEquals(nDetections, hierarchy2.getDetectionObjects().size());
+		assertFalse(hierarchy2.hasDeferredObjects());
+		for (PathObject detection : hierarchy2.getDetectionObjects()) {
+			assertTrue(PathObjectTools.isAncestor(detection, hierarchy2.getRootObject()));
+			assertNotSame(region2, detection.getParent());
+		}
+		assertTrue(region2.getChildObjects().stream().noneMatch(PathObject::isDetection));
+	}
+	
+	private static PathObjectHierarchy readHierarchy(File file) throws IOException {
+		try (var stream = new FileInputStream(file)) {
+			return new QPDataReader(stream).readHierarchy(file.toPath());
+		}
+	}
+	
+	/**
+	 * Get the (unnamed) annotation that contains the detections created by {@link #createHierarchy()}.
+	 */
+	private static PathObject getRegionAnnotation(PathObjectHierarchy hierarchy) {
+		return hierarchy.getAnnotationObjects().stream().filter(p -> p.getName() == null).findFirst().get();
+	}
+
+
+	private static boolean intersects(ROI roi, ImageRegion region) {
+		return roi.getBoundsX() <= region.getMaxX() && roi.getBoundsX() + roi.getBoundsWidth() >= region.getMinX() &&
+				roi.getBoundsY() <= region.getMaxY() && roi.getBoundsY() + roi.getBoundsHeight() >= region.getMinY();
+	}
+
+	private static PathObjectHierarchy createHierarchy() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+
+		PathClass tumor = PathClassFactory.getPathClass("Tumor");
+		PathClass positive = PathClassFactory.getDerivedPathClass(tumor, "Positive", null);
+
+		// TMA cores, with an annotation inside one of them
+		List<TMACoreObject> cores = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			TMACoreObject core = new TMACoreObject(1000 + i * 2000, 1000, 1500, i == 3);
+			core.setName("Core " + i);
+			core.putMetadataValue("ID", "Patient " + i);
+			cores.add(core);
+		}
+		hierarchy.setTMAGrid(new DefaultTMAGrid(cores, 2));
+
+		PathAnnotationObject annotation = (PathAnnotationObject)PathObjects.createAnnotationObject(
+				ROIs.createPolygonROI(List.of(new Point2(500, 500), new Point2(1500, 600), new Point2(900, 1400)), ImagePlane.getDefaultPlane()), tumor);
+		annotation.setName("Polygon");
+		annotation.setDescription("Some description");
+		annotation.setColorRGB(0xff00ff);
+		annotation.setLocked(true);
+		annotation.getMeasurementList().putMeasurement("Area", 12345.6789);
+		cores.get(0).addPathObject(annotation);
+
+		// Detections spanning several chunks, some with children
+		PathAnnotationObject region = (PathAnnotationObject)PathObjects.createAnnotationObject(
+				ROIs.createRectangleROI(0, 0, 10000, 5000, ImagePlane.getDefaultPlane()));
+		for (int i = 0; i < 200; i++) {
+			double x = (i % 20) * 480 + 10;
+			double y = (i / 20) * 480 + 10;
+			MeasurementList list = MeasurementListFactory.createMeasurementList(3, MeasurementList.TYPE.FLOAT);
+			list.putMeasurement("Intensity", i * 0.5);
+			list.putMeasurement("Size", i);
+			if (i % 2 == 0)
+				list.putMeasurement("Extra", -i);
+			list.close();
+			ROI roi = ROIs.createEllipseROI(x, y, 30, 20, ImagePlane.getDefaultPlane());
+			ROI nucleus = ROIs.createAreaROI(new Ellipse2D.Double(x+5, y+5, 10, 10), ImagePlane.getDefaultPlane());
+			PathObject cell = PathObjects.createCellObject(roi, nucleus, i % 3 == 0 ? positive : null, list);
+			if (i % 10 == 0)
+				cell.addPathObject(PathObjects.createDetectionObject(ROIs.createPointsROI(x+1, y+1, ImagePlane.getDefaultPlane())));
+			region.addPathObject(cell);
+		}
+		region.addPathObject(PathObjects.createTileObject(ROIs.createAreaROI(new Rectangle2D.Double(20000, 20000, 100, 100), ImagePlane.getDefaultPlane())));
+		hierarchy.addPathObject(region, false);
+		hierarchy.fireHierarchyChangedEvent(hierarchy);
+		return hierarchy;
+	}
+
+
+	private static void testEqualHierarchies(PathObjectHierarchy hierarchy, PathObjectHierarchy hierarchy2) {
+		assertEquals(hierarchy.nObjects(), hierarchy2.nObjects());
+		assertNotNull(hierarchy2.getTMAGrid());
+		assertEquals(hierarchy.getTMAGrid().nCores(), hierarchy2.getTMAGrid().nCores());
+		assertEquals(hierarchy.getTMAGrid().getGridWidth(), hierarchy2.getTMAGrid().getGridWidth());
+		assertEquals(1, hierarchy2.getTMAGrid().getTMACoreList().stream().filter(c -> c.isMissing()).count());
+		assertEquals("Patient 2", hierarchy2.getTMAGrid().getTMACore("Core 2").getMetadataValue("ID"));
+		testEqualObjects(hierarchy.getRootObject(), hierarchy2.getRootObject());
+	}
+
+	private static void testEqualObjects(PathObject pathObject, PathObject pathObject2) {
+		assertEquals(pathObject.getClass(), pathObject2.getClass());
+		assertEquals(pathObject.getName(), pathObject2.getName());
+		assertEquals(pathObject.getColorRGB(), pathObject2.getColorRGB());
+		assertEquals(pathObject.getPathClass(), pathObject2.getPathClass());
+		if (pathObject instanceof PathAnnotationObject) {
+			assertEquals(((PathAnnotationObject)pathObject).getDescription(), ((PathAnnotationObject)pathObject2).getDescription());
+			assertEquals(pathObject.isLocked(), pathObject2.isLocked());
+		}
+		if (pathObject instanceof PathCellObject)
+			testEqualROIs(((PathCellObject)pathObject).getNucleusROI(), ((PathCellObject)pathObject2).getNucleusROI());
+		testEqualROIs(pathObject.getROI(), pathObject2.getROI());
+
+		MeasurementList list = pathObject.getMeasurementList();
+		MeasurementList list2 = pathObject2.getMeasurementList();
+		assertEquals(list.getMeasurementNames(), list2.getMeasurementNames());
+		for (int i = 0; i < list.size(); i++)
+			assertEquals(list.getMeasurementValue(i), list2.getMeasurementValue(i), tol);
+
+		Collection<PathObject> children = pathObject.getChildObjects();
+		Collection<PathObject> children2 = pathObject2.getChildObjects();
+		assertEquals(children.size(), children2.size());
+		// Children may be reordered, since detections are grouped by location
+		List<PathObject> sorted = new ArrayList<>(children);
+		List<PathObject> sorted2 = new ArrayList<>(children2);
+		sorted.sort(TestPathIO::compareLocation);
+		sorted2.sort(TestPathIO::compareLocation);
+		for (int i = 0; i < sorted.size(); i++)
+			testEqualObjects(sorted.get(i), sorted2.get(i));
+	}
+
+	private static int compareLocation(PathObject o1, PathObject o2) {
+		int c = Double.compare(o1.getROI().getCentroidY(), o2.getROI().getCentroidY());
+		return c == 0 ? Double.compare(o1.getROI().getCentroidX(), o2.getROI().getCentroidX()) : c;
+	}
+
+	private static void testEqualROIs(ROI roi, ROI roi2) {
+		if (roi == null) {
+			assertNull(roi2);
+			return;
+		}
+		// Legacy serialization may replace an AWTAreaROI with an AreaROI
+		if (roi instanceof AreaROI)
+			assertTrue(roi2 instanceof AreaROI);
+		else
+			assertEquals(roi.getClass(), roi2.getClass());
+		assertEquals(roi.getBoundsX(), roi2.getBoundsX(), tol);
+		assertEquals(roi.getBoundsY(), roi2.getBoundsY(), tol);
+		assertEquals(roi.getBoundsWidth(), roi2.getBoundsWidth(), tol);
+		assertEquals(roi.getBoundsHeight(), roi2.getBoundsHeight(), tol);
+		assertEquals(roi.getZ(), roi2.getZ());
+		assertEquals(roi.getT(), roi2.getT());
+	}
+
+}
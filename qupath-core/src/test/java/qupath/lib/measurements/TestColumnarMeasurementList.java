@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+public class TestColumnarMeasurementList {
+
+	@Test
+	public void test_SharedStorage() {
+		ColumnarMeasurementList list1 = createList(1);
+		ColumnarMeasurementList list2 = createList(2);
+		
+		// Lists with the same names should share a block, but use different rows
+		assertNotNull(list1.getTableRow());
+		assertSame(list1.getTableRow().getBlock(), list2.getTableRow().getBlock());
+		assertNotEquals(list1.getTableRow().getRow(), list2.getTableRow().getRow());
+		assertSame(list1.getMeasurementNames(), list2.getMeasurementNames());
+		
+		assertEquals(3, list1.size());
+		assertEquals(1.0, list1.getMeasurementValue("A"), 1e-6);
+		assertEquals(20.0, list2.getMeasurementValue("B"), 1e-6);
+		assertEquals(200.0, list2.getMeasurementValue(2), 1e-6);
+		assertTrue(Double.isNaN(list1.getMeasurementValue("Missing")));
+		assertTrue(Double.isNaN(list1.getMeasurementValue(3)));
+		assertTrue(list1.containsNamedMeasurement("C"));
+		assertTrue(list1.containsAllNamedMeasurements(Arrays.asList("A", "C")));
+		assertFalse(list1.containsAllNamedMeasurements(Arrays.asList("A", "D")));
+		
+		// Changing an existing value shouldn't require the list to be reopened
+		list1.putMeasurement("B", 5.0);
+		assertNotNull(list1.getTableRow());
+		assertEquals(5.0, list1.getMeasurementValue("B"), 1e-6);
+		assertEquals(20.0, list2.getMeasurementValue("B"), 1e-6);
+		
+		// Adding a new measurement moves the list out of the shared block
+		list1.putMeasurement("D", 4.0);
+		assertNull(list1.getTableRow());
+		assertEquals(4, list1.size());
+		assertEquals(5.0, list1.getMeasurementValue("B"), 1e-6);
+		assertEquals(4.0, list1.getMeasurementValue("D"), 1e-6);
+		list1.close();
+		assertNotNull(list1.getTableRow());
+		assertNotSame(list1.getTableRow().getBlock(), list2.getTableRow().getBlock());
+		assertEquals(Arrays.asList("A", "B", "C", "D"), list1.getMeasurementNames());
+		assertEquals(4.0, list1.getMeasurementValue("D"), 1e-6);
+		
+		list1.removeMeasurements("A");
+		assertEquals(Arrays.asList("B", "C", "D"), list1.getMeasurementNames());
+		
+		list1.clear();
+		assertTrue(list1.isEmpty());
+		assertNull(list1.getTableRow());
+	}
+	
+	@Test
+	public void test_ManyLists() {
+		int n = 10000;
+		ColumnarMeasurementList[] lists = new ColumnarMeasurementList[n];
+		for (int i = 0; i < n; i++)
+			lists[i] = createList(i);
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, lists[i].getMeasurementValue("A"), 1e-6);
+			assertEquals(i * 100, lists[i].getMeasurementValue("C"), 1e-6);
+		}
+	}
+	
+	@Test
+	public void test_ReuseRows() {
+		MeasurementTables tables = new MeasurementTables();
+		ColumnarMeasurementList list1 = createList(1);
+		ColumnarMeasurementList list2 = createList(2);
+		tables.addMeasurements(Arrays.asList(createObject(list1), createObject(list2)));
+		ColumnarMeasurementList.TableRow tableRow = list1.getTableRow();
+		ColumnarMeasurementList.Block block = tableRow.getBlock();
+		int row = tableRow.getRow();
+		assertEquals(2, block.nUsedRows());
+		
+		// Reopening a list should give up its row, which is then reused by the next list stored with the same names
+		list1.putMeasurement("D", 4.0);
+		assertEquals(1, block.nUsedRows());
+		// A snapshot of the previous location must never change, even after the row is given up
+		assertSame(block, tableRow.getBlock());
+		assertEquals(row, tableRow.getRow());
+		ColumnarMeasurementList list3 = createList(3);
+		tables.addMeasurements(Arrays.asList(createObject(list3)));
+		assertSame(block, list3.getTableRow().getBlock());
+		assertEquals(row, list3.getTableRow().getRow());
+		assertEquals(2, block.nUsedRows());
+		assertEquals(3, list3.getMeasurementValue("A"), 1e-6);
+		assertEquals(20, list2.getMeasurementValue("B"), 1e-6);
+		
+		// Clearing a list should also give up its row
+		list2.clear();
+		list3.clear();
+		assertEquals(0, block.nUsedRows());
+	}
+	
+	@Test
+	public void test_HierarchyTables() {
+		PathObjectHierarchy hierarchy1 = new PathObjectHierarchy();
+		PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
+		ColumnarMeasurementList list1 = createList(1);
+		ColumnarMeasurementList list2 = createList(2);
+		assertSame(MeasurementTables.getDefaultTables(), list1.getTableRow().getBlock().getSchema().getTables());
+		
+		// Objects in different hierarchies shouldn't share tables
+		hierarchy1.addPathObject(createObject(list1), false);
+		hierarchy2.addPathObject(createObject(list2), false);
+		MeasurementTables tables1 = list1.getTableRow().getBlock().getSchema().getTables();
+		MeasurementTables tables2 = list2.getTableRow().getBlock().getSchema().getTables();
+		assertNotSame(MeasurementTables.getDefaultTables(), tables1);
+		assertNotSame(MeasurementTables.getDefaultTables(), tables2);
+		assertNotSame(tables1, tables2);
+		assertEquals(1, list1.getMeasurementValue("A"), 1e-6);
+		assertEquals(20, list2.getMeasurementValue("B"), 1e-6);
+		
+		// Lists reopened within a hierarchy should return to its tables
+		list1.putMeasurement("D", 4.0);
+		list1.close();
+		assertSame(tables1, list1.getTableRow().getBlock().getSchema().getTables());
+		
+		// Objects added directly to a parent should be moved when the hierarchy is notified of them
+		ColumnarMeasurementList list3 = createList(3);
+		PathObject parent = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		hierarchy1.addPathObject(parent, false);
+		PathObject child = createObject(list3);
+		parent.addPathObject(child);
+		hierarchy1.fireHierarchyChangedEvent(parent);
+		assertSame(MeasurementTables.getDefaultTables(), list3.getTableRow().getBlock().getSchema().getTables());
+		hierarchy1.fireHierarchyChangedEvent(this, parent, Collections.singletonList(child), Collections.emptyList());
+		assertSame(tables1, list3.getTableRow().getBlock().getSchema().getTables());
+	}
+	
+	@Test
+	public void test_DynamicMeasurements() {
+		ColumnarMeasurementList list = createList(1);
+		assertTrue(list.supportsDynamicMeasurements());
+		double[] value = {5.0};
+		list.putMeasurement(new Measurement() {
+			@Override
+			public String getName() {
+				return "Dynamic";
+			}
+			@Override
+			public double getValue() {
+				return value[0];
+			}
+			@Override
+			public boolean isDynamic() {
+				return true;
+			}
+		});
+		list.close();
+		assertNull(list.getTableRow());
+		assertEquals(Arrays.asList("A", "B", "C", "Dynamic"), list.getMeasurementNames());
+		assertEquals(10, list.getMeasurementValue("B"), 1e-6);
+		assertEquals(5, list.getMeasurementValue("Dynamic"), 1e-6);
+		value[0] = 6.0;
+		assertEquals(6, list.getMeasurementValue("Dynamic"), 1e-6);
+		list.putMeasurement("B", 2.0);
+		assertEquals(2, list.getMeasurementValue("B"), 1e-6);
+	}
+	
+	@Test
+	public void test_Serialization() throws IOException, ClassNotFoundException {
+		ColumnarMeasurementList list = createList(3);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+			stream.writeObject(list);
+		}
+		try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			MeasurementList list2 = (MeasurementList)stream.readObject();
+			assertEquals(list.getMeasurementNames(), list2.getMeasurementNames());
+			for (int i = 0; i < list.size(); i++)
+				assertEquals(list.getMeasurementValue(i), list2.getMeasurementValue(i), 1e-6);
+		}
+	}
+	
+	private static PathObject createObject(ColumnarMeasurementList list) {
+		return PathObjects.createDetectionObject(ROIs.createRectangleROI(10, 10, 10, 10, ImagePlane.getDefaultPlane()), null, list);
+	}
+	
+	private static ColumnarMeasurementList createList(int value) {
+		ColumnarMeasurementList list = (ColumnarMeasurementList)MeasurementListFactory.createMeasurementList(3, MeasurementList.TYPE.FLOAT);
+		list.addMeasurement("A", value);
+		list.addMeasurement("B", value * 10);
+		list.putMeasurement("C", value * 100);
+		list.close();
+		return list;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+public class TestMeasurementColumns {
+
+	@Test
+	public void test_GetAndPutColumns() {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			// Use a mix of list types, & different sets of measurements
+			MeasurementList list = MeasurementListFactory.createMeasurementList(3, i % 3 == 0 ? MeasurementList.TYPE.GENERAL : MeasurementList.TYPE.FLOAT);
+			list.putMeasurement("A", i);
+			list.putMeasurement("B", i * 2);
+			if (i % 5 == 0)
+				list.putMeasurement("C", i * 3);
+			list.close();
+			pathObjects.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, i, 1, 1, ImagePlane.getDefaultPlane()), null, list));
+		}
+		// Add an object without any measurements
+		pathObjects.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(0, 0, 1, 1, ImagePlane.getDefaultPlane())));
+		
+		List<String> names = Arrays.asList("B", "C", "Missing");
+		float[][] columns = MeasurementColumns.getFloatColumns(pathObjects, names);
+		double[][] doubleColumns = MeasurementColumns.getDoubleColumns(pathObjects, names);
+		float[] matrix = MeasurementColumns.getFloatMatrix(pathObjects, names);
+		for (int i = 0; i < pathObjects.size(); i++) {
+			MeasurementList list = pathObjects.get(i).getMeasurementList();
+			for (int k = 0; k < names.size(); k++) {
+				double expected = list.getMeasurementValue(names.get(k));
+				assertEquals(expected, columns[k][i], 1e-6);
+				assertEquals(expected, doubleColumns[k][i], 1e-6);
+				assertEquals(expected, matrix[i * names.size() + k], 1e-6);
+			}
+		}
+		assertEquals(pathObjects.get(10).getMeasurementList().getMeasurementValue("A"), 
+				MeasurementColumns.getDoubleValues(pathObjects, "A")[10], 1e-6);
+		
+		// Update an existing measurement & add a new one
+		List<String> namesToPut = Arrays.asList("A", "D");
+		float[][] newColumns = new float[2][pathObjects.size()];
+		for (int i = 0; i < pathObjects.size(); i++) {
+			newColumns[0][i] = -i;
+			newColumns[1][i] = i + 0.5f;
+		}
+		MeasurementColumns.putFloatColumns(pathObjects, namesToPut, newColumns);
+		for (int i = 0; i < pathObjects.size(); i++) {
+			MeasurementList list = pathObjects.get(i).getMeasurementList();
+			assertEquals(-i, list.getMeasurementValue("A"), 1e-6);
+			assertEquals(i + 0.5, list.getMeasurementValue("D"), 1e-6);
+		}
+		
+		// Update existing measurements only
+		MeasurementColumns.putFloatColumns(pathObjects, Arrays.asList("D"), new float[][] {newColumns[0]});
+		for (int i = 0; i < pathObjects.size(); i++)
+			assertEquals(-i, pathObjects.get(i).getMeasurementList().getMeasurementValue("D"), 1e-6);
+	}
+
+}
@@ -28,6 +28,11 @@ import static org.junit.Assert.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 
@@ -151,6 +156,86 @@ public class TestPathObjectHierarchy {
 
 	}
 	
+	@Test
+	public void test_AddDetectionsInBulk() {
+		// Add the same annotations & detections to two hierarchies, one by one and all at once
+		PathObjectHierarchy hierarchySequential = new PathObjectHierarchy();
+		PathObjectHierarchy hierarchyBulk = new PathObjectHierarchy();
+		List<PathObject> annotationsSequential = new ArrayList<>();
+		List<PathObject> annotationsBulk = new ArrayList<>();
+		List<PathObject> detectionsSequential = new ArrayList<>();
+		List<PathObject> detectionsBulk = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			ROI roi = ROIs.createEllipseROI(i * 100, i * 50, 1000 - i * 200, 1000 - i * 100, ImagePlane.getDefaultPlane());
+			annotationsSequential.add(PathObjects.createAnnotationObject(roi));
+			annotationsBulk.add(PathObjects.createAnnotationObject(roi));
+		}
+		Random random = new Random(1L);
+		for (int i = 0; i < 5000; i++) {
+			ROI roi = ROIs.createRectangleROI(random.nextDouble() * 1200, random.nextDouble() * 1200, 5, 5, ImagePlane.getDefaultPlane());
+			detectionsSequential.add(PathObjects.createDetectionObject(roi));
+			detectionsBulk.add(PathObjects.createDetectionObject(roi));
+		}
+		for (PathObject pathObject : annotationsSequential)
+			hierarchySequential.addPathObject(pathObject, false, true);
+		for (PathObject pathObject : detectionsSequential)
+			hierarchySequential.addPathObject(pathObject, false, true);
+
+		myPOHL.setFiredState(0);
+		hierarchyBulk.addPathObjectListener(myPOHL);
+		List<PathObject> allBulk = new ArrayList<>(detectionsBulk);
+		allBulk.addAll(annotationsBulk);
+		assertTrue(hierarchyBulk.addPathObjects(allBulk, false));
+		assertEquals(myPOHL.getFiredState(), 3); // event(CHANGED STRUCTURE) fired
+
+		assertEquals(hierarchySequential.nObjects(), hierarchyBulk.nObjects());
+		assertEquals(annotationsBulk.get(2), annotationsBulk.get(3).getParent());
+		for (int i = 0; i < detectionsBulk.size(); i++) {
+			PathObject parentSequential = detectionsSequential.get(i).getParent();
+			PathObject parentBulk = detectionsBulk.get(i).getParent();
+			if (parentSequential.isRootObject())
+				assertTrue(parentBulk.isRootObject());
+			else
+				assertEquals(annotationsSequential.indexOf(parentSequential), annotationsBulk.indexOf(parentBulk));
+		}
+		
+		// Adding the same detections again shouldn't change anything
+		assertFalse(hierarchyBulk.addPathObjects(detectionsBulk, false));
+	}
+	
+	@Test
+	public void test_ConcurrentReads() throws Exception {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 2000; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i % 100 * 10, i / 100 * 10, 5, 5, ImagePlane.getDefaultPlane())));
+		hierarchy.addPathObjects(detections, false);
+		
+		// Query the hierarchy from several threads while annotations are being added & removed
+		AtomicBoolean done = new AtomicBoolean(false);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			futures.add(pool.submit(() -> {
+				while (!done.get()) {
+					assertEquals(detections.size(), hierarchy.getDetectionObjects().size());
+					int n = hierarchy.nObjects();
+					assertTrue(n == detections.size() || n == detections.size() + 1);
+				}
+			}));
+		}
+		for (int i = 0; i < 100; i++) {
+			PathObject annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(i * 5, i * 5, 200, 200, ImagePlane.getDefaultPlane()));
+			hierarchy.addPathObject(annotation, false);
+			hierarchy.removeObject(annotation, true);
+		}
+		done.set(true);
+		for (Future<?> future : futures)
+			future.get();
+		pool.shutdown();
+		assertEquals(detections.size(), hierarchy.nObjects());
+	}
+	
 }
 
 // Helper classes for testing
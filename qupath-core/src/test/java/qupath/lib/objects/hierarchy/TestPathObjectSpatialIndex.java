@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+public class TestPathObjectSpatialIndex {
+
+	@Test
+	public void test_QueryMatchesBruteForce() {
+		Random random = new Random(100L);
+		List<PathObject> pathObjects = new ArrayList<>();
+		PathObjectSpatialIndex index = new PathObjectSpatialIndex();
+		for (int i = 0; i < 5000; i++) {
+			PathObject pathObject = createObject(random);
+			pathObjects.add(pathObject);
+			index.add(pathObject);
+			// Pack part of the way through, so that both the tree & the unpacked tail are used
+			if (i == 3000)
+				index.pack();
+		}
+		assertEquals(pathObjects.size(), index.size());
+		checkQueries(random, index, pathObjects);
+
+		// Remove some objects, and check again
+		for (int i = 0; i < 2000; i++) {
+			PathObject pathObject = pathObjects.remove(random.nextInt(pathObjects.size()));
+			assertTrue(index.remove(pathObject));
+			assertFalse(index.contains(pathObject));
+			assertFalse(index.remove(pathObject));
+		}
+		assertEquals(pathObjects.size(), index.size());
+		checkQueries(random, index, pathObjects);
+
+		index.pack();
+		assertEquals(pathObjects.size(), index.size());
+		checkQueries(random, index, pathObjects);
+	}
+
+	@Test
+	public void test_AddReplacesExisting() {
+		PathObjectSpatialIndex index = new PathObjectSpatialIndex();
+		PathObject pathObject = PathObjects.createDetectionObject(ROIs.createRectangleROI(10, 10, 5, 5, ImagePlane.getDefaultPlane()));
+		index.add(pathObject);
+		index.add(pathObject);
+		assertEquals(1, index.size());
+
+		index.clear();
+		assertEquals(0, index.size());
+		assertFalse(index.contains(pathObject));
+		assertFalse(index.hasObjects(0, 0, 100, 100, 0, 0));
+	}
+
+	private static void checkQueries(Random random, PathObjectSpatialIndex index, List<PathObject> pathObjects) {
+		Set<PathObject> all = new HashSet<>();
+		index.getAll(all);
+		assertEquals(new HashSet<>(pathObjects), all);
+
+		for (int i = 0; i < 200; i++) {
+			double x = random.nextDouble() * 10000;
+			double y = random.nextDouble() * 10000;
+			double w = random.nextDouble() * 1000;
+			double h = random.nextDouble() * 1000;
+			int z = random.nextInt(2);
+			Set<PathObject> expected = new HashSet<>();
+			for (PathObject pathObject : pathObjects) {
+				ROI roi = pathObject.getROI();
+				if (roi.getZ() == z && roi.getT() == 0 &&
+						roi.getBoundsX() <= x + w && roi.getBoundsX() + roi.getBoundsWidth() >= x &&
+						roi.getBoundsY() <= y + h && roi.getBoundsY() + roi.getBoundsHeight() >= y)
+					expected.add(pathObject);
+			}
+			Set<PathObject> found = new HashSet<>();
+			index.query(x, y, x + w, y + h, z, 0, found);
+			// The index may return a superset (bounds are stored as floats), but must not miss anything
+			assertTrue(found.containsAll(expected));
+			for (PathObject pathObject : found)
+				assertEquals(z, pathObject.getROI().getZ());
+			if (!expected.isEmpty())
+				assertTrue(index.hasObjects(x, y, x + w, y + h, z, 0));
+		}
+	}
+
+	private static PathObject createObject(Random random) {
+		ROI roi = ROIs.createRectangleROI(
+				random.nextDouble() * 10000,
+				random.nextDouble() * 10000,
+				1 + random.nextDouble() * 50,
+				1 + random.nextDouble() * 50,
+				ImagePlane.getPlane(random.nextInt(2), 0));
+		return PathObjects.createDetectionObject(roi);
+	}
+
+}
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathROIObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+public class TestPathObjectTileCache {
+
+	@Test
+	public void test_IncrementalUpdates() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObjectTileCache cache = new PathObjectTileCache(hierarchy);
+
+		List<PathObject> detections = new ArrayList<>();
+		for (int y = 0; y < 100; y += 10) {
+			for (int x = 0; x < 100; x += 10)
+				detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 5, 5, ImagePlane.getDefaultPlane())));
+		}
+		hierarchy.addPathObjects(detections, false);
+		assertEquals(new HashSet<>(detections), getDetections(cache, null));
+		assertEquals(1, cache.getRebuildCount());
+
+		// Remove several objects with a single structure change event
+		List<PathObject> toRemove = detections.subList(0, 10);
+		hierarchy.removeObjects(new ArrayList<>(toRemove), false);
+		toRemove.clear();
+		assertEquals(new HashSet<>(detections), getDetections(cache, null));
+
+		// Add an annotation that takes existing detections as children
+		PathObject annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 50, 50, ImagePlane.getDefaultPlane()));
+		hierarchy.addPathObject(annotation, false);
+		assertEquals(new HashSet<>(detections), getDetections(cache, null));
+
+		// Remove the annotation along with its descendants
+		hierarchy.removeObject(annotation, false);
+		detections.removeIf(p -> p.getParent() == null || !p.getParent().isRootObject());
+		assertEquals(new HashSet<>(detections), getDetections(cache, null));
+
+		// Move an object & notify listeners
+		PathObject moved = detections.get(0);
+		((PathROIObject)moved).setROI(ROIs.createRectangleROI(500, 500, 5, 5, ImagePlane.getDefaultPlane()));
+		hierarchy.fireObjectsChangedEvent(this, Arrays.asList(moved));
+		assertEquals(Set.of(moved), getDetections(cache, ImageRegion.createInstance(400, 400, 200, 200, 0, 0)));
+
+		// None of these changes should have required the cache to be rebuilt
+		assertEquals(1, cache.getRebuildCount());
+		assertTrue(cache.getIncrementalUpdateCount() > 0);
+	}
+
+	@Test
+	public void test_IndexOperationsProportionalToChange() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObjectTileCache cache = new PathObjectTileCache(hierarchy);
+
+		// Create a large hierarchy
+		List<PathObject> detections = new ArrayList<>();
+		for (int y = 0; y < 2000; y += 10) {
+			for (int x = 0; x < 1000; x += 10)
+				detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 5, 5, ImagePlane.getDefaultPlane())));
+		}
+		hierarchy.addPathObjects(detections, false);
+		assertEquals(detections.size(), getDetections(cache, null).size());
+		assertEquals(1, cache.getRebuildCount());
+		
+		// Adding objects in bulk below the root should only touch the added objects
+		long nOperations = cache.getIndexOperationCount();
+		List<PathObject> added = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			added.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(2000 + i, 2000, 5, 5, ImagePlane.getDefaultPlane())));
+		hierarchy.addPathObjects(added, false);
+		assertEquals(added.size(), getDetections(cache, ImageRegion.createInstance(2000, 2000, 1100, 10, 0, 0)).size());
+		assertTrue(cache.getIndexOperationCount() - nOperations <= added.size());
+		
+		// Adding or removing a few objects should only touch those objects
+		nOperations = cache.getIndexOperationCount();
+		List<PathObject> small = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+			small.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(5000 + i * 10, 5000, 5, 5, ImagePlane.getDefaultPlane())));
+		hierarchy.addPathObjects(small, false);
+		hierarchy.removeObjects(detections.subList(0, 5), false);
+		assertEquals(Set.copyOf(small), getDetections(cache, ImageRegion.createInstance(5000, 5000, 100, 10, 0, 0)));
+		assertTrue(getDetections(cache, ImageRegion.createInstance(0, 0, 45, 5, 0, 0)).isEmpty());
+		assertTrue(cache.getIndexOperationCount() - nOperations <= 10);
+		
+		// Adding an annotation that takes existing objects as children shouldn't need to touch those objects
+		nOperations = cache.getIndexOperationCount();
+		PathObject annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 1000, 1000, ImagePlane.getDefaultPlane()));
+		hierarchy.addPathObject(annotation, false);
+		assertTrue(annotation.nChildObjects() > 1000);
+		assertTrue(cache.getIndexOperationCount() - nOperations <= 2);
+		
+		assertEquals(1, cache.getRebuildCount());
+	}
+
+	@Test
+	public void test_HierarchyStatistics() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		List<PathObject> detections = new ArrayList<>();
+		for (int x = 0; x < 100; x += 10)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(x, 0, 5, 5, ImagePlane.getDefaultPlane())));
+		hierarchy.addPathObjects(detections, false);
+		assertEquals(detections.size(), hierarchy.getObjectsForRegion(PathDetectionObject.class, null, null).size());
+		
+		TileCacheStatistics stats = hierarchy.getTileCacheStatistics();
+		assertEquals(1, stats.getRebuildCount());
+		long nUpdates = stats.getIncrementalUpdateCount();
+		
+		// Statistics should be updated as the cache changes, but previous snapshots shouldn't be
+		hierarchy.removeObjects(detections.subList(0, 5), false);
+		assertEquals(5, hierarchy.getObjectsForRegion(PathDetectionObject.class, null, null).size());
+		TileCacheStatistics stats2 = hierarchy.getTileCacheStatistics();
+		assertEquals(1, stats2.getRebuildCount());
+		assertTrue(stats2.getIncrementalUpdateCount() > nUpdates);
+		assertEquals(nUpdates, stats.getIncrementalUpdateCount());
+	}
+
+	private static Set<PathObject> getDetections(PathObjectTileCache cache, ImageRegion region) {
+		Set<PathObject> set = new HashSet<>();
+		cache.getObjectsForRegion(PathDetectionObject.class, region, set, true);
+		return set;
+	}
+
+}
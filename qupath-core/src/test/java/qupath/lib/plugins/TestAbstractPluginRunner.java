@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.regions.ImageRegion;
+
+public class TestAbstractPluginRunner {
+
+	private int numThreadsRequested = AbstractPluginRunner.getNumThreadsRequested();
+
+	@After
+	public void resetThreads() {
+		AbstractPluginRunner.setNumThreadsRequested(numThreadsRequested);
+	}
+
+	@Test
+	public void test_nestedTasks() {
+		AbstractPluginRunner.setNumThreadsRequested(2);
+		TestRunner runner = new TestRunner();
+		AtomicInteger count = new AtomicInteger();
+
+		// Use more outer tasks than threads, so that all threads are blocked waiting for subtasks
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			tasks.add(() -> {
+				List<Runnable> subtasks = new ArrayList<>();
+				for (int j = 0; j < 10; j++)
+					subtasks.add(() -> count.incrementAndGet());
+				runner.runTasks(subtasks);
+			});
+		}
+		runner.runTasks(tasks);
+		assertEquals(80, count.get());
+		assertEquals(1, runner.nMonitors.get());
+		assertFalse(runner.isCancelled());
+	}
+
+	@Test
+	public void test_priorities() {
+		AbstractPluginRunner.setNumThreadsRequested(1);
+		TestRunner runner = new TestRunner();
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			int priority = i;
+			tasks.add(new PrioritizedTask() {
+				@Override
+				public void run() {
+					order.add(priority);
+				}
+				@Override
+				public int getPriority() {
+					return priority;
+				}
+			});
+		}
+		runner.runTasks(tasks);
+		assertEquals(List.of(4, 3, 2, 1, 0), order);
+	}
+
+	@Test
+	public void test_cancel() {
+		AbstractPluginRunner.setNumThreadsRequested(1);
+		TestRunner runner = new TestRunner();
+		AtomicInteger count = new AtomicInteger();
+		List<Boolean> cancelledStatus = Collections.synchronizedList(new ArrayList<>());
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			tasks.add(() -> {
+				if (count.incrementAndGet() == 2)
+					runner.cancelled = true;
+				cancelledStatus.add(AbstractPluginRunner.isCurrentTaskCancelled());
+			});
+		}
+		runner.runTasks(tasks);
+		assertTrue(runner.isCancelled());
+		assertTrue(count.get() < 10);
+		assertEquals(List.of(false, true), cancelledStatus.subList(0, 2));
+		assertFalse(AbstractPluginRunner.isCurrentTaskCancelled());
+	}
+
+	@Test
+	public void test_concurrentCancel() throws Exception {
+		AbstractPluginRunner.setNumThreadsRequested(4);
+		TestRunner runner = new TestRunner();
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch cancelled = new CountDownLatch(1);
+		Map<String, Boolean> results = new ConcurrentHashMap<>();
+
+		// Cancelling one batch shouldn't affect another batch running at the same time on the same runner
+		Thread threadCancel = new Thread(() -> {
+			runner.runTasks(Collections.singletonList(() -> {
+				started.countDown();
+				awaitQuietly(started);
+				runner.cancelledThreads.add("cancel");
+				cancelled.countDown();
+			}));
+			results.put("cancel", runner.isCancelled());
+		}, "cancel");
+		Thread threadComplete = new Thread(() -> {
+			runner.runTasks(Collections.singletonList(() -> {
+				started.countDown();
+				awaitQuietly(cancelled);
+			}));
+			results.put("complete", runner.isCancelled());
+		}, "complete");
+		threadCancel.start();
+		threadComplete.start();
+		threadCancel.join();
+		threadComplete.join();
+		assertEquals(Map.of("cancel", true, "complete", false), results);
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void test_changeThreadsWhileRunning() {
+		AbstractPluginRunner.setNumThreadsRequested(2);
+		TestRunner runner = new TestRunner();
+		AtomicInteger count = new AtomicInteger();
+		ForkJoinPool previousPool = AbstractPluginRunner.getPool();
+
+		// Changing the number of threads mid-run shouldn't prevent any remaining tasks or subtasks from running
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			int ind = i;
+			tasks.add(() -> {
+				if (ind == 0)
+					AbstractPluginRunner.setNumThreadsRequested(3);
+				List<Runnable> subtasks = new ArrayList<>();
+				for (int j = 0; j < 10; j++)
+					subtasks.add(() -> count.incrementAndGet());
+				runner.runTasks(subtasks);
+			});
+		}
+		runner.runTasks(tasks);
+		assertEquals(80, count.get());
+
+		// The previous pool should be shut down once its tasks are complete, and replaced by a new pool
+		assertTrue(previousPool.isShutdown());
+		ForkJoinPool pool = AbstractPluginRunner.getPool();
+		assertNotSame(previousPool, pool);
+		assertFalse(pool.isShutdown());
+	}
+
+
+	static class TestRunner extends AbstractPluginRunner<Object> {
+
+		private AtomicInteger nMonitors = new AtomicInteger();
+		private volatile boolean cancelled = false;
+		private Set<String> cancelledThreads = ConcurrentHashMap.newKeySet();
+
+		TestRunner() {
+			super(true);
+		}
+
+		@Override
+		protected SimpleProgressMonitor makeProgressMonitor() {
+			nMonitors.incrementAndGet();
+			// Monitors are created by the thread that calls runTasks
+			String threadName = Thread.currentThread().getName();
+			return new SimpleProgressMonitor() {
+				@Override
+				public void startMonitoring(String message, int maxProgress, boolean mayCancel) {}
+
+				@Override
+				public void updateProgress(int increment, String message, ImageRegion region) {}
+
+				@Override
+				public void pluginCompleted(String message) {}
+
+				@Override
+				public boolean cancelled() {
+					return cancelled || cancelledThreads.contains(threadName);
+				}
+			};
+		}
+
+		@Override
+		public ImageData<Object> getImageData() {
+			return null;
+		}
+
+	}
+
+}
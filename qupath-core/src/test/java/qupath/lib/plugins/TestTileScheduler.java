@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+public class TestTileScheduler {
+
+	@Test
+	public void test_hilbertIndex() {
+		// Every cell of the grid should be visited exactly once, with each step moving to an adjacent cell
+		int n = 8;
+		int[][] coords = new int[n * n][];
+		for (int y = 0; y < n; y++) {
+			for (int x = 0; x < n; x++) {
+				int d = (int)TileScheduler.hilbertIndex(n, x, y);
+				assertNull(coords[d]);
+				coords[d] = new int[] {x, y};
+			}
+		}
+		for (int d = 1; d < n * n; d++)
+			assertEquals(1, Math.abs(coords[d][0] - coords[d-1][0]) + Math.abs(coords[d][1] - coords[d-1][1]));
+	}
+
+	@Test
+	public void test_scheduling() {
+		int nx = 6, ny = 5, size = 100, overlap = 10;
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		AtomicInteger countdown = new AtomicInteger(nx * ny);
+		List<ParallelTileObject> tiles = new ArrayList<>();
+		List<Runnable> tasks = new ArrayList<>();
+		for (int y = 0; y < ny; y++) {
+			for (int x = 0; x < nx; x++) {
+				tiles.add(new ParallelTileObject(
+						ROIs.createRectangleROI(x * size - overlap, y * size - overlap, size + overlap * 2, size + overlap * 2, ImagePlane.getDefaultPlane()),
+						hierarchy, countdown));
+				tasks.add(() -> {});
+			}
+		}
+		TileScheduler scheduler = new TileScheduler(tiles, tasks);
+
+		// Sequential order should include every tile, and consecutive tiles should be neighbors
+		List<ParallelTileObject> order = scheduler.getPendingTiles();
+		assertEquals(new HashSet<>(tiles), new HashSet<>(order));
+		for (int i = 1; i < order.size(); i++)
+			assertTrue(order.get(i).bounds.intersects(order.get(i-1).bounds));
+
+		// When running several tiles at once, none should be neighbors (if this can be avoided)
+		Set<ParallelTileObject> running = new HashSet<>();
+		for (int i = 0; i < 4; i++) {
+			ParallelTileObject tile = scheduler.nextTile();
+			for (ParallelTileObject other : running)
+				assertFalse(tile.bounds.intersects(other.bounds));
+			running.add(tile);
+		}
+		for (ParallelTileObject tile : running)
+			scheduler.tileFinished(tile);
+
+		// All tiles should eventually be provided
+		int count = running.size();
+		while (scheduler.nextTile() != null)
+			count++;
+		assertEquals(tiles.size(), count);
+	}
+
+	@Test
+	public void test_mergeUpdatesHierarchy() {
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObject parent = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 200, 100, ImagePlane.getDefaultPlane()));
+		hierarchy.addPathObject(parent, false);
+		// Ensure the tile cache is in use, so that it must be kept up-to-date
+		assertTrue(hierarchy.getObjectsForRegion(PathDetectionObject.class, null, null).isEmpty());
+		
+		AtomicInteger countdown = new AtomicInteger(2);
+		ParallelTileObject tile1 = new ParallelTileObject(ROIs.createRectangleROI(0, 0, 110, 100, ImagePlane.getDefaultPlane()), hierarchy, countdown);
+		ParallelTileObject tile2 = new ParallelTileObject(ROIs.createRectangleROI(90, 0, 110, 100, ImagePlane.getDefaultPlane()), hierarchy, countdown);
+		tile1.suggestNeighbor(tile2);
+		tile2.suggestNeighbor(tile1);
+		parent.addPathObject(tile1);
+		parent.addPathObject(tile2);
+		hierarchy.fireHierarchyChangedEvent(this);
+		
+		List<PathObjectHierarchyEvent> events = new ArrayList<>();
+		hierarchy.addPathObjectListener(e -> events.add(e));
+		
+		PathObject detection1 = PathObjects.createDetectionObject(ROIs.createRectangleROI(10, 10, 10, 10, ImagePlane.getDefaultPlane()));
+		PathObject detection2 = PathObjects.createDetectionObject(ROIs.createRectangleROI(150, 10, 10, 10, ImagePlane.getDefaultPlane()));
+		tile1.addPathObject(detection1);
+		tile1.setComplete();
+		// Can't merge until all neighbors are complete
+		assertTrue(events.isEmpty());
+		
+		tile2.addPathObject(detection2);
+		tile2.setComplete();
+		
+		// Each tile should be merged with its own structure change event, followed by a final event
+		assertEquals(3, events.size());
+		assertEquals(List.of(detection1), events.get(0).getAddedObjects());
+		assertEquals(List.of(tile1), events.get(0).getRemovedObjects());
+		assertEquals(List.of(detection2), events.get(1).getAddedObjects());
+		assertEquals(List.of(tile2), events.get(1).getRemovedObjects());
+		assertTrue(events.get(2).getAddedObjects().isEmpty());
+		
+		assertEquals(Set.of(detection1, detection2), new HashSet<>(parent.getChildObjects()));
+		assertEquals(Set.of(detection1, detection2), new HashSet<>(hierarchy.getObjectsForRegion(PathDetectionObject.class, null, null)));
+		assertTrue(hierarchy.getObjectsForRegion(ParallelTileObject.class, null, null).isEmpty());
+		assertEquals(0, countdown.get());
+	}
+
+}
@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.plugins.objects;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.classes.PathClassFactory.PathClasses;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+public class TestSmoothFeaturesPlugin {
+
+	@Test
+	public void test_smoothMeasurements() {
+		Random random = new Random(100L);
+		int n = 2000;
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			PathObject pathObject = PathObjects.createDetectionObject(
+					ROIs.createRectangleROI(random.nextDouble() * 1000, random.nextDouble() * 500, 4, 4, ImagePlane.getDefaultPlane()),
+					PathClassFactory.getDefaultPathClass(random.nextBoolean() ? PathClasses.TUMOR : PathClasses.STROMA));
+			pathObject.getMeasurementList().putMeasurement("A", random.nextDouble());
+			pathObject.getMeasurementList().putMeasurement("B", i % 10 == 0 ? Double.NaN : i);
+			pathObject.getMeasurementList().close();
+			pathObjects.add(pathObject);
+		}
+		List<String> measurements = Arrays.asList("A", "B");
+		double fwhm = 20;
+		
+		for (boolean withinClass : new boolean[] {false, true}) {
+			SmoothFeaturesPlugin.smoothMeasurements(new ArrayList<>(pathObjects), measurements, fwhm, "test", withinClass, false);
+			
+			// Compare with a brute force calculation
+			double sigma = fwhm / Math.sqrt(8 * Math.log(2));
+			double maxDist = sigma * 3;
+			for (int i = 0; i < n; i += 37) {
+				PathObject pathObject = pathObjects.get(i);
+				int count = 0;
+				for (String name : measurements) {
+					double value = pathObject.getMeasurementList().getMeasurementValue(name);
+					double weighted = value;
+					double denominator = 1;
+					count = 0;
+					for (PathObject other : pathObjects) {
+						if (other == pathObject || (withinClass && other.getPathClass() != pathObject.getPathClass()))
+							continue;
+						double dx = other.getROI().getCentroidX() - pathObject.getROI().getCentroidX();
+						double dy = other.getROI().getCentroidY() - pathObject.getROI().getCentroidY();
+						double dist = Math.sqrt(dx*dx + dy*dy);
+						if (dist > maxDist)
+							continue;
+						if (dist < fwhm)
+							count++;
+						double otherValue = other.getMeasurementList().getMeasurementValue(name);
+						if (Double.isNaN(otherValue))
+							continue;
+						double weight = Math.exp(-Math.pow((int)(dist + .5), 2) / (2 * sigma * sigma));
+						weighted += otherValue * weight;
+						denominator += weight;
+					}
+					assertEquals(weighted / denominator, pathObject.getMeasurementList().getMeasurementValue("Smoothed: test: " + name), Math.abs(weighted / denominator) * 1e-5);
+				}
+				assertEquals(count, pathObject.getMeasurementList().getMeasurementValue("Smoothed: test: Nearby detection counts"), 0.0);
+			}
+		}
+	}
+
+}
@@ -46,6 +46,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 
@@ -62,6 +63,7 @@ import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
 import loci.formats.Memoizer;
 import loci.formats.MetadataTools;
+import loci.formats.ReaderWrapper;
 import loci.formats.gui.AWTImageTools;
 import loci.formats.gui.BufferedImageReader;
 import loci.formats.meta.DummyMetadata;
@@ -211,6 +213,22 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		}
 		filePath = new File(uri.getPath()).getAbsolutePath();
 		
+		// Use cached metadata if we can, to avoid parsing the file
+		URI requestedURI = uri;
+		var cached = BioFormatsMetadataCache.read(requestedURI, filePath, options);
+		if (cached != null) {
+			this.series = cached.series;
+			this.format = cached.format;
+			this.doChannelZCorrectionVSI = cached.doChannelZCorrectionVSI;
+			this.imageMap = cached.getImageMap();
+			this.associatedImageMap = cached.getAssociatedImageMap();
+			this.originalMetadata = cached.metadata;
+			manager.registerServer(this, filePath, cached.readerClassName, cached.memoizationFileSize);
+			ImageIO.setUseCache(false);
+			logger.debug(String.format("Initialization time using cached metadata: %d ms", System.currentTimeMillis()-startTime));
+			return;
+		}
+		
 	    // Create a reader & extract the metadata
 		BufferedImageReader reader = manager.getPrimaryReader(this, filePath);
 		IMetadata meta = (IMetadata)reader.getMetadataStore();
@@ -505,6 +523,19 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 			if (tileWidth >= MIN_TILE_SIZE && tileWidth <= MAX_TILE_SIZE && tileHeight >= MIN_TILE_SIZE && tileHeight <= MAX_TILE_SIZE)
 				builder.preferredTileSize(tileWidth, tileHeight);
 			originalMetadata = builder.build();
+			
+			// Store what we need to avoid parsing the file next time
+			var toCache = new BioFormatsMetadataCache.CachedServer(requestedURI, filePath);
+			toCache.series = series;
+			toCache.format = format;
+			toCache.doChannelZCorrectionVSI = doChannelZCorrectionVSI;
+			toCache.imageMap = imageMap;
+			toCache.associatedImageMap = associatedImageMap;
+			toCache.metadata = originalMetadata;
+			toCache.memoizationFileSize = manager.getMemoizationFileSize(this);
+			Class<?> readerClass = BioFormatsReaderManager.getReaderClass(reader);
+			toCache.readerClassName = readerClass == null ? null : readerClass.getName();
+			BioFormatsMetadataCache.write(requestedURI, filePath, options, toCache);
 		}
 		
 		// Bioformats can use ImageIO for JPEG decoding, and permitting the disk-based cache can slow it down... so here we turn it off
@@ -539,19 +570,35 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 	 * Get a BufferedImageReader for use by the current thread.
 	 * 
 	 * If willParallelize() returns false, then the global reader will be provided.
+	 * Otherwise, a reader is leased from a shared pool.  In either case, the reader must be 
+	 * returned by calling {@link #releaseBufferedImageReader(BufferedImageReader)}.
 	 * 
 	 * @return
 	 */
 	private BufferedImageReader getBufferedImageReader() {
 		try {
-			IFormatReader ifReader = willParallelize() ? manager.getReaderForThread(this, filePath) : manager.getPrimaryReader(this, filePath);
-			return BufferedImageReader.makeBufferedImageReader(ifReader);
+			if (willParallelize())
+				return manager.leaseReader(this, filePath);
+			return manager.getPrimaryReader(this, filePath);
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while waiting for image reader for {}", filePath);
+			Thread.currentThread().interrupt();
+			return null;
 		} catch (Exception e) {
 			logger.error("Error requesting image reader", e);
 			return null;
 		}
 	}
 	
+	/**
+	 * Return a reader requested with {@link #getBufferedImageReader()}.
+	 * 
+	 * @param reader
+	 */
+	private void releaseBufferedImageReader(final BufferedImageReader reader) {
+		manager.releaseReader(reader);
+	}
+	
 	BufferedImageReader getPrimaryReader() throws DependencyException, ServiceException, FormatException, IOException {
 		return manager.getPrimaryReader(this, this.filePath);
 	}
@@ -563,6 +610,19 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 
 	@Override
 	public BufferedImage readTile(TileRequest tileRequest) {
+		BufferedImageReader ipReader = getBufferedImageReader();
+		if (ipReader == null) {
+			logger.warn("Reader is null - was the image already closed? " + filePath);
+			return null;
+		}
+		try {
+			return readTile(ipReader, tileRequest);
+		} finally {
+			releaseBufferedImageReader(ipReader);
+		}
+	}
+	
+	private BufferedImage readTile(final BufferedImageReader ipReader, final TileRequest tileRequest) {
 
 		int level = tileRequest.getLevel();
 		
@@ -575,11 +635,6 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		
 		BufferedImage img;
 		
-		BufferedImageReader ipReader = getBufferedImageReader();
-		if (ipReader == null) {
-			logger.warn("Reader is null - was the image already closed? " + filePath);
-			return null;
-		}
 		synchronized(ipReader) {
 			try {
 				ipReader.setSeries(series);
@@ -847,23 +902,29 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		if (associatedImageMap == null || !associatedImageMap.containsKey(name))
 			throw new IllegalArgumentException("No associated image with name '" + name + "' for " + getPath());
 		BufferedImageReader reader = getBufferedImageReader();
-		synchronized (reader) {
-			int series = reader.getSeries();
-			try {
-				reader.setSeries(associatedImageMap.get(name));
-				int nResolutions = reader.getResolutionCount();
-				if (nResolutions > 0) {
-					reader.setResolution(0);
+		if (reader == null)
+			return null;
+		try {
+			synchronized (reader) {
+				int series = reader.getSeries();
+				try {
+					reader.setSeries(associatedImageMap.get(name));
+					int nResolutions = reader.getResolutionCount();
+					if (nResolutions > 0) {
+						reader.setResolution(0);
+					}
+					// TODO: Handle color transforms here, or in the display of labels/macro images - in case this isn't RGB
+					BufferedImage img = reader.openImage(reader.getIndex(0, 0, 0), 0, 0, reader.getSizeX(), reader.getSizeY());
+					return img;
+//					return AWTImageTools.autoscale(img);
+				} catch (Exception e) {
+					logger.error("Error reading associated image" + name, e);
+				} finally {
+					reader.setSeries(series);
 				}
-				// TODO: Handle color transforms here, or in the display of labels/macro images - in case this isn't RGB
-				BufferedImage img = reader.openImage(reader.getIndex(0, 0, 0), 0, 0, reader.getSizeX(), reader.getSizeY());
-				return img;
-//				return AWTImageTools.autoscale(img);
-			} catch (Exception e) {
-				logger.error("Error reading associated image" + name, e);
-			} finally {
-				reader.setSeries(series);
 			}
+		} finally {
+			releaseBufferedImageReader(reader);
 		}
 		return null;
 	}
@@ -908,13 +969,14 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 	 * 
 	 * This has two purposes:
 	 *  1. To allow BioFormatsImageServers reading from the same image to request pixels from the same BioFormats reader
-	 *  2. To allow BioFormatsImageServers to request separate Bio-Formats image readers for different threads.
+	 *  2. To allow BioFormatsImageServers to lease separate Bio-Formats image readers from a shared pool, for use by different threads.
 	 *  
 	 * These are to address somewhat conflicting challenges.  Firstly, some readers are very memory-hungry, and 
 	 * should be created as rarely as possible.  On the other side, some readers are very lightweight - and having multiple 
 	 * such readers active at a time can help rapidly respond to tile requests.
 	 * 
-	 * It's up to any consumers to ensure that heavyweight readers aren't called for each thread.
+	 * The pool limits the number of readers per file and in total, independently of the number of threads requesting tiles.
+	 * It's still up to any consumers to ensure that heavyweight readers aren't requested from the pool.
 	 */
 	static class BioFormatsReaderManager {
 		
@@ -926,12 +988,26 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		/**
 		 * Map of paths to stored memoization file sizes.
 		 */
-		private Map<String, Long> mapMemoizationSizes = new HashMap<>();
+		private Map<String, Long> mapMemoizationSizes = new ConcurrentHashMap<>();
+
+		/**
+		 * Map of paths to the Bio-Formats reader class used to open the file, so that new readers don't need to search for the format.
+		 */
+		private Map<String, Class<? extends IFormatReader>> mapReaderClasses = new ConcurrentHashMap<>();
 
 		/**
-		 * Map of reads for each calling thread.  Care should be taking by the calling code to ensure requests are only made for 'lightweight' readers to avoid memory problems.
+		 * Map of paths to locks, used so that only one reader at a time calls setId for each file.
+		 * This is needed because the Memoizer may read, write or delete the same memoization file.
 		 */
-		private Map<Thread, BufferedImageReader> mapReadersPerThread = new WeakHashMap<>();
+		private Map<String, Object> mapFileLocks = new ConcurrentHashMap<>();
+
+		/**
+		 * Pool of readers shared between threads.  Care should be taking by the calling code to ensure requests are only made for 'lightweight' readers to avoid memory problems.
+		 */
+		private ReaderPool<BufferedImageReader> pool = new ReaderPool<>(
+				BioFormatsServerOptions.getInstance().getMaxReadersPerImage(),
+				BioFormatsServerOptions.getInstance().getMaxReaders(),
+				60_000L);
 		
 		/**
 		 * Map between active BioFormatsImageServers and Strings representing the file paths to the images involved.
@@ -939,34 +1015,79 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		public Map<BioFormatsImageServer, String> activeServers = new WeakHashMap<>();
 		
 		/**
-		 * Request a BufferedImageReader for a specified path that is unique for the calling thread.
+		 * Lease a BufferedImageReader for a specified path from the shared pool.
+		 * The reader will not be used by any other thread until it is returned with {@link #releaseReader(BufferedImageReader)}.
+		 * If the maximum number of readers is already open, this waits until a reader is returned.
 		 * 
 		 * Note that the state of the reader is not specified; setSeries should be called before use.
 		 * 
 		 * @param server
 		 * @param path
 		 * @return
-		 * @throws DependencyException
-		 * @throws ServiceException
-		 * @throws FormatException
-		 * @throws IOException
+		 * @throws InterruptedException if interrupted while waiting for a reader
+		 * @throws Exception if a new reader could not be created
 		 */
-		public synchronized BufferedImageReader getReaderForThread(final BioFormatsImageServer server, final String path) throws DependencyException, ServiceException, FormatException, IOException {
-			BufferedImageReader reader = mapReadersPerThread.get(Thread.currentThread());
-			if (reader != null) {
-				if (!path.equals(reader.getCurrentFile())) {
-					if (reader.getCurrentFile() != null)
-						reader.close();
-					reader.setId(path);
+		public BufferedImageReader leaseReader(final BioFormatsImageServer server, final String path) throws Exception {
+			BioFormatsServerOptions options = server.options;
+			// Pick up any changes to the options; waiting threads are only woken if the limits have changed
+			pool.setLimits(options.getMaxReadersPerImage(), options.getMaxReaders());
+			return pool.lease(path, () -> createReader(options, mapReaderClasses.get(path), path, null));
+		}
+		
+		/**
+		 * Register that a server is active, without necessarily creating a reader.
+		 * This is used when a server has been initialized from cached metadata, so that readers can be created later 
+		 * with the same reader class and memoization information as when the file was first opened.
+		 * 
+		 * @param server
+		 * @param path
+		 * @param readerClassName class name of the reader used to open the file, or null if unknown
+		 * @param memoizationFileSize
+		 */
+		public synchronized void registerServer(final BioFormatsImageServer server, final String path, final String readerClassName, final long memoizationFileSize) {
+			activeServers.put(server, path);
+			mapMemoizationSizes.putIfAbsent(path, memoizationFileSize);
+			if (readerClassName != null && !mapReaderClasses.containsKey(path)) {
+				try {
+					mapReaderClasses.put(path, Class.forName(readerClassName, true, IFormatReader.class.getClassLoader()).asSubclass(IFormatReader.class));
+				} catch (Exception e) {
+					logger.warn("Unable to find reader class {}", readerClassName);
 				}
-				return reader;
 			}
-//			long startTime = System.currentTimeMillis();
-			reader = createReader(server.options, path, null);
-//			long endTime = System.currentTimeMillis();
-//			System.err.println("Initialization " + (endTime - startTime));
-			mapReadersPerThread.put(Thread.currentThread(), reader);
-			return reader;
+		}
+		
+		/**
+		 * Get the class of the specific Bio-Formats reader used to open the current file, unwrapping 
+		 * any wrappers (e.g. for memoization).
+		 * 
+		 * @param reader
+		 * @return the reader class, or null if this could not be determined
+		 */
+		static Class<? extends IFormatReader> getReaderClass(IFormatReader reader) {
+			while (reader instanceof ReaderWrapper)
+				reader = ((ReaderWrapper)reader).getReader();
+			if (reader instanceof ImageReader)
+				reader = ((ImageReader)reader).getReader();
+			return reader == null ? null : reader.getClass();
+		}
+		
+		/**
+		 * Return a reader that was previously requested from this manager.
+		 * Primary readers are not pooled, and so are not affected.
+		 * 
+		 * @param reader
+		 */
+		public void releaseReader(final BufferedImageReader reader) {
+			pool.release(reader);
+		}
+		
+		/**
+		 * Get a summary of the current state of the shared reader pool.
+		 * 
+		 * @return
+		 */
+		ReaderPool.Statistics getPoolStatistics() {
+			return pool.getStatistics();
 		}
 		
 		/**
@@ -993,14 +1114,19 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 			if (reader == null) {
 				// Create OME-XML metadata store
 			    IMetadata meta = MetadataTools.createOMEXMLMetadata();
-				reader = createReader(server.options, path, meta);
+				reader = createReader(server.options, mapReaderClasses.get(path), path, meta);
 				mapPrimary.put(path, reader);
+				Class<? extends IFormatReader> readerClass = getReaderClass(reader);
+				if (readerClass != null)
+					mapReaderClasses.put(path, readerClass);
 			} else {
 				// Make sure the ID is set
 				if (!path.equals(reader.getCurrentFile())) {
 					if (reader.getCurrentFile() != null)
 						reader.close(); // Shouldn't happen...
-					reader.setId(path);
+					synchronized (getFileLock(path)) {
+						reader.setId(path);
+					}
 				}
 			}
 			return reader;
@@ -1030,6 +1156,11 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 				if (!active.contains(iterator.next().getKey()))
 					iterator.remove();
 			}
+			for (String path : pool.getFilePaths()) {
+				if (!active.contains(path))
+					pool.closeReaders(path);
+			}
+			logger.debug("{}", pool.getStatistics());
 		}
 		
 		/**
@@ -1037,7 +1168,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		 */
 		public void shutdown() {
 			closePrimaryReaders();
-			closeReadersPerThread();
+			closePooledReaders();
 		}
 		
 		/**
@@ -1055,17 +1186,10 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		}
 		
 		/**
-		 * Close all the pre-thread readers.
+		 * Close all the pooled readers.
 		 */
-		public synchronized void closeReadersPerThread() {
-			for (BufferedImageReader reader : mapReadersPerThread.values()) {
-				try {
-					reader.close();
-				} catch (IOException e) {
-					logger.warn("Error closing image reader", e);
-				}
-			}
-			mapReadersPerThread.clear();
+		public void closePooledReaders() {
+			pool.closeAll();
 		}
 		
 		
@@ -1082,6 +1206,10 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 			return createReader(options, null, id, store);
 		}
 		
+		private Object getFileLock(final String path) {
+			return mapFileLocks.computeIfAbsent(path, p -> new Object());
+		}
+		
 		private long getMemoizationFileSize(final BioFormatsImageServer server) {
 			return mapMemoizationSizes.getOrDefault(server.filePath, Long.valueOf(0L));
 		}
@@ -1097,7 +1225,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		 * @throws FormatException
 		 * @throws IOException
 		 */
-		private synchronized BufferedImageReader createReader(final BioFormatsServerOptions options, final Class<? extends IFormatReader> cls, final String id, final MetadataStore store) throws FormatException, IOException {
+		private BufferedImageReader createReader(final BioFormatsServerOptions options, final Class<? extends IFormatReader> cls, final String id, final MetadataStore store) throws FormatException, IOException {
 			IFormatReader imageReader;
 			if (cls != null) {
 				ClassList<IFormatReader> list = new ClassList<>(IFormatReader.class);
@@ -1132,30 +1260,33 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 				imageReader.setMetadataStore(new DummyMetadata());
 			
 			if (id != null) {
-				if (memoizer != null) {
-					File fileMemo = ((Memoizer)imageReader).getMemoFile(id);
-					long memoizationFileSize = fileMemo == null ? 0L : fileMemo.length();
-					boolean memoFileExists = fileMemo != null && fileMemo.exists();
-					try {
-						imageReader.setId(id);
-						mapMemoizationSizes.put(id, memoizationFileSize);
-					} catch (Exception e) {
-						if (memoFileExists) {
-							logger.warn("Problem with memoization file {} ({}), will delete", fileMemo.getName(), e.getLocalizedMessage());
-							fileMemo.delete();
+				// Readers for the same file must not set their ID concurrently, since they may share a memoization file
+				synchronized (getFileLock(id)) {
+					if (memoizer != null) {
+						File fileMemo = ((Memoizer)imageReader).getMemoFile(id);
+						long memoizationFileSize = fileMemo == null ? 0L : fileMemo.length();
+						boolean memoFileExists = fileMemo != null && fileMemo.exists();
+						try {
+							imageReader.setId(id);
+							mapMemoizationSizes.put(id, memoizationFileSize);
+						} catch (Exception e) {
+							if (memoFileExists) {
+								logger.warn("Problem with memoization file {} ({}), will delete", fileMemo.getName(), e.getLocalizedMessage());
+								fileMemo.delete();
+							}
+							imageReader.close();
+							imageReader.setId(id);
 						}
-						imageReader.close();
+						memoizationFileSize = fileMemo == null ? 0L : fileMemo.length();
+						if (memoizationFileSize == 0L)
+							logger.info("No memoization file generated for {}", id);
+						else if (!memoFileExists)
+							logger.info(String.format("Generating memoization file %s (%.2f MB)", fileMemo.getAbsolutePath(), memoizationFileSize/1024.0/1024.0));
+						else
+							logger.debug("Memoization file exists at {}", fileMemo.getAbsolutePath());
+					} else {
 						imageReader.setId(id);
 					}
-					memoizationFileSize = fileMemo == null ? 0L : fileMemo.length();
-					if (memoizationFileSize == 0L)
-						logger.info("No memoization file generated for {}", id);
-					else if (!memoFileExists)
-						logger.info(String.format("Generating memoization file %s (%.2f MB)", fileMemo.getAbsolutePath(), memoizationFileSize/1024.0/1024.0));
-					else
-						logger.debug("Memoization file exists at {}", fileMemo.getAbsolutePath());
-				} else {
-					imageReader.setId(id);
 				}
 			}
 			return BufferedImageReader.makeBufferedImageReader(imageReader);
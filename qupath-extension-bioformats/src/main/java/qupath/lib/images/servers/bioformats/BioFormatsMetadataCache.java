@@ -0,0 +1,234 @@
+/*-
+ * #%L
+ * This file is part of a QuPath extension.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.bioformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.projects.Project;
+import qupath.lib.scripting.QP;
+
+/**
+ * Persistent cache of the information needed to create a {@link BioFormatsImageServer} without parsing the image file.
+ * <p>
+ * Each entry contains the {@link ImageServerMetadata}, along with the series and the Bio-Formats reader class.  
+ * Entries are keyed by the file path and requested URI, and are only used if the file size and last modified time 
+ * are unchanged.
+ * <p>
+ * By default, the cache is stored within the current project directory.  The project is the one set for the current 
+ * thread with {@link QP#setBatchProject(Project)} if available, or else the project open in the GUI.
+ * If no project is available and no cache directory has been set in the {@link BioFormatsServerOptions}, no cache is used.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class BioFormatsMetadataCache {
+	
+	private final static Logger logger = LoggerFactory.getLogger(BioFormatsMetadataCache.class);
+	
+	/**
+	 * Increment whenever the stored information changes, so that older entries are ignored.
+	 */
+	private static final int VERSION = 1;
+	
+	private static Gson gson = new GsonBuilder()
+			.setLenient()
+			.serializeSpecialFloatingPointValues()
+			.create();
+	
+	private static Project<?> defaultProject;
+	
+	/**
+	 * Set the project used to determine the cache directory, if no other project has been set for the current thread.
+	 * This is generally the project open in the GUI.
+	 * 
+	 * @param project
+	 */
+	static void setDefaultProject(final Project<?> project) {
+		defaultProject = project;
+	}
+	
+	/**
+	 * Get the directory for the cache, or null if no cache should be used.
+	 * 
+	 * @param options
+	 * @return
+	 */
+	static Path getCacheDirectory(final BioFormatsServerOptions options) {
+		if (!options.useMetadataCache())
+			return null;
+		String pathCache = options.getPathMetadataCache();
+		if (pathCache != null && !pathCache.isBlank())
+			return Paths.get(pathCache);
+		Project<?> project = QP.getBatchProject();
+		if (project == null)
+			project = defaultProject;
+		Path pathProject = project == null ? null : project.getPath();
+		if (pathProject == null)
+			return null;
+		if (!Files.isDirectory(pathProject))
+			pathProject = pathProject.getParent();
+		return pathProject == null ? null : pathProject.resolve("cache").resolve("bio-formats");
+	}
+	
+	/**
+	 * Read a cached entry, if one is available and the file has not changed.
+	 * 
+	 * @param uri the URI requested when creating the server
+	 * @param filePath the path to the image file
+	 * @param options
+	 * @return the cached entry, or null if no valid entry is available
+	 */
+	static CachedServer read(final URI uri, final String filePath, final BioFormatsServerOptions options) {
+		Path dir = getCacheDirectory(options);
+		if (dir == null)
+			return null;
+		Path path = dir.resolve(getKey(uri, filePath, options) + ".json");
+		if (!Files.isRegularFile(path))
+			return null;
+		try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			CachedServer cached = gson.fromJson(reader, CachedServer.class);
+			if (cached == null || !cached.isValid(uri, filePath)) {
+				logger.debug("Ignoring out-of-date metadata cache entry for {}", filePath);
+				return null;
+			}
+			logger.debug("Read cached metadata for {} from {}", filePath, path);
+			return cached;
+		} catch (Exception e) {
+			logger.warn("Unable to read cached metadata from {} ({})", path, e.getLocalizedMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Write an entry to the cache, if a cache directory is available.
+	 * 
+	 * @param uri the URI requested when creating the server
+	 * @param filePath the path to the image file
+	 * @param options
+	 * @param cached
+	 */
+	static void write(final URI uri, final String filePath, final BioFormatsServerOptions options, final CachedServer cached) {
+		Path dir = getCacheDirectory(options);
+		if (dir == null)
+			return;
+		Path path = dir.resolve(getKey(uri, filePath, options) + ".json");
+		Path pathTemp = null;
+		try {
+			Files.createDirectories(dir);
+			// Write to a temp file first, so that concurrent readers never see a partial entry
+			pathTemp = Files.createTempFile(dir, "metadata-", ".tmp");
+			try (var writer = Files.newBufferedWriter(pathTemp, StandardCharsets.UTF_8)) {
+				gson.toJson(cached, writer);
+			}
+			Files.move(pathTemp, path, StandardCopyOption.REPLACE_EXISTING);
+			logger.debug("Wrote cached metadata for {} to {}", filePath, path);
+		} catch (IOException e) {
+			logger.warn("Unable to write cached metadata to {} ({})", path, e.getLocalizedMessage());
+			try {
+				if (pathTemp != null)
+					Files.deleteIfExists(pathTemp);
+			} catch (IOException e2) {
+				logger.debug("Unable to delete {}", pathTemp);
+			}
+		}
+	}
+	
+	/**
+	 * Create a key for an entry, based on everything that might influence how the server is initialized.
+	 */
+	private static String getKey(final URI uri, final String filePath, final BioFormatsServerOptions options) {
+		String key = filePath + "\n" + uri + "\n" + options.requestChannelZCorrectionVSI();
+		return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+	}
+	
+	
+	/**
+	 * Information stored for each server.
+	 */
+	static class CachedServer {
+		
+		private int version = VERSION;
+		
+		private String requestedURI;
+		private String filePath;
+		private long fileSize;
+		private long lastModified;
+		
+		int series;
+		String format;
+		String readerClassName;
+		long memoizationFileSize;
+		boolean doChannelZCorrectionVSI;
+		Map<String, Integer> imageMap;
+		Map<String, Integer> associatedImageMap;
+		ImageServerMetadata metadata;
+		
+		CachedServer(final URI requestedURI, final String filePath) {
+			this.requestedURI = requestedURI.toString();
+			this.filePath = filePath;
+			File file = new File(filePath);
+			this.fileSize = file.length();
+			this.lastModified = file.lastModified();
+		}
+		
+		/**
+		 * Check the entry was created for the same request, and the file is unchanged.
+		 */
+		boolean isValid(final URI requestedURI, final String filePath) {
+			if (version != VERSION || metadata == null ||
+					!requestedURI.toString().equals(this.requestedURI) || !filePath.equals(this.filePath))
+				return false;
+			File file = new File(filePath);
+			return file.isFile() && file.length() == fileSize && file.lastModified() == lastModified;
+		}
+		
+		Map<String, Integer> getImageMap() {
+			return imageMap == null ? Collections.emptyMap() : new LinkedHashMap<>(imageMap);
+		}
+		
+		Map<String, Integer> getAssociatedImageMap() {
+			return associatedImageMap == null ? null : new LinkedHashMap<>(associatedImageMap);
+		}
+		
+	}
+
+}
@@ -79,19 +79,27 @@ public class BioFormatsOptionsExtension implements QuPathExtension {
 		BooleanProperty enableBioformats = PathPrefs.createPersistentPreference("bfEnableBioformats", options.bioformatsEnabled());
 		BooleanProperty useParallelization = PathPrefs.createPersistentPreference("bfUseParallization", options.requestParallelization());
 		IntegerProperty memoizationTimeMillis = PathPrefs.createPersistentPreference("bfMemoizationTimeMS", options.getMemoizationTimeMillis());
+		IntegerProperty maxReadersPerImage = PathPrefs.createPersistentPreference("bfMaxReadersPerImage", options.getMaxReadersPerImage());
+		IntegerProperty maxReaders = PathPrefs.createPersistentPreference("bfMaxReaders", options.getMaxReaders());
 //		BooleanProperty parallelizeMultichannel = PathPrefs.createPersistentPreference("bfParallelizeMultichannel", options.requestParallelizeMultichannel());
 
 		BooleanProperty requestChannelZCorrectionVSI = PathPrefs.createPersistentPreference("bfChannelZCorrectionVSI", options.requestChannelZCorrectionVSI());
 
 		StringProperty pathMemoization = PathPrefs.createPersistentPreference("bfPathMemoization", options.getPathMemoization());
+		BooleanProperty useMetadataCache = PathPrefs.createPersistentPreference("bfUseMetadataCache", options.useMetadataCache());
+		StringProperty pathMetadataCache = PathPrefs.createPersistentPreference("bfPathMetadataCache", options.getPathMetadataCache());
 		StringProperty useExtensions = PathPrefs.createPersistentPreference("bfUseAlwaysExtensions", String.join(" ", options.getUseAlwaysExtensions()));
 		StringProperty skipExtensions = PathPrefs.createPersistentPreference("bfSkipAlwaysExtensions", String.join(" ", options.getSkipAlwaysExtensions()));
 		
 		// Set options using any values previously stored
 		options.setPathMemoization(pathMemoization.get());
+		options.setUseMetadataCache(useMetadataCache.get());
+		options.setPathMetadataCache(pathMetadataCache.get());
 		options.setBioformatsEnabled(enableBioformats.get());
 		options.setRequestParallelization(useParallelization.get());
 		options.setMemoizationTimeMillis(memoizationTimeMillis.get());
+		options.setMaxReadersPerImage(maxReadersPerImage.get());
+		options.setMaxReaders(maxReaders.get());
 //		options.setRequestParallelizeMultichannel(parallelizeMultichannel.get());
 		options.setRequestChannelZCorrectionVSI(requestChannelZCorrectionVSI.get());
 		fillCollectionWithTokens(useExtensions.get(), options.getUseAlwaysExtensions());
@@ -101,11 +109,19 @@ public class BioFormatsOptionsExtension implements QuPathExtension {
 		enableBioformats.addListener((v, o, n) -> options.setBioformatsEnabled(n));
 		useParallelization.addListener((v, o, n) -> options.setRequestParallelization(n));
 		memoizationTimeMillis.addListener((v, o, n) -> options.setMemoizationTimeMillis(n.intValue()));
+		maxReadersPerImage.addListener((v, o, n) -> options.setMaxReadersPerImage(n.intValue()));
+		maxReaders.addListener((v, o, n) -> options.setMaxReaders(n.intValue()));
 //		parallelizeMultichannel.addListener((v, o, n) -> options.setRequestParallelizeMultichannel(n));
 
 		requestChannelZCorrectionVSI.addListener((v, o, n) -> options.setRequestChannelZCorrectionVSI(n));
 
 		pathMemoization.addListener((v, o, n) -> options.setPathMemoization(n));
+		useMetadataCache.addListener((v, o, n) -> options.setUseMetadataCache(n));
+		pathMetadataCache.addListener((v, o, n) -> options.setPathMetadataCache(n));
+		
+		// Cache metadata within the current project by default
+		BioFormatsMetadataCache.setDefaultProject(qupath.getProject());
+		qupath.projectProperty().addListener((v, o, n) -> BioFormatsMetadataCache.setDefaultProject(n));
 		useExtensions.addListener((v, o, n) -> fillCollectionWithTokens(n, options.getUseAlwaysExtensions()));
 		skipExtensions.addListener((v, o, n) -> fillCollectionWithTokens(n, options.getSkipAlwaysExtensions()));
 		
@@ -115,10 +131,16 @@ public class BioFormatsOptionsExtension implements QuPathExtension {
 		prefs.addPropertyPreference(useParallelization, Boolean.class, "Enable Bio-Formats tile parallelization", "Bio-Formats", "Enable reading image tiles in parallel when using Bio-Formats");
 //		prefs.addPropertyPreference(parallelizeMultichannel, Boolean.class, "Enable Bio-Formats channel parallelization (experimental)", "Bio-Formats", "Request multiple image channels in parallel, even if parallelization of tiles is turned off - "
 //				+ "only relevant for multichannel images, and may fail for some image formats");
+		prefs.addPropertyPreference(maxReadersPerImage, Integer.class, "Bio-Formats max readers per image", "Bio-Formats", "Maximum number of Bio-Formats readers that may be open at one time for a single image, when reading tiles in parallel");
+		prefs.addPropertyPreference(maxReaders, Integer.class, "Bio-Formats max readers (total)", "Bio-Formats", "Maximum number of Bio-Formats readers that may be open at one time for all images, when reading tiles in parallel - unused readers are closed after one minute");
 		prefs.addPropertyPreference(memoizationTimeMillis, Integer.class, "Bio-Formats memoization time (ms)", "Bio-Formats", "Specify how long a file requires to open before Bio-Formats will create a .bfmemo file to improve performance (set < 0 to never use memoization)");
 		
 		prefs.addDirectoryPropertyPreference(pathMemoization, "Bio-Formats memoization directory", "Bio-Formats",
 				"Choose directory where Bio-Formats should write cache files for memoization; by default the directory where the image is stored will be used");
+		prefs.addPropertyPreference(useMetadataCache, Boolean.class, "Cache Bio-Formats metadata", "Bio-Formats", 
+				"Store the metadata for each image, so that images can be reopened without parsing the file again - the cache is updated whenever the file changes");
+		prefs.addDirectoryPropertyPreference(pathMetadataCache, "Bio-Formats metadata cache directory", "Bio-Formats",
+				"Choose directory where the Bio-Formats metadata cache should be stored; by default a 'cache' directory within the current project will be used");
 		prefs.addPropertyPreference(useExtensions, String.class, "Always use Bio-Formats for specified image extensions", "Bio-Formats", 
 				"Request that Bio-Formats is always the file reader used for images with specific extensions; enter as a list with spaces between each entry");
 		prefs.addPropertyPreference(skipExtensions, String.class, "Never use Bio-Formats for specified image extensions", "Bio-Formats", 
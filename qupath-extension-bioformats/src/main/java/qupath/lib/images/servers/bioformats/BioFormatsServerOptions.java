@@ -44,9 +44,13 @@ public class BioFormatsServerOptions {
 	private Set<String> useExtensions = new TreeSet<>();
 	
 	private boolean requestParallelization = true;
+	private int maxReadersPerImage = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 8));
+	private int maxReaders = maxReadersPerImage * 4;
 	private int memoizationTimeMillis = 500;
 //	private boolean requestParallelizeMultichannel = false;
 	private String pathMemoization;
+	private boolean useMetadataCache = true;
+	private String pathMetadataCache;
 	
 	private boolean requestChannelZCorrectionVSI = false;
 	
@@ -60,6 +64,31 @@ public class BioFormatsServerOptions {
 		this.pathMemoization = pathMemoization;
 	}
 
+	/**
+	 * Returns true if the metadata for each image should be cached on disk, to avoid parsing the file 
+	 * whenever it is opened.
+	 * @return
+	 */
+	public boolean useMetadataCache() {
+		return useMetadataCache;
+	}
+
+	public void setUseMetadataCache(final boolean useMetadataCache) {
+		this.useMetadataCache = useMetadataCache;
+	}
+
+	/**
+	 * Get the directory used to cache metadata.  If this is null or empty, a directory within the current project is used.
+	 * @return
+	 */
+	public String getPathMetadataCache() {
+		return pathMetadataCache;
+	}
+
+	public void setPathMetadataCache(final String pathMetadataCache) {
+		this.pathMetadataCache = pathMetadataCache;
+	}
+
 	public static BioFormatsServerOptions getInstance() {
 		return instance;
 	}
@@ -96,6 +125,31 @@ public class BioFormatsServerOptions {
 		this.requestParallelization = requestParallelization;
 	}
 	
+	/**
+	 * Get the maximum number of readers that may be open at any time for a single image, when parallelization is used.
+	 * @return
+	 */
+	public int getMaxReadersPerImage() {
+		return maxReadersPerImage;
+	}
+
+	public void setMaxReadersPerImage(final int maxReadersPerImage) {
+		this.maxReadersPerImage = maxReadersPerImage;
+	}
+	
+	/**
+	 * Get the maximum number of readers that may be open at any time for all images, when parallelization is used.
+	 * Readers that are needed to access image metadata are not included.
+	 * @return
+	 */
+	public int getMaxReaders() {
+		return maxReaders;
+	}
+
+	public void setMaxReaders(final int maxReaders) {
+		this.maxReaders = maxReaders;
+	}
+	
 	public Set<String> getSkipAlwaysExtensions() {
 		return skipExtensions;
 	}
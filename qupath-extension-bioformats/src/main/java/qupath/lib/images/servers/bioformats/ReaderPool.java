@@ -0,0 +1,435 @@
+/*-
+ * #%L
+ * This file is part of a QuPath extension.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.bioformats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of image readers, shared between threads.
+ * <p>
+ * Readers are leased for a specific file, and must be released afterwards.  The number of readers open for any 
+ * one file, and the total number of readers open, are both capped; if no reader is available then the caller waits 
+ * until one is released.  Readers that have been idle for longer than a timeout are closed.
+ * <p>
+ * Where possible, a thread is given the same reader that it used last for the same file, 
+ * so that any caching within the reader (e.g. of nearby tiles) can be reused.
+ * 
+ * @author Pete Bankhead
+ *
+ * @param <R> reader type
+ */
+class ReaderPool<R extends Closeable> {
+	
+	private final static Logger logger = LoggerFactory.getLogger(ReaderPool.class);
+	
+	private int maxReadersPerFile;
+	private int maxReaders;
+	private long idleTimeoutMillis;
+	
+	private final Map<String, FilePool> pools = new HashMap<>();
+	private final Map<R, PooledReader> leased = new IdentityHashMap<>();
+	private int nOpen = 0;
+	
+	private long nCreated = 0L;
+	private long nClosed = 0L;
+	private long nLeases = 0L;
+	private long nAffinityLeases = 0L;
+	private long nWaits = 0L;
+	private long waitTimeMillis = 0L;
+	
+	/**
+	 * Constructor.
+	 * @param maxReadersPerFile maximum number of readers that may be open for a single file
+	 * @param maxReaders maximum number of readers that may be open in total
+	 * @param idleTimeoutMillis time after which an unused reader will be closed
+	 */
+	ReaderPool(final int maxReadersPerFile, final int maxReaders, final long idleTimeoutMillis) {
+		setLimits(maxReadersPerFile, maxReaders);
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+	
+	/**
+	 * Update the maximum number of readers.  If the limits are reduced, excess readers are closed when they are released.
+	 * <p>
+	 * This is cheap to call if the limits haven't changed, since waiting threads are only woken if they have.
+	 * @param maxReadersPerFile
+	 * @param maxReaders
+	 */
+	synchronized void setLimits(final int maxReadersPerFile, final int maxReaders) {
+		int newMaxReadersPerFile = Math.max(1, maxReadersPerFile);
+		int newMaxReaders = Math.max(1, maxReaders);
+		if (newMaxReadersPerFile == this.maxReadersPerFile && newMaxReaders == this.maxReaders)
+			return;
+		this.maxReadersPerFile = newMaxReadersPerFile;
+		this.maxReaders = newMaxReaders;
+		notifyAll();
+	}
+	
+	/**
+	 * Lease a reader for the specified file, waiting if necessary until one is available.
+	 * The reader must be returned with {@link #release(Closeable)}.
+	 * 
+	 * @param path path of the file
+	 * @param creator function to create a new reader for the file, if needed
+	 * @return
+	 * @throws Exception if the reader could not be created
+	 */
+	R lease(final String path, final Callable<R> creator) throws Exception {
+		FilePool pool;
+		long threadId = Thread.currentThread().getId();
+		List<PooledReader> toClose = new ArrayList<>();
+		try {
+			synchronized (this) {
+				long startTime = -1L;
+				while (true) {
+					closeIdleReaders(System.currentTimeMillis(), toClose);
+					pool = pools.computeIfAbsent(path, p -> new FilePool(p));
+					PooledReader reader = pool.takeIdle(threadId);
+					if (reader != null) {
+						leased.put(reader.reader, reader);
+						nLeases++;
+						return reader.reader;
+					}
+					// Create a new reader, if we can
+					if (pool.size() < maxReadersPerFile) {
+						if (nOpen >= maxReaders)
+							closeLeastRecentlyUsed(toClose);
+						if (nOpen < maxReaders) {
+							nOpen++;
+							pool.nCreating++;
+							break;
+						}
+					}
+					// Wait for a reader to be returned
+					if (startTime < 0) {
+						startTime = System.currentTimeMillis();
+						nWaits++;
+					}
+					wait(Math.max(1L, Math.min(idleTimeoutMillis, 1000L)));
+				}
+				if (startTime >= 0)
+					waitTimeMillis += System.currentTimeMillis() - startTime;
+			}
+		} finally {
+			closeReaders(toClose);
+		}
+		
+		// Create the reader without holding the lock, since this can be slow
+		R reader = null;
+		try {
+			reader = creator.call();
+		} finally {
+			synchronized (this) {
+				pool.nCreating--;
+				if (reader == null) {
+					nOpen--;
+					notifyAll();
+				} else {
+					leased.put(reader, new PooledReader(pool, reader));
+					nCreated++;
+					nLeases++;
+				}
+			}
+		}
+		logger.debug("Created reader for {} ({} open)", path, nOpen);
+		return reader;
+	}
+	
+	/**
+	 * Return a reader to the pool after use.
+	 * Readers that were not leased from this pool are ignored.
+	 * 
+	 * @param reader
+	 * @return true if the reader was returned to the pool (or closed), false if it was not leased from this pool
+	 */
+	boolean release(final R reader) {
+		synchronized (this) {
+			PooledReader pooled = leased.remove(reader);
+			if (pooled == null)
+				return false;
+			pooled.lastUsed = System.currentTimeMillis();
+			pooled.lastThreadId = Thread.currentThread().getId();
+			FilePool pool = pooled.pool;
+			if (!pool.closed && pool.size() < maxReadersPerFile && nOpen <= maxReaders) {
+				pool.idle.push(pooled);
+				notifyAll();
+				return true;
+			}
+			nOpen--;
+			nClosed++;
+			notifyAll();
+		}
+		closeReader(reader);
+		return true;
+	}
+	
+	/**
+	 * Close all readers for a file.  Any readers currently leased will be closed when they are released.
+	 * @param path
+	 */
+	void closeReaders(final String path) {
+		List<PooledReader> toClose = new ArrayList<>();
+		synchronized (this) {
+			FilePool pool = pools.remove(path);
+			if (pool == null)
+				return;
+			pool.closed = true;
+			removeIdle(pool, pool.idle.iterator(), Long.MAX_VALUE, toClose);
+		}
+		closeReaders(toClose);
+	}
+	
+	/**
+	 * Close all readers.  Any readers currently leased will be closed when they are released.
+	 */
+	void closeAll() {
+		List<String> paths;
+		synchronized (this) {
+			paths = new ArrayList<>(pools.keySet());
+		}
+		for (String path : paths)
+			closeReaders(path);
+	}
+	
+	/**
+	 * Get the paths of all files for which readers are currently open.
+	 * @return
+	 */
+	synchronized List<String> getFilePaths() {
+		return new ArrayList<>(pools.keySet());
+	}
+	
+	/**
+	 * Get a snapshot of the current pool statistics.
+	 * @return
+	 */
+	synchronized Statistics getStatistics() {
+		int nIdle = 0;
+		for (FilePool pool : pools.values())
+			nIdle += pool.idle.size();
+		return new Statistics(nOpen, leased.size(), nIdle, pools.size(), nCreated, nClosed, nLeases, nAffinityLeases, nWaits, waitTimeMillis);
+	}
+	
+	private void closeIdleReaders(final long time, final List<PooledReader> toClose) {
+		for (FilePool pool : pools.values())
+			removeIdle(pool, pool.idle.iterator(), time - idleTimeoutMillis, toClose);
+	}
+	
+	/**
+	 * Close the idle reader that was used least recently, across all files.
+	 */
+	private void closeLeastRecentlyUsed(final List<PooledReader> toClose) {
+		PooledReader oldest = null;
+		for (FilePool pool : pools.values()) {
+			PooledReader last = pool.idle.peekLast();
+			if (last != null && (oldest == null || last.lastUsed < oldest.lastUsed))
+				oldest = last;
+		}
+		if (oldest != null) {
+			oldest.pool.idle.removeLastOccurrence(oldest);
+			nOpen--;
+			nClosed++;
+			toClose.add(oldest);
+		}
+	}
+	
+	/**
+	 * Remove idle readers last used before the specified time.
+	 */
+	private void removeIdle(final FilePool pool, final Iterator<PooledReader> iter, final long usedBefore, final List<PooledReader> toClose) {
+		while (iter.hasNext()) {
+			PooledReader reader = iter.next();
+			if (reader.lastUsed < usedBefore) {
+				iter.remove();
+				nOpen--;
+				nClosed++;
+				toClose.add(reader);
+			}
+		}
+		if (pool.size() == 0 && !pool.closed)
+			pools.remove(pool.path);
+	}
+	
+	private void closeReaders(final List<PooledReader> readers) {
+		for (PooledReader reader : readers) {
+			logger.debug("Closing reader for {}", reader.pool.path);
+			closeReader(reader.reader);
+		}
+	}
+	
+	private static void closeReader(final Closeable reader) {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			logger.warn("Error closing image reader", e);
+		}
+	}
+	
+	
+	private class FilePool {
+		
+		private final String path;
+		private final Deque<PooledReader> idle = new ArrayDeque<>();
+		private int nCreating = 0;
+		private boolean closed = false;
+		
+		FilePool(final String path) {
+			this.path = path;
+		}
+		
+		/**
+		 * Number of readers for this file, whether idle, leased or being created.
+		 */
+		int size() {
+			int n = idle.size() + nCreating;
+			for (PooledReader reader : leased.values()) {
+				if (reader.pool == this)
+					n++;
+			}
+			return n;
+		}
+		
+		/**
+		 * Take an idle reader, preferring the one last used by the specified thread, 
+		 * or else the one used most recently.
+		 */
+		PooledReader takeIdle(final long threadId) {
+			Iterator<PooledReader> iter = idle.iterator();
+			while (iter.hasNext()) {
+				PooledReader reader = iter.next();
+				if (reader.lastThreadId == threadId) {
+					iter.remove();
+					nAffinityLeases++;
+					return reader;
+				}
+			}
+			return idle.poll();
+		}
+		
+	}
+	
+	
+	private class PooledReader {
+		
+		private final FilePool pool;
+		private final R reader;
+		private long lastUsed;
+		private long lastThreadId = -1L;
+		
+		PooledReader(final FilePool pool, final R reader) {
+			this.pool = pool;
+			this.reader = reader;
+		}
+		
+	}
+	
+	
+	/**
+	 * Snapshot of reader pool statistics.
+	 */
+	static class Statistics {
+		
+		private final int nOpen, nLeased, nIdle, nFiles;
+		private final long nCreated, nClosed, nLeases, nAffinityLeases, nWaits, waitTimeMillis;
+		
+		private Statistics(int nOpen, int nLeased, int nIdle, int nFiles, long nCreated, long nClosed, long nLeases, long nAffinityLeases, long nWaits, long waitTimeMillis) {
+			this.nOpen = nOpen;
+			this.nLeased = nLeased;
+			this.nIdle = nIdle;
+			this.nFiles = nFiles;
+			this.nCreated = nCreated;
+			this.nClosed = nClosed;
+			this.nLeases = nLeases;
+			this.nAffinityLeases = nAffinityLeases;
+			this.nWaits = nWaits;
+			this.waitTimeMillis = waitTimeMillis;
+		}
+		
+		/**
+		 * Number of readers currently open, including those being created.
+		 */
+		int getOpenCount() {
+			return nOpen;
+		}
+		
+		int getLeasedCount() {
+			return nLeased;
+		}
+		
+		int getIdleCount() {
+			return nIdle;
+		}
+		
+		long getCreatedCount() {
+			return nCreated;
+		}
+		
+		long getClosedCount() {
+			return nClosed;
+		}
+		
+		long getLeaseCount() {
+			return nLeases;
+		}
+		
+		/**
+		 * Number of leases where the thread received the same reader it used previously.
+		 */
+		long getAffinityLeaseCount() {
+			return nAffinityLeases;
+		}
+		
+		/**
+		 * Number of leases that had to wait for a reader to become available.
+		 */
+		long getWaitCount() {
+			return nWaits;
+		}
+		
+		long getWaitTimeMillis() {
+			return waitTimeMillis;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Readers: %d open (%d leased, %d idle) for %d files; %d created, %d closed; %d leases (%d same thread), %d waits (%d ms)",
+					nOpen, nLeased, nIdle, nFiles, nCreated, nClosed, nLeases, nAffinityLeases, nWaits, waitTimeMillis);
+		}
+		
+	}
+
+}
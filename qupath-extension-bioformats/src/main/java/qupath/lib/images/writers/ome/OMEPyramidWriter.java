@@ -2,15 +2,23 @@ package qupath.lib.images.writers.ome;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
@@ -29,6 +37,7 @@ import ome.xml.model.enums.PixelType;
 import ome.xml.model.primitives.Color;
 import ome.xml.model.primitives.PositiveInteger;
 import qupath.lib.common.ColorTools;
+import qupath.lib.common.SimpleThreadFactory;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
@@ -64,6 +73,8 @@ public class OMEPyramidWriter {
 	private int tStart = 0;
 	private int tEnd = 0;
 	private int[] channels;
+	
+	private int nThreads = Runtime.getRuntime().availableProcessors();
 
 	private String compression = PyramidOMETiffWriter.COMPRESSION_UNCOMPRESSED;
 	
@@ -170,140 +181,312 @@ public class OMEPyramidWriter {
 			((IPyramidStore)meta).setResolutionSizeY(new PositiveInteger(h), series, level);
 		}
 		
-		try (PyramidOMETiffWriter writer = new PyramidOMETiffWriter()) {
+		int bitsPerSample = server.getBitsPerPixel();
+		int samplesPerPixel = nSamples;
+		int bytesPerPixel = bitsPerSample / 8 * samplesPerPixel;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads, new SimpleThreadFactory("ome-pyramid-writer-", true));
+		Deque<PendingTile> pending = new ArrayDeque<>();
+		int maxPending = nThreads * 4;
+		
+		try (PyramidOMETiffWriter writer = new PyramidOMETiffWriter();
+				PyramidTileStore store = new PyramidTileStore(Runtime.getRuntime().maxMemory() / 4)) {
 			
-			logger.info("Writing {} to {} with compression {}", server.getDisplayedImageName(), path, compression);
+			// Tasks use the store, so they must all finish before it is closed
+			try {
+				logger.info("Writing {} to {} with compression {}", server.getDisplayedImageName(), path, compression);
 			
-			writer.setCompression(compression);
-			writer.setWriteSequentially(true);
-			writer.setMetadataRetrieve(meta);
+				writer.setCompression(compression);
+				writer.setWriteSequentially(true);
+				writer.setMetadataRetrieve(meta);
 			
-			int tileWidth = writer.setTileSizeX(this.tileWidth);
-			int tileHeight = writer.setTileSizeY(this.tileHeight);
-
-			writer.setId(path);
-			writer.setSeries(series);
-
-			writer.setInterleaved(isRGB);
-
-			writer.setSeries(series);
-			for (int level = 0; level < downsamples.length; level++) {
-
-				//				writer.setTileSizeX(tileWidth);
-				//				writer.setTileSizeY(tileHeight);
-				writer.setResolution(level);
-
-				double d = downsamples[level];
-				int w = (int)(this.width / d);
-				int h = (int)(this.height / d);
-				int bpp = server.getBitsPerPixel() / 8;
-
-				int[] pixelsInt = null;
-				float[] pixelsFloat = null;
-				double[] pixelsDouble = null;
+				int tileWidth = writer.setTileSizeX(this.tileWidth);
+				int tileHeight = writer.setTileSizeY(this.tileHeight);
 
-//				int sizeZ = zEnd - zStart + 1;
-//				int sizeT = tEnd - tStart + 1;
-				int nPlanes = channels.length * sizeZ * sizeT;
+				writer.setId(path);
+				writer.setSeries(series);
 
-				int plane = 0;
+				writer.setInterleaved(isRGB);
 
-				for (int t = tStart; t < tEnd; t++) {
-					for (int z = zStart; z < zEnd; z++) {
-						for (int c : channel) {
+				writer.setSeries(series);
+			
+				// Determine which levels can be derived from the level before, rather than requested from the server
+				int[] scales = getLevelScales(tileWidth, tileHeight);
+			
+				for (int level = 0; level < downsamples.length; level++) {
+				
+					// Tiles for each level must be written after those of the previous level, and derived tiles 
+					// need the previous level to be complete
+					writePendingTiles(writer, pending, 0);
+				
+					writer.setResolution(level);
+
+					double d = downsamples[level];
+					int w = (int)(this.width / d);
+					int h = (int)(this.height / d);
+					int previousWidth = level == 0 ? w : (int)(this.width / downsamples[level - 1]);
+					int previousHeight = level == 0 ? h : (int)(this.height / downsamples[level - 1]);
+					int scale = scales[level];
+					int nextScale = level + 1 < scales.length ? scales[level + 1] : 0;
+					if (scale > 0)
+						logger.debug("Deriving level {} from level {} (scale {})", level, level - 1, scale);
+
+					int nPlanes = channels.length * sizeZ * sizeT;
+
+					int plane = 0;
+
+					for (int t = tStart; t < tEnd; t++) {
+						for (int z = zStart; z < zEnd; z++) {
+							for (int c : channel) {
 							
-							logger.debug("Writing plane {} of {}", plane, nPlanes);
-
-							IFD ifd = new IFD();
-							ifd.put(IFD.TILE_WIDTH, tileWidth);
-							ifd.put(IFD.TILE_LENGTH, tileHeight);
-
-							/*
-							 *  TODO: Consider parallelization for tile writing (synchronized anyway in writer?) 
-							 *  or at the very least reusing int/byte arrays.
-							 */
-							for (int yy = 0; yy < h; yy += tileHeight) {
-								int hh = Math.min(h - yy, tileHeight);
-								for (int xx = 0; xx < w; xx += tileWidth) {
-									int ww = Math.min(w - xx, tileWidth);
-
-									/* 
-									 * TODO: Note that this is horribly inefficient for multichannel images,
-									 * because it requests all channels when it can only use one per loop
-									 */
-									RegionRequest request = RegionRequest.createInstance(
-											server.getPath(), d, 
-											(int)(xx * d) + x, 
-											(int)(yy * d) + y, 
-											(int)(ww * d), 
-											(int)(hh * d),
-											z,
-											t);
-									BufferedImage img = server.readBufferedImage(request);
-
-									ByteBuffer buf = null;
-									ww = img.getWidth();
-									hh = img.getHeight();
-									if (server.isRGB()) {
-										int[] rgba = img.getRGB(0, 0, ww, hh, null, 0, ww);
-										buf = ByteBuffer.allocate(ww * hh * 3);						
-										for (int val : rgba) {
-											buf.put((byte)ColorTools.red(val));
-											buf.put((byte)ColorTools.green(val));
-											buf.put((byte)ColorTools.blue(val));
-											//										buf.putInt(val);
-										}
-										// Plane is 0 for RGB
-										writer.saveBytes(plane, buf.array(), ifd, xx, yy, ww, hh);
-									} else {
-										// TODO: IMPLEMENT THIS!
-										buf = ByteBuffer.allocate(ww * hh * bpp);
-										buf.order(ByteOrder.BIG_ENDIAN);
-										buf.rewind();
-										switch (server.getBitsPerPixel()) {
-										case 8:
-										case 16:
-											if (pixelsInt == null || pixelsInt.length != ww*hh)
-												pixelsInt = new int[ww*hh];
-											pixelsInt = img.getRaster().getSamples(0, 0, ww, hh, c, pixelsInt);
-											if (server.getBitsPerPixel() == 8) {
-												for (int val : pixelsInt) {
-													buf.put((byte)val);
-												}
-											} else {
-												for (int val : pixelsInt) {
-													buf.putShort((short)val);
-												}
-											}
-											break;
-										case 32:
-											if (pixelsFloat == null || pixelsFloat.length != ww*hh)
-												pixelsFloat = new float[ww*hh];
-											pixelsFloat = img.getRaster().getSamples(0, 0, ww, hh, c, pixelsFloat);
-											for (float val : pixelsFloat) {
-												buf.putFloat(val);
-											}
-											break;
-										case 64:
-											if (pixelsDouble == null || pixelsDouble.length != ww*hh)
-												pixelsDouble = new double[ww*hh];
-											pixelsDouble = img.getRaster().getSamples(0, 0, ww, hh, c, pixelsDouble);
-											for (double val : pixelsDouble) {
-												buf.putDouble(val);
-											}
-											break;										
-										}
-										writer.saveBytes(plane, buf.array(), ifd, xx, yy, ww, hh);
+								logger.debug("Writing plane {} of {}", plane, nPlanes);
+
+								IFD ifd = new IFD();
+								ifd.put(IFD.TILE_WIDTH, tileWidth);
+								ifd.put(IFD.TILE_LENGTH, tileHeight);
+
+								// Read, downsample & convert tiles in parallel - but write them in order
+								for (int yy = 0, ty = 0; yy < h; yy += tileHeight, ty++) {
+									int hh = Math.min(h - yy, tileHeight);
+									for (int xx = 0, tx = 0; xx < w; xx += tileWidth, tx++) {
+										int ww = Math.min(w - xx, tileWidth);
+										TileRequest tile = new TileRequest(level, plane, tx, ty, xx, yy, ww, hh);
+										int currentZ = z;
+										int currentT = t;
+										int currentChannel = c;
+										writePendingTiles(writer, pending, maxPending - 1);
+										Future<byte[]> future = pool.submit(() -> {
+											byte[] bytes;
+											if (scale > 0)
+												bytes = getDerivedTileBytes(store, tile, tileWidth, tileHeight, scale, previousWidth, previousHeight, bytesPerPixel);
+											else
+												bytes = readTileBytes(tile, d, currentZ, currentT, currentChannel);
+											if (nextScale > 0)
+												store.put(PyramidTileStore.getKey(tile.level + 1, tile.plane, tile.tileX, tile.tileY),
+														PyramidTileStore.downsample(bytes, tile.width, tile.height, samplesPerPixel, bitsPerSample, nextScale));
+											return bytes;
+										});
+										pending.add(new PendingTile(tile, ifd, future));
 									}
 								}
+								// Next plane
+								plane++;
 							}
-							// Next plane
-							plane++;
 						}
 					}
 				}
+				writePendingTiles(writer, pending, 0);
+			} finally {
+				for (PendingTile tile : pending)
+					tile.future.cancel(true);
+				pool.shutdownNow();
+				try {
+					if (!pool.awaitTermination(1, TimeUnit.MINUTES))
+						logger.warn("Timed out waiting for OME-TIFF writer threads to finish");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Get the integer scale factor between each pyramid level and the level before it, 
+	 * or 0 if the level cannot be derived from the previous level and must be requested from the server.
+	 * <p>
+	 * Derived levels require that the tiles of the previous level are downsampled to cover whole numbers of pixels, 
+	 * so the scale factor must divide the tile size.
+	 * 
+	 * @param tileWidth
+	 * @param tileHeight
+	 * @return
+	 */
+	private int[] getLevelScales(final int tileWidth, final int tileHeight) {
+		int[] scales = new int[downsamples.length];
+		for (int level = 1; level < downsamples.length; level++) {
+			double ratio = downsamples[level] / downsamples[level - 1];
+			int scale = (int)Math.round(ratio);
+			if (scale < 2 || Math.abs(ratio - scale) > 1e-6 || tileWidth % scale != 0 || tileHeight % scale != 0)
+				continue;
+			int previousWidth = (int)(width / downsamples[level - 1]);
+			int previousHeight = (int)(height / downsamples[level - 1]);
+			if ((int)(width / downsamples[level]) > (previousWidth + scale - 1) / scale ||
+					(int)(height / downsamples[level]) > (previousHeight + scale - 1) / scale)
+				continue;
+			scales[level] = scale;
+		}
+		return scales;
+	}
+	
+	/**
+	 * Write the oldest pending tiles, in order, until no more than maxPending remain.
+	 * Tile bytes are computed in parallel, but calls to the writer are serialized because the TIFF is written sequentially.
+	 */
+	private static void writePendingTiles(final PyramidOMETiffWriter writer, final Deque<PendingTile> pending, final int maxPending) throws FormatException, IOException {
+		while (pending.size() > maxPending) {
+			PendingTile next = pending.peek();
+			byte[] bytes;
+			try {
+				bytes = next.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while writing OME-TIFF");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException)cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				throw new IOException(cause);
+			}
+			pending.remove();
+			TileRequest tile = next.tile;
+			writer.saveBytes(tile.plane, bytes, next.ifd, tile.x, tile.y, tile.width, tile.height);
+		}
+	}
+	
+	/**
+	 * Assemble the bytes for a tile from the downsampled tiles of the previous level.
+	 */
+	private static byte[] getDerivedTileBytes(final PyramidTileStore store, final TileRequest tile, final int tileWidth, final int tileHeight, 
+			final int scale, final int previousWidth, final int previousHeight, final int bytesPerPixel) throws IOException {
+		byte[] bytes = new byte[tile.width * tile.height * bytesPerPixel];
+		for (int sy = 0; sy < scale; sy++) {
+			int y = sy * tileHeight / scale;
+			if (y >= tile.height)
+				break;
+			int sourceTileY = tile.tileY * scale + sy;
+			int sh = (Math.min(previousHeight - sourceTileY * tileHeight, tileHeight) + scale - 1) / scale;
+			for (int sx = 0; sx < scale; sx++) {
+				int x = sx * tileWidth / scale;
+				if (x >= tile.width)
+					break;
+				int sourceTileX = tile.tileX * scale + sx;
+				int sw = (Math.min(previousWidth - sourceTileX * tileWidth, tileWidth) + scale - 1) / scale;
+				String key = PyramidTileStore.getKey(tile.level, tile.plane, sourceTileX, sourceTileY);
+				byte[] source = store.remove(key);
+				if (source == null)
+					throw new IOException("Unable to find downsampled tile " + key);
+				// Downsampled tiles at the edge of the previous level can extend beyond the current level because of rounding
+				int ww = Math.min(sw, tile.width - x);
+				int hh = Math.min(sh, tile.height - y);
+				PyramidTileStore.copyRegion(source, sw, 0, 0, bytes, tile.width, x, y, ww, hh, bytesPerPixel);
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Read the bytes for a tile from the server.
+	 */
+	private byte[] readTileBytes(final TileRequest tile, final double d, final int z, final int t, final int c) throws IOException {
+		/* 
+		 * TODO: Note that this is inefficient for multichannel images,
+		 * because it requests all channels when it can only use one per loop
+		 */
+		RegionRequest request = RegionRequest.createInstance(
+				server.getPath(), d, 
+				(int)(tile.x * d) + x, 
+				(int)(tile.y * d) + y, 
+				(int)(tile.width * d), 
+				(int)(tile.height * d),
+				z,
+				t);
+		BufferedImage img = server.readBufferedImage(request);
+
+		int ww = img.getWidth();
+		int hh = img.getHeight();
+		ByteBuffer buf;
+		if (server.isRGB()) {
+			int[] rgba = img.getRGB(0, 0, ww, hh, null, 0, ww);
+			buf = ByteBuffer.allocate(ww * hh * 3);						
+			for (int val : rgba) {
+				buf.put((byte)ColorTools.red(val));
+				buf.put((byte)ColorTools.green(val));
+				buf.put((byte)ColorTools.blue(val));
+			}
+		} else {
+			int bpp = server.getBitsPerPixel() / 8;
+			buf = ByteBuffer.allocate(ww * hh * bpp);
+			buf.order(ByteOrder.BIG_ENDIAN);
+			switch (server.getBitsPerPixel()) {
+			case 8:
+			case 16:
+				int[] pixelsInt = img.getRaster().getSamples(0, 0, ww, hh, c, (int[])null);
+				if (server.getBitsPerPixel() == 8) {
+					for (int val : pixelsInt) {
+						buf.put((byte)val);
+					}
+				} else {
+					for (int val : pixelsInt) {
+						buf.putShort((short)val);
+					}
+				}
+				break;
+			case 32:
+				float[] pixelsFloat = img.getRaster().getSamples(0, 0, ww, hh, c, (float[])null);
+				for (float val : pixelsFloat) {
+					buf.putFloat(val);
+				}
+				break;
+			case 64:
+				double[] pixelsDouble = img.getRaster().getSamples(0, 0, ww, hh, c, (double[])null);
+				for (double val : pixelsDouble) {
+					buf.putDouble(val);
+				}
+				break;										
 			}
 		}
+		byte[] bytes = buf.array();
+		
+		// Ensure the tile has exactly the expected size (the image may differ slightly due to rounding)
+		if (ww != tile.width || hh != tile.height) {
+			int bytesPerPixel = bytes.length / Math.max(1, ww * hh);
+			byte[] resized = new byte[tile.width * tile.height * bytesPerPixel];
+			PyramidTileStore.copyRegion(bytes, ww, 0, 0, resized, tile.width, 0, 0,
+					Math.min(ww, tile.width), Math.min(hh, tile.height), bytesPerPixel);
+			bytes = resized;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Location of a tile within the pyramid.
+	 */
+	private static class TileRequest {
+		
+		private final int level, plane;
+		private final int tileX, tileY;
+		private final int x, y, width, height;
+		
+		TileRequest(final int level, final int plane, final int tileX, final int tileY, final int x, final int y, final int width, final int height) {
+			this.level = level;
+			this.plane = plane;
+			this.tileX = tileX;
+			this.tileY = tileY;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+		
+	}
+	
+	/**
+	 * Tile that has been submitted for processing, but not yet written.
+	 */
+	private static class PendingTile {
+		
+		private final TileRequest tile;
+		private final IFD ifd;
+		private final Future<byte[]> future;
+		
+		PendingTile(final TileRequest tile, final IFD ifd, final Future<byte[]> future) {
+			this.tile = tile;
+			this.ifd = ifd;
+			this.future = future;
+		}
+		
 	}
 
 	/**
@@ -513,6 +696,20 @@ public class OMEPyramidWriter {
 			return this;
 		}
 
+		/**
+		 * Specify the number of threads used to read, downsample and convert tiles.
+		 * Tiles are always written to the file in order.
+		 * <p>
+		 * By default, this is the number of available processors.
+		 * 
+		 * @param nThreads
+		 * @return
+		 */
+		public Builder parallelize(int nThreads) {
+			writer.nThreads = Math.max(1, nThreads);
+			return this;
+		}
+
 		/**
 		 * Create an OMEPyramidWriter to write the OME-TIFF.
 		 * @return
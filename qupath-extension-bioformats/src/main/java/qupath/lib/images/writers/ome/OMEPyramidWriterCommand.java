@@ -2,6 +2,7 @@ package qupath.lib.images.writers.ome;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.InterruptedIOException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -191,7 +192,7 @@ public class OMEPyramidWriterCommand implements PathCommand {
 				long endTime = System.currentTimeMillis();
 				logger.info(String.format("OME TIFF export to {} complete in %.1f seconds", (endTime - startTime)/1000.0), path);
 				DisplayHelpers.showInfoNotification("OME Pyramid writer", "OME TIFF export complete!");
-			} catch (ClosedByInterruptException e) {
+			} catch (ClosedByInterruptException | InterruptedIOException e) {
 				logger.warn("OME Pyramid writer closed by interrupt (possibly due to user cancelling it)", e);
 			} catch (Exception e) {
 				DisplayHelpers.showErrorMessage("OME Pyramid writer", e);
@@ -0,0 +1,230 @@
+package qupath.lib.images.writers.ome;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Temporary storage for downsampled tiles, used to derive a lower-resolution pyramid level 
+ * from the level that was written before it.
+ * <p>
+ * Tiles are stored as the same big-endian bytes that are passed to the TIFF writer, with samples interleaved.  
+ * They are kept in memory up to a maximum size, and afterwards written to a temporary file.
+ * Each tile is expected to be requested only once, and is removed when it is requested.
+ * <p>
+ * Static methods are also provided to downsample and combine tiles in this form.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class PyramidTileStore implements AutoCloseable {
+	
+	private static Logger logger = LoggerFactory.getLogger(PyramidTileStore.class);
+	
+	private final long maxMemoryBytes;
+	private final AtomicLong memoryBytes = new AtomicLong();
+	private final Map<String, byte[]> memoryTiles = new ConcurrentHashMap<>();
+	private final Map<String, long[]> fileTiles = new ConcurrentHashMap<>();
+	
+	private Path path;
+	private FileChannel channel;
+	private long fileLength = 0L;
+	
+	/**
+	 * Constructor.
+	 * @param maxMemoryBytes maximum number of bytes to store in memory, before using a temporary file
+	 */
+	PyramidTileStore(final long maxMemoryBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+	}
+	
+	/**
+	 * Create a key to identify a tile.
+	 * 
+	 * @param level pyramid level to which the stored tile will contribute
+	 * @param plane
+	 * @param tileX column of the tile that was downsampled
+	 * @param tileY row of the tile that was downsampled
+	 * @return
+	 */
+	static String getKey(final int level, final int plane, final int tileX, final int tileY) {
+		return level + ":" + plane + ":" + tileX + ":" + tileY;
+	}
+	
+	/**
+	 * Store the bytes for a tile.
+	 * @param key
+	 * @param bytes
+	 * @throws IOException
+	 */
+	void put(final String key, final byte[] bytes) throws IOException {
+		if (memoryBytes.addAndGet(bytes.length) <= maxMemoryBytes) {
+			memoryTiles.put(key, bytes);
+			return;
+		}
+		memoryBytes.addAndGet(-bytes.length);
+		long offset;
+		synchronized (this) {
+			if (channel == null) {
+				path = Files.createTempFile("qupath-pyramid-", ".tmp");
+				channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+				logger.debug("Writing downsampled tiles to {}", path);
+			}
+			offset = fileLength;
+			fileLength += bytes.length;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long position = offset;
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+		fileTiles.put(key, new long[] {offset, bytes.length});
+	}
+	
+	/**
+	 * Get the bytes for a tile, and remove the tile from the store.
+	 * @param key
+	 * @return the bytes, or null if the tile is not available
+	 * @throws IOException
+	 */
+	byte[] remove(final String key) throws IOException {
+		byte[] bytes = memoryTiles.remove(key);
+		if (bytes != null) {
+			memoryBytes.addAndGet(-bytes.length);
+			return bytes;
+		}
+		long[] location = fileTiles.remove(key);
+		if (location == null)
+			return null;
+		ByteBuffer buffer = ByteBuffer.allocate((int)location[1]);
+		long position = location[0];
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of temporary tile file " + path);
+			position += n;
+		}
+		return buffer.array();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		memoryTiles.clear();
+		fileTiles.clear();
+		if (channel != null) {
+			channel.close();
+			channel = null;
+			Files.deleteIfExists(path);
+		}
+	}
+	
+	
+	/**
+	 * Downsample a tile by an integer factor, averaging the pixels within each block.
+	 * If the width or height is not divisible by the factor, the last row or column of the output 
+	 * is averaged over the pixels that are available.
+	 * 
+	 * @param bytes big-endian pixel values, with samples interleaved
+	 * @param width
+	 * @param height
+	 * @param nSamples number of samples per pixel
+	 * @param bitsPerSample one of 8 (unsigned), 16 (unsigned), 32 (float) or 64 (double)
+	 * @param scale
+	 * @return the downsampled bytes, with dimensions ceil(width/scale) x ceil(height/scale)
+	 */
+	static byte[] downsample(final byte[] bytes, final int width, final int height, final int nSamples, final int bitsPerSample, final int scale) {
+		int w = (width + scale - 1) / scale;
+		int h = (height + scale - 1) / scale;
+		ByteBuffer input = ByteBuffer.wrap(bytes);
+		ByteBuffer output = ByteBuffer.allocate(w * h * nSamples * bitsPerSample / 8);
+		double[] sums = new double[w * nSamples];
+		for (int y = 0; y < h; y++) {
+			int y2 = Math.min(height, (y + 1) * scale);
+			for (int yy = y * scale; yy < y2; yy++) {
+				for (int xx = 0; xx < width; xx++) {
+					int ind = (xx / scale) * nSamples;
+					for (int s = 0; s < nSamples; s++)
+						sums[ind + s] += getValue(input, (yy * width + xx) * nSamples + s, bitsPerSample);
+				}
+			}
+			for (int x = 0; x < w; x++) {
+				int n = (Math.min(width, (x + 1) * scale) - x * scale) * (y2 - y * scale);
+				for (int s = 0; s < nSamples; s++) {
+					int ind = x * nSamples + s;
+					putValue(output, (y * w + x) * nSamples + s, bitsPerSample, sums[ind] / n);
+					sums[ind] = 0;
+				}
+			}
+		}
+		return output.array();
+	}
+	
+	private static double getValue(final ByteBuffer buffer, final int ind, final int bitsPerSample) {
+		switch (bitsPerSample) {
+		case 8:
+			return buffer.get(ind) & 0xff;
+		case 16:
+			return buffer.getShort(ind * 2) & 0xffff;
+		case 32:
+			return buffer.getFloat(ind * 4);
+		case 64:
+			return buffer.getDouble(ind * 8);
+		default:
+			throw new IllegalArgumentException("Unsupported bits per sample: " + bitsPerSample);
+		}
+	}
+
+	private static void putValue(final ByteBuffer buffer, final int ind, final int bitsPerSample, final double value) {
+		switch (bitsPerSample) {
+		case 8:
+			buffer.put(ind, (byte)Math.round(value));
+			break;
+		case 16:
+			buffer.putShort(ind * 2, (short)Math.round(value));
+			break;
+		case 32:
+			buffer.putFloat(ind * 4, (float)value);
+			break;
+		case 64:
+			buffer.putDouble(ind * 8, value);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported bits per sample: " + bitsPerSample);
+		}
+	}
+	
+	/**
+	 * Copy a rectangular region of pixels from one tile to another.
+	 * 
+	 * @param source
+	 * @param sourceWidth
+	 * @param sourceX
+	 * @param sourceY
+	 * @param dest
+	 * @param destWidth
+	 * @param destX
+	 * @param destY
+	 * @param width
+	 * @param height
+	 * @param bytesPerPixel
+	 */
+	static void copyRegion(final byte[] source, final int sourceWidth, final int sourceX, final int sourceY,
+			final byte[] dest, final int destWidth, final int destX, final int destY,
+			final int width, final int height, final int bytesPerPixel) {
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(
+					source, ((sourceY + y) * sourceWidth + sourceX) * bytesPerPixel,
+					dest, ((destY + y) * destWidth + destX) * bytesPerPixel,
+					width * bytesPerPixel);
+		}
+	}
+
+}
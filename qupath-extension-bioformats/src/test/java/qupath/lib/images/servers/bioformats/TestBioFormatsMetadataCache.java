@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * This file is part of a QuPath extension.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.bioformats;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.Test;
+
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServerMetadata;
+
+/**
+ * Tests for the on-disk cache of Bio-Formats server metadata.
+ * 
+ * @author Pete Bankhead
+ */
+public class TestBioFormatsMetadataCache {
+	
+	@Test
+	public void test_readWrite() throws IOException {
+		var options = BioFormatsServerOptions.getInstance();
+		boolean useCache = options.useMetadataCache();
+		String pathCache = options.getPathMetadataCache();
+		
+		Path dir = Files.createTempDirectory("qupath-metadata-cache");
+		File file = Files.createTempFile(dir, "image", ".tif").toFile();
+		Files.write(file.toPath(), new byte[] {1, 2, 3, 4});
+		var uri = file.toURI();
+		String filePath = file.getAbsolutePath();
+		try {
+			options.setUseMetadataCache(true);
+			options.setPathMetadataCache(dir.resolve("cache").toString());
+			
+			// Nothing cached yet
+			assertNull(BioFormatsMetadataCache.read(uri, filePath, options));
+			
+			var metadata = new ImageServerMetadata.Builder(BioFormatsImageServer.class, uri.toString(), 2048, 1024)
+					.levelsFromDownsamples(1, 4, 16)
+					.preferredTileSize(256, 256)
+					.channels(ImageChannel.getDefaultChannelList(3))
+					.pixelSizeMicrons(0.25, 0.25)
+					.name("Test image")
+					.build();
+			var cached = new BioFormatsMetadataCache.CachedServer(uri, filePath);
+			cached.series = 2;
+			cached.format = "Tagged Image File Format";
+			cached.readerClassName = "loci.formats.in.TiffReader";
+			cached.imageMap = Map.of("Test image", 2);
+			cached.metadata = metadata;
+			BioFormatsMetadataCache.write(uri, filePath, options, cached);
+			
+			var read = BioFormatsMetadataCache.read(uri, filePath, options);
+			assertNotNull(read);
+			assertEquals(2, read.series);
+			assertEquals(cached.format, read.format);
+			assertEquals(cached.readerClassName, read.readerClassName);
+			assertEquals(cached.imageMap, read.getImageMap());
+			assertNull(read.getAssociatedImageMap());
+			assertEquals(metadata.getName(), read.metadata.getName());
+			assertEquals(metadata.getServerClassName(), read.metadata.getServerClassName());
+			assertEquals(metadata.getLevels(), read.metadata.getLevels());
+			assertEquals(metadata.getPreferredTileWidth(), read.metadata.getPreferredTileWidth());
+			assertEquals(metadata.getPixelWidthMicrons(), read.metadata.getPixelWidthMicrons(), 0.0);
+			assertEquals(metadata.getChannels(), read.metadata.getChannels());
+			
+			// Disabling the cache means nothing is returned
+			options.setUseMetadataCache(false);
+			assertNull(BioFormatsMetadataCache.read(uri, filePath, options));
+			options.setUseMetadataCache(true);
+			
+			// Changing the file invalidates the entry
+			Files.write(file.toPath(), new byte[] {1, 2, 3, 4, 5});
+			assertNull(BioFormatsMetadataCache.read(uri, filePath, options));
+		} finally {
+			options.setUseMetadataCache(useCache);
+			options.setPathMetadataCache(pathCache);
+			try (var stream = Files.walk(dir)) {
+				stream.sorted((p1, p2) -> p2.compareTo(p1)).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+}
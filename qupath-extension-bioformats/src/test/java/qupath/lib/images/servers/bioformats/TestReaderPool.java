@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * This file is part of a QuPath extension.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.bioformats;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for the pool of readers used by the BioFormatsImageServer.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class TestReaderPool {
+	
+	static class DummyReader implements Closeable {
+		
+		private boolean closed = false;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+		
+	}
+
+	@Test
+	public void test_limits() throws Exception {
+		int maxPerFile = 3;
+		ReaderPool<DummyReader> pool = new ReaderPool<>(maxPerFile, 10, 60_000L);
+		AtomicInteger nCreated = new AtomicInteger();
+		AtomicInteger nLeased = new AtomicInteger();
+		AtomicInteger maxLeased = new AtomicInteger();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			futures.add(executor.submit(() -> {
+				DummyReader reader = pool.lease("file", () -> {
+					nCreated.incrementAndGet();
+					return new DummyReader();
+				});
+				assertFalse(reader.closed);
+				maxLeased.accumulateAndGet(nLeased.incrementAndGet(), Math::max);
+				Thread.sleep(1);
+				nLeased.decrementAndGet();
+				assertTrue(pool.release(reader));
+				return null;
+			}));
+		}
+		for (Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		
+		assertTrue(maxLeased.get() <= maxPerFile);
+		assertTrue(nCreated.get() <= maxPerFile);
+		ReaderPool.Statistics stats = pool.getStatistics();
+		assertEquals(200, stats.getLeaseCount());
+		assertEquals(0, stats.getLeasedCount());
+		assertEquals(nCreated.get(), stats.getOpenCount());
+		
+		// Releasing a reader that wasn't leased should have no effect
+		assertFalse(pool.release(new DummyReader()));
+	}
+	
+	@Test
+	public void test_affinity() throws Exception {
+		ReaderPool<DummyReader> pool = new ReaderPool<>(4, 4, 60_000L);
+		List<DummyReader> readers = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			readers.add(pool.lease("file", () -> new DummyReader()));
+		// Release readers from different threads, so that the current thread used the first one last
+		for (int i = 2; i >= 1; i--) {
+			DummyReader reader = readers.get(i);
+			Thread thread = new Thread(() -> pool.release(reader));
+			thread.start();
+			thread.join();
+		}
+		pool.release(readers.get(0));
+		// Most recently used reader is preferred... but the current thread's last reader comes first
+		assertSame(readers.get(0), pool.lease("file", () -> new DummyReader()));
+		assertEquals(1, pool.getStatistics().getAffinityLeaseCount());
+	}
+	
+	@Test
+	public void test_closing() throws Exception {
+		// Use a total limit of 2, so that leasing a reader for a new file needs to close an idle reader
+		ReaderPool<DummyReader> pool = new ReaderPool<>(2, 2, 60_000L);
+		DummyReader reader1 = pool.lease("file1", () -> new DummyReader());
+		DummyReader reader2 = pool.lease("file1", () -> new DummyReader());
+		pool.release(reader1);
+		DummyReader reader3 = pool.lease("file2", () -> new DummyReader());
+		assertTrue(reader1.closed);
+		assertEquals(2, pool.getStatistics().getOpenCount());
+		
+		// Leased readers should only be closed when they are released
+		pool.closeReaders("file1");
+		assertFalse(reader2.closed);
+		pool.release(reader2);
+		assertTrue(reader2.closed);
+		
+		pool.release(reader3);
+		pool.closeAll();
+		assertTrue(reader3.closed);
+		assertEquals(0, pool.getStatistics().getOpenCount());
+		
+		// Idle readers should be closed after the timeout
+		pool = new ReaderPool<>(2, 2, 0L);
+		DummyReader reader4 = pool.lease("file", () -> new DummyReader());
+		pool.release(reader4);
+		Thread.sleep(5);
+		DummyReader reader5 = pool.lease("file", () -> new DummyReader());
+		assertTrue(reader4.closed);
+		assertNotSame(reader4, reader5);
+	}
+
+}
@@ -0,0 +1,57 @@
+package qupath.lib.images.writers.ome;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestPyramidTileStore {
+
+	@Test
+	public void test_downsample() {
+		// 3x3 pixels, 16-bit, downsampled by 2 - the last row & column are averaged over fewer pixels
+		int[] values = {
+				0, 2, 10,
+				4, 6, 20,
+				100, 200, 65535
+		};
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+		for (int v : values)
+			buffer.putShort((short)v);
+		byte[] output = PyramidTileStore.downsample(buffer.array(), 3, 3, 1, 16, 2);
+		ByteBuffer result = ByteBuffer.wrap(output);
+		assertEquals(8, output.length);
+		assertEquals(3, result.getShort(0) & 0xffff);
+		assertEquals(15, result.getShort(2) & 0xffff);
+		assertEquals(150, result.getShort(4) & 0xffff);
+		assertEquals(65535, result.getShort(6) & 0xffff);
+		
+		// Interleaved RGB samples should be averaged separately
+		byte[] rgb = {
+				10, 20, (byte)200, 30, 40, (byte)220,
+				10, 20, (byte)200, 30, 40, (byte)220
+		};
+		assertArrayEquals(new byte[] {20, 30, (byte)210}, PyramidTileStore.downsample(rgb, 2, 2, 3, 8, 2));
+	}
+
+	@Test
+	public void test_store() throws IOException {
+		// Use no memory, so that tiles are written to a temporary file
+		try (PyramidTileStore store = new PyramidTileStore(0L)) {
+			for (int i = 0; i < 10; i++) {
+				byte[] bytes = new byte[100 + i];
+				bytes[i] = (byte)i;
+				store.put(PyramidTileStore.getKey(1, 0, i, 0), bytes);
+			}
+			for (int i = 9; i >= 0; i--) {
+				byte[] bytes = store.remove(PyramidTileStore.getKey(1, 0, i, 0));
+				assertEquals(100 + i, bytes.length);
+				assertEquals(i, bytes[i]);
+			}
+			assertNull(store.remove(PyramidTileStore.getKey(1, 0, 0, 0)));
+		}
+	}
+
+}
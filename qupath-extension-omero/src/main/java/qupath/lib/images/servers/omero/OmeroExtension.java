@@ -0,0 +1,79 @@
+package qupath.lib.images.servers.omero;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import qupath.lib.gui.QuPathGUI;
+import qupath.lib.gui.extensions.QuPathExtension;
+import qupath.lib.gui.helpers.DisplayHelpers;
+import qupath.lib.gui.panels.PreferencePanel;
+import qupath.lib.gui.prefs.PathPrefs;
+
+/**
+ * A QuPath extension that adds commands and preferences relating to OMERO web servers.
+ * 
+ * @author Pete Bankhead
+ */
+public class OmeroExtension implements QuPathExtension {
+	
+	final private static Logger logger = LoggerFactory.getLogger(OmeroExtension.class);
+
+	@Override
+	public void installExtension(QuPathGUI qupath) {
+		QuPathGUI.addMenuItems(
+				qupath.getMenu("Extensions>OMERO", true),
+				QuPathGUI.createCommandAction(() -> clearCache(), "Clear OMERO tile cache"));
+		
+		// Create persistent properties & apply any values previously stored
+		BooleanProperty useTileCache = PathPrefs.createPersistentPreference("omeroUseTileCache", true);
+		IntegerProperty tileCacheSizeMB = PathPrefs.createPersistentPreference("omeroTileCacheSizeMB", OmeroHttpClient.DEFAULT_MAX_CACHE_SIZE_MB);
+		
+		OmeroHttpClient client = OmeroHttpClient.getDefaultClient();
+		client.setCacheEnabled(useTileCache.get());
+		client.setMaxCacheSizeBytes(tileCacheSizeMB.get() * 1024L * 1024L);
+		
+		// Listen for property changes
+		useTileCache.addListener((v, o, n) -> client.setCacheEnabled(n));
+		tileCacheSizeMB.addListener((v, o, n) -> client.setMaxCacheSizeBytes(n.intValue() * 1024L * 1024L));
+		
+		// Add preferences to the preference pane
+		PreferencePanel prefs = qupath.getPreferencePanel();
+		prefs.addPropertyPreference(useTileCache, Boolean.class, "Use OMERO tile cache", "OMERO", 
+				"Store image tiles requested from OMERO web servers in a cache within the QuPath user directory, so they need not be requested again");
+		prefs.addPropertyPreference(tileCacheSizeMB, Integer.class, "OMERO tile cache size (MB)", "OMERO", 
+				"Maximum size of the OMERO tile cache; the least recently used tiles are deleted whenever it grows larger than this (set <= 0 for no limit).\n"
+				+ "The cache can be cleared with 'Extensions > OMERO > Clear OMERO tile cache'");
+	}
+	
+	private static void clearCache() {
+		OmeroHttpClient client = OmeroHttpClient.getDefaultClient();
+		if (client.getCacheDirectory() == null) {
+			DisplayHelpers.showErrorMessage("Clear OMERO tile cache", "No OMERO tile cache found - please set a QuPath user directory to use one");
+			return;
+		}
+		if (!DisplayHelpers.showConfirmDialog("Clear OMERO tile cache", "Delete all cached OMERO tiles from\n" + client.getCacheDirectory() + "?"))
+			return;
+		try {
+			client.clearCache();
+			DisplayHelpers.showInfoNotification("Clear OMERO tile cache", "OMERO tile cache cleared");
+		} catch (IOException e) {
+			logger.error("Unable to clear OMERO tile cache", e);
+			DisplayHelpers.showErrorMessage("Clear OMERO tile cache", e);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "OMERO extension";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Adds commands for working with images hosted by OMERO web servers";
+	}
+
+}
@@ -0,0 +1,484 @@
+package qupath.lib.images.servers.omero;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.CookieHandler;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.SimpleThreadFactory;
+import qupath.lib.gui.prefs.PathPrefs;
+
+/**
+ * Helper class to make HTTP requests to an OMERO web server.
+ * <p>
+ * This is intended especially for requesting image tiles.  Compared to opening a new connection for each tile, it
+ * <ul>
+ *   <li>reuses connections (via a shared {@link HttpClient})</li>
+ *   <li>limits the number of requests in progress for each host</li>
+ *   <li>combines concurrent requests for the same URI, so that the server is only asked once</li>
+ *   <li>applies a timeout, and retries requests that fail for reasons that may be temporary</li>
+ *   <li>optionally stores images in a persistent cache on disk, so that they need not be requested again</li>
+ * </ul>
+ * The persistent cache can be limited in size, in which case the least recently used images are deleted 
+ * (based upon the time each file was last modified, which is updated whenever an image is read from the cache).
+ * Cookies are handled by the default {@link CookieHandler}, so that requests are made using the session
+ * established by {@link OmeroWebImageServerBuilder}.
+ *
+ * @author Pete Bankhead
+ */
+class OmeroHttpClient {
+
+	private final static Logger logger = LoggerFactory.getLogger(OmeroHttpClient.class);
+
+	static final int DEFAULT_MAX_REQUESTS_PER_HOST = 6;
+	static final int DEFAULT_MAX_ATTEMPTS = 3;
+	static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+	static final int DEFAULT_MAX_CACHE_SIZE_MB = 2048;
+
+	/**
+	 * Delay before the first retry; this is doubled for each subsequent attempt.
+	 */
+	private static final long RETRY_DELAY_MILLIS = 250L;
+
+	/**
+	 * When the cache exceeds its maximum size, images are deleted until it is below this proportion of the maximum - 
+	 * so that it isn't necessary to prune the cache again for every new image.
+	 */
+	private static final double PRUNE_TARGET_PROPORTION = 0.9;
+
+	private static OmeroHttpClient defaultClient;
+
+	private final HttpClient client;
+	private final int maxRequestsPerHost;
+	private final int maxAttempts;
+	private final Duration timeout;
+	private final Path cacheDirectory;
+
+	private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+	private final Map<URI, CompletableFuture<byte[]>> pendingRequests = new ConcurrentHashMap<>();
+
+	private volatile boolean cacheEnabled = true;
+	private volatile long maxCacheSizeBytes = -1L;
+	// Estimated size of the cache, or -1 if unknown (in which case the directory needs to be checked)
+	private final AtomicLong cacheSizeBytes = new AtomicLong(-1L);
+	private final AtomicBoolean pruneRequested = new AtomicBoolean(false);
+	private final ExecutorService pruneExecutor = Executors.newSingleThreadExecutor(new SimpleThreadFactory("omero-cache-", true));
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxRequestsPerHost maximum number of requests in progress for any host
+	 * @param maxAttempts maximum number of attempts for each request, including the first
+	 * @param timeout timeout for connecting and for each request
+	 * @param cacheDirectory directory used to cache images, or null if images should not be cached
+	 */
+	OmeroHttpClient(final int maxRequestsPerHost, final int maxAttempts, final Duration timeout, final Path cacheDirectory) {
+		this.maxRequestsPerHost = maxRequestsPerHost;
+		this.maxAttempts = maxAttempts;
+		this.timeout = timeout;
+		this.cacheDirectory = cacheDirectory;
+		this.client = HttpClient.newBuilder()
+				.connectTimeout(timeout)
+				.followRedirects(Redirect.NORMAL)
+				.cookieHandler(new DefaultCookieHandler())
+				.build();
+	}
+
+	/**
+	 * Get the client shared by all OMERO web servers.
+	 * Images are cached in the QuPath user directory, if one has been set, up to {@link #DEFAULT_MAX_CACHE_SIZE_MB} 
+	 * unless the cache is configured otherwise (e.g. by the {@link OmeroExtension} preferences).
+	 *
+	 * @return
+	 */
+	static synchronized OmeroHttpClient getDefaultClient() {
+		if (defaultClient == null) {
+			String userPath = PathPrefs.getUserPath();
+			Path cacheDirectory = userPath == null ? null : Paths.get(userPath, "cache", "omero");
+			OmeroHttpClient client = new OmeroHttpClient(DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_MAX_ATTEMPTS, DEFAULT_TIMEOUT, cacheDirectory);
+			client.setMaxCacheSizeBytes(DEFAULT_MAX_CACHE_SIZE_MB * 1024L * 1024L);
+			defaultClient = client;
+		}
+		return defaultClient;
+	}
+
+	/**
+	 * Get the directory used to cache images, or null if images are not cached.
+	 *
+	 * @return
+	 */
+	Path getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * Set whether the persistent cache should be used.  If not, existing images in the cache are retained but ignored.
+	 *
+	 * @param enabled
+	 */
+	void setCacheEnabled(final boolean enabled) {
+		this.cacheEnabled = enabled;
+	}
+
+	/**
+	 * Returns true if images are stored in a persistent cache.
+	 *
+	 * @return
+	 */
+	boolean isCacheEnabled() {
+		return cacheEnabled && cacheDirectory != null;
+	}
+
+	/**
+	 * Set the maximum size of the persistent cache, pruning the cache if it is already larger.
+	 *
+	 * @param maxBytes the maximum size in bytes, or &lt;= 0 if the size should not be limited
+	 */
+	void setMaxCacheSizeBytes(final long maxBytes) {
+		this.maxCacheSizeBytes = maxBytes;
+		if (maxBytes > 0 && isCacheEnabled())
+			requestPrune();
+	}
+
+	/**
+	 * Get the maximum size of the persistent cache.
+	 *
+	 * @return the maximum size in bytes, or &lt;= 0 if the size is not limited
+	 */
+	long getMaxCacheSizeBytes() {
+		return maxCacheSizeBytes;
+	}
+
+	/**
+	 * Delete all images from the persistent cache.
+	 *
+	 * @throws IOException if the cache could not be deleted
+	 */
+	void clearCache() throws IOException {
+		if (cacheDirectory == null || !Files.isDirectory(cacheDirectory))
+			return;
+		logger.info("Clearing OMERO image cache at {}", cacheDirectory);
+		try (Stream<Path> paths = Files.walk(cacheDirectory)) {
+			// Delete files before the directories containing them, but keep the cache directory itself
+			for (Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator) {
+				if (!path.equals(cacheDirectory))
+					Files.deleteIfExists(path);
+			}
+		}
+		cacheSizeBytes.set(0L);
+	}
+
+	/**
+	 * Request the contents of a URI, without using the persistent cache.
+	 *
+	 * @param uri
+	 * @return
+	 * @throws IOException
+	 */
+	byte[] get(final URI uri) throws IOException {
+		return get(uri, null);
+	}
+
+	/**
+	 * Request an image, using the persistent cache if possible.
+	 *
+	 * @param uri the URI for the image
+	 * @param cacheKey a key identifying the image in the cache (e.g. based on image ID, resolution level &amp; region), or null if the cache should not be used
+	 * @return the image, or null if it could not be decoded
+	 * @throws IOException
+	 */
+	BufferedImage readImage(final URI uri, final String cacheKey) throws IOException {
+		byte[] bytes = get(uri, cacheKey);
+		return ImageIO.read(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Request the contents of a URI, using the persistent cache if possible.
+	 * <p>
+	 * If a request for the same URI is already in progress, this waits for its result rather than making a new request.
+	 *
+	 * @param uri
+	 * @param cacheKey a key identifying the response in the cache, or null if the cache should not be used
+	 * @return
+	 * @throws IOException
+	 */
+	byte[] get(final URI uri, final String cacheKey) throws IOException {
+		Path path = getCachePath(cacheKey);
+		byte[] bytes = readCache(path);
+		if (bytes != null)
+			return bytes;
+
+		while (true) {
+			CompletableFuture<byte[]> future = new CompletableFuture<>();
+			CompletableFuture<byte[]> pending = pendingRequests.putIfAbsent(uri, future);
+			if (pending == null)
+				return request(uri, path, future);
+			try {
+				return pending.get();
+			} catch (InterruptedException e) {
+				throw interrupted(uri, e);
+			} catch (ExecutionException e) {
+				// If the other request was interrupted, we should try again ourselves
+				Throwable cause = e.getCause();
+				if (cause instanceof InterruptedIOException)
+					continue;
+				if (cause instanceof IOException)
+					throw new IOException(cause.getLocalizedMessage(), cause);
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Make a request, passing the result to any other threads waiting on the future.
+	 */
+	private byte[] request(final URI uri, final Path path, final CompletableFuture<byte[]> future) throws IOException {
+		try {
+			HttpResponse<byte[]> response = send(uri);
+			byte[] bytes = response.body();
+			// Only cache images, since anything else is likely to be an error page
+			String contentType = response.headers().firstValue("Content-Type").orElse("");
+			if (path != null && contentType.startsWith("image/"))
+				writeCache(path, bytes);
+			future.complete(bytes);
+			return bytes;
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			pendingRequests.remove(uri, future);
+		}
+	}
+
+	/**
+	 * Send a GET request, limiting the number of requests per host and retrying if necessary.
+	 */
+	private HttpResponse<byte[]> send(final URI uri) throws IOException {
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.timeout(timeout)
+				.GET()
+				.build();
+		Semaphore permits = hostPermits.computeIfAbsent(uri.getHost() + ":" + uri.getPort(), h -> new Semaphore(maxRequestsPerHost, true));
+		IOException lastException = null;
+		for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+			try {
+				if (attempt > 1)
+					Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 2));
+				permits.acquire();
+			} catch (InterruptedException e) {
+				throw interrupted(uri, e);
+			}
+			HttpResponse<byte[]> response;
+			try {
+				response = client.send(request, BodyHandlers.ofByteArray());
+			} catch (InterruptedException e) {
+				throw interrupted(uri, e);
+			} catch (IOException e) {
+				logger.debug("Request {} failed on attempt {} ({})", uri, attempt, e.getLocalizedMessage());
+				lastException = e;
+				continue;
+			} finally {
+				permits.release();
+			}
+			int status = response.statusCode();
+			if (status == 200)
+				return response;
+			lastException = new IOException("Request " + uri + " failed with status code " + status);
+			if (!isRetryable(status))
+				throw lastException;
+			logger.debug("Request {} failed on attempt {} with status code {}", uri, attempt, status);
+		}
+		throw lastException;
+	}
+
+	private static boolean isRetryable(final int status) {
+		return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+	}
+
+	private static InterruptedIOException interrupted(final URI uri, final InterruptedException e) {
+		Thread.currentThread().interrupt();
+		InterruptedIOException e2 = new InterruptedIOException("Interrupted while requesting " + uri);
+		e2.initCause(e);
+		return e2;
+	}
+
+	/**
+	 * Get the path for a cache entry, or null if there is no cache.
+	 * The key is split into directories at each '/'.
+	 */
+	private Path getCachePath(final String cacheKey) {
+		if (!isCacheEnabled() || cacheKey == null)
+			return null;
+		Path path = cacheDirectory;
+		for (String name : cacheKey.split("/")) {
+			if (!name.isEmpty() && !name.equals(".") && !name.equals(".."))
+				path = path.resolve(name.replaceAll("[^A-Za-z0-9._-]", "_"));
+		}
+		return path;
+	}
+
+	private static byte[] readCache(final Path path) {
+		if (path == null || !Files.isRegularFile(path))
+			return null;
+		try {
+			byte[] bytes = Files.readAllBytes(path);
+			// Record that the image has been used, so that it is retained when the cache is pruned
+			try {
+				Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException e) {
+				logger.debug("Unable to update last modified time for {}", path);
+			}
+			return bytes;
+		} catch (IOException e) {
+			logger.warn("Unable to read cached image from {} ({})", path, e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	private void writeCache(final Path path, final byte[] bytes) {
+		Path dir = path.getParent();
+		Path pathTemp = null;
+		try {
+			Files.createDirectories(dir);
+			// Write to a temp file first, so that concurrent readers never see a partial entry
+			pathTemp = Files.createTempFile(dir, "tile-", ".tmp");
+			Files.write(pathTemp, bytes);
+			Files.move(pathTemp, path, StandardCopyOption.REPLACE_EXISTING);
+			long maxBytes = maxCacheSizeBytes;
+			if (maxBytes > 0) {
+				long size = cacheSizeBytes.get();
+				if (size < 0 || cacheSizeBytes.addAndGet(bytes.length) > maxBytes)
+					requestPrune();
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to write cached image to {} ({})", path, e.getLocalizedMessage());
+			try {
+				if (pathTemp != null)
+					Files.deleteIfExists(pathTemp);
+			} catch (IOException e2) {
+				logger.debug("Unable to delete {}", pathTemp);
+			}
+		}
+	}
+
+
+	/**
+	 * Prune the cache in the background, unless this has already been requested.
+	 */
+	private void requestPrune() {
+		if (pruneRequested.compareAndSet(false, true)) {
+			pruneExecutor.execute(() -> {
+				pruneRequested.set(false);
+				pruneCache();
+			});
+		}
+	}
+
+	/**
+	 * Delete the least recently used images from the persistent cache, if it is larger than the maximum size.
+	 * This also updates the estimated size of the cache.
+	 */
+	void pruneCache() {
+		if (cacheDirectory == null || !Files.isDirectory(cacheDirectory))
+			return;
+		List<Path> paths = new ArrayList<>();
+		Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+		long total = 0L;
+		try (Stream<Path> stream = Files.walk(cacheDirectory)) {
+			for (Path path : (Iterable<Path>)stream::iterator) {
+				try {
+					BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
+					if (!attr.isRegularFile() || path.getFileName().toString().endsWith(".tmp"))
+						continue;
+					paths.add(path);
+					attributes.put(path, attr);
+					total += attr.size();
+				} catch (IOException e) {
+					// The file may have been deleted
+					logger.trace("Unable to read attributes for {}", path);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Unable to check OMERO image cache size ({})", e.getLocalizedMessage());
+			return;
+		}
+		long maxBytes = maxCacheSizeBytes;
+		if (maxBytes > 0 && total > maxBytes) {
+			long targetBytes = (long)(maxBytes * PRUNE_TARGET_PROPORTION);
+			paths.sort(Comparator.comparing(p -> attributes.get(p).lastModifiedTime()));
+			int nDeleted = 0;
+			for (Path path : paths) {
+				if (total <= targetBytes)
+					break;
+				try {
+					if (Files.deleteIfExists(path))
+						nDeleted++;
+					total -= attributes.get(path).size();
+				} catch (IOException e) {
+					logger.debug("Unable to delete {} ({})", path, e.getLocalizedMessage());
+				}
+			}
+			logger.debug("Deleted {} images from OMERO image cache ({} MB remaining)", nDeleted, total / (1024 * 1024));
+		}
+		cacheSizeBytes.set(total);
+	}
+
+
+	/**
+	 * Cookie handler that delegates to the current default handler, since this may be set after the client is created
+	 * (e.g. when logging in).
+	 */
+	private static class DefaultCookieHandler extends CookieHandler {
+
+		@Override
+		public Map<String, List<String>> get(URI uri, Map<String, List<String>> requestHeaders) throws IOException {
+			CookieHandler handler = CookieHandler.getDefault();
+			if (handler == null)
+				return Collections.emptyMap();
+			return handler.get(uri, requestHeaders);
+		}
+
+		@Override
+		public void put(URI uri, Map<String, List<String>> responseHeaders) throws IOException {
+			CookieHandler handler = CookieHandler.getDefault();
+			if (handler != null)
+				handler.put(uri, responseHeaders);
+		}
+
+	}
+
+}
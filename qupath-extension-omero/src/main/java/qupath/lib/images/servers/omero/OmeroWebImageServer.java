@@ -1,18 +1,18 @@
 package qupath.lib.images.servers.omero;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.URL;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.imageio.ImageIO;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +46,9 @@ public class OmeroWebImageServer extends AbstractTileableImageServer {
 
 	private final String host;
 	private final String scheme;
+	private final int port;
+
+	private final OmeroHttpClient httpClient;
 
 	/**
 	 * Quality of requested JPEG.
@@ -59,10 +62,16 @@ public class OmeroWebImageServer extends AbstractTileableImageServer {
 	private static int OMERO_MAX_SIZE = 1024;
 
 	protected OmeroWebImageServer(URI uri, OmeroWebClient client) throws IOException {
+		this(uri, client, OmeroHttpClient.getDefaultClient());
+	}
+
+	OmeroWebImageServer(URI uri, OmeroWebClient client, OmeroHttpClient httpClient) throws IOException {
 		super();
 
 		this.scheme = uri.getScheme();
 		this.host = uri.getHost();
+		this.port = uri.getPort();
+		this.httpClient = httpClient;
 
 		/*
 		 * Try to parse the ID.
@@ -97,13 +106,12 @@ public class OmeroWebImageServer extends AbstractTileableImageServer {
 		double magnification = Double.NaN;
 
 
-		URL urlMetadata = new URL(
-				scheme, host, -1, "/webgateway/imgData/" + id
-				);
+		URI uriMetadata = createURI("/webgateway/imgData/" + id, null);
 
-		InputStreamReader reader = new InputStreamReader(urlMetadata.openStream());
-		JsonObject map = new Gson().fromJson(reader, JsonObject.class);
-		reader.close();
+		JsonObject map;
+		try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(httpClient.get(uriMetadata)), StandardCharsets.UTF_8)) {
+			map = new Gson().fromJson(reader, JsonObject.class);
+		}
 
 		JsonObject size = map.getAsJsonObject("size");
 
@@ -202,12 +210,10 @@ public class OmeroWebImageServer extends AbstractTileableImageServer {
 		//				);
 
 		// Options are: Rectangle, Ellipse, Point, Line, Polyline, Polygon and Label
-		URL urlROIs = new URL(
-				scheme, host, -1, "/api/v0/m/rois/?image=" + id
-				);
+		URI uriROIs = createURI("/api/v0/m/rois/", "image=" + id);
 
 		List<PathObject> list = new ArrayList<>();
-		try (InputStreamReader reader = new InputStreamReader(urlROIs.openStream())) {
+		try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(httpClient.get(uriROIs)), StandardCharsets.UTF_8)) {
 			JsonArray roisJson = new Gson().fromJson(reader, JsonObject.class).getAsJsonObject().getAsJsonArray("data");
 			for (int i = 0; i < roisJson.size(); i++) {
 				JsonObject roiJson = roisJson.get(i).getAsJsonObject();
@@ -315,7 +321,11 @@ public class OmeroWebImageServer extends AbstractTileableImageServer {
 		int targetWidth = request.getTileWidth();
 		int targetHeight = request.getTileHeight();
 
-		String urlFile;
+		String path = "/webgateway/render_image_region/" + id + 
+				"/" + request.getZ() + 
+				"/" + request.getT() + "/";
+		String query;
+		String cacheKey;
 
 		if (nResolutions() > 1) {
 			int x = (int)(request.getTileX() / getPreferredTileWidth());
@@ -348,19 +358,10 @@ public class OmeroWebImageServer extends AbstractTileableImageServer {
 //				return img;
 //			}		
 
-			urlFile = "/webgateway/render_image_region/" + id + 
-					"/" + request.getZ() + 
-					"/" + request.getT() +
-					"/?tile=" + level + "," + x + "," + y + "," + width + "," + height +
-					"&c=1|0:255$FF0000,2|0:255$00FF00,3|0:255$0000FF" +
-					"&maps=[{%22inverted%22:{%22enabled%22:false}},{%22inverted%22:{%22enabled%22:false}},{%22inverted%22:{%22enabled%22:false}}]" +
-					"&m=c&p=normal&q=" + QUALITY;
+			query = "tile=" + level + "," + x + "," + y + "," + width + "," + height + getRenderingQuery();
+			cacheKey = getCacheKeyPrefix(request) + "tile-" + level + "-" + x + "-" + y + "-" + width + "-" + height + "-q" + QUALITY + ".jpg";
 
-			URL url = new URL(scheme, host, urlFile);
-
-			BufferedImage img = ImageIO.read(url);
-
-			return img;
+			return httpClient.readImage(createURI(path, query), cacheKey);
 
 		} else {
 			int x = request.getTileX();
@@ -370,21 +371,40 @@ public class OmeroWebImageServer extends AbstractTileableImageServer {
 			int width = getPreferredTileWidth();
 			int height = getPreferredTileHeight();
 
-			urlFile = "/webgateway/render_image_region/" + id + 
-					"/" + request.getZ() + 
-					"/" + request.getT() +
-					"/?region=" + x + "," + y + "," + width + "," + height +
-					"&c=1|0:255$FF0000,2|0:255$00FF00,3|0:255$0000FF" +
-					"&maps=[{%22inverted%22:{%22enabled%22:false}},{%22inverted%22:{%22enabled%22:false}},{%22inverted%22:{%22enabled%22:false}}]" +
-					"&m=c&p=normal&q=" + QUALITY;			
+			query = "region=" + x + "," + y + "," + width + "," + height + getRenderingQuery();
+			cacheKey = getCacheKeyPrefix(request) + "region-" + x + "-" + y + "-" + width + "-" + height + "-q" + QUALITY + ".jpg";
 		}
 
+		BufferedImage img = httpClient.readImage(createURI(path, query), cacheKey);
+
+		return resize(img, targetWidth, targetHeight);
+	}
 
-		URL url = new URL(scheme, host, urlFile);
+	/**
+	 * Get the part of the query that determines how tiles are rendered.
+	 */
+	private static String getRenderingQuery() {
+		return "&c=1|0:255$FF0000,2|0:255$00FF00,3|0:255$0000FF" +
+				"&maps=[{\"inverted\":{\"enabled\":false}},{\"inverted\":{\"enabled\":false}},{\"inverted\":{\"enabled\":false}}]" +
+				"&m=c&p=normal&q=" + QUALITY;
+	}
 
-		BufferedImage img = ImageIO.read(url);
+	/**
+	 * Get the start of the key used to cache tiles, identifying the host, image &amp; plane.
+	 */
+	private String getCacheKeyPrefix(TileRequest request) {
+		return (port < 0 ? host : host + "-" + port) + "/" + id + "/z" + request.getZ() + "-t" + request.getT() + "/";
+	}
 
-		return resize(img, targetWidth, targetHeight);
+	/**
+	 * Create a URI for this server.  Any characters that are not permitted in the path or query are encoded.
+	 */
+	private URI createURI(String path, String query) throws IOException {
+		try {
+			return new URI(scheme, null, host, port, path, query, null);
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
 	}
 
 }
@@ -0,0 +1,349 @@
+package qupath.lib.images.servers.omero;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Tests for {@link OmeroHttpClient}, using a local server that mimics the OMERO webgateway.
+ *
+ * @author Pete Bankhead
+ *
+ */
+public class TestOmeroHttpClient {
+
+	private static final int IMAGE_WIDTH = 600;
+	private static final int IMAGE_HEIGHT = 400;
+	private static final int TILE_SIZE = 256;
+
+	private HttpServer server;
+	private ExecutorService pool;
+	private Path cacheDirectory;
+
+	private Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+	private AtomicInteger concurrentRequests = new AtomicInteger();
+	private AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+	private volatile long delayMillis = 0;
+	private volatile CountDownLatch releaseLatch = null;
+	private volatile int nFailures = 0;
+	private volatile int failureStatus = 503;
+
+	@Before
+	public void startServer() throws IOException {
+		cacheDirectory = Files.createTempDirectory("omero-cache");
+		pool = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/webgateway/imgData/", this::handleMetadata);
+		server.createContext("/webgateway/render_image_region/", this::handleRegion);
+		server.createContext("/text/", e -> respond(e, 200, "text/plain", "Some text".getBytes(StandardCharsets.UTF_8)));
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		server.stop(0);
+		pool.shutdownNow();
+		try (var paths = Files.walk(cacheDirectory)) {
+			for (Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator)
+				Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void test_coalesceRequests() throws Exception {
+		OmeroHttpClient client = createClient(6, 1, null);
+		URI uri = createRegionURI(0, 0);
+		releaseLatch = new CountDownLatch(1);
+
+		List<Future<byte[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 8; i++)
+			futures.add(pool.submit(() -> client.get(uri)));
+		// Give all the requests time to start before the server responds
+		Thread.sleep(500);
+		releaseLatch.countDown();
+
+		byte[] expected = futures.get(0).get(10, TimeUnit.SECONDS);
+		for (Future<byte[]> future : futures)
+			assertArrayEquals(expected, future.get(10, TimeUnit.SECONDS));
+		assertEquals(1, getRequestCount(uri));
+	}
+
+	@Test
+	public void test_limitRequestsPerHost() throws Exception {
+		OmeroHttpClient client = createClient(2, 1, null);
+		delayMillis = 100;
+
+		List<Future<byte[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			URI uri = createRegionURI(i * 10, 0);
+			futures.add(pool.submit(() -> client.get(uri)));
+		}
+		for (Future<byte[]> future : futures)
+			assertNotNull(future.get(10, TimeUnit.SECONDS));
+		assertTrue(maxConcurrentRequests.get() <= 2);
+		assertEquals(8, requestCounts.size());
+	}
+
+	@Test
+	public void test_retry() throws Exception {
+		URI uri = createRegionURI(0, 0);
+
+		// Temporary failures should be retried
+		nFailures = 2;
+		failureStatus = 503;
+		assertNotNull(createClient(6, 3, null).get(uri));
+		assertEquals(3, getRequestCount(uri));
+
+		// Too many temporary failures should fail
+		requestCounts.clear();
+		nFailures = 3;
+		try {
+			createClient(6, 2, null).get(uri);
+			fail("Request should fail after 2 attempts");
+		} catch (IOException e) {}
+		assertEquals(2, getRequestCount(uri));
+
+		// Other failures shouldn't be retried
+		requestCounts.clear();
+		nFailures = 1;
+		failureStatus = 404;
+		try {
+			createClient(6, 3, null).get(uri);
+			fail("Request should fail with status 404");
+		} catch (IOException e) {}
+		assertEquals(1, getRequestCount(uri));
+	}
+
+	@Test
+	public void test_persistentCache() throws Exception {
+		URI uri = createRegionURI(0, 0);
+		String key = "host/1/z0-t0/region-0-0-256-256.png";
+
+		BufferedImage img = createClient(6, 1, cacheDirectory).readImage(uri, key);
+		assertEquals(TILE_SIZE, img.getWidth());
+		assertEquals(1, getRequestCount(uri));
+		assertTrue(Files.isRegularFile(cacheDirectory.resolve(key)));
+
+		// A new client should use the cached image
+		BufferedImage img2 = createClient(6, 1, cacheDirectory).readImage(uri, key);
+		assertEquals(img.getRGB(10, 10), img2.getRGB(10, 10));
+		assertEquals(1, getRequestCount(uri));
+
+		// Responses that aren't images shouldn't be cached
+		URI uriText = URI.create("http://localhost:" + server.getAddress().getPort() + "/text/");
+		createClient(6, 1, cacheDirectory).get(uriText, "host/text");
+		assertTrue(!Files.exists(cacheDirectory.resolve("host").resolve("text")));
+
+		// Keys shouldn't be able to escape the cache directory
+		createClient(6, 1, cacheDirectory).get(uri, "../../escaped.png");
+		assertTrue(Files.isRegularFile(cacheDirectory.resolve("escaped.png")));
+	}
+
+	@Test
+	public void test_cacheLimit() throws Exception {
+		OmeroHttpClient client = createClient(6, 1, cacheDirectory);
+		List<Path> paths = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 4; i++) {
+			String key = "host/1/z0-t0/region-" + i + ".png";
+			client.get(createRegionURI(i * 100, 0), key);
+			Path path = cacheDirectory.resolve(key);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(now - (4 - i) * 3600_000L));
+			paths.add(path);
+		}
+
+		// Reading from the cache should mark the first image as the most recently used
+		client.readImage(createRegionURI(0, 0), "host/1/z0-t0/region-0.png");
+		assertEquals(1, getRequestCount(createRegionURI(0, 0)));
+
+		// Only the least recently used images should be deleted
+		long keepBytes = Files.size(paths.get(0)) + Files.size(paths.get(3));
+		client.setMaxCacheSizeBytes((long)Math.ceil(keepBytes / 0.9) + 1);
+		client.pruneCache();
+		assertTrue(Files.isRegularFile(paths.get(0)));
+		assertFalse(Files.exists(paths.get(1)));
+		assertFalse(Files.exists(paths.get(2)));
+		assertTrue(Files.isRegularFile(paths.get(3)));
+	}
+
+	@Test
+	public void test_clearAndDisableCache() throws Exception {
+		OmeroHttpClient client = createClient(6, 1, cacheDirectory);
+		String key = "host/1/z0-t0/region-0-0-256-256.png";
+		client.get(createRegionURI(0, 0), key);
+		assertTrue(Files.isRegularFile(cacheDirectory.resolve(key)));
+
+		client.clearCache();
+		assertTrue(Files.isDirectory(cacheDirectory));
+		try (Stream<Path> stream = Files.list(cacheDirectory)) {
+			assertEquals(0, stream.count());
+		}
+
+		// A disabled cache shouldn't be written
+		client.setCacheEnabled(false);
+		client.get(createRegionURI(0, 0), key);
+		assertEquals(2, getRequestCount(createRegionURI(0, 0)));
+		assertFalse(Files.exists(cacheDirectory.resolve(key)));
+	}
+
+	@Test
+	public void test_imageServer() throws Exception {
+		URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/webclient/img_detail/1/");
+		OmeroHttpClient client = createClient(6, 1, cacheDirectory);
+		try (OmeroWebImageServer omeroServer = new OmeroWebImageServer(uri, null, client)) {
+			assertEquals(IMAGE_WIDTH, omeroServer.getWidth());
+			assertEquals(IMAGE_HEIGHT, omeroServer.getHeight());
+			assertEquals(TILE_SIZE, omeroServer.getPreferredTileWidth());
+
+			// Read a region spanning several tiles, checking each pixel comes from the right place
+			BufferedImage img = omeroServer.readBufferedImage(RegionRequest.createInstance(omeroServer.getPath(), 1, 200, 200, 200, 150));
+			assertEquals(200, img.getWidth());
+			assertEquals(150, img.getHeight());
+			for (int y = 0; y < img.getHeight(); y += 10) {
+				for (int x = 0; x < img.getWidth(); x += 10)
+					assertEquals(getColor(200 + x, 200 + y), img.getRGB(x, y) & 0xffffff);
+			}
+			assertEquals(4, requestCounts.size() - 1);
+			assertTrue(Files.isDirectory(cacheDirectory.resolve("localhost-" + server.getAddress().getPort()).resolve("1")));
+		}
+	}
+
+
+	private OmeroHttpClient createClient(int maxRequestsPerHost, int maxAttempts, Path cacheDirectory) {
+		return new OmeroHttpClient(maxRequestsPerHost, maxAttempts, Duration.ofSeconds(10), cacheDirectory);
+	}
+
+	private URI createRegionURI(int x, int y) {
+		return URI.create("http://localhost:" + server.getAddress().getPort() +
+				"/webgateway/render_image_region/1/0/0/?region=" + x + "," + y + "," + TILE_SIZE + "," + TILE_SIZE);
+	}
+
+	private int getRequestCount(URI uri) {
+		AtomicInteger count = requestCounts.get(uri.getRawPath() + "?" + uri.getRawQuery());
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Color for a pixel, chosen so that the location can be checked (allowing for lossless compression).
+	 */
+	private static int getColor(int x, int y) {
+		return ((x / 10) % 256) << 16 | ((y / 10) % 256) << 8 | 128;
+	}
+
+	private void handleMetadata(HttpExchange exchange) throws IOException {
+		count(exchange);
+		String json = "{" +
+				"\"size\": {\"width\": " + IMAGE_WIDTH + ", \"height\": " + IMAGE_HEIGHT + ", \"c\": 3, \"z\": 1, \"t\": 1}," +
+				"\"pixel_size\": {\"x\": 0.5, \"y\": 0.5, \"z\": null}," +
+				"\"meta\": {\"imageName\": \"Stub image\", \"pixelsType\": \"uint8\"}," +
+				"\"tiles\": true, \"levels\": 1," +
+				"\"tile_size\": {\"width\": " + TILE_SIZE + ", \"height\": " + TILE_SIZE + "}" +
+				"}";
+		respond(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void handleRegion(HttpExchange exchange) throws IOException {
+		int count = count(exchange);
+		int current = concurrentRequests.incrementAndGet();
+		maxConcurrentRequests.accumulateAndGet(current, Math::max);
+		try {
+			if (delayMillis > 0)
+				Thread.sleep(delayMillis);
+			if (releaseLatch != null)
+				releaseLatch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			concurrentRequests.decrementAndGet();
+		}
+		if (count <= nFailures) {
+			respond(exchange, failureStatus, "text/plain", "Failed".getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		// Parse the query, which should be decoded by the server
+		String query = exchange.getRequestURI().getQuery();
+		Matcher matcher = Pattern.compile("region=(\\d+),(\\d+),(\\d+),(\\d+)").matcher(query);
+		if (!matcher.find()) {
+			respond(exchange, 400, "text/plain", "Bad request".getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		int x = Integer.parseInt(matcher.group(1));
+		int y = Integer.parseInt(matcher.group(2));
+		// Like OMERO, truncate the region at the image boundary
+		int width = Math.min(Integer.parseInt(matcher.group(3)), IMAGE_WIDTH - x);
+		int height = Math.min(Integer.parseInt(matcher.group(4)), IMAGE_HEIGHT - y);
+
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img.createGraphics();
+		for (int yy = 0; yy < height; yy++) {
+			for (int xx = 0; xx < width; xx++) {
+				g2d.setColor(new Color(getColor(x + xx, y + yy)));
+				g2d.fillRect(xx, yy, 1, 1);
+			}
+		}
+		g2d.dispose();
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ImageIO.write(img, "PNG", stream);
+		respond(exchange, 200, "image/png", stream.toByteArray());
+	}
+
+	private int count(HttpExchange exchange) {
+		URI uri = exchange.getRequestURI();
+		String key = uri.getRawPath() + "?" + uri.getRawQuery();
+		return requestCounts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, byte[] bytes) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream stream = exchange.getResponseBody()) {
+			stream.write(bytes);
+		}
+	}
+
+}
@@ -904,10 +904,18 @@ public interface ChannelDisplayInfo {
 	 */
 	public static class DirectServerChannelInfo extends AbstractSingleChannelInfo {
 		
+		private static final int[] GRAY_LUT = new int[256];
+		
+		static {
+			for (int i = 0; i < 256; i++)
+				GRAY_LUT[i] = ColorTools.makeRGB(i, i, i);
+		}
+		
 		private int channel;
 
 		transient private ColorModel cm;
 		transient private int[] rgbLUT;
+		transient private volatile LevelLookupTable levelLUT;
 		private int rgb;
 //		private int rgb, r, g, b;
 
@@ -996,6 +1004,38 @@ public interface ChannelDisplayInfo {
 		public int getRGB(float value, boolean useColorLUT) {
 			return ColorTransformerAWT.makeScaledRGBwithRangeCheck(value, minDisplay, 255.f/(maxDisplay - minDisplay), useColorLUT ? cm : null);
 		}
+		
+		/**
+		 * Get the packed RGB colors corresponding to each 8-bit display level.
+		 * 
+		 * @param useColorLUT
+		 * @return an array of length 256, which should not be modified
+		 */
+		int[] getColorLookupTable(boolean useColorLUT) {
+			return useColorLUT ? rgbLUT : GRAY_LUT;
+		}
+		
+		/**
+		 * Get a lookup table converting integer pixel values to 8-bit display levels, using the current min and max display values.
+		 * <p>
+		 * The levels are identical to those used by {@link #getRGB(float, boolean)}, so that combining this with 
+		 * {@link #getColorLookupTable(boolean)} gives the same result without any floating point calculations per pixel.
+		 * If {@code additive} is true, values that would be skipped when updating an image additively have the level 0.
+		 * 
+		 * @param nValues number of possible pixel values, e.g. 256 for 8-bit or 65536 for 16-bit images
+		 * @param additive
+		 * @return an array of length {@code nValues}, which should not be modified
+		 */
+		byte[] getLevelLookupTable(int nValues, boolean additive) {
+			float min = minDisplay;
+			float max = maxDisplay;
+			LevelLookupTable lut = levelLUT;
+			if (lut == null || !lut.matches(nValues, min, max, additive)) {
+				lut = new LevelLookupTable(nValues, min, max, additive);
+				levelLUT = lut;
+			}
+			return lut.levels;
+		}
 
 		@Override
 		public boolean doesSomething() {
@@ -1044,6 +1084,38 @@ public interface ChannelDisplayInfo {
 		//				do8BitRangeCheck(b2);
 		//	}
 
+		
+		/**
+		 * Immutable lookup table from pixel values to 8-bit display levels, for specific display settings.
+		 */
+		private static class LevelLookupTable {
+			
+			private final int nValues;
+			private final float minDisplay, maxDisplay;
+			private final boolean additive;
+			private final byte[] levels;
+			
+			LevelLookupTable(int nValues, float minDisplay, float maxDisplay, boolean additive) {
+				this.nValues = nValues;
+				this.minDisplay = minDisplay;
+				this.maxDisplay = maxDisplay;
+				this.additive = additive;
+				this.levels = new byte[nValues];
+				float scale = 255.f/(maxDisplay - minDisplay);
+				for (int i = 0; i < nValues; i++) {
+					// Values at or below the minimum are skipped when updating additively
+					if (additive && (maxDisplay == minDisplay || i <= minDisplay))
+						continue;
+					levels[i] = (byte)ColorTools.do8BitRangeCheck((i - minDisplay) * scale);
+				}
+			}
+			
+			boolean matches(int nValues, float minDisplay, float maxDisplay, boolean additive) {
+				return this.nValues == nValues && this.minDisplay == minDisplay && this.maxDisplay == maxDisplay && this.additive == additive;
+			}
+			
+		}
+
 	}
 
 }
\ No newline at end of file
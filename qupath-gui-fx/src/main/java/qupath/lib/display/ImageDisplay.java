@@ -28,12 +28,14 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -196,6 +198,36 @@ public class ImageDisplay extends AbstractImageRenderer {
 		return changeTimestamp;
 	}
 	
+	/**
+	 * Get a key representing the current display settings, suitable for caching transformed images.
+	 * <p>
+	 * Unlike the default implementation, this depends upon the selected channels and their display settings 
+	 * rather than the time of the last change.  This means that returning to earlier settings (e.g. turning a 
+	 * channel off and on again) gives the same key, so that previously-transformed images can be reused.
+	 * Channels that depend upon other properties of the image (e.g. stain vectors) also use the timestamp.
+	 * 
+	 * @return
+	 */
+	@Override
+	public String getUniqueID() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(useGrayscaleLuts());
+		for (ChannelDisplayInfo info : selectedChannels.toArray(new ChannelDisplayInfo[0])) {
+			if (info == null)
+				continue;
+			sb.append("\n").append(info.getClass().getName());
+			sb.append("\t").append(info.getName());
+			if (info instanceof DirectServerChannelInfo)
+				sb.append("\t").append(((DirectServerChannelInfo)info).getChannel());
+			sb.append("\t").append(info.getMinDisplay());
+			sb.append("\t").append(info.getMaxDisplay());
+			sb.append("\t").append(info.getColor());
+			if (info instanceof SingleChannelDisplayInfo && ((SingleChannelDisplayInfo)info).isMutable())
+				sb.append("\t").append(System.identityHashCode(this)).append(":").append(getLastChangeTimestamp());
+		}
+		return getClass().getName() + ":" + UUID.nameUUIDFromBytes(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
 	
 	private void createRGBChannels(final ImageData<BufferedImage> imageData) {
 		
@@ -484,6 +516,10 @@ public class ImageDisplay extends AbstractImageRenderer {
 			return imgOutput;
 		}
 
+		// Use lookup tables & write directly to the output where we can (e.g. for multichannel fluorescence images)
+		if (MultiChannelCompositor.canComposite(imgInput, imgOutput, selectedChannels))
+			return MultiChannelCompositor.composite(imgInput, imgOutput, selectedChannels, !useGrayscaleLuts);
+
 		// Loop through the channels & build up an image as needed
 		boolean firstChannel = true;
 
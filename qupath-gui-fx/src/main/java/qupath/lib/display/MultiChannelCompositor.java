@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import qupath.lib.display.ChannelDisplayInfo.DirectServerChannelInfo;
+
+/**
+ * Helper class to combine multiple channels of an 8-bit or 16-bit image into a single RGB image for display.
+ * <p>
+ * This gives the same result as calling {@link ChannelDisplayInfo#getRGB(BufferedImage, int[], boolean)} for the first channel
+ * and {@link ChannelDisplayInfo#updateRGBAdditive(BufferedImage, int[], boolean)} for the rest, but uses lookup tables
+ * rather than converting each pixel to a float, reads samples directly from the input {@link DataBuffer},
+ * and writes directly into the output {@link DataBufferInt}.
+ * Large images are processed in parallel using strips of rows.
+ * 
+ * @author Pete Bankhead
+ */
+class MultiChannelCompositor {
+
+	/**
+	 * Approximate number of samples (pixels x channels) to handle in each strip.
+	 */
+	private static int SAMPLES_PER_STRIP = 64 * 1024;
+
+	/**
+	 * Check whether {@link #composite(BufferedImage, BufferedImage, List, boolean)} can be used for the specified images and channels.
+	 * <p>
+	 * This requires that all channels are {@link DirectServerChannelInfo}, the input is an unsigned 8-bit or 16-bit image
+	 * with a {@link ComponentSampleModel}, and the output is {@link BufferedImage#TYPE_INT_RGB} with the same size as the input.
+	 * 
+	 * @param imgInput
+	 * @param imgOutput
+	 * @param channels
+	 * @return
+	 */
+	static boolean canComposite(BufferedImage imgInput, BufferedImage imgOutput, List<? extends ChannelDisplayInfo> channels) {
+		if (imgInput == null || imgOutput == null || imgInput == imgOutput || channels.isEmpty())
+			return false;
+		if (imgOutput.getType() != BufferedImage.TYPE_INT_RGB ||
+				imgOutput.getWidth() != imgInput.getWidth() || imgOutput.getHeight() != imgInput.getHeight())
+			return false;
+		WritableRaster raster = imgInput.getRaster();
+		int dataType = raster.getDataBuffer().getDataType();
+		if (!(raster.getSampleModel() instanceof ComponentSampleModel) ||
+				(dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT))
+			return false;
+		int nBands = raster.getNumBands();
+		for (ChannelDisplayInfo info : channels) {
+			if (!(info instanceof DirectServerChannelInfo))
+				return false;
+			int c = ((DirectServerChannelInfo)info).getChannel();
+			if (c < 0 || c >= nBands)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Combine the channels of the input image additively, writing the result to the output image.
+	 * <p>
+	 * {@link #canComposite(BufferedImage, BufferedImage, List)} must be called first to check this is possible.
+	 * 
+	 * @param imgInput
+	 * @param imgOutput
+	 * @param channels
+	 * @param useColorLUT
+	 * @return the output image
+	 */
+	static BufferedImage composite(BufferedImage imgInput, BufferedImage imgOutput, List<? extends ChannelDisplayInfo> channels, boolean useColorLUT) {
+		int width = imgInput.getWidth();
+		int height = imgInput.getHeight();
+		if (width == 0 || height == 0)
+			return imgOutput;
+
+		WritableRaster raster = imgInput.getRaster();
+		DataBuffer buffer = raster.getDataBuffer();
+		ComponentSampleModel model = (ComponentSampleModel)raster.getSampleModel();
+		boolean isByte = buffer.getDataType() == DataBuffer.TYPE_BYTE;
+		int nValues = isByte ? 256 : 65536;
+
+		// Get the lookup tables & the location of each channel within the buffer
+		int nChannels = channels.size();
+		ChannelSource[] sources = new ChannelSource[nChannels];
+		int[] bankIndices = model.getBankIndices();
+		int[] bandOffsets = model.getBandOffsets();
+		int[] offsets = buffer.getOffsets();
+		int tx = raster.getSampleModelTranslateX();
+		int ty = raster.getSampleModelTranslateY();
+		for (int i = 0; i < nChannels; i++) {
+			DirectServerChannelInfo info = (DirectServerChannelInfo)channels.get(i);
+			int c = info.getChannel();
+			int bank = bankIndices[c];
+			int offset = offsets[bank] + bandOffsets[c] - ty * model.getScanlineStride() - tx * model.getPixelStride();
+			sources[i] = new ChannelSource(
+					isByte ? ((DataBufferByte)buffer).getData(bank) : null,
+					isByte ? null : ((DataBufferUShort)buffer).getData(bank),
+					offset,
+					info.getLevelLookupTable(nValues, i > 0),
+					info.getColorLookupTable(useColorLUT)
+					);
+		}
+		int pixelStride = model.getPixelStride();
+		int scanlineStride = model.getScanlineStride();
+
+		// Get the output pixels
+		WritableRaster rasterOutput = imgOutput.getRaster();
+		SinglePixelPackedSampleModel modelOutput = (SinglePixelPackedSampleModel)rasterOutput.getSampleModel();
+		DataBufferInt bufferOutput = (DataBufferInt)rasterOutput.getDataBuffer();
+		int[] pixels = bufferOutput.getData();
+		int scanlineStrideOutput = modelOutput.getScanlineStride();
+		int offsetOutput = bufferOutput.getOffset()
+				- rasterOutput.getSampleModelTranslateY() * scanlineStrideOutput
+				- rasterOutput.getSampleModelTranslateX();
+
+		// Process strips of rows, in parallel if the image is large enough
+		int rowsPerStrip = Math.max(1, SAMPLES_PER_STRIP / Math.max(1, width * nChannels));
+		int nStrips = (height + rowsPerStrip - 1) / rowsPerStrip;
+		IntStream strips = IntStream.range(0, nStrips);
+		if (nStrips > 1)
+			strips = strips.parallel();
+		strips.forEach(s -> {
+			int[] sum = new int[width * 3];
+			int yEnd = Math.min(height, (s + 1) * rowsPerStrip);
+			for (int y = s * rowsPerStrip; y < yEnd; y++) {
+				Arrays.fill(sum, 0);
+				for (ChannelSource source : sources) {
+					source.accumulateRow(y, width, pixelStride, scanlineStride, sum);
+				}
+				int ind = offsetOutput + y * scanlineStrideOutput;
+				for (int x = 0, k = 0; x < width; x++, k += 3) {
+					int r = Math.min(255, sum[k]);
+					int g = Math.min(255, sum[k+1]);
+					int b = Math.min(255, sum[k+2]);
+					pixels[ind + x] = (255 << 24) | (r << 16) | (g << 8) | b;
+				}
+			}
+		});
+
+		return imgOutput;
+	}
+
+
+	/**
+	 * Pixel data and lookup tables for a single channel.
+	 */
+	private static class ChannelSource {
+
+		private final byte[] bytes;
+		private final short[] shorts;
+		private final int offset;
+		private final byte[] levels;
+		private final int[] red, green, blue;
+
+		ChannelSource(byte[] bytes, short[] shorts, int offset, byte[] levels, int[] colors) {
+			this.bytes = bytes;
+			this.shorts = shorts;
+			this.offset = offset;
+			this.levels = levels;
+			this.red = new int[256];
+			this.green = new int[256];
+			this.blue = new int[256];
+			for (int i = 0; i < 256; i++) {
+				red[i] = (colors[i] >> 16) & 0xff;
+				green[i] = (colors[i] >> 8) & 0xff;
+				blue[i] = colors[i] & 0xff;
+			}
+		}
+
+		/**
+		 * Add the red, green and blue values for one row of this channel to an interleaved array.
+		 */
+		void accumulateRow(int y, int width, int pixelStride, int scanlineStride, int[] sum) {
+			int ind = offset + y * scanlineStride;
+			if (bytes != null) {
+				for (int x = 0, k = 0; x < width; x++, k += 3, ind += pixelStride) {
+					int level = levels[bytes[ind] & 0xff] & 0xff;
+					if (level == 0)
+						continue;
+					sum[k] += red[level];
+					sum[k+1] += green[level];
+					sum[k+2] += blue[level];
+				}
+			} else {
+				for (int x = 0, k = 0; x < width; x++, k += 3, ind += pixelStride) {
+					int level = levels[shorts[ind] & 0xffff] & 0xff;
+					if (level == 0)
+						continue;
+					sum[k] += red[level];
+					sum[k+1] += green[level];
+					sum[k+2] += blue[level];
+				}
+			}
+		}
+
+	}
+
+}
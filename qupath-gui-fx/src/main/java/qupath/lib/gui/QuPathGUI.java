@@ -442,7 +442,7 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
 	private ViewerPlusDisplayOptions viewerDisplayOptions = new ViewerPlusDisplayOptions();
 	private OverlayOptions overlayOptions = new OverlayOptions();
 	
-	private DefaultImageRegionStore imageRegionStore = ImageRegionStoreFactory.createImageRegionStore(PathPrefs.getTileCacheSizeBytes());
+	private DefaultImageRegionStore imageRegionStore = createImageRegionStore();
 
 	private ToolBarComponent toolbar; // Top component
 	private SplitPane splitPane = new SplitPane(); // Main component
@@ -807,6 +807,21 @@ public class QuPathGUI implements ModeWrapper, ImageDataWrapper<BufferedImage>,
 	}
 	
 	
+	/**
+	 * Create the image region store, including a second-level tile cache if one has been requested in the preferences.
+	 * 
+	 * @return
+	 */
+	private static DefaultImageRegionStore createImageRegionStore() {
+		long tileCacheSize = PathPrefs.getTileCacheSizeBytes();
+		String secondaryCachePath = PathPrefs.getSecondaryTileCachePath();
+		long secondaryCacheSize = PathPrefs.getSecondaryTileCacheSizeBytes();
+		if (secondaryCachePath == null || secondaryCacheSize <= 0)
+			return ImageRegionStoreFactory.createImageRegionStore(tileCacheSize);
+		return ImageRegionStoreFactory.createImageRegionStore(tileCacheSize, new File(secondaryCachePath), secondaryCacheSize);
+	}
+	
+	
 	/**
 	 * Try to start logging to a file.
 	 * This will only work if <code>PathPrefs.getLoggingPath() != null</code>.
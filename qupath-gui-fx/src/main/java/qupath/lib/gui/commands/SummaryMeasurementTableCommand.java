@@ -26,9 +26,8 @@ package qupath.lib.gui.commands;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -86,6 +85,7 @@ import qupath.lib.gui.commands.interfaces.PathCommand;
 import qupath.lib.gui.helpers.PaintingToolsFX;
 import qupath.lib.gui.helpers.PanelToolsFX;
 import qupath.lib.gui.models.HistogramDisplay;
+import qupath.lib.gui.models.MeasurementTableExporter;
 import qupath.lib.gui.models.ObservableMeasurementTableData;
 import qupath.lib.gui.models.PathTableData;
 import qupath.lib.gui.prefs.PathPrefs;
@@ -705,44 +705,15 @@ public class SummaryMeasurementTableCommand implements PathCommand {
 
 
 	public static <T> String getTableModelString(final PathTableData<T> model, final String delim, Collection<String> excludeColumns) {
-		StringBuilder sb = new StringBuilder();
-//		// Object name column
-//		sb.append("Object").append(delim);
 		// TODO: Add object class & any annotation ROI shapes!
-		// Whatever numeric columns we have
-		
-		List<String> names = new ArrayList<>(model.getAllNames());
-		names.removeAll(excludeColumns);
-		
-		int nColumns = names.size();
-		for (int col = 0; col < nColumns; col++) {
-			sb.append(names.get(col));
-			if (col < nColumns - 1)
-				sb.append(delim);
-		}
-		sb.append(System.lineSeparator());
-		
-		for (T object : model.getEntries()) {
-//			// TODO: Remove PathObject-specific addition!!!!!
-//			if (object instanceof PathObject) {
-//				PathObject pathObject = (PathObject)object;
-//				sb.append(pathObject.getDisplayedName()).append(delim);
-//			}
-			for (int col = 0; col < nColumns; col++) {
-				String val = model.getStringValue(object, names.get(col));
-				if (val != null)
-					sb.append(val);
-//				double value = model.getNumericValue(object, model.getAllNames().get(col));
-//				if (Double.isNaN(value))
-//					sb.append("-");
-//				else
-//					sb.append(GeneralTools.getFormatter(4).format(value));
-				if (col < nColumns - 1)
-					sb.append(delim);
-			}
-			sb.append(System.lineSeparator());
+		StringWriter writer = new StringWriter();
+		try {
+			MeasurementTableExporter.writeDelimited(model, delim, excludeColumns, writer);
+		} catch (IOException e) {
+			// Shouldn't happen with a StringWriter
+			logger.error("Error writing table", e);
 		}
-		return sb.toString();
+		return writer.toString();
 	}
 
 
@@ -773,12 +744,10 @@ public class SummaryMeasurementTableCommand implements PathCommand {
 				return false;
 		}
 		try {
-			PrintWriter writer = new PrintWriter(fileOutput);
-			writer.println(getTableModelString(tableModel, PathPrefs.getTableDelimiter(), excludeColumns));
-			writer.close();
+			MeasurementTableExporter.writeTable(tableModel, excludeColumns, fileOutput.toPath(), PathPrefs.getTableDelimiter());
 			return true;
-		} catch (FileNotFoundException e) {
-			logger.error("File {} not found!", fileOutput);
+		} catch (IOException e) {
+			logger.error("Unable to write " + fileOutput, e);
 		}
 		return false;
 	}
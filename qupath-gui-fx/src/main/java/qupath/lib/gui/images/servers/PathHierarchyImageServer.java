@@ -32,6 +32,7 @@ import java.util.Collections;
 import java.util.List;
 import qupath.lib.awt.color.ColorToolsAwt;
 import qupath.lib.awt.common.AwtTools;
+import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.OverlayOptions;
 import qupath.lib.gui.viewer.PathHierarchyPaintingHelper;
 import qupath.lib.gui.viewer.overlays.HierarchyOverlay;
@@ -49,6 +50,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectConnections;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.interfaces.ROI;
 
 
 /**
@@ -64,6 +66,11 @@ public class PathHierarchyImageServer extends AbstractTileableImageServer implem
 	static long counter = 0;
 	public static String DEFAULT_PREFIX = "OVERLAY";
 	
+	/**
+	 * Size of each bin (in pixels) when detections are painted as a density map.
+	 */
+	private static final int DENSITY_BIN_SIZE = 4;
+	
 	private ImageServerMetadata originalMetadata;
 	
 	private String prefix;
@@ -204,12 +211,29 @@ public class PathHierarchyImageServer extends AbstractTileableImageServer implem
 			}
 		}
 		
-		Collections.sort(pathObjects, new HierarchyOverlay.DetectionComparator());
-		
 		double downsampleFactor = request.getDownsample();
 		int width = (int)(request.getWidth() / downsampleFactor);
 		int height = (int)(request.getHeight() / downsampleFactor);
 		BufferedImage img = createDefaultRGBImage(width, height);
+		
+		// If most objects are smaller than a pixel, show them as a density map & only paint the larger objects individually
+		if (PathPrefs.getDetectionDensityMap() && !pathObjects.isEmpty()) {
+			List<PathObject> smallObjects = new ArrayList<>();
+			List<PathObject> largeObjects = new ArrayList<>();
+			for (PathObject pathObject : pathObjects) {
+				ROI roi = pathObject.getROI();
+				if (roi != null && roi.getBoundsWidth() < downsampleFactor && roi.getBoundsHeight() < downsampleFactor)
+					smallObjects.add(pathObject);
+				else
+					largeObjects.add(pathObject);
+			}
+			if (smallObjects.size() > largeObjects.size()) {
+				PathHierarchyPaintingHelper.paintDetectionDensity(img, request, smallObjects, options, downsampleFactor, DENSITY_BIN_SIZE);
+				pathObjects = largeObjects;
+			}
+		}
+		
+		Collections.sort(pathObjects, new HierarchyOverlay.DetectionComparator());
 		Graphics2D g2d = img.createGraphics();
 		g2d.setClip(0, 0, width, height);
 //		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
@@ -31,6 +31,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -68,6 +69,11 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	
 	static final int DEFAULT_THUMBNAIL_WIDTH = 1000;
 	
+	/**
+	 * Maximum number of tiles that may be prefetched at the same time.
+	 */
+	static final int MAX_PREFETCH_THREADS = 2;
+	
 	static Logger logger = LoggerFactory.getLogger(AbstractImageRegionStore.class);
 		
 	// Collection of SwingWorkers used to request image tiles
@@ -97,6 +103,8 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	// repainting performance
 	private ExecutorService pool = Executors.newFixedThreadPool(Math.max(8, Math.min(Runtime.getRuntime().availableProcessors() * 4, 32)), new SimpleThreadFactory("region-store-", false));
 	private ExecutorService poolLocal = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new SimpleThreadFactory("region-store-local-", false));
+	// Prefetching uses its own low-priority threads, so that it never delays or competes with requests for tiles that are needed now
+	private ExecutorService poolPrefetch = Executors.newFixedThreadPool(MAX_PREFETCH_THREADS, new SimpleThreadFactory("region-store-prefetch-", false, Thread.MIN_PRIORITY));
 	
 	
 
@@ -152,6 +160,41 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		registerRequest(tileListener, server, AwtTools.getBounds(region), downsampleFactor, zPosition, tPosition);
 	}
 	
+	/**
+	 * Request tiles that are likely to be needed soon (e.g. for where a viewer is expected to move next), 
+	 * replacing any previous prefetch request made by the same owner.
+	 * <p>
+	 * Prefetched tiles are read using a small number of separate, low-priority threads, and so don't delay other tile requests.
+	 * Requests are only made for tiled images, where tiles may be slow to read.
+	 * 
+	 * @param owner object making the request (e.g. a viewer), used to replace or cancel the request later
+	 * @param server
+	 * @param clipShape region that should be prefetched, in the full-resolution image space
+	 * @param downsampleFactor
+	 * @param zPosition
+	 * @param tPosition
+	 * 
+	 * @see #cancelPrefetch(Object)
+	 */
+	public void prefetchRegion(final Object owner, final ImageServer<T> server, final Shape clipShape, final double downsampleFactor, final int zPosition, final int tPosition) {
+		if (server == null || clipShape == null || server instanceof GeneratingImageServer || !isTiledImageServer(server)) {
+			cancelPrefetch(owner);
+			return;
+		}
+		List<RegionRequest> requests = ImageRegionStoreHelpers.getTilesToRequest(server, clipShape, downsampleFactor, zPosition, tPosition, null);
+		manager.registerPrefetchRequest(owner, server, requests);
+	}
+	
+	/**
+	 * Cancel any prefetch request made by the specified owner.
+	 * Tiles that are already being read will still be added to the cache.
+	 * 
+	 * @param owner
+	 */
+	public void cancelPrefetch(final Object owner) {
+		manager.deregisterPrefetchRequest(owner);
+	}
+	
 	
 	/* (non-Javadoc)
 	 * @see qupath.lib.images.stores.ImageRegionStore#addTileListener(qupath.lib.images.stores.TileListener)
@@ -394,6 +437,19 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		clearingCache = false;
 	}
 	
+	/**
+	 * Remove all tiles for a server from any secondary (disk) cache.
+	 * <p>
+	 * Unlike {@link #clearCacheForServer(ImageServer)}, this should be called only when the pixels for the server
+	 * have changed; otherwise, retaining the tiles enables them to be reused when the server is rebuilt.
+	 * Note that this does not clear the in-memory cache.
+	 * 
+	 * @param server
+	 */
+	public void clearSecondaryCacheForServer(final ImageServer<T> server) {
+		cache.clearSecondaryCacheForPath(server.getPath());
+	}
+	
 	/* (non-Javadoc)
 	 * @see qupath.lib.images.stores.ImageRegionStore#clearCacheForRequestOverlap(qupath.lib.regions.RegionRequest)
 	 */
@@ -426,7 +482,14 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 			worker.cancel(true);
 		pool.shutdownNow();
 		poolLocal.shutdownNow();
+		poolPrefetch.shutdownNow();
+		logger.debug("Closing region store - {}", cache);
 		cache.clear();
+		var secondaryCache = cache.getSecondaryCache();
+		if (secondaryCache != null) {
+			cache.setSecondaryCache(null);
+			secondaryCache.close();
+		}
 	}
 	
 	
@@ -443,6 +506,10 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		private int busyThreads = 0;
 		
 		private List<TileWorker<T>> requestedWorkers = new ArrayList<>();
+		
+		// Requests for tiles that may be needed soon, stored according to the owner of each request
+		private Map<Object, PrefetchRequest<T>> prefetchRequests = new LinkedHashMap<>();
+		private List<TileWorker<T>> prefetchWorkers = new ArrayList<>();
 				
 		TileRequestManager(final int nThreads) {
 			this.nThreads = nThreads;
@@ -487,9 +554,26 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		}
 		
 		
+		public synchronized void registerPrefetchRequest(final Object owner, final ImageServer<T> server, final List<RegionRequest> requests) {
+			// Requests are sorted by distance from the center, but taken from the end of the list
+			Collections.reverse(requests);
+			prefetchRequests.put(owner, new PrefetchRequest<>(server, requests));
+			assignTasks();
+		}
+		
+		public synchronized void deregisterPrefetchRequest(final Object owner) {
+			prefetchRequests.remove(owner);
+		}
+		
+		
 		synchronized void assignTasks() {
-			if (list.isEmpty())
-				return;
+			if (!list.isEmpty())
+				assignRequestedTasks();
+			assignPrefetchTasks();
+		}
+		
+		
+		private void assignRequestedTasks() {
 			int ind = 0;
 			TileRequestCollection<T> temp = list.get(ind);
 			while (busyThreads < nThreads && !list.isEmpty()) {
@@ -524,10 +608,37 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		}
 		
 		
+		/**
+		 * Use the prefetch threads to request tiles that may be needed soon.
+		 * These aren't counted as busy threads, so never limit the number of other requests that can be made.
+		 */
+		private void assignPrefetchTasks() {
+			Iterator<PrefetchRequest<T>> iter = prefetchRequests.values().iterator();
+			while (iter.hasNext() && prefetchWorkers.size() < MAX_PREFETCH_THREADS) {
+				PrefetchRequest<T> prefetch = iter.next();
+				while (prefetch.hasMoreTiles() && prefetchWorkers.size() < MAX_PREFETCH_THREADS) {
+					RegionRequest request = prefetch.nextTileRequest();
+					if (cache.containsKey(request) || waitingMap.containsKey(request))
+						continue;
+					if (poolPrefetch.isShutdown())
+						return;
+					TileWorker<T> worker = createTileWorker(prefetch.server, request, cache, false);
+					waitingMap.put(request, worker);
+					poolPrefetch.execute(worker);
+					requestedWorkers.add(worker);
+					prefetchWorkers.add(worker);
+				}
+				if (!prefetch.hasMoreTiles())
+					iter.remove();
+			}
+		}
+		
+		
 		synchronized void taskCompleted(final TileWorker<T> worker) {
 			if (!requestedWorkers.remove(worker))
 				return;
-			busyThreads--;
+			if (!prefetchWorkers.remove(worker))
+				busyThreads--;
 			logger.trace("Number of busy threads: " + busyThreads);
 //			list.sort(comparator);
 			Collections.sort(list, comparator);
@@ -620,6 +731,27 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	}
 	
 	
+	static class PrefetchRequest<T> {
+		
+		private final ImageServer<T> server;
+		private final List<RegionRequest> tileRequests;
+		
+		PrefetchRequest(final ImageServer<T> server, final List<RegionRequest> tileRequests) {
+			this.server = server;
+			this.tileRequests = tileRequests;
+		}
+		
+		boolean hasMoreTiles() {
+			return !tileRequests.isEmpty();
+		}
+		
+		RegionRequest nextTileRequest() {
+			return tileRequests.remove(tileRequests.size() - 1);
+		}
+		
+	}
+	
+	
 	static class TileRequestComparator<T> implements Comparator<TileRequestCollection<T>> {
 
 		
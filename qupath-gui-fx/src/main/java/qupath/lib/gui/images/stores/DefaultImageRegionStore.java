@@ -59,9 +59,33 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	static Logger logger = LoggerFactory.getLogger(DefaultImageRegionStore.class);
 	
 	private static boolean DEBUG_TILES = false;
+	
+	/**
+	 * Separator between the server path and the renderer ID, used for the keys of the display cache.
+	 */
+	private static final String DISPLAY_PATH_SEPARATOR = "::display::";
+	
+	// Cache of tiles after applying an ImageRenderer, kept separate from the original tiles so that 
+	// each can be evicted independently (and transformed tiles are never written to any secondary cache)
+	private DefaultRegionCache<BufferedImage> displayCache;
 
+	/**
+	 * Constructor.
+	 * 
+	 * @param thumbnailWidth
+	 * @param tileCacheSize memory available for tiles in bytes, which is shared between the main tile cache and the display cache
+	 */
 	protected DefaultImageRegionStore(int thumbnailWidth, long tileCacheSize) {
-		super(new BufferedImageSizeEstimator(), thumbnailWidth, tileCacheSize);
+		super(new BufferedImageSizeEstimator(), thumbnailWidth, tileCacheSize - getDisplayCacheSize(tileCacheSize));
+		displayCache = new DefaultRegionCache<>(new BufferedImageSizeEstimator(), getDisplayCacheSize(tileCacheSize));
+	}
+	
+	/**
+	 * Get the part of the tile cache memory that should be used for the display cache (one fifth), 
+	 * so that together the caches stay within the limit requested.
+	 */
+	private static long getDisplayCacheSize(long tileCacheSize) {
+		return tileCacheSize / 5;
 	}
 
 	protected DefaultImageRegionStore(long tileCacheSize) {
@@ -72,6 +96,14 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	public RegionCache<BufferedImage> getThumbnailCache() {
 		return thumbnailCache;
 	}
+	
+	/**
+	 * Get the cache used to store tiles after an {@link ImageRenderer} has been applied.
+	 * @return
+	 */
+	public RegionCache<BufferedImage> getDisplayCache() {
+		return displayCache;
+	}
 
 	public int getPreferredThumbnailSize() {
 		return DEFAULT_THUMBNAIL_WIDTH;
@@ -235,10 +267,10 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 			}
 		}
 
-		// If we're compositing channels, it's worthwhile to cache RGB tiles for so long as the ImageDisplay remains constant
+		// If we're compositing channels, it's worthwhile to cache RGB tiles for the current display settings
 		boolean useDisplayCache = imageDisplay != null && !server.isRGB() && server.nChannels() > 1;
 		long displayTimestamp = imageDisplay == null ? 0L : imageDisplay.getLastChangeTimestamp();
-		String displayCachePath = useDisplayCache ? server.getPath() + imageDisplay.getUniqueID() : null;
+		String displayCachePath = useDisplayCache ? getDisplayCachePath(server.getPath(), imageDisplay) : null;
 
 		// Loop through and draw whatever tiles we've got
 		BufferedImage imgTemp = null;
@@ -260,13 +292,13 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 				if (useDisplayCache) {
 					// Apply transforms, creating & caching new temp images
 					RegionRequest requestCache = RegionRequest.createInstance(displayCachePath, request.getDownsample(), request);
-					imgTemp = cache.get(requestCache);
+					imgTemp = displayCache.get(requestCache);
 					if (imgTemp == null) {
 						imgTemp = imageDisplay.applyTransforms(img, null);
 						// Store this if we know we've still got the same display settings
 						// This avoids making the cache inconsistent
 						if (displayTimestamp == imageDisplay.getLastChangeTimestamp())
-							cache.put(requestCache, imgTemp);
+							displayCache.put(requestCache, imgTemp);
 						else
 							return;
 					}
@@ -289,9 +321,51 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	}
 
 
+	/**
+	 * Get the path used for display cache keys, combining the server path and renderer ID.
+	 */
+	private static String getDisplayCachePath(String serverPath, ImageRenderer imageDisplay) {
+		return serverPath + DISPLAY_PATH_SEPARATOR + imageDisplay.getUniqueID();
+	}
+	
+	/**
+	 * Get all the display cache paths for a server, i.e. one for each renderer ID.
+	 */
+	private List<String> getDisplayCachePaths(String serverPath) {
+		String prefix = serverPath + DISPLAY_PATH_SEPARATOR;
+		List<String> paths = new ArrayList<>();
+		for (String path : displayCache.getPaths()) {
+			if (path.startsWith(prefix))
+				paths.add(path);
+		}
+		return paths;
+	}
+	
+	@Override
+	public synchronized void clearCache(final boolean clearThumbnails, final boolean stopWaiting) {
+		super.clearCache(clearThumbnails, stopWaiting);
+		displayCache.clear();
+	}
+
+	@Override
+	public synchronized void clearCacheForServer(final ImageServer<BufferedImage> server) {
+		super.clearCacheForServer(server);
+		for (String path : getDisplayCachePaths(server.getPath()))
+			displayCache.clearCacheForPath(path);
+	}
+
+	@Override
+	public synchronized void clearCacheForRequestOverlap(final RegionRequest request) {
+		super.clearCacheForRequestOverlap(request);
+		for (String path : getDisplayCachePaths(request.getPath()))
+			displayCache.clearCacheForRequestOverlap(RegionRequest.createInstance(path, request.getDownsample(), request));
+	}
+
 	@Override
 	public void close() {
 		super.close();
+		logger.debug("Closing display cache - {}", displayCache);
+		displayCache.clear();
 	}
 
 
@@ -23,12 +23,21 @@
 
 package qupath.lib.gui.images.stores;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.regions.RegionRequest;
@@ -36,186 +45,495 @@ import qupath.lib.regions.RegionRequest;
 /**
  * Map for storing image tiles, which automatically removes tiles that have not been accessed
  * in a while after it reaches a maximum number of tiles, or maximum memory consumption.
- * 
+ * <p>
  * The memory consumption estimate is based on the bit-depth of the image &amp; number of pixels it contains
  * (other overhead is ignored).
- * 
+ * <p>
+ * The cache is split into a number of segments, each with its own lock,
+ * so that threads accessing tiles in different segments do not need to wait for one another.
+ * The capacity and memory limits apply to the cache as a whole.  When they are exceeded, the least-recently-used
+ * entries are evicted from the segment being written, and then from other segments if that is not enough.
+ * <p>
+ * The keys for each server path are also tracked separately, so that clearing the tiles for one server
+ * does not require scanning the entire cache.
+ * <p>
+ * Optionally, a {@link SecondaryRegionCache} can be set to retain regions after they are evicted
+ * (e.g. outside the Java heap).  Regions found there are promoted back into this cache when requested.
+ * <p>
+ * Note that {@link #keySet()}, {@link #values()} and {@link #entrySet()} return snapshots,
+ * which are not updated if the cache changes, and only include regions held in this cache.
+ *
  * @author Pete Bankhead
  *
  */
 class DefaultRegionCache<T> implements RegionCache<T> {
 
-	private Map<RegionRequest, T> map;
+	/**
+	 * Default number of segments; must be a power of 2.
+	 */
+	private static final int DEFAULT_SEGMENTS = 16;
+
 	private final SizeEstimator<T> sizeEstimator;
-	private int maxCapacity;
-	private int nonNullSize = 0;
-	private long maxMemoryBytes;
-	private long memoryBytes = 0; // Rely on synchronization to control access to map anyway, so no need for atomic...?
+	private final int maxCapacity;
+	private final long maxMemoryBytes;
 
-	DefaultRegionCache(final SizeEstimator<T> sizeEstimator, final int maxCapacity, final long maxSizeBytes) {
+	private final Segment<T>[] segments;
+
+	/**
+	 * Totals for all segments, updated whenever a segment changes (while holding its lock).
+	 */
+	private final AtomicLong totalMemoryBytes = new AtomicLong();
+	private final AtomicInteger totalNonNullSize = new AtomicInteger();
+
+	/**
+	 * Keys currently in the cache, grouped by server path.
+	 * Sets are only modified within a call to compute/computeIfPresent, so that updates are atomic.
+	 */
+	private final Map<String, Set<RegionRequest>> keysByPath = new ConcurrentHashMap<>();
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	private final LongAdder secondaryHitCount = new LongAdder();
+
+	private volatile SecondaryRegionCache<T> secondaryCache;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	DefaultRegionCache(final SizeEstimator<T> sizeEstimator, final int maxCapacity, final long maxSizeBytes, final int nSegments) {
+		if (Integer.bitCount(nSegments) != 1)
+			throw new IllegalArgumentException("Number of segments must be a power of 2, but was " + nSegments);
 		this.maxMemoryBytes = maxSizeBytes;
 		this.sizeEstimator = sizeEstimator;
 		this.maxCapacity = maxCapacity;
-		map = new LinkedHashMap<RegionRequest, T>(maxCapacity+1, 2f, true) {
-
-			private static final long serialVersionUID = 1L;
-
-			@Override
-			protected synchronized boolean removeEldestEntry(Map.Entry<RegionRequest, T> eldest) {
-				// Remove if the map is full (in terms of numbers), or occupying too much memory
-				boolean doRemove = nonNullSize >= maxCapacity || memoryBytes > maxMemoryBytes;
-				if (doRemove) {
-					memoryBytes = memoryBytes - sizeEstimator.getApproxImageSize(eldest.getValue());
-					if (eldest.getValue() != null)
-						nonNullSize--;
-//					if (getApproxImageSize(eldest.getValue()) > 10784000)
-//											logger.info(String.format("REMOVED! %.2f MB remaining, %d images", memoryBytes/(1024. * 1024.), size()));
-				}
-				return doRemove;
-			}
+		segments = new Segment[nSegments];
+		for (int i = 0; i < nSegments; i++)
+			segments[i] = new Segment<>();
+	}
 
-		}; // Should never have to resize the cache, so loadfactor is > 1
-		//			logger.info("Max capacity: " + maxCapacity);
-		//			logger.info("Max size: " + maxSizeBytes);
-		map = Collections.synchronizedMap(map);
+	DefaultRegionCache(final SizeEstimator<T> sizeEstimator, final int maxCapacity, final long maxSizeBytes) {
+		this(sizeEstimator, maxCapacity, maxSizeBytes, DEFAULT_SEGMENTS);
 	}
 
 	DefaultRegionCache(final SizeEstimator<T> sizeEstimator, long maxSizeBytes) {
 		this(sizeEstimator, Math.max(200, (int)(maxSizeBytes / (256 * 256 * 4) + 10)), maxSizeBytes);
 	}
 
-	synchronized void clearCacheForServer(ImageServer<?> server) {
-		Iterator<Entry<RegionRequest, T>> iter = map.entrySet().iterator();
-		while (iter.hasNext()) {
-			Entry<RegionRequest, T> entry = iter.next();
-			if (entry.getKey().getPath().equals(server.getPath())) {
-				memoryBytes -= sizeEstimator.getApproxImageSize(entry.getValue());
-				if (entry.getValue() != null)
-					nonNullSize--;
-				iter.remove();
-			}
-		}
+	private Segment<T> segmentFor(final Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (segments.length - 1)];
+	}
+
+	/**
+	 * Remove all regions for a server from memory.
+	 * Any regions in the secondary cache are retained, so that they can be reused if the server is opened again;
+	 * use {@link #clearSecondaryCacheForPath(String)} if these are no longer valid.
+	 * 
+	 * @param server
+	 */
+	void clearCacheForServer(ImageServer<?> server) {
+		clearCacheForPath(server.getPath());
 	}
 	
+	/**
+	 * Remove all regions for a server path from memory, retaining any regions in the secondary cache.
+	 * 
+	 * @param path
+	 * @see #clearSecondaryCacheForPath(String)
+	 */
+	void clearCacheForPath(String path) {
+		Set<RegionRequest> keys = keysByPath.remove(path);
+		if (keys == null)
+			return;
+		for (RegionRequest key : keys)
+			removeFromMemory(key);
+	}
 	
-	synchronized void clearCacheForRequestOverlap(RegionRequest request) {
-		Iterator<Entry<RegionRequest, T>> iter = map.entrySet().iterator();
-		while (iter.hasNext()) {
-			Entry<RegionRequest, T> entry = iter.next();
-			if (request.overlapsRequest(entry.getKey())) {
-				memoryBytes -= sizeEstimator.getApproxImageSize(entry.getValue());
-				if (entry.getValue() != null)
-					nonNullSize--;
-				iter.remove();
+	/**
+	 * Remove all regions for a server path from the secondary cache, if there is one.
+	 * This should be called whenever the pixels for the path have changed, so that stale regions are not reused.
+	 * 
+	 * @param path
+	 */
+	void clearSecondaryCacheForPath(String path) {
+		var secondary = secondaryCache;
+		if (secondary != null)
+			secondary.clearCacheForPath(path);
+	}
+
+
+	void clearCacheForRequestOverlap(RegionRequest request) {
+		// Requests can only overlap if they have the same path
+		List<RegionRequest> keys = new ArrayList<>();
+		keysByPath.computeIfPresent(request.getPath(), (k, s) -> {
+			for (RegionRequest key : s) {
+				if (request.overlapsRequest(key))
+					keys.add(key);
 			}
-		}
+			return s;
+		});
+		for (RegionRequest key : keys)
+			removeFromMemory(key);
+		// Overlapping regions are cleared because their pixels have changed, so the secondary cache must be cleared too
+		var secondary = secondaryCache;
+		if (secondary != null)
+			secondary.clearCacheForRequestOverlap(request);
+	}
+
+	/**
+	 * Get the server paths for which regions are currently stored in this cache.
+	 * 
+	 * @return a snapshot of the paths, which is not updated if the cache changes
+	 */
+	List<String> getPaths() {
+		return new ArrayList<>(keysByPath.keySet());
+	}
+
+	/**
+	 * Set a second-level cache, used to store regions when they are evicted from this cache.
+	 * 
+	 * @param secondaryCache the cache, or null if evicted regions should simply be discarded
+	 */
+	void setSecondaryCache(final SecondaryRegionCache<T> secondaryCache) {
+		this.secondaryCache = secondaryCache;
+	}
+
+	SecondaryRegionCache<T> getSecondaryCache() {
+		return secondaryCache;
+	}
+
+	/**
+	 * Get the number of requests for which a value (possibly null) was found in the cache.
+	 * @return
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * Get the number of requests for which no value was found in the cache.
+	 * @return
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/**
+	 * Get the number of requests that could not be found in this cache, but were found in the secondary cache.
+	 * @return
+	 */
+	public long getSecondaryHitCount() {
+		return secondaryHitCount.sum();
+	}
+
+	/**
+	 * Get the number of entries removed from the cache to stay within the capacity or memory limits.
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Get the estimated memory currently used by the cached values, in bytes.
+	 * @return
+	 */
+	public long getMemoryBytes() {
+		return totalMemoryBytes.get();
+	}
+
+	private boolean isFull() {
+		return totalNonNullSize.get() > maxCapacity || totalMemoryBytes.get() > maxMemoryBytes;
+	}
+
+	/**
+	 * Update the memory and size counts for a segment, and for the cache as a whole.
+	 * This doesn't acquire the lock!
+	 */
+	private void updateCounts(final Segment<T> segment, final long deltaBytes, final int deltaNonNull) {
+		segment.memoryBytes += deltaBytes;
+		segment.nonNullSize += deltaNonNull;
+		totalMemoryBytes.addAndGet(deltaBytes);
+		totalNonNullSize.addAndGet(deltaNonNull);
+	}
+
+	private void addKey(final RegionRequest key) {
+		keysByPath.compute(key.getPath(), (k, s) -> {
+			if (s == null)
+				s = new HashSet<>();
+			s.add(key);
+			return s;
+		});
+	}
+
+	private void removeKey(final RegionRequest key) {
+		keysByPath.computeIfPresent(key.getPath(), (k, s) -> {
+			s.remove(key);
+			return s.isEmpty() ? null : s;
+		});
 	}
 
 	/* (non-Javadoc)
 	 * @see qupath.lib.images.stores.RegionCache#put(qupath.lib.regions.RegionRequest, T)
 	 */
 	@Override
-	public synchronized T put(RegionRequest request, T img) {
-		// Update the memory requirements
-		T imgPrevious = map.put(request, img);
-		if (img != null) {
-			memoryBytes += sizeEstimator.getApproxImageSize(img);
-			nonNullSize++;
+	public T put(RegionRequest request, T img) {
+		long size = sizeEstimator.getApproxImageSize(img);
+		Segment<T> segment = segmentFor(request);
+		List<Entry<RegionRequest, T>> evicted;
+		T imgPrevious;
+		synchronized (segment) {
+			boolean isNew = !segment.map.containsKey(request);
+			imgPrevious = segment.map.put(request, img);
+			// Update the memory requirements
+			updateCounts(segment, size, img == null ? 0 : 1);
+			if (imgPrevious != null)
+				updateCounts(segment, -sizeEstimator.getApproxImageSize(imgPrevious), -1);
+			if (isNew)
+				addKey(request);
+			evicted = evictIfNeeded(segment, request, null);
 		}
-		if (imgPrevious != null) {
-			memoryBytes -= sizeEstimator.getApproxImageSize(imgPrevious);
-			nonNullSize--;
+		// If we're still over the limit, evict from the other segments
+		// (one at a time, since holding more than one lock could cause a deadlock)
+		if (isFull()) {
+			int ind = indexOf(segment);
+			for (int i = 1; i < segments.length && isFull(); i++) {
+				Segment<T> other = segments[(ind + i) & (segments.length - 1)];
+				synchronized (other) {
+					evicted = evictIfNeeded(other, request, evicted);
+				}
+			}
+		}
+		// Pass evicted regions to the secondary cache, without holding the lock
+		var secondary = secondaryCache;
+		if (secondary != null && evicted != null) {
+			for (Entry<RegionRequest, T> entry : evicted)
+				secondary.put(entry.getKey(), entry.getValue());
 		}
-//		else
-//			System.out.println("PUTTING NEW: " + nonNullSize + ", " + request + ", " + Thread.currentThread());
 		return imgPrevious;
 	}
-	
+
+	private int indexOf(final Segment<T> segment) {
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i] == segment)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove the least-recently-used entries from a segment until the cache is within its limits,
+	 * or the segment has nothing left to remove.
+	 * The most recently-added entry is never removed.
+	 * This doesn't acquire the lock!
+	 * 
+	 * @param evicted list to which evicted entries with non-null values should be added (may be null)
+	 * @return the evicted entries with non-null values, or null if there are none
+	 */
+	private List<Entry<RegionRequest, T>> evictIfNeeded(final Segment<T> segment, final RegionRequest newest, List<Entry<RegionRequest, T>> evicted) {
+		if (!isFull())
+			return evicted;
+		Iterator<Entry<RegionRequest, T>> iter = segment.map.entrySet().iterator();
+		while (isFull() && iter.hasNext()) {
+			Entry<RegionRequest, T> eldest = iter.next();
+			if (eldest.getKey().equals(newest))
+				continue;
+			T value = eldest.getValue();
+			updateCounts(segment, -sizeEstimator.getApproxImageSize(value), value == null ? 0 : -1);
+			if (value != null) {
+				if (evicted == null)
+					evicted = new ArrayList<>();
+				evicted.add(new SimpleImmutableEntry<>(eldest.getKey(), value));
+			}
+			iter.remove();
+			removeKey(eldest.getKey());
+			evictionCount.increment();
+		}
+		return evicted;
+	}
+
 	/* (non-Javadoc)
 	 * @see qupath.lib.images.stores.RegionCache#containsKey(qupath.lib.regions.RegionRequest)
 	 */
 	@Override
-	public synchronized boolean containsKey(RegionRequest request) {
-		return map.containsKey(request);
+	public boolean containsKey(RegionRequest request) {
+		return containsKey((Object)request);
 	}
 
 	/* (non-Javadoc)
 	 * @see qupath.lib.images.stores.RegionCache#get(qupath.lib.regions.RegionRequest)
 	 */
 	@Override
-	public synchronized T get(RegionRequest request) {
-		return map.get(request);
+	public T get(RegionRequest request) {
+		return get((Object)request);
 	}
 
-	public synchronized void clear() {
-		memoryBytes = 0;
-		nonNullSize = 0;
-		map.clear();
+	/**
+	 * Clear all regions held in this cache.
+	 * <p>
+	 * Note that any secondary cache is <i>not</i> cleared, since it does not use the same memory;
+	 * regions that should not be retained at all should be removed with {@link #clearCacheForPath(String)}
+	 * or {@link #remove(Object)}.
+	 */
+	@Override
+	public void clear() {
+		for (Segment<T> segment : segments) {
+			synchronized (segment) {
+				// Remove keys while holding the segment lock (as for put), so that keys added concurrently aren't lost
+				for (RegionRequest key : segment.map.keySet())
+					removeKey(key);
+				updateCounts(segment, -segment.memoryBytes, -segment.nonNullSize);
+				segment.map.clear();
+			}
+		}
 	}
-	
-	
+
+
 	@Override
 	public String toString() {
-		return String.format("Cache: %d (%d/%d non-null), %s", map.size(), nonNullSize, maxCapacity, map.toString());
+		int size = size();
+		int nonNullSize = totalNonNullSize.get();
+		return String.format("Cache: %d (%d/%d non-null), %.1f/%.1f MB, %d hits, %d misses, %d evictions",
+				size, nonNullSize, maxCapacity,
+				getMemoryBytes()/(1024.0*1024.0), maxMemoryBytes/(1024.0*1024.0),
+				getHitCount(), getMissCount(), getEvictionCount())
+				+ (secondaryCache == null ? "" : String.format(", %d secondary hits (%s)", getSecondaryHitCount(), secondaryCache));
 	}
 
 	@Override
-	public synchronized int size() {
-		return map.size();
+	public int size() {
+		int size = 0;
+		for (Segment<T> segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
 	}
 
 	@Override
-	public synchronized boolean isEmpty() {
-		return map.isEmpty();
+	public boolean isEmpty() {
+		for (Segment<T> segment : segments) {
+			synchronized (segment) {
+				if (!segment.map.isEmpty())
+					return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
-	public synchronized boolean containsKey(Object key) {
-		return map.containsKey(key);
+	public boolean containsKey(Object key) {
+		Segment<T> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.map.containsKey(key);
+		}
 	}
 
 	@Override
-	public synchronized boolean containsValue(Object value) {
-		return map.containsValue(value);
+	public boolean containsValue(Object value) {
+		for (Segment<T> segment : segments) {
+			synchronized (segment) {
+				if (segment.map.containsValue(value))
+					return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
-	public synchronized T get(Object key) {
-		return map.get(key);
+	public T get(Object key) {
+		Segment<T> segment = segmentFor(key);
+		synchronized (segment) {
+			T value = segment.map.get(key);
+			if (value != null || segment.map.containsKey(key)) {
+				hitCount.increment();
+				return value;
+			}
+		}
+		// Check the secondary cache, promoting the region if we find it there
+		var secondary = secondaryCache;
+		if (secondary != null && key instanceof RegionRequest) {
+			T value = secondary.get((RegionRequest)key);
+			if (value != null) {
+				secondaryHitCount.increment();
+				put((RegionRequest)key, value);
+				return value;
+			}
+		}
+		missCount.increment();
+		return null;
 	}
 
 	@Override
-	public synchronized T remove(Object key) {
-		// Update the memory requirements
-		T imgPrevious = map.remove(key);
-		if (imgPrevious != null) {
-			memoryBytes -= sizeEstimator.getApproxImageSize(imgPrevious);
-			nonNullSize--;
+	public T remove(Object key) {
+		var secondary = secondaryCache;
+		if (secondary != null && key instanceof RegionRequest)
+			secondary.remove((RegionRequest)key);
+		return removeFromMemory(key);
+	}
+	
+	private T removeFromMemory(Object key) {
+		Segment<T> segment = segmentFor(key);
+		synchronized (segment) {
+			if (!segment.map.containsKey(key))
+				return null;
+			// Update the memory requirements
+			T imgPrevious = segment.map.remove(key);
+			if (imgPrevious != null)
+				updateCounts(segment, -sizeEstimator.getApproxImageSize(imgPrevious), -1);
+			removeKey((RegionRequest)key);
+			return imgPrevious;
 		}
-		return imgPrevious;
 	}
 
 	@Override
-	public synchronized void putAll(Map<? extends RegionRequest, ? extends T> m) {
+	public void putAll(Map<? extends RegionRequest, ? extends T> m) {
 		for (Entry<? extends RegionRequest, ? extends T> entry : m.entrySet()) {
 			put(entry.getKey(), entry.getValue());
 		}
 	}
 
 	@Override
-	public synchronized Set<RegionRequest> keySet() {
-		return map.keySet();
+	public Set<RegionRequest> keySet() {
+		Set<RegionRequest> keys = new HashSet<>();
+		collect(segment -> keys.addAll(segment.map.keySet()));
+		return Collections.unmodifiableSet(keys);
 	}
 
 	@Override
-	public synchronized Collection<T> values() {
-		return map.values();
+	public Collection<T> values() {
+		List<T> values = new ArrayList<>();
+		collect(segment -> values.addAll(segment.map.values()));
+		return Collections.unmodifiableList(values);
 	}
 
 	@Override
-	public synchronized Set<Entry<RegionRequest, T>> entrySet() {
-		return map.entrySet();
+	public Set<Entry<RegionRequest, T>> entrySet() {
+		Map<RegionRequest, T> map = new LinkedHashMap<>();
+		collect(segment -> map.putAll(segment.map));
+		return Collections.unmodifiableMap(map).entrySet();
+	}
+
+	private void collect(final Consumer<Segment<T>> consumer) {
+		for (Segment<T> segment : segments) {
+			synchronized (segment) {
+				consumer.accept(segment);
+			}
+		}
+	}
+
+
+	/**
+	 * Part of the cache, guarded by its own lock.
+	 */
+	private static class Segment<T> {
+
+		private final LinkedHashMap<RegionRequest, T> map = new LinkedHashMap<>(16, 0.75f, true);
+
+		private int nonNullSize = 0;
+		private long memoryBytes = 0;
+
 	}
-	
 
-}
\ No newline at end of file
+}
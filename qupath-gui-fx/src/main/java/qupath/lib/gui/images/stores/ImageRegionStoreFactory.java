@@ -23,6 +23,12 @@
 
 package qupath.lib.gui.images.stores;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Factory for creating an ImageRegionStore.
  * 
@@ -31,6 +37,8 @@ package qupath.lib.gui.images.stores;
  */
 public class ImageRegionStoreFactory {
 	
+	final private static Logger logger = LoggerFactory.getLogger(ImageRegionStoreFactory.class);
+	
 	/**
 	 * Create an ImageRegionStore.
 	 * 
@@ -43,4 +51,28 @@ public class ImageRegionStoreFactory {
 		return new DefaultImageRegionStore(tileCacheSize);
 	}
 	
+	/**
+	 * Create an ImageRegionStore, optionally with a second-level tile cache stored in a memory-mapped file.
+	 * <p>
+	 * Tiles evicted from the main (heap) cache are written to the file, and read back from there if they are
+	 * requested again - which is typically much faster than reading them from the original image.
+	 * 
+	 * @param tileCacheSize maximum memory for cached tiles in bytes, shared between original and rendered tiles
+	 * @param secondaryCacheDirectory directory in which to create the file for the second-level cache
+	 * @param secondaryCacheSize maximum size of the second-level cache, in bytes; if &lt;= 0, no second-level cache is used
+	 * @return
+	 */
+	public static DefaultImageRegionStore createImageRegionStore(final long tileCacheSize, final File secondaryCacheDirectory, final long secondaryCacheSize) {
+		var store = createImageRegionStore(tileCacheSize);
+		if (secondaryCacheDirectory != null && secondaryCacheSize > 0) {
+			try {
+				store.cache.setSecondaryCache(MappedBufferedImageCache.createCache(secondaryCacheDirectory, secondaryCacheSize));
+			} catch (IOException e) {
+				logger.warn("Unable to create secondary tile cache: {}", e.getLocalizedMessage());
+				logger.debug("", e);
+			}
+		}
+		return store;
+	}
+	
 }
@@ -0,0 +1,431 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Second-level cache that stores the pixels of BufferedImages in a memory-mapped file, outside the Java heap.
+ * <p>
+ * The file is used as a ring buffer: new tiles are always appended, and the oldest tiles are overwritten
+ * once the file is full.  Only the pixel data is written to the file; the (small) SampleModel &amp; ColorModel
+ * are kept on the heap so that the image can be reconstructed.
+ * <p>
+ * Reading a tile back is a bulk copy from the mapped file, which is generally much faster than
+ * decoding the tile again from the original image.
+ * 
+ * @author Pete Bankhead
+ * 
+ */
+class MappedBufferedImageCache implements SecondaryRegionCache<BufferedImage> {
+
+	final private static Logger logger = LoggerFactory.getLogger(MappedBufferedImageCache.class);
+
+	private static final String FILE_PREFIX = "tiles-";
+	private static final String FILE_SUFFIX = ".cache";
+
+	/**
+	 * Maximum size of each mapped region of the file; a single tile must fit within one region.
+	 */
+	private static final long MAX_REGION_SIZE = 256L * 1024L * 1024L;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileLock lock;
+	private final MappedByteBuffer[] regions;
+	private final long regionSize;
+	private final long capacity;
+
+	private final Map<RegionRequest, Slot> index = new ConcurrentHashMap<>();
+
+	private final Object writeLock = new Object();
+	// Position (not wrapped around) at which the next tile should be written
+	private long writePosition = 0;
+	// End of the last reserved space for writing; any data before (reservedEnd - capacity) has been overwritten
+	private volatile long reservedEnd = 0;
+
+	private volatile boolean closed = false;
+
+	private MappedBufferedImageCache(final File file, final RandomAccessFile raf, final FileLock lock, final long regionSize, final int nRegions) throws IOException {
+		this.file = file;
+		this.raf = raf;
+		this.lock = lock;
+		this.regionSize = regionSize;
+		this.capacity = regionSize * nRegions;
+		this.regions = new MappedByteBuffer[nRegions];
+		FileChannel channel = raf.getChannel();
+		for (int i = 0; i < nRegions; i++)
+			regions[i] = channel.map(MapMode.READ_WRITE, i * regionSize, regionSize);
+	}
+
+	/**
+	 * Create a new cache, backed by a temporary file within the specified directory.
+	 * <p>
+	 * Any files left behind by previous caches that are no longer in use will be deleted.
+	 * 
+	 * @param directory directory for the file; this will be created if necessary
+	 * @param maxSizeBytes maximum size of the file
+	 * @return
+	 * @throws IOException
+	 */
+	static MappedBufferedImageCache createCache(final File directory, final long maxSizeBytes) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create directory " + directory);
+		deleteUnusedFiles(directory);
+
+		long regionSize = Math.min(MAX_REGION_SIZE, maxSizeBytes);
+		int nRegions = (int)Math.max(1, maxSizeBytes / regionSize);
+
+		File file = File.createTempFile(FILE_PREFIX, FILE_SUFFIX, directory);
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(regionSize * nRegions);
+			FileLock lock = raf.getChannel().tryLock();
+			var cache = new MappedBufferedImageCache(file, raf, lock, regionSize, nRegions);
+			logger.info(String.format("Secondary tile cache: %.1f MB in %s", cache.capacity / (1024.0 * 1024.0), file));
+			return cache;
+		} catch (IOException e) {
+			raf.close();
+			file.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Delete cache files that are not locked, and so must have been left behind (e.g. if QuPath was not shut down cleanly).
+	 */
+	private static void deleteUnusedFiles(final File directory) {
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+		if (files == null)
+			return;
+		for (File file : files) {
+			boolean unused = false;
+			// The lock is released & the channel closed before we try to delete the file
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+					FileLock lock = channel.tryLock()) {
+				unused = lock != null;
+			} catch (IOException | OverlappingFileLockException e) {
+				logger.debug("Unable to check cache file {} ({})", file, e.getLocalizedMessage());
+			}
+			if (unused && file.delete())
+				logger.debug("Deleted unused cache file {}", file);
+		}
+	}
+
+
+	@Override
+	public boolean put(final RegionRequest request, final BufferedImage img) {
+		if (closed || img == null)
+			return false;
+
+		WritableRaster raster = img.getRaster();
+		if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+			return false;
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		if (!isSupported(dataBuffer))
+			return false;
+
+		int nBanks = dataBuffer.getNumBanks();
+		int[] bankLengths = new int[nBanks];
+		long nElements = 0;
+		for (int b = 0; b < nBanks; b++) {
+			bankLengths[b] = getBankLength(dataBuffer, b);
+			nElements += bankLengths[b];
+		}
+		long length = nElements * (DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8);
+		if (length == 0 || length > regionSize)
+			return false;
+
+		// Reserve space to write the data, without crossing the boundary between regions
+		long start;
+		boolean newRegion;
+		synchronized (writeLock) {
+			start = writePosition;
+			long regionEnd = (start / regionSize + 1) * regionSize;
+			if (start + length > regionEnd)
+				start = regionEnd;
+			newRegion = start % regionSize == 0;
+			writePosition = start + length;
+			reservedEnd = writePosition;
+		}
+		// Discard any tiles that have been overwritten
+		if (newRegion)
+			index.values().removeIf(s -> !isValid(s));
+
+		writeData(getBuffer(start), dataBuffer);
+		index.put(request, new Slot(start, dataBuffer, bankLengths, raster.getSampleModel(), img.getColorModel()));
+		return true;
+	}
+
+	@Override
+	public BufferedImage get(final RegionRequest request) {
+		if (closed)
+			return null;
+		Slot slot = index.get(request);
+		if (slot == null)
+			return null;
+		if (isValid(slot)) {
+			DataBuffer dataBuffer = readData(getBuffer(slot.start), slot);
+			// Check again, in case the data was overwritten while we were reading it
+			if (isValid(slot)) {
+				WritableRaster raster = Raster.createWritableRaster(slot.sampleModel, dataBuffer, null);
+				return new BufferedImage(slot.colorModel, raster, slot.colorModel.isAlphaPremultiplied(), null);
+			}
+		}
+		index.remove(request, slot);
+		return null;
+	}
+
+	@Override
+	public void remove(final RegionRequest request) {
+		index.remove(request);
+	}
+
+	@Override
+	public void clearCacheForPath(final String path) {
+		index.keySet().removeIf(r -> path.equals(r.getPath()));
+	}
+
+	@Override
+	public void clearCacheForRequestOverlap(final RegionRequest request) {
+		index.keySet().removeIf(r -> request.overlapsRequest(r));
+	}
+
+	@Override
+	public void clear() {
+		index.clear();
+	}
+
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		index.clear();
+		try {
+			if (lock != null)
+				lock.release();
+			raf.close();
+		} catch (IOException e) {
+			logger.warn("Unable to close cache file {}", file, e);
+		}
+		// The file can't always be deleted while it is still mapped (e.g. on Windows) -
+		// in which case it should be removed later by deleteUnusedFiles
+		if (!file.delete())
+			logger.debug("Unable to delete cache file {}", file);
+	}
+
+	/**
+	 * Get the size of the file used to store tiles.
+	 * 
+	 * @return
+	 */
+	long getCapacityBytes() {
+		return capacity;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Mapped tile cache: %d tiles, %.1f MB, %s", index.size(), capacity / (1024.0 * 1024.0), file);
+	}
+
+	private boolean isValid(final Slot slot) {
+		return slot.start >= reservedEnd - capacity;
+	}
+
+	/**
+	 * Get a new buffer starting at the specified (not wrapped around) position.
+	 */
+	private ByteBuffer getBuffer(final long position) {
+		long wrapped = position % capacity;
+		ByteBuffer buffer = regions[(int)(wrapped / regionSize)].duplicate().order(ByteOrder.nativeOrder());
+		buffer.position((int)(wrapped % regionSize));
+		return buffer;
+	}
+
+	private static boolean isSupported(final DataBuffer dataBuffer) {
+		return dataBuffer instanceof DataBufferByte ||
+				dataBuffer instanceof DataBufferUShort ||
+				dataBuffer instanceof DataBufferShort ||
+				dataBuffer instanceof DataBufferInt ||
+				dataBuffer instanceof DataBufferFloat ||
+				dataBuffer instanceof DataBufferDouble;
+	}
+
+	private static int getBankLength(final DataBuffer dataBuffer, final int bank) {
+		if (dataBuffer instanceof DataBufferByte)
+			return ((DataBufferByte)dataBuffer).getData(bank).length;
+		if (dataBuffer instanceof DataBufferUShort)
+			return ((DataBufferUShort)dataBuffer).getData(bank).length;
+		if (dataBuffer instanceof DataBufferShort)
+			return ((DataBufferShort)dataBuffer).getData(bank).length;
+		if (dataBuffer instanceof DataBufferInt)
+			return ((DataBufferInt)dataBuffer).getData(bank).length;
+		if (dataBuffer instanceof DataBufferFloat)
+			return ((DataBufferFloat)dataBuffer).getData(bank).length;
+		return ((DataBufferDouble)dataBuffer).getData(bank).length;
+	}
+
+	private static void writeData(final ByteBuffer buffer, final DataBuffer dataBuffer) {
+		for (int b = 0; b < dataBuffer.getNumBanks(); b++) {
+			switch (dataBuffer.getDataType()) {
+			case DataBuffer.TYPE_BYTE:
+				buffer.put(((DataBufferByte)dataBuffer).getData(b));
+				break;
+			case DataBuffer.TYPE_USHORT:
+				short[] us = ((DataBufferUShort)dataBuffer).getData(b);
+				buffer.asShortBuffer().put(us);
+				buffer.position(buffer.position() + us.length * 2);
+				break;
+			case DataBuffer.TYPE_SHORT:
+				short[] s = ((DataBufferShort)dataBuffer).getData(b);
+				buffer.asShortBuffer().put(s);
+				buffer.position(buffer.position() + s.length * 2);
+				break;
+			case DataBuffer.TYPE_INT:
+				int[] i = ((DataBufferInt)dataBuffer).getData(b);
+				buffer.asIntBuffer().put(i);
+				buffer.position(buffer.position() + i.length * 4);
+				break;
+			case DataBuffer.TYPE_FLOAT:
+				float[] f = ((DataBufferFloat)dataBuffer).getData(b);
+				buffer.asFloatBuffer().put(f);
+				buffer.position(buffer.position() + f.length * 4);
+				break;
+			case DataBuffer.TYPE_DOUBLE:
+				double[] d = ((DataBufferDouble)dataBuffer).getData(b);
+				buffer.asDoubleBuffer().put(d);
+				buffer.position(buffer.position() + d.length * 8);
+				break;
+			}
+		}
+	}
+
+	private static DataBuffer readData(final ByteBuffer buffer, final Slot slot) {
+		int nBanks = slot.bankLengths.length;
+		switch (slot.dataType) {
+		case DataBuffer.TYPE_BYTE:
+			byte[][] bytes = new byte[nBanks][];
+			for (int b = 0; b < nBanks; b++) {
+				bytes[b] = new byte[slot.bankLengths[b]];
+				buffer.get(bytes[b]);
+			}
+			return new DataBufferByte(bytes, slot.size, slot.offsets);
+		case DataBuffer.TYPE_USHORT:
+		case DataBuffer.TYPE_SHORT:
+			short[][] shorts = new short[nBanks][];
+			for (int b = 0; b < nBanks; b++) {
+				shorts[b] = new short[slot.bankLengths[b]];
+				buffer.asShortBuffer().get(shorts[b]);
+				buffer.position(buffer.position() + shorts[b].length * 2);
+			}
+			if (slot.dataType == DataBuffer.TYPE_USHORT)
+				return new DataBufferUShort(shorts, slot.size, slot.offsets);
+			return new DataBufferShort(shorts, slot.size, slot.offsets);
+		case DataBuffer.TYPE_INT:
+			int[][] ints = new int[nBanks][];
+			for (int b = 0; b < nBanks; b++) {
+				ints[b] = new int[slot.bankLengths[b]];
+				buffer.asIntBuffer().get(ints[b]);
+				buffer.position(buffer.position() + ints[b].length * 4);
+			}
+			return new DataBufferInt(ints, slot.size, slot.offsets);
+		case DataBuffer.TYPE_FLOAT:
+			float[][] floats = new float[nBanks][];
+			for (int b = 0; b < nBanks; b++) {
+				floats[b] = new float[slot.bankLengths[b]];
+				buffer.asFloatBuffer().get(floats[b]);
+				buffer.position(buffer.position() + floats[b].length * 4);
+			}
+			return new DataBufferFloat(floats, slot.size, slot.offsets);
+		case DataBuffer.TYPE_DOUBLE:
+			double[][] doubles = new double[nBanks][];
+			for (int b = 0; b < nBanks; b++) {
+				doubles[b] = new double[slot.bankLengths[b]];
+				buffer.asDoubleBuffer().get(doubles[b]);
+				buffer.position(buffer.position() + doubles[b].length * 8);
+			}
+			return new DataBufferDouble(doubles, slot.size, slot.offsets);
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + slot.dataType);
+		}
+	}
+
+
+	/**
+	 * Location of a tile within the file, along with the information needed to reconstruct the image.
+	 */
+	private static class Slot {
+
+		private final long start;
+		private final int dataType;
+		private final int size;
+		private final int[] offsets;
+		private final int[] bankLengths;
+		private final SampleModel sampleModel;
+		private final ColorModel colorModel;
+
+		Slot(final long start, final DataBuffer dataBuffer, final int[] bankLengths, final SampleModel sampleModel, final ColorModel colorModel) {
+			this.start = start;
+			this.dataType = dataBuffer.getDataType();
+			this.size = dataBuffer.getSize();
+			this.offsets = dataBuffer.getOffsets();
+			this.bankLengths = bankLengths;
+			this.sampleModel = sampleModel;
+			this.colorModel = colorModel;
+		}
+
+	}
+
+}
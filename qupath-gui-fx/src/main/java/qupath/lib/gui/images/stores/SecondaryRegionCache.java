@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Interface defining a second-level store for image regions, used to retain regions
+ * that have been evicted from a (heap-based) {@link RegionCache}.
+ * <p>
+ * Implementations are expected to be thread-safe, and are free to discard regions at any time.
+ * 
+ * @author Pete Bankhead
+ * 
+ * @param <T>
+ */
+interface SecondaryRegionCache<T> {
+
+	/**
+	 * Try to store a region.
+	 * 
+	 * @param request
+	 * @param img
+	 * @return true if the region was stored, false if it could not be (e.g. because it is too large or unsupported)
+	 */
+	boolean put(RegionRequest request, T img);
+
+	/**
+	 * Get a stored region, or null if the region is not available.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	T get(RegionRequest request);
+
+	void remove(RegionRequest request);
+
+	void clearCacheForPath(String path);
+
+	void clearCacheForRequestOverlap(RegionRequest request);
+
+	void clear();
+
+	/**
+	 * Release any resources used by the cache; it should not be used afterwards.
+	 */
+	void close();
+
+}
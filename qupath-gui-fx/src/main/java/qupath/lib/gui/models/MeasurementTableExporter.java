@@ -0,0 +1,600 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.models;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.SimpleThreadFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathObject;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+
+/**
+ * Helper class to write measurement tables to files without first building the entire table in memory.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ *   <li>Delimited text (e.g. CSV or tab-delimited), with a header row followed by one row per object.
+ *       Values containing the delimiter, a double quote or a line break are enclosed in double quotes, 
+ *       with any double quotes inside them doubled.</li>
+ *   <li>A compact binary columnar format, described below</li>
+ * </ul>
+ * The binary format is written using {@link DataOutputStream} (i.e. big-endian), and consists of one or more tables
+ * written consecutively.  Each table has the structure
+ * <pre>
+ *   int      magic number (0x51504D54, 'QPMT')
+ *   int      version (currently 2)
+ *   int      number of rows
+ *   int      number of columns
+ *   for each column:
+ *     string column name
+ *     byte   column type (0 = string, 1 = float)
+ *   for each column:
+ *     if float:  one float per row
+ *     if string: int number of distinct values, followed by each value (string), then one int index per row (-1 for null)
+ * </pre>
+ * where each string is written as an int giving the number of bytes, followed by the bytes of the string encoded as UTF-8.
+ * (Version 1 wrote strings using {@link DataOutputStream#writeUTF(String)}, which is limited to 65535 bytes and uses 
+ * a modified UTF-8 encoding.)
+ * Numeric values are stored as 32-bit floats, which matches the precision of most measurements stored within QuPath.
+ * <p>
+ * Measurements for all images in a project can be exported using {@link #exportProject(Project, Class, File, Format, int)},
+ * which processes several images in parallel.
+ * 
+ * @author Pete Bankhead
+ */
+public class MeasurementTableExporter {
+
+	final private static Logger logger = LoggerFactory.getLogger(MeasurementTableExporter.class);
+
+	/**
+	 * Magic number identifying the start of a table in the binary format.
+	 */
+	public static final int BINARY_MAGIC = 0x51504D54;
+
+	/**
+	 * Current version of the binary format.
+	 */
+	public static final int BINARY_VERSION = 2;
+
+	static final byte TYPE_STRING = 0;
+	static final byte TYPE_FLOAT = 1;
+
+	/**
+	 * Supported export formats.
+	 */
+	public static enum Format {
+		/**
+		 * Comma-separated values.
+		 */
+		CSV(",", ".csv"),
+		/**
+		 * Tab-separated values.
+		 */
+		TSV("\t", ".tsv"),
+		/**
+		 * Compact binary columnar format.
+		 */
+		BINARY(null, ".qpmt");
+
+		private final String delimiter;
+		private final String extension;
+
+		Format(final String delimiter, final String extension) {
+			this.delimiter = delimiter;
+			this.extension = extension;
+		}
+
+		/**
+		 * Get the delimiter used to separate columns, or null if this is not a delimited text format.
+		 * @return
+		 */
+		public String getDelimiter() {
+			return delimiter;
+		}
+
+		/**
+		 * Get the default file extension, including the dot.
+		 * @return
+		 */
+		public String getExtension() {
+			return extension;
+		}
+
+	}
+
+	private MeasurementTableExporter() {}
+
+
+	/**
+	 * Get the format to use for a file, based upon its extension.
+	 * Files ending with {@code .qpmt} use the binary format, {@code .tsv} and {@code .txt} are tab-delimited,
+	 * and all others are comma-delimited.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static Format getFormat(final File file) {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(Format.BINARY.getExtension()))
+			return Format.BINARY;
+		if (name.endsWith(Format.TSV.getExtension()) || name.endsWith(".txt"))
+			return Format.TSV;
+		return Format.CSV;
+	}
+
+
+	/**
+	 * Get the names of the columns that should be exported.
+	 * 
+	 * @param model
+	 * @param excludeColumns
+	 * @return
+	 */
+	static List<String> getColumnNames(final PathTableData<?> model, final Collection<String> excludeColumns) {
+		List<String> names = new ArrayList<>(model.getAllNames());
+		if (excludeColumns != null)
+			names.removeAll(excludeColumns);
+		return names;
+	}
+
+	/**
+	 * Write a table as delimited text, one row at a time.
+	 * 
+	 * @param model
+	 * @param delim
+	 * @param excludeColumns
+	 * @param writer the writer; this should be buffered for efficiency, and is not closed by this method
+	 * @throws IOException
+	 */
+	public static <T> void writeDelimited(final PathTableData<T> model, final String delim, final Collection<String> excludeColumns, final Writer writer) throws IOException {
+		List<String> names = getColumnNames(model, excludeColumns);
+		writeHeader(names, delim, writer);
+		writeRows(model, names, delim, writer);
+	}
+
+	private static void writeHeader(final List<String> names, final String delim, final Writer writer) throws IOException {
+		int nColumns = names.size();
+		for (int col = 0; col < nColumns; col++) {
+			writer.write(escapeValue(names.get(col), delim));
+			if (col < nColumns - 1)
+				writer.write(delim);
+		}
+		writer.write(System.lineSeparator());
+	}
+
+	private static <T> void writeRows(final PathTableData<T> model, final List<String> names, final String delim, final Writer writer) throws IOException {
+		int nColumns = names.size();
+		String newline = System.lineSeparator();
+		for (T object : model.getEntries()) {
+			for (int col = 0; col < nColumns; col++) {
+				String val = model.getStringValue(object, names.get(col));
+				if (val != null)
+					writer.write(escapeValue(val, delim));
+				if (col < nColumns - 1)
+					writer.write(delim);
+			}
+			writer.write(newline);
+		}
+	}
+
+	/**
+	 * Escape a value for delimited text, by enclosing it in double quotes if it contains the delimiter, 
+	 * a double quote or a line break.
+	 * 
+	 * @param value
+	 * @param delim
+	 * @return the value, quoted if necessary
+	 */
+	static String escapeValue(final String value, final String delim) {
+		if (!value.contains(delim) && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+			return value;
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Read the next record from delimited text written by {@link #writeDelimited(PathTableData, String, Collection, Writer)}, 
+	 * removing any quotes added by {@link #escapeValue(String, String)}.
+	 * A record is usually a single line, but quoted values may contain line breaks.
+	 * 
+	 * @param reader
+	 * @param delim the delimiter, which must be a single character
+	 * @return the values in the record, or null if there are no more records
+	 * @throws IOException
+	 */
+	static List<String> readRecord(final BufferedReader reader, final char delim) throws IOException {
+		int c = reader.read();
+		if (c < 0)
+			return null;
+		List<String> values = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		boolean inQuotes = false;
+		while (c >= 0) {
+			if (inQuotes) {
+				if (c == '"') {
+					// A doubled quote is part of the value, otherwise the value has ended
+					reader.mark(1);
+					if (reader.read() == '"')
+						sb.append('"');
+					else {
+						reader.reset();
+						inQuotes = false;
+					}
+				} else
+					sb.append((char)c);
+			} else if (c == '"' && sb.length() == 0)
+				inQuotes = true;
+			else if (c == delim) {
+				values.add(sb.toString());
+				sb.setLength(0);
+			} else if (c == '\n')
+				break;
+			else if (c == '\r') {
+				reader.mark(1);
+				if (reader.read() != '\n')
+					reader.reset();
+				break;
+			} else
+				sb.append((char)c);
+			c = reader.read();
+		}
+		values.add(sb.toString());
+		return values;
+	}
+
+	/**
+	 * Write a string for the binary format, as the number of bytes followed by the UTF-8 encoded bytes.
+	 * Unlike {@link DataOutputStream#writeUTF(String)}, this isn't limited to 65535 bytes.
+	 * 
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Write a table in the binary columnar format.
+	 * 
+	 * @param model
+	 * @param excludeColumns
+	 * @param stream the output stream; this should be buffered for efficiency, and is not closed by this method
+	 * @throws IOException
+	 */
+	public static <T> void writeBinary(final PathTableData<T> model, final Collection<String> excludeColumns, final OutputStream stream) throws IOException {
+		List<String> names = getColumnNames(model, excludeColumns);
+		Set<String> numericNames = new HashSet<>(model.getMeasurementNames());
+		List<T> entries = model.getEntries();
+		int nRows = entries.size();
+
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(BINARY_MAGIC);
+		out.writeInt(BINARY_VERSION);
+		out.writeInt(nRows);
+		out.writeInt(names.size());
+		for (String name : names) {
+			writeString(out, name);
+			out.writeByte(numericNames.contains(name) ? TYPE_FLOAT : TYPE_STRING);
+		}
+
+		int[] indices = new int[nRows];
+		for (String name : names) {
+			if (numericNames.contains(name)) {
+				for (T entry : entries)
+					out.writeFloat((float)model.getNumericValue(entry, name));
+			} else {
+				// Dictionary-encode strings, since many values tend to be repeated (e.g. image & class names)
+				Map<String, Integer> dictionary = new LinkedHashMap<>();
+				int row = 0;
+				for (T entry : entries) {
+					String val = model.getStringValue(entry, name);
+					indices[row++] = val == null ? -1 : dictionary.computeIfAbsent(val, v -> dictionary.size());
+				}
+				out.writeInt(dictionary.size());
+				for (String val : dictionary.keySet())
+					writeString(out, val);
+				for (int i = 0; i < nRows; i++)
+					out.writeInt(indices[i]);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write a table to a file in the specified format.
+	 * 
+	 * @param model
+	 * @param excludeColumns
+	 * @param path
+	 * @param format
+	 * @throws IOException
+	 */
+	public static <T> void writeTable(final PathTableData<T> model, final Collection<String> excludeColumns, final Path path, final Format format) throws IOException {
+		if (format == Format.BINARY) {
+			try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(path))) {
+				writeBinary(model, excludeColumns, stream);
+			}
+		} else
+			writeTable(model, excludeColumns, path, format.getDelimiter());
+	}
+
+	/**
+	 * Write a table to a file as delimited text, using UTF-8 encoding.
+	 * 
+	 * @param model
+	 * @param excludeColumns
+	 * @param path
+	 * @param delim
+	 * @throws IOException
+	 */
+	public static <T> void writeTable(final PathTableData<T> model, final Collection<String> excludeColumns, final Path path, final String delim) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeDelimited(model, delim, excludeColumns, writer);
+		}
+	}
+
+
+	/**
+	 * Export measurements for all images in a project.
+	 * <p>
+	 * If {@code output} is an existing directory, one file is written per image.
+	 * Otherwise, measurements for all images are combined in a single file.  For delimited text, the header contains
+	 * all columns found for any image, and values are left empty for images that lack a column.
+	 * For the binary format, the tables for each image are written consecutively.
+	 * 
+	 * @param project the project
+	 * @param type the type of object to export, e.g. PathDetectionObject.class
+	 * @param output the output file or directory
+	 * @param format the export format
+	 * @param nThreads the maximum number of images to process in parallel
+	 * @return the number of images exported successfully
+	 * @throws IOException if the combined output file could not be written
+	 * @throws InterruptedException
+	 */
+	public static int exportProject(final Project<BufferedImage> project, final Class<? extends PathObject> type, final File output, final Format format, final int nThreads) throws IOException, InterruptedException {
+		List<ProjectImageEntry<BufferedImage>> entries = project.getImageList();
+		boolean combine = !output.isDirectory();
+		Path tempDir = combine ? Files.createTempDirectory("qupath-export") : null;
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nThreads), new SimpleThreadFactory("measurement-export-", true));
+		List<Future<ExportPart>> futures = new ArrayList<>();
+		try {
+			int count = 0;
+			Set<String> fileNames = new HashSet<>();
+			for (ProjectImageEntry<BufferedImage> entry : entries) {
+				Path path;
+				if (combine)
+					path = tempDir.resolve("part-" + (count++) + format.getExtension());
+				else
+					path = new File(output, createFileName(entry.getImageName(), format.getExtension(), fileNames)).toPath();
+				futures.add(pool.submit(() -> exportEntry(entry, type, path, format)));
+			}
+
+			List<ExportPart> parts = new ArrayList<>();
+			for (Future<ExportPart> future : futures) {
+				try {
+					ExportPart part = future.get();
+					if (part != null)
+						parts.add(part);
+				} catch (ExecutionException e) {
+					logger.error("Error exporting measurements", e.getCause());
+				}
+			}
+
+			if (combine) {
+				if (format == Format.BINARY)
+					concatenate(parts, output.toPath());
+				else
+					mergeDelimited(parts, output.toPath(), format.getDelimiter());
+			}
+			logger.info("Exported measurements for {}/{} images", parts.size(), entries.size());
+			return parts.size();
+		} catch (InterruptedException e) {
+			for (Future<ExportPart> future : futures)
+				future.cancel(true);
+			throw e;
+		} finally {
+			pool.shutdown();
+			if (tempDir != null) {
+				try {
+					pool.awaitTermination(1, TimeUnit.MINUTES);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				deleteQuietly(tempDir);
+			}
+		}
+	}
+
+
+	/**
+	 * Create a file name for an image's measurements, replacing any characters that aren't valid in file names 
+	 * and appending a number if necessary to avoid any name that has already been used.
+	 * 
+	 * @param imageName
+	 * @param extension the file extension, including the dot
+	 * @param usedNames names that have already been used; the new name is added to this set in lower case, 
+	 *                  since some file systems are case-insensitive
+	 * @return
+	 */
+	static String createFileName(final String imageName, final String extension, final Set<String> usedNames) {
+		String baseName = imageName == null ? "" : imageName.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+		// Windows doesn't permit names ending with a dot or space
+		baseName = baseName.replaceAll("[. ]+$", "");
+		if (baseName.isEmpty())
+			baseName = "Image";
+		String name = baseName + extension;
+		int count = 1;
+		while (!usedNames.add(name.toLowerCase()))
+			name = baseName + " (" + (++count) + ")" + extension;
+		return name;
+	}
+
+	/**
+	 * The output written for a single image.
+	 */
+	private static class ExportPart {
+
+		private final Path path;
+		private final List<String> columns;
+
+		ExportPart(final Path path, final List<String> columns) {
+			this.path = path;
+			this.columns = columns;
+		}
+
+	}
+
+	private static ExportPart exportEntry(final ProjectImageEntry<BufferedImage> entry, final Class<? extends PathObject> type, final Path path, final Format format) {
+		ImageData<BufferedImage> imageData = null;
+		try {
+			imageData = entry.readImageData();
+			if (imageData == null) {
+				logger.warn("Unable to open {} - will be skipped", entry.getImageName());
+				return null;
+			}
+			ObservableMeasurementTableData model = new ObservableMeasurementTableData();
+			model.setImageData(imageData, imageData.getHierarchy().getObjects(null, type));
+			List<String> columns = getColumnNames(model, Collections.emptyList());
+			writeTable(model, Collections.emptyList(), path, format);
+			logger.debug("Exported {} rows for {}", model.getEntries().size(), entry.getImageName());
+			return new ExportPart(path, columns);
+		} catch (Exception e) {
+			logger.error("Unable to export measurements for " + entry.getImageName(), e);
+			return null;
+		} finally {
+			if (imageData != null) {
+				try {
+					imageData.getServer().close();
+				} catch (Exception e) {
+					logger.warn("Unable to close server for {}: {}", entry.getImageName(), e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	private static void concatenate(final List<ExportPart> parts, final Path output) throws IOException {
+		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(output))) {
+			for (ExportPart part : parts)
+				Files.copy(part.path, stream);
+		}
+	}
+
+	/**
+	 * Merge delimited text files, using a header containing all the columns of all the files.
+	 * Files that already contain all the columns in the same order are copied without parsing.
+	 * The delimiter must be a single character.
+	 */
+	private static void mergeDelimited(final List<ExportPart> parts, final Path output, final String delim) throws IOException {
+		Set<String> allColumns = new LinkedHashSet<>();
+		for (ExportPart part : parts)
+			allColumns.addAll(part.columns);
+		List<String> columns = new ArrayList<>(allColumns);
+		Map<String, Integer> columnIndices = new HashMap<>();
+		for (String column : columns)
+			columnIndices.put(column, columnIndices.size());
+
+		char delimChar = delim.charAt(0);
+		String newline = System.lineSeparator();
+		try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			writeHeader(columns, delim, writer);
+			String[] values = new String[columns.size()];
+			for (ExportPart part : parts) {
+				boolean sameColumns = part.columns.equals(columns);
+				int[] mapping = new int[part.columns.size()];
+				for (int i = 0; i < mapping.length; i++)
+					mapping[i] = columnIndices.get(part.columns.get(i));
+				try (BufferedReader reader = Files.newBufferedReader(part.path, StandardCharsets.UTF_8)) {
+					// Skip header
+					readRecord(reader, delimChar);
+					if (sameColumns) {
+						reader.transferTo(writer);
+						continue;
+					}
+					List<String> partValues;
+					while ((partValues = readRecord(reader, delimChar)) != null) {
+						if (partValues.size() != mapping.length) {
+							logger.warn("Unexpected number of columns in row ({}, expected {}) - row will be written unchanged", partValues.size(), mapping.length);
+							for (int i = 0; i < partValues.size(); i++)
+								partValues.set(i, escapeValue(partValues.get(i), delim));
+							writer.write(String.join(delim, partValues));
+							writer.write(newline);
+							continue;
+						}
+						for (int i = 0; i < values.length; i++)
+							values[i] = "";
+						for (int i = 0; i < mapping.length; i++)
+							values[mapping[i]] = escapeValue(partValues.get(i), delim);
+						writer.write(String.join(delim, values));
+						writer.write(newline);
+					}
+				}
+			}
+		}
+	}
+
+	private static void deleteQuietly(final Path dir) {
+		try {
+			for (File file : dir.toFile().listFiles())
+				Files.deleteIfExists(file.toPath());
+			Files.deleteIfExists(dir);
+		} catch (IOException e) {
+			logger.warn("Unable to delete temporary directory {}: {}", dir, e.getLocalizedMessage());
+		}
+	}
+
+}
@@ -59,6 +59,7 @@ import qupath.lib.gui.models.ObservableMeasurementTableData.ROICentroidMeasureme
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.measurements.MeasurementColumns;
 import qupath.lib.objects.MetadataStore;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathDetectionObject;
@@ -331,9 +332,7 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 			return values;
 		}
 		// Good news! We just need a regular measurement
-		for (int i = 0; i < filterList.size(); i++)
-			values[i] = filterList.get(i).getMeasurementList().getMeasurementValue(column);
-		return values;
+		return MeasurementColumns.getDoubleValues(filterList, column);
 	}
 	
 	@Override
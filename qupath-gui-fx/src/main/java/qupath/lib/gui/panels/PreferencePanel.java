@@ -172,6 +172,12 @@ public class PreferencePanel {
 			category,
 			"Store image tiles for hosted images of each project in a local cache.\nThis avoids requiring lengthy HTTP requests every time an image is (re)analysed or viewed, at the cost of needing more local storage space.");
 		
+		addPropertyPreference(PathPrefs.secondaryTileCacheSizeMBProperty(), Integer.class,
+			"Secondary tile cache size (MB)",
+			category,
+			"Keep image tiles that no longer fit in memory in a file within the QuPath user directory, so they can be reused without reading the image again.\n"
+			+ "This can help when working with large images, especially if reading tiles is slow.\nSet to 0 to disable. Changes take effect after restarting QuPath.");
+		
 		addPropertyPreference(PathPrefs.tmaExportDownsampleProperty(), Double.class,
 			"TMA export downsample factor",
 			category,
@@ -356,6 +362,11 @@ public class PreferencePanel {
 				category,
 				"Thickness (in image pixels) for detection object outlines (default = 2)");
 
+		addPropertyPreference(PathPrefs.detectionDensityMapProperty(), Boolean.class,
+				"Show detection density when zoomed out",
+				category,
+				"Show detections as a density map when they are too small to see individually - this is much faster for images with very many detections");
+
 		addPropertyPreference(PathPrefs.useSelectedColorProperty(), Boolean.class,
 				"Use selected color",
 				category,
@@ -86,8 +86,9 @@ public class PluginRunnerFX extends AbstractPluginRunner<BufferedImage> {
 	}
 	
 	@Override
-	public synchronized void runTasks(Collection<Runnable> tasks) {
-		boolean delayRepaints = qupath != null && qupath.getViewer() != null && repaintDelayMillis > 0;
+	public void runTasks(Collection<Runnable> tasks) {
+		// Don't synchronize, since tasks may run subtasks using the same runner from other threads
+		boolean delayRepaints = !isRunningInTask() && qupath != null && qupath.getViewer() != null && repaintDelayMillis > 0;
 		if (delayRepaints)
 			qupath.getViewer().setMinimumRepaintSpacingMillis(repaintDelayMillis);
 		try {
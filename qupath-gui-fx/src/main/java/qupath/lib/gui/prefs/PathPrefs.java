@@ -1031,6 +1031,38 @@ public class PathPrefs {
 		}
 	
 	
+	private static IntegerProperty secondaryTileCacheSizeMB = createPersistentPreference("secondaryTileCacheSizeMB", 0);
+	
+	/**
+	 * Size of a second-level tile cache (in MB), stored in a memory-mapped file within the user directory.
+	 * Tiles evicted from the main tile cache are kept here, so they don't need to be read from the image again.
+	 * A value &lt;= 0 means that no second-level cache is used.
+	 * <p>
+	 * Changes only take effect after QuPath is restarted.
+	 * 
+	 * @return
+	 */
+	public static IntegerProperty secondaryTileCacheSizeMBProperty() {
+		return secondaryTileCacheSizeMB;
+	}
+	
+	public static long getSecondaryTileCacheSizeBytes() {
+		return Math.max(0, secondaryTileCacheSizeMB.get()) * 1024L * 1024L;
+	}
+	
+	/**
+	 * Get the directory used for the second-level tile cache, or null if no user directory has been set.
+	 * 
+	 * @return
+	 */
+	public static String getSecondaryTileCachePath() {
+		String userPath = getUserPath();
+		if (userPath == null)
+			return null;
+		return new File(userPath, "cache").getAbsolutePath();
+	}
+	
+	
 	public static boolean showTMAToolTips() {
 		return true;
 	}
@@ -1624,6 +1656,23 @@ public class PathPrefs {
     	return strokeThickThickness.get();
     }	
 	
+	private static BooleanProperty detectionDensityMap = createPersistentPreference("detectionDensityMap", true);
+	
+	/**
+	 * Show detections as a density map when the viewer is zoomed out so far that most detections are smaller than a pixel.
+	 */
+	public static BooleanProperty detectionDensityMapProperty() {
+		return detectionDensityMap;
+	}
+	
+	public static boolean getDetectionDensityMap() {
+		return detectionDensityMap.get();
+	}
+	
+	public static void setDetectionDensityMap(boolean useDensityMap) {
+		detectionDensityMap.set(useDensityMap);
+	}
+	
 	
 	/*
 	 * Default_Hematoxylin
@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import javax.script.ScriptContext;
@@ -223,6 +224,8 @@ public class DefaultScriptEditor implements ScriptEditor {
 	private BooleanProperty sendLogToConsole = PathPrefs.createPersistentPreference("scriptingSendLogToConsole", true);
 	private BooleanProperty outputScriptStartTime = PathPrefs.createPersistentPreference("scriptingOutputScriptStartTime", false);
 	private BooleanProperty autoClearConsole = PathPrefs.createPersistentPreference("scriptingAutoClearConsole", false);
+	// Run for project sequentially by default, since scripts may rely on images being processed one at a time
+	private BooleanProperty runProjectInParallel = PathPrefs.createPersistentPreference("scriptingRunProjectInParallel", false);
 	
 	// Regex pattern used to identify whether a script should be run in the JavaFX Platform thread
 	// If so, this line should be included at the top of the script
@@ -533,7 +536,8 @@ public class DefaultScriptEditor implements ScriptEditor {
 				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(useDefaultBindings, "Include default bindings")),
 				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(sendLogToConsole, "Send output to log")),
 				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(outputScriptStartTime, "Log script start time")),
-				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(autoClearConsole, "Auto clear console"))
+				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(autoClearConsole, "Auto clear console")),
+				QuPathGUI.createCheckMenuItem(QuPathGUI.createSelectableCommandAction(runProjectInParallel, "Run for project in parallel"))
 				);
 		menubar.getMenus().add(menuRun);
 
@@ -708,6 +712,27 @@ public class DefaultScriptEditor implements ScriptEditor {
 	 * @return
 	 */
 	public static Object executeScript(final ScriptEngine engine, final String script, final ImageData<BufferedImage> imageData, final boolean importDefaultMethods, final ScriptContext context) {
+		try {
+			return evaluateScript(engine, script, imageData, importDefaultMethods, context);
+		} catch (ScriptException e) {
+			// Error has already been reported
+			return null;
+		}
+	}
+	
+	/**
+	 * Execute a script using the specific ScriptEngine, reporting any errors to the error writer of the context 
+	 * before rethrowing the exception.
+	 * 
+	 * @param engine
+	 * @param script
+	 * @param imageData
+	 * @param importDefaultMethods
+	 * @param context
+	 * @return
+	 * @throws ScriptException
+	 */
+	static Object evaluateScript(final ScriptEngine engine, final String script, final ImageData<BufferedImage> imageData, final boolean importDefaultMethods, final ScriptContext context) throws ScriptException {
 		
 		// Set the current ImageData if we can
 		QP.setBatchImageData((ImageData<?>)imageData);
@@ -803,6 +828,7 @@ public class DefaultScriptEditor implements ScriptEditor {
 				logger.error("Script error: {}", e1.getLocalizedMessage(), e1);
 //				e1.printStackTrace();
 			}
+			throw e;
 		} finally {
 			QP.setBatchImageData(null);
 		}
@@ -1239,74 +1265,81 @@ public class DefaultScriptEditor implements ScriptEditor {
 		private Project<BufferedImage> project;
 		private Collection<ProjectImageEntry<BufferedImage>> imagesToProcess;
 		private ScriptTab tab;
+		private String script;
 		private boolean quietCancel = false;
 		private boolean doSave = false;
+		private ProjectBatchRunner runner;
 		
 		ProjectTask(final Project<BufferedImage> project, final Collection<ProjectImageEntry<BufferedImage>> imagesToProcess, final ScriptTab tab, final boolean doSave) {
 			this.project = project;
 			this.imagesToProcess = imagesToProcess;
 			this.tab = tab;
+			this.script = tab.getEditorComponent().getText();
 			this.doSave = doSave;
 		}
 		
-		public void quietCancel() {
+		public synchronized void quietCancel() {
 			this.quietCancel = true;
+			if (runner != null)
+				runner.cancel();
 		}
 
-		public boolean isQuietlyCancelled() {
+		public synchronized boolean isQuietlyCancelled() {
 			return quietCancel;
 		}
 
 		@Override
 		public Void call() {
 			
-			long startTime = System.currentTimeMillis();
+			Language language = tab.getLanguage();
+			ScriptEditorControl console = tab.getConsoleComponent();
 			
-			int counter = 0;
-			for (ProjectImageEntry<BufferedImage> entry : imagesToProcess) {
-				try {
-					// Stop
-					if (isQuietlyCancelled() || isCancelled()) {
-						logger.warn("Script cancelled with " + (imagesToProcess.size() - counter) + " image(s) remaining");
-						break;
-					}
-					
-					updateProgress(counter, imagesToProcess.size());
-					counter++;
-					updateMessage(entry.getImageName() + " (" + counter + "/" + imagesToProcess.size() + ")");
-					
-					// Create a new region store if we need one
-					System.gc();
-
-					// Open saved data if there is any, or else the image itself
-					ImageData<BufferedImage> imageData = (ImageData<BufferedImage>)entry.readImageData();
-					if (imageData == null) {
-						logger.warn("Unable to open {} - will be skipped", entry.getImageName());
-						continue;
-					}
-//					QPEx.setBatchImageData(imageData);
-					executeScript(tab, tab.getEditorComponent().getText(), imageData);
-					if (doSave)
-						entry.saveImageData(imageData);
-					imageData.getServer().close();
-				} catch (Exception e) {
-					logger.error("Error running batch script: {}", e);
-				}
-			}
-			updateProgress(imagesToProcess.size(), imagesToProcess.size());
+			AtomicInteger counter = new AtomicInteger(0);
+			int nImages = imagesToProcess.size();
+			updateProgress(0, nImages);
+			
+			ProjectBatchRunner runner = new ProjectBatchRunner(() -> manager.getEngineByName(language.toString()), script)
+					.setThreads(runProjectInParallel.get() ? PathPrefs.getNumCommandThreads() : 1)
+					.setImportDefaultMethods(useDefaultBindings.get())
+					.setSave(doSave)
+					.setContextFactory(entry -> {
+						ScriptContext context = new SimpleScriptContext();
+						context.setWriter(new ScriptConsoleWriter(console, false));
+						context.setErrorWriter(new ScriptConsoleWriter(console, true));
+						return context;
+					})
+					.setListener(new ProjectBatchRunner.BatchListener() {
+						@Override
+						public void imageStarted(ProjectImageEntry<BufferedImage> entry) {
+							updateMessage(entry.getImageName() + " (" + (counter.get() + 1) + "/" + nImages + ")");
+						}
+
+						@Override
+						public void imageCompleted(ProjectBatchRunner.ImageResult result) {
+							updateProgress(counter.incrementAndGet(), nImages);
+						}
+					});
 			
-			long endTime = System.currentTimeMillis();
+			synchronized (this) {
+				this.runner = runner;
+				if (quietCancel || isCancelled())
+					runner.cancel();
+			}
 			
-			long timeMillis = endTime - startTime;
-			String time = null;
-			if (timeMillis > 1000*60)
-				time = String.format("Total processing time: %.2f minutes", timeMillis/(1000.0 * 60.0));
-			else if (timeMillis > 1000)
-				time = String.format("Total processing time: %.2f seconds", timeMillis/(1000.0));
-			else
-				time = String.format("Total processing time: %d milliseconds", timeMillis);
-			logger.info("Processed {} images", imagesToProcess.size());
-			logger.info(time);
+			LoggingAppender.getInstance().addTextComponent(console);
+			try {
+				if (outputScriptStartTime.get())
+					logger.info("Starting script at {}", new Date());
+				List<ProjectBatchRunner.ImageResult> results = runner.run(project, imagesToProcess);
+				long nCancelled = results.stream().filter(r -> r.getStatus() == ProjectBatchRunner.Status.CANCELLED).count();
+				if (nCancelled > 0)
+					logger.warn("Script cancelled with " + nCancelled + " image(s) remaining");
+			} catch (InterruptedException e) {
+				logger.warn("Batch script interrupted");
+			} finally {
+				LoggingAppender.getInstance().removeTextComponent(console);
+			}
+			updateProgress(nImages, nImages);
 			
 			return null;
 		}
@@ -0,0 +1,416 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.scripting;
+
+import java.awt.image.BufferedImage;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.SimpleScriptContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.SimpleThreadFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+import qupath.lib.scripting.QP;
+
+/**
+ * Helper class to run a script for multiple images within a project, optionally processing several images concurrently.
+ * <p>
+ * By default, images are processed one at a time.  If more threads are requested, the number of images processed 
+ * at the same time is limited both by the number of threads and by the available memory, given an estimate of 
+ * the memory required for each image.
+ * Each image is processed in its own thread with its own {@link ScriptEngine}, so that scripts cannot interfere
+ * with one another through shared variables.
+ * <p>
+ * A failure when processing one image is recorded, but does not prevent other images from being processed.
+ * 
+ * @author Pete Bankhead
+ */
+public class ProjectBatchRunner {
+
+	final private static Logger logger = LoggerFactory.getLogger(ProjectBatchRunner.class);
+
+	/**
+	 * Default estimate of the memory required to process a single image, in MB.
+	 */
+	public static final long DEFAULT_MEMORY_PER_IMAGE_MB = 2048;
+
+	/**
+	 * Fraction of the maximum heap size that may be used when determining how many images to process concurrently.
+	 */
+	private static final double MAX_MEMORY_FRACTION = 0.75;
+
+	/**
+	 * Status of processing a single image.
+	 */
+	public static enum Status {
+		/**
+		 * The script completed successfully.
+		 */
+		SUCCEEDED,
+		/**
+		 * The script threw an exception, or the data could not be saved.
+		 */
+		FAILED,
+		/**
+		 * The image could not be opened, and so the script was not run.
+		 */
+		SKIPPED,
+		/**
+		 * Processing was cancelled before the script was run.
+		 */
+		CANCELLED
+	}
+
+	/**
+	 * Listener to be notified as images are processed.
+	 * <p>
+	 * Note that methods may be called from multiple threads.
+	 */
+	public static interface BatchListener {
+
+		/**
+		 * Called before an image is opened.
+		 * @param entry
+		 */
+		public default void imageStarted(ProjectImageEntry<BufferedImage> entry) {}
+
+		/**
+		 * Called after an image has been processed (successfully or not).
+		 * @param result
+		 */
+		public void imageCompleted(ImageResult result);
+
+	}
+
+	/**
+	 * The result of processing a single image.
+	 */
+	public static class ImageResult {
+
+		private final ProjectImageEntry<BufferedImage> entry;
+		private final Status status;
+		private final long timeMillis;
+		private final Throwable error;
+
+		private ImageResult(final ProjectImageEntry<BufferedImage> entry, final Status status, final long timeMillis, final Throwable error) {
+			this.entry = entry;
+			this.status = status;
+			this.timeMillis = timeMillis;
+			this.error = error;
+		}
+
+		/**
+		 * Get the project entry for the image.
+		 * @return
+		 */
+		public ProjectImageEntry<BufferedImage> getEntry() {
+			return entry;
+		}
+
+		/**
+		 * Get the status indicating whether processing succeeded.
+		 * @return
+		 */
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Get the time taken to open, process and (optionally) save the image, in milliseconds.
+		 * @return
+		 */
+		public long getTimeMillis() {
+			return timeMillis;
+		}
+
+		/**
+		 * Get the error that caused processing to fail, or null if there was no error.
+		 * @return
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return entry.getImageName() + ": " + status + " (" + timeMillis + " ms)";
+		}
+
+	}
+
+	private final Supplier<ScriptEngine> engineSupplier;
+	private final String script;
+
+	private int nThreads = 1;
+	private long memoryPerImage = DEFAULT_MEMORY_PER_IMAGE_MB * 1024L * 1024L;
+	private boolean importDefaultMethods = true;
+	private boolean doSave = false;
+	private Function<ProjectImageEntry<BufferedImage>, ScriptContext> contextFactory = ProjectBatchRunner::createDefaultContext;
+	private BatchListener listener;
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param engineSupplier supplier of script engines; this is called once for each image, and should return a new engine each time
+	 * @param script the script to run
+	 */
+	public ProjectBatchRunner(final Supplier<ScriptEngine> engineSupplier, final String script) {
+		this.engineSupplier = engineSupplier;
+		this.script = script;
+	}
+
+	/**
+	 * Set the maximum number of images to process concurrently.
+	 * The default is 1, since scripts written to process images sequentially may not be safe to run in parallel 
+	 * (e.g. if they write to a shared file).
+	 * @param nThreads
+	 * @return this runner
+	 */
+	public ProjectBatchRunner setThreads(final int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+		return this;
+	}
+
+	/**
+	 * Set an estimate of the memory required to process a single image, in bytes.
+	 * This is used to limit the number of images processed concurrently.
+	 * @param bytes
+	 * @return this runner
+	 */
+	public ProjectBatchRunner setMemoryPerImage(final long bytes) {
+		this.memoryPerImage = Math.max(1, bytes);
+		return this;
+	}
+
+	/**
+	 * Specify whether the default scripting methods should be imported before running the script.
+	 * @param importDefaultMethods
+	 * @return this runner
+	 */
+	public ProjectBatchRunner setImportDefaultMethods(final boolean importDefaultMethods) {
+		this.importDefaultMethods = importDefaultMethods;
+		return this;
+	}
+
+	/**
+	 * Specify whether the data for each image should be saved after the script has been run successfully.
+	 * @param doSave
+	 * @return this runner
+	 */
+	public ProjectBatchRunner setSave(final boolean doSave) {
+		this.doSave = doSave;
+		return this;
+	}
+
+	/**
+	 * Set the function used to create a ScriptContext for each image.
+	 * By default, output is sent to {@code System.out} and {@code System.err}.
+	 * @param contextFactory
+	 * @return this runner
+	 */
+	public ProjectBatchRunner setContextFactory(final Function<ProjectImageEntry<BufferedImage>, ScriptContext> contextFactory) {
+		this.contextFactory = contextFactory == null ? ProjectBatchRunner::createDefaultContext : contextFactory;
+		return this;
+	}
+
+	/**
+	 * Set a listener to be notified as images are processed.
+	 * @param listener
+	 * @return this runner
+	 */
+	public ProjectBatchRunner setListener(final BatchListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Request that processing stops.  Images that are currently being processed will be completed,
+	 * but no new images will be started.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Query whether {@link #cancel()} has been called.
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Get the number of images that will be processed concurrently, taking into account the requested
+	 * number of threads and the available memory.
+	 * @return
+	 */
+	public int getParallelism() {
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		long nByMemory = (long)(maxMemory * MAX_MEMORY_FRACTION / memoryPerImage);
+		return (int)Math.max(1, Math.min(nThreads, nByMemory));
+	}
+
+	/**
+	 * Run the script for the specified images, blocking until processing is complete.
+	 * 
+	 * @param project the project containing the images; this is returned by {@code getProject()} when called from within the script
+	 * @param entries the images to process
+	 * @return the results, in the same order as the entries
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	public List<ImageResult> run(final Project<BufferedImage> project, final Collection<ProjectImageEntry<BufferedImage>> entries) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+
+		int parallelism = Math.min(getParallelism(), Math.max(1, entries.size()));
+		logger.info("Running script for {} images ({} in parallel)", entries.size(), parallelism);
+
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, new SimpleThreadFactory("batch-script-", true));
+		List<Future<ImageResult>> futures = new ArrayList<>();
+		try {
+			for (ProjectImageEntry<BufferedImage> entry : entries)
+				futures.add(pool.submit(() -> processEntry(project, entry)));
+
+			List<ImageResult> results = new ArrayList<>();
+			for (Future<ImageResult> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// Shouldn't happen, since processEntry catches everything
+					logger.error("Error running batch script", e.getCause());
+				}
+			}
+			logSummary(results, System.currentTimeMillis() - startTime);
+			return results;
+		} catch (InterruptedException e) {
+			cancel();
+			for (Future<ImageResult> future : futures)
+				future.cancel(true);
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	private ImageResult processEntry(final Project<BufferedImage> project, final ProjectImageEntry<BufferedImage> entry) {
+		if (cancelled)
+			return notify(new ImageResult(entry, Status.CANCELLED, 0, null));
+
+		if (listener != null)
+			listener.imageStarted(entry);
+
+		long startTime = System.currentTimeMillis();
+		Status status = Status.SUCCEEDED;
+		Throwable error = null;
+		ImageData<BufferedImage> imageData = null;
+		Project<?> previousProject = QP.setBatchProject(project);
+		try {
+			imageData = entry.readImageData();
+			if (imageData == null) {
+				logger.warn("Unable to open {} - will be skipped", entry.getImageName());
+				status = Status.SKIPPED;
+			} else {
+				ScriptContext context = contextFactory.apply(entry);
+				DefaultScriptEditor.evaluateScript(engineSupplier.get(), script, imageData, importDefaultMethods, context);
+				if (doSave)
+					entry.saveImageData(imageData);
+			}
+		} catch (Throwable e) {
+			// Script errors will already have been reported to the context, so we only need to log them at a lower level
+			logger.debug("Error running batch script for " + entry.getImageName(), e);
+			status = Status.FAILED;
+			error = e;
+		} finally {
+			if (imageData != null && imageData.getServer() != null) {
+				try {
+					imageData.getServer().close();
+				} catch (Exception e) {
+					logger.warn("Unable to close server for {}: {}", entry.getImageName(), e.getLocalizedMessage());
+				}
+			}
+			QP.setBatchImageData(null);
+			QP.setBatchProject(previousProject);
+		}
+		return notify(new ImageResult(entry, status, System.currentTimeMillis() - startTime, error));
+	}
+
+	private ImageResult notify(final ImageResult result) {
+		if (listener != null)
+			listener.imageCompleted(result);
+		return result;
+	}
+
+
+	private static void logSummary(final List<ImageResult> results, final long timeMillis) {
+		int nSucceeded = 0, nFailed = 0, nSkipped = 0, nCancelled = 0;
+		long totalImageMillis = 0;
+		for (ImageResult result : results) {
+			totalImageMillis += result.getTimeMillis();
+			switch (result.getStatus()) {
+			case SUCCEEDED:
+				nSucceeded++;
+				logger.debug("{} processed in {} ms", result.getEntry().getImageName(), result.getTimeMillis());
+				break;
+			case FAILED:
+				nFailed++;
+				logger.warn("{} failed after {} ms: {}", result.getEntry().getImageName(), result.getTimeMillis(), result.getError());
+				break;
+			case SKIPPED:
+				nSkipped++;
+				break;
+			case CANCELLED:
+				nCancelled++;
+				break;
+			}
+		}
+		logger.info("Processed {} images ({} succeeded, {} failed, {} skipped, {} cancelled)", results.size(), nSucceeded, nFailed, nSkipped, nCancelled);
+		if (!results.isEmpty())
+			logger.info(String.format("Total processing time: %.2f seconds (%.2f seconds per image)", timeMillis / 1000.0, totalImageMillis / 1000.0 / results.size()));
+	}
+
+	private static ScriptContext createDefaultContext(final ProjectImageEntry<BufferedImage> entry) {
+		ScriptContext context = new SimpleScriptContext();
+		context.setWriter(new PrintWriter(System.out, true));
+		context.setErrorWriter(new PrintWriter(System.err, true));
+		return context;
+	}
+
+}
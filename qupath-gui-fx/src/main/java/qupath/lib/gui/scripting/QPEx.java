@@ -25,9 +25,7 @@ package qupath.lib.gui.scripting;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,8 +40,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import qupath.lib.gui.QuPathGUI;
-import qupath.lib.gui.commands.SummaryMeasurementTableCommand;
 import qupath.lib.gui.io.PathAwtIO;
+import qupath.lib.gui.models.MeasurementTableExporter;
 import qupath.lib.gui.models.ObservableMeasurementTableData;
 import qupath.lib.gui.plugins.PluginRunnerFX;
 import qupath.lib.gui.prefs.PathPrefs;
@@ -195,7 +193,12 @@ public class QPEx extends QP {
 	 * 
 	 * @return
 	 */
+	@SuppressWarnings("unchecked")
 	public static Project<BufferedImage> getProject() {
+		// Use the project set for batch processing, if available
+		Project<?> project = getBatchProject();
+		if (project != null)
+			return (Project<BufferedImage>)project;
 		QuPathGUI qupath = QuPathGUI.getInstance();
 		if (qupath != null)
 			return qupath.getProject();
@@ -433,20 +436,48 @@ public class QPEx extends QP {
 		}
 		ObservableMeasurementTableData model = new ObservableMeasurementTableData();
 		model.setImageData(imageData, imageData == null ? Collections.emptyList() : imageData.getHierarchy().getObjects(null, type));
+		Collection<String> excludeColumns;
+		if (includeColumns.length == 0) {
+			excludeColumns = Collections.emptyList();
+		} else {
+			excludeColumns = new LinkedHashSet<>(model.getAllNames());
+			excludeColumns.removeAll(Arrays.asList(includeColumns));
+		}
 		try {
-			PrintWriter writer = new PrintWriter(fileOutput);
-			Collection<String> excludeColumns;
-			if (includeColumns.length == 0) {
-				excludeColumns = Collections.emptyList();
-			} else {
-				excludeColumns = new LinkedHashSet<>(model.getAllNames());
-				excludeColumns.removeAll(Arrays.asList(includeColumns));
-			}
-			writer.println(SummaryMeasurementTableCommand.getTableModelString(model, PathPrefs.getTableDelimiter(), excludeColumns));
-			writer.close();
-		} catch (FileNotFoundException e) {
-			logger.error("File {} not found!", fileOutput);
+			MeasurementTableExporter.writeTable(model, excludeColumns, fileOutput.toPath(), PathPrefs.getTableDelimiter());
+		} catch (IOException e) {
+			logger.error("Unable to write " + fileOutput, e);
+		}
+	}
+	
+	/**
+	 * Save measurements for all images in the current project, processing images in parallel.
+	 * <p>
+	 * If the path is a directory, one file is written per image; otherwise, all measurements are written to a single file.
+	 * The format is determined from the file extension: {@code .qpmt} for the compact binary format, 
+	 * {@code .tsv} or {@code .txt} for tab-delimited text, otherwise comma-delimited text.
+	 * 
+	 * @param type
+	 * @param path
+	 * @return the number of images for which measurements were saved
+	 * @see MeasurementTableExporter
+	 */
+	public static int saveProjectMeasurements(final Class<? extends PathObject> type, final String path) {
+		Project<BufferedImage> project = getProject();
+		if (project == null) {
+			logger.warn("No project available - measurements cannot be saved");
+			return 0;
+		}
+		File fileOutput = new File(resolvePath(path));
+		try {
+			return MeasurementTableExporter.exportProject(project, type, fileOutput, MeasurementTableExporter.getFormat(fileOutput), PathPrefs.getNumCommandThreads());
+		} catch (IOException e) {
+			logger.error("Unable to write " + fileOutput, e);
+		} catch (InterruptedException e) {
+			logger.warn("Saving measurements interrupted");
+			Thread.currentThread().interrupt();
 		}
+		return 0;
 	}
 	
 	
@@ -64,6 +64,36 @@ public class OverlayOptions {
 	private FloatProperty opacity = new SimpleFloatProperty(1.0f);
 	
 	
+	/**
+	 * Create overlay options with default values.
+	 */
+	public OverlayOptions() {}
+	
+	/**
+	 * Create overlay options with the same values as an existing object.
+	 * Listeners are not copied, and later changes to either object do not affect the other - so the copy may be used as 
+	 * a snapshot of the options, e.g. when painting on a background thread.
+	 * 
+	 * @param options the options to copy; this should only be called on the thread that may modify them (usually the JavaFX thread)
+	 */
+	public OverlayOptions(final OverlayOptions options) {
+		measurementMapper.set(options.getMeasurementMapper());
+		showAnnotations.set(options.getShowAnnotations());
+		showTMAGrid.set(options.getShowTMAGrid());
+		showPixelClassification.set(options.getShowPixelClassification());
+		showDetections.set(options.getShowDetections());
+		showConnections.set(options.getShowConnections());
+		fillDetections.set(options.getFillObjects());
+		fillAnnotations.set(options.getFillAnnotations());
+		showTMACoreLabels.set(options.getShowTMACoreLabels());
+		showGrid.set(options.getShowGrid());
+		gridLines.set(options.getGridLines());
+		hiddenClasses.addAll(options.hiddenClasses);
+		cellDisplayMode.set(options.getCellDisplayMode());
+		opacity.set(options.getOpacity());
+	}
+	
+	
 //    public void addPropertyChangeListener(PropertyChangeListener listener) {
 //        this.pcs.addPropertyChangeListener(listener);
 //    }
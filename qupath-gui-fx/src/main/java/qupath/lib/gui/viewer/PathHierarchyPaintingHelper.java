@@ -44,6 +44,8 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RectangularShape;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -102,6 +104,11 @@ public class PathHierarchyPaintingHelper {
 
 	public static int maxThumbnailWidth = 4000;
 	
+	/**
+	 * Minimum opacity for a non-empty bin when painting a detection density map.
+	 */
+	private static final int MIN_DENSITY_ALPHA = 64;
+	
 	private static ShapeProvider shapeProvider = new ShapeProvider();
 	
 	private static Map<Number, Stroke> strokeMap = new HashMap<>();
@@ -164,7 +171,85 @@ public class PathHierarchyPaintingHelper {
 			paintObject(object, false, g2d, boundsDisplayed, overlayOptions, selectionModel, downsample);
 		}
 	}
-	
+
+
+	/**
+	 * Paint detections as a density map, rather than painting each object individually.
+	 * <p>
+	 * The image is divided into square bins, and each bin is filled with the mean displayed color of the objects
+	 * with centroids inside it.  The opacity depends upon the approximate proportion of the bin covered by objects.
+	 * This is much faster than painting objects that would be smaller than a pixel anyway.
+	 *
+	 * @param img a {@link BufferedImage#TYPE_INT_ARGB} image, which will be overwritten
+	 * @param region the region of the full image corresponding to img
+	 * @param pathObjects the objects to paint
+	 * @param overlayOptions
+	 * @param downsample the downsample factor of img, relative to the full image
+	 * @param binSize the width and height of each bin, in pixels of img
+	 */
+	public static void paintDetectionDensity(BufferedImage img, ImageRegion region, Collection<PathObject> pathObjects, OverlayOptions overlayOptions, double downsample, int binSize) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int nBinsX = (width + binSize - 1) / binSize;
+		int nBinsY = (height + binSize - 1) / binSize;
+
+		// Sum the colors and areas for all the objects in each bin
+		int nBins = nBinsX * nBinsY;
+		int[] counts = new int[nBins];
+		long[] red = new long[nBins];
+		long[] green = new long[nBins];
+		long[] blue = new long[nBins];
+		double[] area = new double[nBins];
+		MeasurementMapper mapper = overlayOptions.getMeasurementMapper();
+		boolean useMapper = mapper != null && mapper.isValid();
+		double binScale = 1.0 / (downsample * binSize);
+		for (PathObject pathObject : pathObjects) {
+			ROI roi = pathObject.getROI();
+			if (roi == null || overlayOptions.isPathClassHidden(pathObject.getPathClass()))
+				continue;
+			int bx = (int)((roi.getCentroidX() - region.getX()) * binScale);
+			int by = (int)((roi.getCentroidY() - region.getY()) * binScale);
+			if (bx < 0 || by < 0 || bx >= nBinsX || by >= nBinsY)
+				continue;
+			Integer rgb;
+			if (useMapper && pathObject.isDetection()) {
+				if (!pathObject.hasMeasurements())
+					continue;
+				rgb = mapper.getColorForObject(pathObject);
+			} else
+				rgb = PathObjectColorToolsAwt.getDisplayedColor(pathObject);
+			if (rgb == null)
+				continue;
+			int ind = by * nBinsX + bx;
+			counts[ind]++;
+			red[ind] += (rgb >> 16) & 0xff;
+			green[ind] += (rgb >> 8) & 0xff;
+			blue[ind] += rgb & 0xff;
+			area[ind] += roi.getBoundsWidth() * roi.getBoundsHeight();
+		}
+
+		// Fill the pixels for each bin
+		int[] pixels = new int[width * height];
+		double binArea = (downsample * binSize) * (downsample * binSize);
+		for (int by = 0; by < nBinsY; by++) {
+			for (int bx = 0; bx < nBinsX; bx++) {
+				int ind = by * nBinsX + bx;
+				int n = counts[ind];
+				if (n == 0)
+					continue;
+				double coverage = Math.min(1.0, area[ind] / binArea);
+				int alpha = (int)(MIN_DENSITY_ALPHA + (255 - MIN_DENSITY_ALPHA) * coverage);
+				int argb = (alpha << 24) | (int)(red[ind] / n) << 16 | (int)(green[ind] / n) << 8 | (int)(blue[ind] / n);
+				int yEnd = Math.min(height, (by + 1) * binSize);
+				int xStart = bx * binSize;
+				int xEnd = Math.min(width, xStart + binSize);
+				for (int y = by * binSize; y < yEnd; y++)
+					Arrays.fill(pixels, y * width + xStart, y * width + xEnd, argb);
+			}
+		}
+		img.getRaster().setDataElements(0, 0, width, height, pixels);
+	}
+
 	
 	
 	public static void paintTMAGrid(Graphics2D g2d, TMAGrid tmaGrid, OverlayOptions overlayOptions, PathObjectSelectionModel selectionModel, double downsampleFactor) {
@@ -332,8 +417,14 @@ public class PathHierarchyPaintingHelper {
 					}
 					
 					
-					// Check if we have only one or two pixels to draw - if so, we can be done quickly
-					if (isDetectedObject && downsample > 4 && roiBoundsWidth / downsample < 3 && roiBoundsHeight / downsample < 3) {
+					// Check if we have less than one pixel to draw - if so, paint a single pixel at the centroid
+					if (isDetectedObject && downsample > 4 && roiBoundsWidth < downsample && roiBoundsHeight < downsample) {
+						int size = (int)Math.ceil(downsample);
+						g.setColor(color);
+						g.fillRect((int)(pathROI.getCentroidX() - size/2.0), (int)(pathROI.getCentroidY() - size/2.0), size, size);
+						painted = true;
+					} else if (isDetectedObject && downsample > 4 && roiBoundsWidth / downsample < 3 && roiBoundsHeight / downsample < 3) {
+						// Check if we have only one or two pixels to draw - if so, we can be done quickly
 						int x = (int)roiBoundsX;
 						int y = (int)roiBoundsY;
 						int w = (int)(roiBoundsWidth + .9); // Prefer rounding up, lest we lose a lot of regions unnecessarily
@@ -503,47 +594,45 @@ public class PathHierarchyPaintingHelper {
 	 */
 	static class ShapeProvider {
 		
-		static final int MIN_SIMPLIFY_VERTICES = 250;
+		static final int MIN_SIMPLIFY_VERTICES = 32;
+		
+		/**
+		 * Downsample values above which shapes are simplified, in descending order.
+		 * The simplification tolerance is the same as the downsample value, i.e. approximately one displayed pixel.
+		 */
+		static final double[] SIMPLIFY_DOWNSAMPLES = {50, 20, 10, 4, 2};
 		
 		private RectanglePool rectanglePool = new RectanglePool();
 		private EllipsePool ellipsePool = new EllipsePool();
 		private LinePool linePool = new LinePool();
 		
-		// TODO: Consider if it makes sense to map to PathHierarchyImageServer preferred downsamples
-		// (Only if shape simplification is often used for detection objects)
-		private Map<PathShape, Shape> map50 = Collections.synchronizedMap(new WeakHashMap<>());
-		private Map<PathShape, Shape> map20 = Collections.synchronizedMap(new WeakHashMap<>());
-		private Map<PathShape, Shape> map10 = Collections.synchronizedMap(new WeakHashMap<>());
+		// Simplified shapes, one map per entry in SIMPLIFY_DOWNSAMPLES
+		private List<Map<PathShape, Shape>> simplifiedMaps = new ArrayList<>();
 		private Map<PathShape, Shape> map = Collections.synchronizedMap(new WeakHashMap<>());
 		
+		ShapeProvider() {
+			for (int i = 0; i < SIMPLIFY_DOWNSAMPLES.length; i++)
+				simplifiedMaps.add(Collections.synchronizedMap(new WeakHashMap<>()));
+		}
 		
-		private Map<PathShape, Shape> getMap(final PathShape shape, final double downsample) {
-			// If we don't have many vertices, just return the main map - no need to simplify
+		/**
+		 * Get the index into SIMPLIFY_DOWNSAMPLES to use for a shape, or -1 if the shape should not be simplified.
+		 */
+		static int getSimplifyLevel(final PathShape shape, final double downsample) {
+			// If we don't have many vertices, no need to simplify
 			int nVertices = 0;
 			if (shape instanceof PolygonROI)
 				nVertices = ((PolygonROI)shape).nVertices();
 			else if (shape instanceof AreaROI)
 				nVertices = ((AreaROI)shape).nVertices();
 			if (nVertices < MIN_SIMPLIFY_VERTICES)
-				return map;
+				return -1;
 			
-			if (downsample > 50)
-				return map50;
-			if (downsample > 20)
-				return map20;
-			if (downsample > 10)
-				return map10;
-			return map;
-		}
-		
-		private Shape simplifyByDownsample(final Shape shape, final double downsample) {
-			if (downsample > 50)
-				return ShapeSimplifierAwt.simplifyPath(shape instanceof Path2D ? (Path2D)shape : new Path2D.Float(shape), 50);
-			if (downsample > 20)
-				return ShapeSimplifierAwt.simplifyPath(shape instanceof Path2D ? (Path2D)shape : new Path2D.Float(shape), 20);
-			if (downsample > 10)
-				return ShapeSimplifierAwt.simplifyPath(shape instanceof Path2D ? (Path2D)shape : new Path2D.Float(shape), 10);
-			return shape;
+			for (int i = 0; i < SIMPLIFY_DOWNSAMPLES.length; i++) {
+				if (downsample > SIMPLIFY_DOWNSAMPLES[i])
+					return i;
+			}
+			return -1;
 		}
 		
 		
@@ -567,14 +656,15 @@ public class PathHierarchyPaintingHelper {
 				return line;
 			}
 
-			Map<PathShape, Shape> map = getMap(roi, downsample);
+			int level = getSimplifyLevel(roi, downsample);
+			Map<PathShape, Shape> map = level < 0 ? this.map : simplifiedMaps.get(level);
 //			map.clear();
 			Shape shape = map.get(roi);
 			if (shape == null) {
 				shape = PathROIToolsAwt.getShape(roi);
 				// Downsample if we have to
-				if (map != this.map)
-					shape = simplifyByDownsample(shape, downsample);
+				if (level >= 0)
+					shape = ShapeSimplifierAwt.simplifyPath(shape instanceof Path2D ? (Path2D)shape : new Path2D.Float(shape), SIMPLIFY_DOWNSAMPLES[level]);
 				map.put(roi, shape);
 			}
 //			map.clear();
@@ -41,6 +41,7 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.ColorConvertOp;
 import java.awt.image.LookupOp;
 import java.awt.image.ByteLookupTable;
@@ -48,11 +49,15 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -83,12 +88,12 @@ import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ListChangeListener.Change;
 import javafx.collections.ObservableList;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.EventHandler;
 import javafx.scene.Cursor;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Tooltip;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
@@ -100,7 +105,9 @@ import qupath.lib.awt.color.ColorToolsAwt;
 import qupath.lib.awt.common.AwtTools;
 import qupath.lib.common.ColorTools;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.SimpleThreadFactory;
 import qupath.lib.display.ImageDisplay;
+import qupath.lib.geom.Point2;
 import qupath.lib.gui.QuPathGUI.Modes;
 import qupath.lib.gui.helpers.ColorToolsFX;
 import qupath.lib.gui.helpers.DisplayHelpers;
@@ -175,6 +182,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 	// Current we have two images - one transformed & one not - because the untransformed
 	// image is needed to determine pixel values as the mouse moves over the image
+	// This is only accessed while painting (i.e. on the rendering thread)
 	private BufferedImage imgBuffer = null;
 	//	private BufferedImage imgTemp = null;
 
@@ -184,8 +192,9 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	private boolean thumbnailIsFullImage = false;
 
 	// Flag used to indicates that the image was updated for a repaint (otherwise it's assumed only the overlay may have changed)
-	protected boolean imageUpdated = false;
-	protected boolean locationUpdated = false;
+	// Flags are set & reset on the JavaFX thread, but may also be set by the rendering thread if painting fails
+	protected volatile boolean imageUpdated = false;
+	protected volatile boolean locationUpdated = false;
 	
 	// Flag that is temporarily set to true while the ImageData is being set
 	private BooleanProperty imageDataChanging = new SimpleBooleanProperty(false);
@@ -207,6 +216,9 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	private AffineTransform transform = new AffineTransform();
 	private AffineTransform transformInverse = new AffineTransform();
 
+	// Estimate where the view is likely to move next, so that tiles can be requested in advance
+	private ViewMotionPredictor motionPredictor = new ViewMotionPredictor();
+
 	// Flag to indicate that repainting should occur faster if possible (less detail required)
 	// This can be useful when rapidly changing view, for example
 	private boolean doFasterRepaint = false;
@@ -228,6 +240,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 	// The shape (coordinates in the image domain) last painted
 	// Used to determine whether the visible part of the image has been changed
+	// This is only accessed while painting (i.e. on the rendering thread)
 	private Shape lastVisibleShape = null;
 
 	private RoiEditor roiEditor = RoiEditor.createInstance();
@@ -244,9 +257,17 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	
 	private StackPane pane;
 	private Canvas canvas;
-	private BufferedImage imgCache;
 	private WritableImage imgCacheFX;
 	
+	// Rendering takes place on a background thread, alternating between two images:
+	// imgRenderBack is painted, while imgRenderFront contains the last frame that was shown
+	private ExecutorService renderer;
+	private BufferedImage imgRenderBack;
+	private BufferedImage imgRenderFront;
+	// These are only accessed on the JavaFX thread
+	private boolean renderInProgress = false;
+	private boolean fullCanvasRedraw = true;
+	
 	private double borderLineWidth = 5;
 	private javafx.scene.paint.Color borderColor;
 	
@@ -298,6 +319,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 				updateAffineTransform();
 				repaint();
 			}
+			fullCanvasRedraw = true;
 		});
 		canvas.heightProperty().addListener((e, f, g) -> {
 			if (getZoomToFit()) {
@@ -308,6 +330,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 				updateAffineTransform();
 				repaint();
 			}
+			fullCanvasRedraw = true;
 		});
 		
 		pane = new StackPane();
@@ -396,73 +419,288 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 			return;
 		}
 		
-		if (imgCache == null || imgCache.getWidth() < canvas.getWidth() || imgCache.getHeight() < canvas.getHeight()) {
-			int w = (int)(canvas.getWidth() + 1);
-			int h = (int)(canvas.getHeight() + 1);
-			imgCache = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
-			imgCacheFX = new WritableImage(w, h);
-//			imgCacheFX = SwingFXUtils.toFXImage(imgCache, imgCacheFX);
-		}
+		// If we're already rendering, leave the repaint requested - it will be handled when the current frame is shown
+		if (renderInProgress)
+			return;
 		
 		// Reset repaint flag
 		repaintRequested = false;
 		
-		GraphicsContext context = canvas.getGraphicsContext2D();
-		
-		Graphics2D g = imgCache.createGraphics();
-		paintViewer(g, getWidth(), getHeight());
-		g.dispose();
-		
-		imgCacheFX = SwingFXUtils.toFXImage(imgCache, imgCacheFX);
-		context.drawImage(imgCacheFX, 0, 0);
-		
-		if (borderColor != null) {
-			context.setStroke(borderColor);
-			context.setLineWidth(borderLineWidth);
-			context.strokeRect(0, 0, canvas.getWidth(), canvas.getHeight());
-		}
-		
-		
-		
-//		// Basic code for including the TMA core name
-//		if (getHierarchy().getTMAGrid() != null) {
-//			Point2D pSource = new Point2D.Double();
-//			Point2D pDest = new Point2D.Double();
-//			context.setTextAlign(TextAlignment.CENTER);
-//			context.setTextBaseline(VPos.CENTER);
-//			for (TMACoreObject core : getHierarchy().getTMAGrid().getTMACoreList()) {
-//				if (core.getName() == null)
-//					continue;
-//				double x = core.getROI().getBoundsX() + core.getROI().getBoundsWidth()/2;
-//				double y = core.getROI().getBoundsY() + core.getROI().getBoundsHeight()/2;
-//				pSource.setLocation(x, y);
-//				transform.transform(pSource, pDest);
-//				context.setFill(getSuggestedOverlayColorFX());
-//				context.setStroke(javafx.scene.paint.Color.WHITE);
-//				double xf = pDest.getX();
-//				double yf = pDest.getY();
-//				context.fillText(core.getName(), xf, yf, core.getROI().getBoundsWidth()/getDownsampleFactor()*0.5);
-//			}
-//		}
+		// Paint the image & overlays in the background, so that the JavaFX thread isn't blocked -
+		// the rendering thread uses only a snapshot of the viewer state, which can't be changed while painting
+		RenderState state = createRenderState(getWidth(), getHeight());
+		if (renderer == null)
+			renderer = Executors.newSingleThreadExecutor(new SimpleThreadFactory("viewer-renderer-", true));
+		renderInProgress = true;
+		try {
+			renderer.execute(() -> renderFrame(state));
+		} catch (RejectedExecutionException e) {
+			// Viewer has been closed
+			renderInProgress = false;
+		}
+	}
+	
+	
+	/**
+	 * Create a snapshot of everything needed to paint the viewer.
+	 * <p>
+	 * This should be called from the JavaFX thread only.
+	 * 
+	 * @param w
+	 * @param h
+	 * @return
+	 */
+	RenderState createRenderState(int w, int h) {
+		// Check gamma first, since it may require the image to be updated
+		ensureGammaUpdated();
+		boolean updateImage = imageUpdated || locationUpdated;
+		imageUpdated = false;
+		locationUpdated = false;
 		
+		Color overlayColor = getSuggestedOverlayColor();
+		List<PathOverlay> overlays = Arrays.asList(allOverlayLayers.toArray(PathOverlay[]::new));
+		for (PathOverlay overlay : overlays)
+			overlay.setPreferredOverlayColor(overlayColor);
 		
-//		if (getServer() == null) {
-//			context.setStroke(javafx.scene.paint.Color.GREENYELLOW);
-//			context.setLineWidth(borderLineWidth);
-//			context.strokeRect(0, 0, canvas.getWidth(), canvas.getHeight());
-//		}
+		PathObjectHierarchy hierarchy = getHierarchy();
+		Collection<PathObject> selectedObjects = hierarchy == null ? Collections.emptyList() : hierarchy.getSelectionModel().getSelectedObjects();
+		List<Point2> roiHandles = roiEditor.hasROI() ? roiEditor.getHandles() : null;
 		
-		long time = System.currentTimeMillis();
-		logger.trace("Time since last repaint: {} ms", (time - lastPaint));
-		lastPaint = System.currentTimeMillis();
+		return new RenderState(w, h, getServer(), getImagePlane(), getDownsampleFactor(), xCenter, yCenter,
+				transform, getDisplayedRegionShape(), overlays, overlayOptions,
+				hierarchy, selectedObjects, getSelectedObject(), roiHandles,
+				background, overlayColor, imgThumbnailRGB, thumbnailIsFullImage, doFasterRepaint, updateImage,
+				getRenderer(), iccTransformOp, gammaOp);
+	}
+	
+	
+	/**
+	 * Paint the viewer to the back buffer, then pass the result to the JavaFX thread for display.
+	 * <p>
+	 * This should be called from the rendering thread only.
+	 * 
+	 * @param state snapshot of the viewer state, created on the JavaFX thread
+	 */
+	private void renderFrame(RenderState state) {
+		int w = state.width;
+		int h = state.height;
+		Rectangle dirtyBounds = null;
+		try {
+			if (imgRenderBack == null || imgRenderBack.getWidth() != w || imgRenderBack.getHeight() != h)
+				imgRenderBack = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+			
+			Graphics2D g = imgRenderBack.createGraphics();
+			try {
+				paintViewer(g, state);
+			} finally {
+				g.dispose();
+			}
+			dirtyBounds = getDirtyBounds(imgRenderBack, imgRenderFront);
+		} catch (Exception e) {
+			logger.warn("Exception rendering viewer: {}", e.getLocalizedMessage(), e);
+			// The image may only have been partly painted
+			imageUpdated = true;
+		}
+		BufferedImage img = dirtyBounds == null ? null : imgRenderBack;
+		Rectangle bounds = dirtyBounds;
+		Platform.runLater(() -> showFrame(img, bounds));
+	}
+	
+	
+	/**
+	 * Immutable snapshot of the viewer state required for painting.
+	 * <p>
+	 * This is created on the JavaFX thread, so that the viewer can be painted on another thread without 
+	 * seeing the transform, visible region, overlays or display options change part-way through.
+	 * Mutable values are copied.
+	 */
+	static class RenderState {
+		
+		final int width;
+		final int height;
+		final ImageServer<BufferedImage> server;
+		final ImagePlane plane;
+		final ImageRegion serverBounds;
+		final double downsample;
+		final double xCenter;
+		final double yCenter;
+		final AffineTransform transform;
+		final Shape visibleShape;
+		final List<PathOverlay> overlays;
+		final OverlayOptions overlayOptions;
+		
+		final PathObjectHierarchy hierarchy;
+		final List<PathObject> selectedObjects;
+		final PathObject mainSelectedObject;
+		final List<Point2> roiHandles;
+		
+		final Color background;
+		final Color overlayColor;
+		final BufferedImage thumbnailRGB;
+		final boolean thumbnailIsFullImage;
+		final boolean fasterRepaint;
+		final boolean updateImage;
+		final ImageRenderer renderer;
+		final ColorConvertOp iccTransformOp;
+		final LookupOp gammaOp;
+		
+		final boolean alwaysPaintSelected;
+		final boolean paintSelectedBounds;
+		final boolean useSelectedColor;
+		final Integer selectedObjectColor;
+		final double thickStrokeThickness;
+		final boolean interpolateBilinear;
+		
+		RenderState(int width, int height, ImageServer<BufferedImage> server, ImagePlane plane, double downsample, double xCenter, double yCenter,
+				AffineTransform transform, Shape visibleShape, Collection<? extends PathOverlay> overlays, OverlayOptions overlayOptions,
+				PathObjectHierarchy hierarchy, Collection<PathObject> selectedObjects, PathObject mainSelectedObject, List<Point2> roiHandles,
+				Color background, Color overlayColor, BufferedImage thumbnailRGB, boolean thumbnailIsFullImage, boolean fasterRepaint, boolean updateImage,
+				ImageRenderer renderer, ColorConvertOp iccTransformOp, LookupOp gammaOp) {
+			this.width = width;
+			this.height = height;
+			this.server = server;
+			this.plane = plane;
+			this.serverBounds = server == null ? null : ImageRegion.createInstance(0, 0, server.getWidth(), server.getHeight(), plane.getZ(), plane.getT());
+			this.downsample = downsample;
+			this.xCenter = xCenter;
+			this.yCenter = yCenter;
+			this.transform = new AffineTransform(transform);
+			// The displayed region shape is newly-created whenever it is requested, so doesn't need to be copied
+			this.visibleShape = visibleShape;
+			this.overlays = Collections.unmodifiableList(new ArrayList<>(overlays));
+			this.overlayOptions = new OverlayOptions(overlayOptions);
+			this.hierarchy = hierarchy;
+			this.selectedObjects = Collections.unmodifiableList(new ArrayList<>(selectedObjects));
+			this.mainSelectedObject = mainSelectedObject;
+			this.roiHandles = roiHandles == null ? null : Collections.unmodifiableList(new ArrayList<>(roiHandles));
+			this.background = background;
+			this.overlayColor = overlayColor;
+			this.thumbnailRGB = thumbnailRGB;
+			this.thumbnailIsFullImage = thumbnailIsFullImage;
+			this.fasterRepaint = fasterRepaint;
+			this.updateImage = updateImage;
+			this.renderer = renderer;
+			this.iccTransformOp = iccTransformOp;
+			this.gammaOp = gammaOp;
+			this.alwaysPaintSelected = PathPrefs.getAlwaysPaintSelectedObjects();
+			this.paintSelectedBounds = PathPrefs.getPaintSelectedBounds();
+			this.useSelectedColor = PathPrefs.getUseSelectedColor();
+			this.selectedObjectColor = PathPrefs.getSelectedObjectColor();
+			this.thickStrokeThickness = PathPrefs.getThickStrokeThickness();
+			this.interpolateBilinear = PathPrefs.getViewerInterpolationBilinear();
+		}
 		
-		imageDataChanging.set(false);
-//		repaintRequested = false;
+	}
+	
+	
+	/**
+	 * Get the bounding box of all pixels that differ between two images of the same type, or null if there are no differences.
+	 * If the images have different sizes, the bounds of the entire image are returned.
+	 * 
+	 * @param img the new image
+	 * @param imgPrevious the previous image (may be null)
+	 * @return
+	 */
+	static Rectangle getDirtyBounds(BufferedImage img, BufferedImage imgPrevious) {
+		int w = img.getWidth();
+		int h = img.getHeight();
+		if (imgPrevious == null || imgPrevious.getWidth() != w || imgPrevious.getHeight() != h)
+			return new Rectangle(0, 0, w, h);
+		int[] pixels = getPixels(img);
+		int[] pixelsPrevious = getPixels(imgPrevious);
+		int minX = w, maxX = -1, minY = h, maxY = -1;
+		for (int y = 0; y < h; y++) {
+			int start = y * w;
+			int end = start + w;
+			int first = Arrays.mismatch(pixels, start, end, pixelsPrevious, start, end);
+			if (first < 0)
+				continue;
+			int last = end - 1;
+			while (pixels[last] == pixelsPrevious[last])
+				last--;
+			minX = Math.min(minX, first);
+			maxX = Math.max(maxX, last - start);
+			if (minY > y)
+				minY = y;
+			maxY = y;
+		}
+		if (maxY < 0)
+			return null;
+		return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+	}
+	
+	private static int[] getPixels(BufferedImage img) {
+		return ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+	}
+	
+	
+	/**
+	 * Show the most recently-rendered frame, copying only the pixels that have changed.
+	 * <p>
+	 * This should be called from the JavaFX thread only.
+	 * 
+	 * @param img the rendered image, or null if nothing has changed since the last frame
+	 * @param dirtyBounds the region of the image that has changed
+	 */
+	private void showFrame(BufferedImage img, Rectangle dirtyBounds) {
+		try {
+			if (canvas == null)
+				return;
+			
+			GraphicsContext context = canvas.getGraphicsContext2D();
+			boolean fullRedraw = fullCanvasRedraw;
+			if (img != null) {
+				int w = img.getWidth();
+				int h = img.getHeight();
+				if (imgCacheFX == null || imgCacheFX.getWidth() < w || imgCacheFX.getHeight() < h) {
+					imgCacheFX = new WritableImage(w, h);
+					dirtyBounds = new Rectangle(0, 0, w, h);
+					fullRedraw = true;
+				}
+				// Copy the changed pixels, then swap the buffers so that the next frame can be compared with this one
+				imgCacheFX.getPixelWriter().setPixels(
+						dirtyBounds.x, dirtyBounds.y, dirtyBounds.width, dirtyBounds.height,
+						PixelFormat.getIntArgbPreInstance(),
+						getPixels(img), dirtyBounds.y * w + dirtyBounds.x, w);
+				imgRenderBack = imgRenderFront;
+				imgRenderFront = img;
+			}
+			
+			if (imgCacheFX != null) {
+				if (fullRedraw) {
+					context.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+					context.drawImage(imgCacheFX, 0, 0);
+				} else if (img != null) {
+					context.drawImage(imgCacheFX,
+							dirtyBounds.x, dirtyBounds.y, dirtyBounds.width, dirtyBounds.height,
+							dirtyBounds.x, dirtyBounds.y, dirtyBounds.width, dirtyBounds.height);
+				}
+				fullCanvasRedraw = false;
+			}
+			
+			if (borderColor != null && (fullRedraw || img != null)) {
+				context.setStroke(borderColor);
+				context.setLineWidth(borderLineWidth);
+				context.strokeRect(0, 0, canvas.getWidth(), canvas.getHeight());
+			}
+			
+			long time = System.currentTimeMillis();
+			logger.trace("Time since last repaint: {} ms", (time - lastPaint));
+			lastPaint = System.currentTimeMillis();
+			
+			imageDataChanging.set(false);
+		} finally {
+			renderInProgress = false;
+		}
+		// Handle any repaints requested while rendering
+		if (repaintRequested || imageUpdated)
+			paintCanvas();
 	}
 	
 	
 	public void setBorderColor(final javafx.scene.paint.Color color) {
 		this.borderColor = color;
+		fullCanvasRedraw = true;
 		if (Platform.isFxApplicationThread()) {
 			repaintRequested = true;
 			paintCanvas();
@@ -730,6 +968,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 		// We need to repaint everything if detection line thickness changes - including any cached regions
 		manager.attachListener(PathPrefs.strokeThinThicknessProperty(), repainterOverlay);		
+		manager.attachListener(PathPrefs.detectionDensityMapProperty(), repainterOverlay);
 
 		// Can be used to debug graphics
 		//		setDoubleBuffered(false);
@@ -1368,6 +1607,11 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 			return;
 		
 		imageDataChanging.set(true);
+		
+		synchronized (motionPredictor) {
+			motionPredictor.reset();
+		}
+		regionStore.cancelPrefetch(this);
 
 		// Remove listeners for previous hierarchy
 		ImageData<BufferedImage> imageDataOld = this.imageDataProperty.get();
@@ -1432,6 +1676,11 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	}
 
 	protected void fireVisibleRegionChangedEvent(Shape shape) {
+		// Listeners may update the user interface, but the viewer may be painted on a background thread
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(() -> fireVisibleRegionChangedEvent(shape));
+			return;
+		}
 		for (QuPathViewerListener listener : listeners.toArray(new QuPathViewerListener[0]))
 			listener.visibleRegionChanged(this, shape);		
 	}
@@ -1512,6 +1761,9 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		manager.detachAll();
 		manager.clear();
 		regionStore.removeTileListener(this);
+		regionStore.cancelPrefetch(this);
+		if (renderer != null)
+			renderer.shutdownNow();
 //		// Set the server to null
 //		setImageData(null);
 		// Notify listeners
@@ -1541,17 +1793,46 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	protected void paintComponent(Graphics g) {
 		paintViewer(g, getWidth(), getHeight());
 	}
+	
+	/**
+	 * Paint the viewer using its current state.
+	 * <p>
+	 * This must be called from the JavaFX thread.  Note that the viewer is usually painted on a background thread 
+	 * using a snapshot of its state, which does not call this method - so overriding it only changes how the viewer 
+	 * is painted when it is called directly.
+	 * 
+	 * @param g
+	 * @param w
+	 * @param h
+	 */
+	protected void paintViewer(Graphics g, int w, int h) {
+		paintViewer(g, createRenderState(w, h));
+	}
 
 	
 	void updateRepaintTimestamp() {
 		long timestamp = System.currentTimeMillis();
-		lastRepaintTimestamp.set(timestamp);
+		if (Platform.isFxApplicationThread())
+			lastRepaintTimestamp.set(timestamp);
+		else
+			Platform.runLater(() -> lastRepaintTimestamp.set(timestamp));
 	}
 	
 
-	protected void paintViewer(Graphics g, int w, int h) {
+	/**
+	 * Paint the viewer using a snapshot of its state.
+	 * <p>
+	 * This may be called from a background thread, and so should only access the viewer state via the snapshot.
+	 * 
+	 * @param g
+	 * @param state
+	 */
+	void paintViewer(Graphics g, RenderState state) {
 		
-		ImageServer<BufferedImage> server = getServer();
+		int w = state.width;
+		int h = state.height;
+		Color background = state.background;
+		ImageServer<BufferedImage> server = state.server;
 		if (server == null) {
 			g.setColor(background);
 			g.fillRect(0, 0, w, h);
@@ -1573,19 +1854,18 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 			clipFull = clip.x == 0 && clip.y == 0 && clip.width == w && clip.height == h;
 
 		// Ensure we have a sufficiently-large buffer
+		boolean updateImage = state.updateImage;
 		if (imgBuffer == null || imgBuffer.getWidth() != w || imgBuffer.getHeight() != h) {
 			// Create buffered images & buffers for RGB pixel values
 			imgBuffer = createBufferedImage(w, h);
 			imgBuffer.setAccelerationPriority(1f);
 			logger.trace("New buffered image created: {}", imgBuffer);
 			//			imgVolatile = createVolatileImage(w, h);
-			imageUpdated = true;
-			// If the size changed, ensure the AffineTransform is up-to-date
-			updateAffineTransform();
+			updateImage = true;
 		}
 
 		// Get the displayed region
-		Shape shapeRegion = getDisplayedRegionShape();
+		Shape shapeRegion = state.visibleShape;
 
 		// The visible shape must have changed if there wasn't one previously...
 		// Otherwise check if it has changed & update accordingly
@@ -1595,14 +1875,10 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		long t1 = System.currentTimeMillis();
 
 		// Only repaint the image if this is requested, otherwise only overlays need to be repainted
-		if (imageUpdated || locationUpdated) {// || imgVolatile.contentsLost()) {
-			// Set flags that image no longer requiring an update
-			// By setting them early, they might still be reset during this run... in which case we don't want to thwart the re-run
-			imageUpdated = false;
-			locationUpdated = false;
-
+		// (The flags were reset when the snapshot was created)
+		if (updateImage) {// || imgVolatile.contentsLost()) {
 			//			updateBufferedImage(imgVolatile, shapeRegion, w, h);
-			updateBufferedImage(imgBuffer, shapeRegion, w, h);
+			updateBufferedImage(imgBuffer, state);
 		}
 
 		//		if (imageUpdated || locationUpdated) {
@@ -1640,34 +1916,32 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 		// Really useful only for debugging graphics
 		if (!(g instanceof Graphics2D)) {
-			imageUpdated = false;
 			// Notify any listeners of shape changes
 			if (shapeChanged)
 				fireVisibleRegionChangedEvent(lastVisibleShape);
 			return;
 		}
 		
-		double downsample = getDownsampleFactor();
+		double downsample = state.downsample;
+		OverlayOptions overlayOptions = state.overlayOptions;
 
 		float opacity = overlayOptions.getOpacity();
 		Graphics2D g2d = (Graphics2D)g.create();
 		// Apply required transform to the graphics object (rotation, scaling, shifting...)
-		g2d.transform(transform);
+		g2d.transform(state.transform);
 		Composite previousComposite = g2d.getComposite();
-		boolean paintCompletely = thumbnailIsFullImage || !doFasterRepaint;
+		boolean paintCompletely = state.thumbnailIsFullImage || !state.fasterRepaint;
 //		var regionBounds = AwtTools.getImageRegion(clip, getZPosition(), getTPosition());
-		if (opacity > 0 || PathPrefs.getAlwaysPaintSelectedObjects()) {
+		if (opacity > 0 || state.alwaysPaintSelected) {
 			if (opacity < 1) {
 				AlphaComposite composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity);
 				g2d.setComposite(composite);			
 			}
 
-			Color color = getSuggestedOverlayColor();
-			// Paint the overlay layers
-			for (PathOverlay overlay : allOverlayLayers.toArray(PathOverlay[]::new)) {
-				overlay.setPreferredOverlayColor(color);
+			// Paint the overlay layers (the preferred color was set when the snapshot was created)
+			for (PathOverlay overlay : state.overlays) {
 //				overlay.paintOverlay(g2d, regionBounds, downsample, null, paintCompletely);
-				overlay.paintOverlay(g2d, getServerBounds(), downsample, null, paintCompletely);
+				overlay.paintOverlay(g2d, state.serverBounds, downsample, null, paintCompletely, overlayOptions);
 			}
 //			if (hierarchyOverlay != null) {
 //				hierarchyOverlay.setPreferredOverlayColor(color);
@@ -1676,12 +1950,12 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		}
 		
 		// Paint the selected object
-		PathObjectHierarchy hierarchy = getHierarchy();
-		PathObject mainSelectedObject = getSelectedObject();
+		PathObjectHierarchy hierarchy = state.hierarchy;
+		PathObject mainSelectedObject = state.mainSelectedObject;
 		Rectangle2D boundsShape = null;
-		for (PathObject selectedObject : hierarchy.getSelectionModel().getSelectedObjects().toArray(new PathObject[0])) {
+		for (PathObject selectedObject : state.selectedObjects) {
 			// TODO: Simplify this...
-			if (selectedObject != null && selectedObject.hasROI() && selectedObject.getROI().getZ() == getZPosition() && selectedObject.getROI().getT() == getTPosition()) {
+			if (selectedObject != null && selectedObject.hasROI() && selectedObject.getROI().getZ() == state.plane.getZ() && selectedObject.getROI().getT() == state.plane.getT()) {
 				
 				if (!selectedObject.isDetection()) {
 					// Ensure a selected ROI can be seen clearly
@@ -1694,7 +1968,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 				
 				ROI pathROI = selectedObject.getROI();
 //				if ((PathPrefs.getPaintSelectedBounds() || (selectedObject.isDetection() && !PathPrefs.getUseSelectedColor())) && !(pathROI instanceof RectangleROI)) {
-				if ((PathPrefs.getPaintSelectedBounds() || (!PathPrefs.getUseSelectedColor())) && !(pathROI instanceof RectangleROI)) {
+				if ((state.paintSelectedBounds || (!state.useSelectedColor)) && !(pathROI instanceof RectangleROI)) {
 					boundsShape = AwtTools.getBounds2D(pathROI, boundsShape);
 					// Tried to match to pixel boundaries... but resulted in too much jiggling
 //					boundsShape.setFrame(
@@ -1704,7 +1978,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 //							Math.round(boundsShape.getHeight()/downsampleFactor)*downsampleFactor+2*downsampleFactor);
 					
 //					boundsShape.setFrame(boundsShape.getX()-downsampleFactor, boundsShape.getY()-downsampleFactor, boundsShape.getWidth()+2*downsampleFactor, boundsShape.getHeight()+2*downsampleFactor);
-					PathHierarchyPaintingHelper.paintShape(boundsShape, g2d, getSuggestedOverlayColor(), PathHierarchyPaintingHelper.getCachedStroke(Math.max(downsample, 1)*2), null, downsample);
+					PathHierarchyPaintingHelper.paintShape(boundsShape, g2d, state.overlayColor, PathHierarchyPaintingHelper.getCachedStroke(Math.max(downsample, 1)*2), null, downsample);
 //					boundsShape.setFrame(boundsShape.getX()+downsampleFactor, boundsShape.getY()-downsampleFactor, boundsShape.getWidth(), boundsShape.getHeight());
 //					PathHierarchyPaintingHelper.paintShape(boundsShape, g2d, new Color(1f, 1f, 1f, 0.75f), PathHierarchyPaintingHelper.getCachedStroke(Math.max(downsampleFactor, 1)*2), null, downsampleFactor);
 				}
@@ -1712,19 +1986,19 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 				// Avoid double-painting of annotations (which looks odd if they are filled in)
 				// However do always paint detections, since they are otherwise painted (unselected) 
 				// in a cached way
-				if ((selectedObject.isDetection() && PathPrefs.getUseSelectedColor()) || !PathObjectTools.hierarchyContainsObject(hierarchy, selectedObject))
-					PathHierarchyPaintingHelper.paintObject(selectedObject, false, g2d, boundsDisplayed, overlayOptions, getHierarchy().getSelectionModel(), downsample);
+				if ((selectedObject.isDetection() && state.useSelectedColor) || !PathObjectTools.hierarchyContainsObject(hierarchy, selectedObject))
+					PathHierarchyPaintingHelper.paintObject(selectedObject, false, g2d, boundsDisplayed, overlayOptions, hierarchy.getSelectionModel(), downsample);
 				// Paint ROI handles, if required
-				if (selectedObject == mainSelectedObject && roiEditor.hasROI()) {
-					Stroke strokeThick = PathHierarchyPaintingHelper.getCachedStroke(PathPrefs.getThickStrokeThickness() * downsample);
-					Color color = PathPrefs.getUseSelectedColor() ? ColorToolsAwt.getCachedColor(PathPrefs.getSelectedObjectColor()) : null;
+				if (selectedObject == mainSelectedObject && state.roiHandles != null) {
+					Stroke strokeThick = PathHierarchyPaintingHelper.getCachedStroke(state.thickStrokeThickness * downsample);
+					Color color = state.useSelectedColor ? ColorToolsAwt.getCachedColor(state.selectedObjectColor) : null;
 					if (color == null)
 						color = PathObjectColorToolsAwt.getDisplayedColorAWT(selectedObject);
 					g2d.setStroke(strokeThick);
 					// Draw ROI handles using adaptive size
-					double maxHandleSize = getMaxROIHandleSize();
+					double maxHandleSize = state.thickStrokeThickness * downsample * 4.0;
 					double minHandleSize = downsample;
-					PathHierarchyPaintingHelper.paintHandles(roiEditor, g2d, minHandleSize, maxHandleSize, color, ColorToolsAwt.getTranslucentColor(color));
+					PathHierarchyPaintingHelper.paintHandles(state.roiHandles, g2d, minHandleSize, maxHandleSize, color, ColorToolsAwt.getTranslucentColor(color));
 				}
 			}
 		}
@@ -1765,49 +2039,50 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	//		gBuffered.dispose();
 	//	}
 
-	private void updateBufferedImage(final BufferedImage imgBuffer, final Shape shapeRegion, final int w, final int h) {
+	private void updateBufferedImage(final BufferedImage imgBuffer, final RenderState state) {
 		Graphics2D gBuffered = imgBuffer.createGraphics();
-		updateBufferedImage(gBuffered, shapeRegion, w, h);
+		updateBufferedImage(gBuffered, state);
 		gBuffered.dispose();
 		// Apply color transforms, if required
-		if (iccTransformOp != null) {
-			iccTransformOp.filter(this.imgBuffer.getRaster(), this.imgBuffer.getRaster());
+		if (state.iccTransformOp != null) {
+			state.iccTransformOp.filter(this.imgBuffer.getRaster(), this.imgBuffer.getRaster());
 		}
-		ensureGammaUpdated();
-		if (gammaOp != null) {
-			gammaOp.filter(this.imgBuffer.getRaster(), this.imgBuffer.getRaster());
+		if (state.gammaOp != null) {
+			state.gammaOp.filter(this.imgBuffer.getRaster(), this.imgBuffer.getRaster());
 		}
 	}
 
 	//	private void updateBufferedImage(final BufferedImage imgBuffer, final Shape shapeRegion) {
-	private void updateBufferedImage(final Graphics2D gBuffered, final Shape shapeRegion, final int w, final int h) {
+	private void updateBufferedImage(final Graphics2D gBuffered, final RenderState state) {
 		// Check if we are doing a simple shift (scroll) - if so, we can reuse some previous painting
 		// TODO: Verify that the 'scroll only' test is sufficiently reliable
-		Shape shapeToUpdate = shapeRegion;
+		Shape shapeToUpdate = state.visibleShape;
 		// Set all image pixels to be the background color
-		gBuffered.setColor(background);
-		gBuffered.fillRect(0, 0, w, h);
+		gBuffered.setColor(state.background);
+		gBuffered.fillRect(0, 0, state.width, state.height);
 
 		// Apply the transform so we don't need to worry about converting coordinates so much
-		gBuffered.transform(transform);
+		gBuffered.transform(state.transform);
 		gBuffered.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 
 		// Get the server width & height
-		ImageServer<BufferedImage> server = getServer();
+		ImageServer<BufferedImage> server = state.server;
 		int serverWidth = server.getWidth();
 		int serverHeight = server.getHeight();
+		int z = state.plane.getZ();
+		int t = state.plane.getT();
 
 		// Check if we require tiling the image, or if the low-resolution version does all we need
-		BufferedImage imgThumbnail = regionStore.getThumbnail(server, getZPosition(), getTPosition(), true);
+		BufferedImage imgThumbnail = regionStore.getThumbnail(server, z, t, true);
 		double lowResolutionDownsample = 0.5 * ((double)serverWidth / imgThumbnail.getWidth() + (double)serverHeight / imgThumbnail.getHeight());
-		boolean requiresTiling = !thumbnailIsFullImage && lowResolutionDownsample > Math.max(downsampleFactor.get(), 1);
+		boolean requiresTiling = !state.thumbnailIsFullImage && lowResolutionDownsample > Math.max(state.downsample, 1);
 
 		// Check if we will be painting some background beyond the image edge
 		Rectangle shapeBounds = shapeToUpdate.getBounds();
 		boolean overBoundary = shapeBounds.x < 0 || shapeBounds.y < 0 || shapeBounds.x + shapeBounds.width >= serverWidth || shapeBounds.y + shapeBounds.height >= serverHeight;
 
 		// Reset interpolation - this roughly halves repaint times
-		if (!doFasterRepaint && PathPrefs.getViewerInterpolationBilinear())
+		if (!state.fasterRepaint && state.interpolateBilinear)
 			gBuffered.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
 		else
 			gBuffered.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
@@ -1815,7 +2090,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		if (requiresTiling) {
 
 			// TODO: Consider removing faster repaint?
-			double downsample = getDownsampleFactor();
+			double downsample = state.downsample;
 //			if (doFasterRepaint)
 //				downsample = downsampleFactor * 1.5;
 
@@ -1826,19 +2101,48 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 			// *However* this shouldn't be applied if the region we are viewing extends beyond the image boundary, as it means we would be color-transforming the background color.
 			// For a non-RGB image, or if the viewed region is over the image boundary, the transform should be applied in advance to the thumbnail, and then tile-by-tile during painting.
 			if (server.isRGB() && !overBoundary) {
-				regionStore.paintRegion(server, gBuffered, shapeToUpdate, getZPosition(), getTPosition(), downsample, imgThumbnail, null, null);
+				regionStore.paintRegion(server, gBuffered, shapeToUpdate, z, t, downsample, imgThumbnail, null, null);
 				gBuffered.dispose();
-				if (imageDisplay != null)
+				if (state.renderer != null)
 //					imgBuffer = imageDisplay.applyTransforms(imgBuffer, imgBuffer);
 //					 More benchmarking required... but reusing imgBuffer was killing performance for RGB transform on Java 8 (JavaFX)... possibly
-					imgBuffer = getRenderer().applyTransforms(imgBuffer, null);
+					imgBuffer = state.renderer.applyTransforms(imgBuffer, null);
 			} else {
-				regionStore.paintRegion(server, gBuffered, shapeToUpdate, getZPosition(), getTPosition(), downsample, imgThumbnail, null, getRenderer());
+				regionStore.paintRegion(server, gBuffered, shapeToUpdate, z, t, downsample, imgThumbnail, null, state.renderer);
 			}
+			prefetchTiles(state);
 		} else {
 			// Just paint the 'thumbnail' version, which has already (potentially) been color-transformed
-			paintThumbnail(gBuffered, imgThumbnailRGB, serverWidth, serverHeight, this);
+			paintThumbnail(gBuffered, state.thumbnailRGB, serverWidth, serverHeight, this);
+			regionStore.cancelPrefetch(this);
+		}
+	}
+	
+	
+	/**
+	 * Request tiles for the region that is likely to be visible next, based upon how the view has been panning and zooming.
+	 * If the view isn't moving, any previous request is cancelled.
+	 * 
+	 * @param state
+	 */
+	private void prefetchTiles(final RenderState state) {
+		ImageServer<BufferedImage> server = state.server;
+		double downsample = state.downsample;
+		double[] downsamples = server.getPreferredDownsamples().clone();
+		Arrays.sort(downsamples);
+		Rectangle2D predictedRegion;
+		double predictedDownsample;
+		// The predictor may be reset on the JavaFX thread
+		synchronized (motionPredictor) {
+			motionPredictor.update(System.currentTimeMillis(), state.xCenter, state.yCenter, downsample);
+			predictedRegion = motionPredictor.predictRegion(state.visibleShape.getBounds2D());
+			predictedDownsample = motionPredictor.predictDownsample(downsamples, downsample);
+		}
+		if (predictedRegion == null) {
+			regionStore.cancelPrefetch(this);
+			return;
 		}
+		regionStore.prefetchRegion(this, server, predictedRegion, predictedDownsample, state.plane.getZ(), state.plane.getT());
 	}
 
 
@@ -2430,24 +2734,27 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 
 
-	protected void updateAffineTransform() {
+	protected synchronized void updateAffineTransform() {
 		if (!hasServer())
 			return;
 
-		transform.setToIdentity();
-		transform.translate(getWidth()*.5, getHeight()*.5);
+		// Create the new transform before updating, since it may be in use for painting on another thread
+		AffineTransform transformNew = new AffineTransform();
+		transformNew.translate(getWidth()*.5, getHeight()*.5);
 		double downsample = getDownsampleFactor();
-		transform.scale(1.0/downsample, 1.0/downsample);
-		transform.translate(-xCenter, -yCenter);
+		transformNew.scale(1.0/downsample, 1.0/downsample);
+		transformNew.translate(-xCenter, -yCenter);
 		if (rotation != 0)
-			transform.rotate(rotation, xCenter, yCenter);
+			transformNew.rotate(rotation, xCenter, yCenter);
 
-		transformInverse.setTransform(transform);
+		AffineTransform transformInverseNew = new AffineTransform(transformNew);
 		try {
-			transformInverse.invert();
+			transformInverseNew.invert();
 		} catch (NoninvertibleTransformException e) {
 			logger.warn("Transform not invertible!", e);
 		}
+		transform.setTransform(transformNew);
+		transformInverse.setTransform(transformInverseNew);
 	}
 	
 //	
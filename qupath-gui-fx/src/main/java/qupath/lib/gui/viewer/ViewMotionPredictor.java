@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.viewer;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Helper class to estimate how quickly a viewer is panning and zooming, and so predict which region it is likely to show next.
+ * <p>
+ * Velocities are estimated from successive view positions (e.g. each time the viewer is repainted), with exponential smoothing
+ * to reduce jitter.  If the view hasn't changed for a while, it is assumed to be stationary.
+ * 
+ * @author Pete Bankhead
+ */
+class ViewMotionPredictor {
+
+	/**
+	 * How far ahead to predict the view, in milliseconds.
+	 */
+	private static final double LOOKAHEAD_MILLIS = 500;
+
+	/**
+	 * Maximum time between updates for the velocity to be updated; longer gaps mean the view was stationary.
+	 */
+	private static final long MAX_UPDATE_INTERVAL_MILLIS = 250;
+
+	/**
+	 * Weight given to the most recent velocity estimate.
+	 */
+	private static final double SMOOTHING = 0.5;
+
+	/**
+	 * Minimum fraction of the view width (or height) that should be moved within the lookahead time for the view to be considered moving.
+	 */
+	private static final double MIN_PAN_FRACTION = 0.05;
+
+	/**
+	 * Minimum zoom ratio within the lookahead time for the view to be considered zooming.
+	 */
+	private static final double MIN_ZOOM_RATIO = 1.05;
+
+	private long lastTimestamp = -1;
+	private double lastX, lastY, lastLogDownsample;
+
+	// Velocities, in full-resolution image pixels per millisecond & log downsample per millisecond
+	private double vx, vy, vLogDownsample;
+
+	/**
+	 * Update the velocity estimates using the current view center and downsample.
+	 * 
+	 * @param timestamp current time, in milliseconds
+	 * @param x x-coordinate of the view center
+	 * @param y y-coordinate of the view center
+	 * @param downsample current downsample factor
+	 */
+	void update(final long timestamp, final double x, final double y, final double downsample) {
+		double logDownsample = Math.log(downsample);
+		long dt = timestamp - lastTimestamp;
+		if (lastTimestamp < 0 || dt > MAX_UPDATE_INTERVAL_MILLIS) {
+			vx = 0;
+			vy = 0;
+			vLogDownsample = 0;
+		} else if (dt > 0) {
+			vx = smooth(vx, (x - lastX) / dt);
+			vy = smooth(vy, (y - lastY) / dt);
+			vLogDownsample = smooth(vLogDownsample, (logDownsample - lastLogDownsample) / dt);
+		} else
+			return;
+		lastTimestamp = timestamp;
+		lastX = x;
+		lastY = y;
+		lastLogDownsample = logDownsample;
+	}
+
+	private static double smooth(final double previous, final double current) {
+		return previous * (1 - SMOOTHING) + current * SMOOTHING;
+	}
+
+	/**
+	 * Reset the predictor, e.g. because a new image has been opened.
+	 */
+	void reset() {
+		lastTimestamp = -1;
+		vx = 0;
+		vy = 0;
+		vLogDownsample = 0;
+	}
+
+	/**
+	 * Get the ratio between the predicted and current downsample factors, or 1 if the view is not zooming.
+	 * 
+	 * @return
+	 */
+	double getPredictedZoomRatio() {
+		double ratio = Math.exp(vLogDownsample * LOOKAHEAD_MILLIS);
+		if (ratio < MIN_ZOOM_RATIO && ratio > 1.0 / MIN_ZOOM_RATIO)
+			return 1.0;
+		return ratio;
+	}
+
+	/**
+	 * Predict the region that will be visible soon, given the bounds of the region that is currently visible.
+	 * 
+	 * @param bounds
+	 * @return the predicted region, or null if the view does not appear to be moving
+	 */
+	Rectangle2D predictRegion(final Rectangle2D bounds) {
+		double dx = vx * LOOKAHEAD_MILLIS;
+		double dy = vy * LOOKAHEAD_MILLIS;
+		double zoomRatio = getPredictedZoomRatio();
+		boolean isPanning = Math.abs(dx) >= bounds.getWidth() * MIN_PAN_FRACTION || Math.abs(dy) >= bounds.getHeight() * MIN_PAN_FRACTION;
+		if (!isPanning && zoomRatio == 1.0)
+			return null;
+		double width = bounds.getWidth() * zoomRatio;
+		double height = bounds.getHeight() * zoomRatio;
+		return new Rectangle2D.Double(
+				bounds.getCenterX() + dx - width / 2.0,
+				bounds.getCenterY() + dy - height / 2.0,
+				width,
+				height);
+	}
+
+	/**
+	 * Get the downsample at the pyramid level adjacent to the one used for the current downsample,
+	 * in the direction of the predicted zoom.  If the view isn't zooming, the current downsample is returned.
+	 * 
+	 * @param preferredDownsamples the downsamples of the pyramid levels, in ascending order
+	 * @param downsample the current downsample
+	 * @return
+	 */
+	double predictDownsample(final double[] preferredDownsamples, final double downsample) {
+		double zoomRatio = getPredictedZoomRatio();
+		if (zoomRatio == 1.0 || preferredDownsamples.length == 0)
+			return downsample;
+		// Find the level that would be used for the current downsample
+		int level = 0;
+		while (level < preferredDownsamples.length - 1 && preferredDownsamples[level + 1] <= downsample)
+			level++;
+		if (zoomRatio < 1)
+			level = Math.max(0, level - 1);
+		else
+			level = Math.min(preferredDownsamples.length - 1, level + 1);
+		return preferredDownsamples[level];
+	}
+
+}
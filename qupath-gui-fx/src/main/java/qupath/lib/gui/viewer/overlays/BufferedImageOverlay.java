@@ -41,6 +41,7 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableMap;
 import qupath.lib.gui.viewer.ImageInterpolation;
+import qupath.lib.gui.viewer.OverlayOptions;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.images.ImageData;
 import qupath.lib.regions.ImageRegion;
@@ -170,8 +171,13 @@ public class BufferedImageOverlay extends AbstractImageDataOverlay {
 
     @Override
     public void paintOverlay(Graphics2D g2d, ImageRegion imageRegion, double downsampleFactor, ImageObserver observer, boolean paintCompletely) {
+        paintOverlay(g2d, imageRegion, downsampleFactor, observer, paintCompletely, getOverlayOptions());
+    }
+
+    @Override
+    public void paintOverlay(Graphics2D g2d, ImageRegion imageRegion, double downsampleFactor, ImageObserver observer, boolean paintCompletely, OverlayOptions overlayOptions) {
         // Don't show if objects aren't being shown
-        if (!getOverlayOptions().getShowDetections())
+        if (!overlayOptions.getShowDetections())
             return;
 
         // Paint the regions we have
@@ -58,7 +58,12 @@ public class GridOverlay extends AbstractImageDataOverlay {
 
 	@Override
 	public void paintOverlay(final Graphics2D g, final ImageRegion imageRegion, final double downsampleFactor, final ImageObserver observer, final boolean paintCompletely) {
-		if (isInvisible())
+		paintOverlay(g, imageRegion, downsampleFactor, observer, paintCompletely, getOverlayOptions());
+	}
+	
+	@Override
+	public void paintOverlay(final Graphics2D g, final ImageRegion imageRegion, final double downsampleFactor, final ImageObserver observer, final boolean paintCompletely, final OverlayOptions overlayOptions) {
+		if (super.isInvisible() || !overlayOptions.getShowGrid())
 			return;
 
 		
@@ -71,7 +76,7 @@ public class GridOverlay extends AbstractImageDataOverlay {
 		
 		// Draw grid lines
 		g2d.setStroke(new BasicStroke((float)(downsampleFactor*1.5)));
-		drawGrid(getOverlayOptions().getGridLines(), g2d, getServer(), downsampleFactor, imageRegion, getPreferredOverlayColor());
+		drawGrid(overlayOptions.getGridLines(), g2d, getServer(), downsampleFactor, imageRegion, getPreferredOverlayColor());
 		
 		g2d.dispose();
 	}
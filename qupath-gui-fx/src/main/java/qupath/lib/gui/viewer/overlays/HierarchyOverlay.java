@@ -122,6 +122,11 @@ public class HierarchyOverlay extends AbstractImageDataOverlay {
 
 	@Override
 	public void paintOverlay(final Graphics2D g2d, final ImageRegion imageRegion, final double downsampleFactor, final ImageObserver observer, final boolean paintCompletely) {
+		paintOverlay(g2d, imageRegion, downsampleFactor, observer, paintCompletely, getOverlayOptions());
+	}
+
+	@Override
+	public void paintOverlay(final Graphics2D g2d, final ImageRegion imageRegion, final double downsampleFactor, final ImageObserver observer, final boolean paintCompletely, final OverlayOptions overlayOptions) {
 		
 		// Get the selection model, which can influence colours (TODO: this might not be the best way to do it!)
 		PathObjectHierarchy hierarchy = getHierarchy();
@@ -156,7 +161,6 @@ public class HierarchyOverlay extends AbstractImageDataOverlay {
 		long startTime = System.currentTimeMillis();
 
 		// TODO: Cache detections on an overlay image for faster repainting e.g. when drawing ROIs
-		OverlayOptions overlayOptions = getOverlayOptions();
 		if (overlayOptions.getShowDetections() && !hierarchy.isEmpty()) {
 
 			// If we aren't downsampling by much, or we're upsampling, paint directly - making sure to paint the right number of times, and in the right order
@@ -225,8 +229,11 @@ public class HierarchyOverlay extends AbstractImageDataOverlay {
 
 	
 	public void clearCachedOverlay() {
-		if (regionStore != null && overlayServer != null)
+		if (regionStore != null && overlayServer != null) {
+			// The objects have changed, so any tiles written to disk are also stale
 			regionStore.clearCacheForServer(overlayServer);
+			regionStore.clearSecondaryCacheForServer(overlayServer);
+		}
 	}
 	
 	
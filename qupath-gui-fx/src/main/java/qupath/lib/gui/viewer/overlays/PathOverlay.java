@@ -27,6 +27,7 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.ImageObserver;
 
+import qupath.lib.gui.viewer.OverlayOptions;
 import qupath.lib.regions.ImageRegion;
 
 
@@ -52,6 +53,23 @@ public interface PathOverlay {
 	 */
 	public void paintOverlay(Graphics2D g2d, ImageRegion imageRegion, double downsampleFactor, ImageObserver observer, boolean paintCompletely);
 
+	/**
+	 * Paint the overlay to a graphics object, using the specified display options rather than any options stored by the overlay.
+	 * <p>
+	 * This makes it possible to paint on a background thread using a snapshot of the options, which won't change during painting.
+	 * The default implementation ignores the options and calls {@link #paintOverlay(Graphics2D, ImageRegion, double, ImageObserver, boolean)}.
+	 * 
+	 * @param g2d
+	 * @param imageRegion
+	 * @param downsampleFactor
+	 * @param observer
+	 * @param paintCompletely
+	 * @param overlayOptions the options to use for display
+	 */
+	public default void paintOverlay(Graphics2D g2d, ImageRegion imageRegion, double downsampleFactor, ImageObserver observer, boolean paintCompletely, OverlayOptions overlayOptions) {
+		paintOverlay(g2d, imageRegion, downsampleFactor, observer, paintCompletely);
+	}
+
 	/**
 	 * Check overlay visibility status.  If isVisible() returns {@code false},
 	 * then calls to paintOverlay() will not do anything.
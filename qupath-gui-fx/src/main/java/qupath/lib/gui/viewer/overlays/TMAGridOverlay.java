@@ -58,7 +58,12 @@ public class TMAGridOverlay extends AbstractImageDataOverlay {
 	
 	@Override
 	public void paintOverlay(final Graphics2D g, final ImageRegion imageRegion, final double downsampleFactor, final ImageObserver observer, final boolean paintCompletely) {
-		if (isInvisible())
+		paintOverlay(g, imageRegion, downsampleFactor, observer, paintCompletely, getOverlayOptions());
+	}
+	
+	@Override
+	public void paintOverlay(final Graphics2D g, final ImageRegion imageRegion, final double downsampleFactor, final ImageObserver observer, final boolean paintCompletely, final OverlayOptions overlayOptions) {
+		if (super.isInvisible() || !overlayOptions.getShowTMAGrid())
 			return;
 
 		PathObjectHierarchy hierarchy = getHierarchy();
@@ -79,7 +84,7 @@ public class TMAGridOverlay extends AbstractImageDataOverlay {
 		// Ensure antialias is on...?
 		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		
-		PathHierarchyPaintingHelper.paintTMAGrid(g2d, tmaGrid, getOverlayOptions(), hierarchy.getSelectionModel(), downsampleFactor);
+		PathHierarchyPaintingHelper.paintTMAGrid(g2d, tmaGrid, overlayOptions, hierarchy.getSelectionModel(), downsampleFactor);
 		
 		g2d.dispose();
 	}
@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import qupath.lib.images.ImageData;
+
+/**
+ * Tests for the ImageDisplay.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class ImageDisplayTest {
+	
+	@Test
+	public void test_uniqueID() {
+		var imageData = new ImageData<>(new MultiChannelImageServer(100, 100, 3, 8));
+		var display = new ImageDisplay(imageData);
+		var channels = display.availableChannels();
+		assertEquals(3, channels.size());
+		for (var channel : channels)
+			display.setChannelSelected(channel, true);
+		
+		String id = display.getUniqueID();
+		assertEquals(id, display.getUniqueID());
+		
+		// Changing the display range changes the ID, but changing it back returns to the original ID
+		var channel = channels.get(1);
+		float max = channel.getMaxDisplay();
+		display.setMinMaxDisplay(channel, channel.getMinDisplay(), max / 2);
+		String id2 = display.getUniqueID();
+		assertNotEquals(id, id2);
+		display.setMinMaxDisplay(channel, channel.getMinDisplay(), max);
+		assertEquals(id, display.getUniqueID());
+		
+		// Same for the selected channels
+		display.setChannelSelected(channel, false);
+		assertNotEquals(id, display.getUniqueID());
+		display.setChannelSelected(channel, true);
+		assertNotEquals(id, display.getUniqueID()); // Channel order has changed
+		
+		display.setUseGrayscaleLuts(true);
+		String idGray = display.getUniqueID();
+		display.setUseGrayscaleLuts(false);
+		assertNotEquals(idGray, display.getUniqueID());
+		
+		// Another display with the same settings should have the same ID
+		var display2 = new ImageDisplay(imageData);
+		for (var c : display.selectedChannels())
+			display2.setChannelSelected(display2.availableChannels().get(channels.indexOf(c)), true);
+		assertEquals(display.getUniqueID(), display2.getUniqueID());
+	}
+
+}
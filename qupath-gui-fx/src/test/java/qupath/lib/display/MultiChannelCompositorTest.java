@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import qupath.lib.display.ChannelDisplayInfo.DirectServerChannelInfo;
+import qupath.lib.images.ImageData;
+
+/**
+ * Tests for compositing multiple channels using lookup tables.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class MultiChannelCompositorTest {
+	
+	@Test
+	public void test_8bitBanded() {
+		testCompositing(DataBuffer.TYPE_BYTE, true, 5, 37, 23);
+	}
+	
+	@Test
+	public void test_8bitInterleaved() {
+		testCompositing(DataBuffer.TYPE_BYTE, false, 3, 64, 48);
+	}
+
+	@Test
+	public void test_16bitBanded() {
+		testCompositing(DataBuffer.TYPE_USHORT, true, 12, 301, 257);
+	}
+
+	@Test
+	public void test_16bitInterleaved() {
+		testCompositing(DataBuffer.TYPE_USHORT, false, 4, 19, 11);
+	}
+	
+	private static void testCompositing(int dataType, boolean banded, int nChannels, int width, int height) {
+		int bitDepth = dataType == DataBuffer.TYPE_BYTE ? 8 : 16;
+		int maxValue = (1 << bitDepth) - 1;
+		BufferedImage img = MultiChannelImageServer.createImage(dataType, banded, nChannels, width, height, new Random(100L));
+		var imageData = new ImageData<>(new MultiChannelImageServer(width, height, nChannels, bitDepth));
+		
+		// Create channels with a range of display settings, including some unusual ones
+		Random rand = new Random(200L);
+		List<ChannelDisplayInfo> channels = new ArrayList<>();
+		for (int c = 0; c < nChannels; c++) {
+			var info = new DirectServerChannelInfo(imageData, c);
+			float min = rand.nextFloat() * maxValue / 2f;
+			float max = min + rand.nextFloat() * maxValue / 2f;
+			if (c == 1)
+				max = min;
+			else if (c == 2)
+				max = min / 2f;
+			info.setMinDisplay(min);
+			info.setMaxDisplay(max);
+			channels.add(info);
+		}
+		
+		for (boolean useGrayscaleLuts : new boolean[] {false, true}) {
+			for (int n = 1; n <= nChannels; n++) {
+				var selected = channels.subList(0, n);
+				var expected = applyTransformsPerPixel(img, selected, useGrayscaleLuts);
+				var imgOutput = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				assertTrue(MultiChannelCompositor.canComposite(img, imgOutput, selected));
+				var result = ImageDisplay.applyTransforms(img, imgOutput, selected, useGrayscaleLuts);
+				assertSame(imgOutput, result);
+				assertArrayEquals(expected, result.getRGB(0, 0, width, height, null, 0, width));
+			}
+		}
+		
+		// Changing the display range should update the lookup tables
+		var info = (DirectServerChannelInfo)channels.get(0);
+		info.setMaxDisplay(info.getMaxDisplay() + 10);
+		List<ChannelDisplayInfo> selected = Collections.singletonList(info);
+		var expected = applyTransformsPerPixel(img, selected, false);
+		var result = ImageDisplay.applyTransforms(img, null, selected, false);
+		assertArrayEquals(expected, result.getRGB(0, 0, width, height, null, 0, width));
+	}
+	
+	/**
+	 * Combine channels in the same way as {@link ImageDisplay#applyTransforms(BufferedImage, BufferedImage, List, boolean)}, 
+	 * but without using lookup tables.
+	 */
+	private static int[] applyTransformsPerPixel(BufferedImage img, List<? extends ChannelDisplayInfo> channels, boolean useGrayscaleLuts) {
+		int[] pixels = null;
+		for (var info : channels) {
+			if (pixels == null)
+				pixels = info.getRGB(img, null, !useGrayscaleLuts);
+			else
+				info.updateRGBAdditive(img, pixels, !useGrayscaleLuts);
+		}
+		var imgRGB = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+		imgRGB.getRaster().setDataElements(0, 0, img.getWidth(), img.getHeight(), pixels);
+		return imgRGB.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+
+}
@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.TileRequest;
+
+/**
+ * Server generating multichannel images containing random values, for testing display code.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+class MultiChannelImageServer extends AbstractTileableImageServer {
+	
+	private ImageServerMetadata metadata;
+	private int dataType;
+	
+	MultiChannelImageServer(int width, int height, int nChannels, int bitDepth) {
+		this.dataType = bitDepth == 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+		metadata = new ImageServerMetadata.Builder(MultiChannelImageServer.class, "test", width, height)
+				.bitDepth(bitDepth)
+				.channels(ImageChannel.getDefaultChannelList(nChannels))
+				.build();
+	}
+
+	@Override
+	protected BufferedImage readTile(TileRequest tileRequest) {
+		return createImage(dataType, true, nChannels(), tileRequest.getTileWidth(), tileRequest.getTileHeight(), new Random(tileRequest.hashCode()));
+	}
+
+	@Override
+	public ImageServerMetadata getOriginalMetadata() {
+		return metadata;
+	}
+
+	@Override
+	public String getServerType() {
+		return "Test server";
+	}
+	
+	/**
+	 * Create an image with the specified number of channels, containing random values.
+	 * 
+	 * @param dataType either {@link DataBuffer#TYPE_BYTE} or {@link DataBuffer#TYPE_USHORT}
+	 * @param banded if true, use a {@link BandedSampleModel}, otherwise a {@link PixelInterleavedSampleModel}
+	 * @param nChannels
+	 * @param width
+	 * @param height
+	 * @param rand
+	 * @return
+	 */
+	static BufferedImage createImage(int dataType, boolean banded, int nChannels, int width, int height, Random rand) {
+		SampleModel model;
+		if (banded)
+			model = new BandedSampleModel(dataType, width, height, nChannels);
+		else {
+			int[] offsets = new int[nChannels];
+			for (int c = 0; c < nChannels; c++)
+				offsets[c] = nChannels - 1 - c;
+			model = new PixelInterleavedSampleModel(dataType, width, height, nChannels, width * nChannels, offsets);
+		}
+		WritableRaster raster = Raster.createWritableRaster(model, new Point(0, 0));
+		int maxValue = dataType == DataBuffer.TYPE_BYTE ? 256 : 65536;
+		for (int c = 0; c < nChannels; c++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					raster.setSample(x, y, c, rand.nextInt(maxValue));
+			}
+		}
+		int[] bits = new int[nChannels];
+		Arrays.fill(bits, DataBuffer.getDataTypeSize(dataType));
+		var colorModel = new ComponentColorModel(new MultiChannelColorSpace(nChannels), bits, false, false, ComponentColorModel.OPAQUE, dataType);
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+	
+	/**
+	 * Minimal color space, needed to create a BufferedImage with an arbitrary number of channels.
+	 */
+	@SuppressWarnings("serial")
+	private static class MultiChannelColorSpace extends ColorSpace {
+		
+		MultiChannelColorSpace(int nChannels) {
+			super(ColorSpace.TYPE_RGB, nChannels);
+		}
+
+		@Override
+		public float[] toRGB(float[] colorvalue) {
+			return new float[3];
+		}
+
+		@Override
+		public float[] fromRGB(float[] rgbvalue) {
+			return new float[getNumComponents()];
+		}
+
+		@Override
+		public float[] toCIEXYZ(float[] colorvalue) {
+			return new float[3];
+		}
+
+		@Override
+		public float[] fromCIEXYZ(float[] colorvalue) {
+			return new float[getNumComponents()];
+		}
+		
+	}
+
+}
@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Tests for the default tile cache.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class DefaultRegionCacheTest {
+	
+	private static final SizeEstimator<byte[]> sizeEstimator = v -> v == null ? 0 : v.length;
+	
+	private static RegionRequest createRequest(String path, int x, int y) {
+		return RegionRequest.createInstance(path, 1, x * 256, y * 256, 256, 256);
+	}
+	
+	@Test
+	public void test_memoryLimit() {
+		// Able to hold 8 entries by memory
+		var cache = new DefaultRegionCache<>(sizeEstimator, 1000, 4 * 2000, 4);
+		for (int i = 0; i < 100; i++)
+			cache.put(createRequest("server", i, 0), new byte[1000]);
+		assertTrue(cache.getMemoryBytes() <= 4 * 2000);
+		assertTrue(cache.size() <= 8);
+		assertEquals(100 - cache.size(), cache.getEvictionCount());
+		
+		// The most recent entry should always be kept
+		var last = createRequest("server", 99, 0);
+		assertNotNull(cache.get(last));
+		
+		// A single entry larger than a segment should still be cached
+		var big = createRequest("server", 0, 1);
+		cache.put(big, new byte[10000]);
+		assertNotNull(cache.get(big));
+	}
+	
+	@Test
+	public void test_globalMemoryLimit() {
+		// The memory limit applies to the whole cache, regardless of how the keys are distributed between segments
+		var cache = new DefaultRegionCache<>(sizeEstimator, 1000, 8000, 4);
+		for (int i = 0; i < 8; i++)
+			cache.put(createRequest("server", i, 0), new byte[1000]);
+		assertEquals(8, cache.size());
+		assertEquals(0, cache.getEvictionCount());
+		
+		// A large entry should only evict as much as is needed
+		var big = createRequest("server", 0, 1);
+		cache.put(big, new byte[6000]);
+		assertNotNull(cache.get(big));
+		assertEquals(8000, cache.getMemoryBytes());
+		assertEquals(3, cache.size());
+		assertEquals(6, cache.getEvictionCount());
+	}
+	
+	@Test
+	public void test_counts() {
+		var cache = new DefaultRegionCache<>(sizeEstimator, 1000, 1000000, 4);
+		var request = createRequest("server", 0, 0);
+		var requestNull = createRequest("server", 1, 0);
+		assertNull(cache.get(request));
+		cache.put(request, new byte[10]);
+		cache.put(requestNull, null);
+		assertNotNull(cache.get(request));
+		// A null value is still a hit, since it means there is nothing to fetch
+		assertNull(cache.get(requestNull));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(10, cache.getMemoryBytes());
+		
+		cache.remove(request);
+		assertEquals(0, cache.getMemoryBytes());
+		assertEquals(1, cache.size());
+		cache.clear();
+		assertTrue(cache.isEmpty());
+	}
+	
+	@Test
+	public void test_clearForPath() {
+		var cache = new DefaultRegionCache<>(sizeEstimator, 1000, 1000000, 4);
+		for (int i = 0; i < 10; i++) {
+			cache.put(createRequest("server1", i, 0), new byte[10]);
+			cache.put(createRequest("server2", i, 0), new byte[10]);
+		}
+		cache.clearCacheForRequestOverlap(RegionRequest.createInstance("server1", 1, 0, 0, 256*3, 256));
+		assertEquals(17, cache.size());
+		assertFalse(cache.containsKey(createRequest("server1", 2, 0)));
+		assertTrue(cache.containsKey(createRequest("server2", 2, 0)));
+		
+		cache.clearCacheForRequestOverlap(RegionRequest.createInstance("server1", 1, 0, 0, 256*3, 256));
+		assertEquals(17, cache.size());
+		
+		assertEquals(Set.of("server1", "server2"), new HashSet<>(cache.getPaths()));
+		cache.clearCacheForPath("server1");
+		assertEquals(10, cache.size());
+		assertEquals(100, cache.getMemoryBytes());
+		for (var request : cache.keySet())
+			assertEquals("server2", request.getPath());
+		assertEquals(List.of("server2"), cache.getPaths());
+	}
+	
+	@Test
+	public void test_concurrent() throws Exception {
+		var cache = new DefaultRegionCache<>(sizeEstimator, 64, 64 * 100, 8);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				int offset = t;
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 10000; i++) {
+						var request = createRequest("server" + (i % 3), (i * 7 + offset) % 200, offset);
+						if (cache.get(request) == null)
+							cache.put(request, new byte[100]);
+						if (i % 1000 == 0)
+							cache.clearCacheForPath("server0");
+					}
+				}));
+			}
+			for (var future : futures)
+				future.get();
+		} finally {
+			pool.shutdown();
+		}
+		assertTrue(cache.getMemoryBytes() <= 64 * 100);
+		assertEquals(cache.size() * 100L, cache.getMemoryBytes());
+		cache.clearCacheForPath("server1");
+		cache.clearCacheForPath("server2");
+		cache.clearCacheForPath("server0");
+		assertTrue(cache.isEmpty());
+	}
+
+}
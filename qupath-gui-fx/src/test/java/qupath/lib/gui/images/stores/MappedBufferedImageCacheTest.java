@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import static org.junit.Assert.*;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Tests for the memory-mapped second-level tile cache.
+ * 
+ * @author Pete Bankhead
+ * 
+ */
+public class MappedBufferedImageCacheTest {
+	
+	private File dir;
+	private MappedBufferedImageCache cache;
+	
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("qupath-cache").toFile();
+		cache = MappedBufferedImageCache.createCache(dir, 1024 * 1024);
+	}
+	
+	@After
+	public void tearDown() {
+		cache.close();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+	
+	private static RegionRequest createRequest(String path, int x) {
+		return RegionRequest.createInstance(path, 1, x * 64, 0, 64, 64);
+	}
+	
+	private static BufferedImage createImage(int type, long seed) {
+		var img = new BufferedImage(64, 64, type);
+		fillRandom(img, seed);
+		return img;
+	}
+	
+	private static void fillRandom(BufferedImage img, long seed) {
+		var rand = new Random(seed);
+		var raster = img.getRaster();
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				for (int b = 0; b < raster.getNumBands(); b++)
+					raster.setSample(x, y, b, rand.nextInt(256));
+			}
+		}
+	}
+	
+	private static void assertSamePixels(BufferedImage img, BufferedImage img2) {
+		assertNotNull(img2);
+		assertEquals(img.getType(), img2.getType());
+		var raster = img.getRaster();
+		var raster2 = img2.getRaster();
+		assertEquals(raster.getDataBuffer().getDataType(), raster2.getDataBuffer().getDataType());
+		assertEquals(raster.getNumBands(), raster2.getNumBands());
+		assertArrayEquals(
+				raster.getPixels(0, 0, img.getWidth(), img.getHeight(), (double[])null),
+				raster2.getPixels(0, 0, img.getWidth(), img.getHeight(), (double[])null),
+				0.0);
+	}
+	
+	@Test
+	public void test_roundTrip() {
+		int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY,
+				BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_USHORT_GRAY};
+		for (int i = 0; i < types.length; i++) {
+			var img = createImage(types[i], i);
+			var request = createRequest("server", i);
+			assertTrue(cache.put(request, img));
+			assertSamePixels(img, cache.get(request));
+		}
+		
+		// Multichannel float image
+		var raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, 64, 64, 3), new DataBufferFloat(64 * 64, 3), null);
+		var colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+		var img = new BufferedImage(colorModel, raster, false, null);
+		fillRandom(img, 100);
+		var request = createRequest("float", 0);
+		assertTrue(cache.put(request, img));
+		assertSamePixels(img, cache.get(request));
+		
+		assertNull(cache.get(createRequest("missing", 0)));
+	}
+	
+	@Test
+	public void test_overwrite() {
+		// Each tile is 16 KB, so the cache can only hold 64 of them
+		for (int i = 0; i < 100; i++)
+			assertTrue(cache.put(createRequest("server", i), createImage(BufferedImage.TYPE_INT_RGB, i)));
+		assertNull(cache.get(createRequest("server", 0)));
+		assertNull(cache.get(createRequest("server", 35)));
+		for (int i = 36; i < 100; i++)
+			assertSamePixels(createImage(BufferedImage.TYPE_INT_RGB, i), cache.get(createRequest("server", i)));
+		
+		// Tiles larger than the cache can't be stored
+		assertFalse(cache.put(createRequest("server", 0), new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_RGB)));
+	}
+	
+	@Test
+	public void test_clear() {
+		for (int i = 0; i < 10; i++) {
+			cache.put(createRequest("server1", i), createImage(BufferedImage.TYPE_BYTE_GRAY, i));
+			cache.put(createRequest("server2", i), createImage(BufferedImage.TYPE_BYTE_GRAY, i));
+		}
+		cache.clearCacheForPath("server1");
+		assertNull(cache.get(createRequest("server1", 0)));
+		assertNotNull(cache.get(createRequest("server2", 0)));
+		cache.clearCacheForRequestOverlap(RegionRequest.createInstance("server2", 1, 0, 0, 64 * 2, 64));
+		assertNull(cache.get(createRequest("server2", 1)));
+		assertNotNull(cache.get(createRequest("server2", 2)));
+	}
+	
+	@Test
+	public void test_promotion() {
+		// Heap cache large enough for 4 tiles
+		var regionCache = new DefaultRegionCache<>(new BufferedImageSizeEstimator(), 1000, 4 * 64 * 64 * 4, 1);
+		regionCache.setSecondaryCache(cache);
+		for (int i = 0; i < 20; i++)
+			regionCache.put(createRequest("server", i), createImage(BufferedImage.TYPE_INT_RGB, i));
+		assertTrue(regionCache.size() <= 4);
+		
+		// Evicted tiles should be retrieved from the secondary cache, and returned to the main cache
+		var request = createRequest("server", 0);
+		assertFalse(regionCache.containsKey(request));
+		assertSamePixels(createImage(BufferedImage.TYPE_INT_RGB, 0), regionCache.get(request));
+		assertTrue(regionCache.containsKey(request));
+		assertEquals(1, regionCache.getSecondaryHitCount());
+		
+		// Clearing the main cache shouldn't affect the secondary cache... but removing a tile should
+		regionCache.clear();
+		assertNotNull(regionCache.get(createRequest("server", 1)));
+		regionCache.remove(createRequest("server", 2));
+		assertNull(regionCache.get(createRequest("server", 2)));
+		
+		// Clearing a server should only clear the heap cache, so that tiles can be reused if the server is reopened
+		regionCache.clearCacheForPath("server");
+		assertEquals(0, regionCache.size());
+		assertNotNull(regionCache.get(createRequest("server", 3)));
+		
+		// Purging the secondary cache should remove the tiles completely
+		regionCache.clearCacheForPath("server");
+		regionCache.clearSecondaryCacheForPath("server");
+		assertNull(regionCache.get(createRequest("server", 3)));
+		assertNull(regionCache.get(createRequest("server", 4)));
+	}
+	
+}
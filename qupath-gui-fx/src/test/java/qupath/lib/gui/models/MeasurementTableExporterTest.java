@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.models;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.classes.PathClassFactory.PathClasses;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+/**
+ * Tests for streaming measurement export.
+ * 
+ * @author Pete Bankhead
+ * 
+ */
+public class MeasurementTableExporterTest {
+
+	private static ObservableMeasurementTableData createModel(int nObjects, String... extraNames) {
+		ImageData<BufferedImage> imageData = new ImageData<>(null);
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < nObjects; i++) {
+			PathObject detection = PathObjects.createDetectionObject(
+					ROIs.createRectangleROI(i * 10, 0, 5, 5, ImagePlane.getDefaultPlane()),
+					PathClassFactory.getDefaultPathClass(i % 2 == 0 ? PathClasses.TUMOR : PathClasses.STROMA));
+			detection.getMeasurementList().putMeasurement("Value", i * 0.5);
+			for (String name : extraNames)
+				detection.getMeasurementList().putMeasurement(name, i);
+			detection.getMeasurementList().close();
+			detections.add(detection);
+		}
+		imageData.getHierarchy().addPathObjects(detections, false);
+		ObservableMeasurementTableData model = new ObservableMeasurementTableData();
+		model.setImageData(imageData, imageData.getHierarchy().getObjects(null, PathDetectionObject.class));
+		return model;
+	}
+
+	@Test
+	public void test_writeDelimited() throws IOException {
+		ObservableMeasurementTableData model = createModel(10);
+		StringWriter writer = new StringWriter();
+		MeasurementTableExporter.writeDelimited(model, "\t", Collections.emptyList(), writer);
+
+		String[] lines = writer.toString().split(System.lineSeparator());
+		assertEquals(11, lines.length);
+
+		List<String> header = Arrays.asList(lines[0].split("\t", -1));
+		assertEquals(model.getAllNames(), header);
+		int col = header.indexOf("Value");
+		assertTrue(col >= 0);
+		for (int i = 0; i < 10; i++) {
+			String[] values = lines[i+1].split("\t", -1);
+			assertEquals(header.size(), values.length);
+			assertEquals(model.getStringValue(model.getEntries().get(i), "Value"), values[col]);
+		}
+
+		// Check excluded columns are omitted
+		writer = new StringWriter();
+		List<String> exclude = new ArrayList<>(model.getAllNames());
+		exclude.remove("Value");
+		MeasurementTableExporter.writeDelimited(model, ",", exclude, writer);
+		lines = writer.toString().split(System.lineSeparator());
+		assertEquals("Value", lines[0]);
+	}
+
+	@Test
+	public void test_quoteValues() throws IOException {
+		String name = "Value, \"quoted\"\nwith new line";
+		ObservableMeasurementTableData model = createModel(3, name);
+		for (String delim : Arrays.asList(",", "\t")) {
+			StringWriter writer = new StringWriter();
+			MeasurementTableExporter.writeDelimited(model, delim, Collections.emptyList(), writer);
+			BufferedReader reader = new BufferedReader(new StringReader(writer.toString()));
+			List<String> header = MeasurementTableExporter.readRecord(reader, delim.charAt(0));
+			assertEquals(model.getAllNames(), header);
+			assertTrue(header.contains(name));
+			int nRows = 0;
+			List<String> values;
+			while ((values = MeasurementTableExporter.readRecord(reader, delim.charAt(0))) != null) {
+				assertEquals(header.size(), values.size());
+				nRows++;
+			}
+			assertEquals(3, nRows);
+		}
+		assertEquals("\"a,b\"", MeasurementTableExporter.escapeValue("a,b", ","));
+		assertEquals("a,b", MeasurementTableExporter.escapeValue("a,b", "\t"));
+		assertEquals("\"a \"\"b\"\"\"", MeasurementTableExporter.escapeValue("a \"b\"", ","));
+	}
+
+	@Test
+	public void test_createFileName() {
+		Set<String> names = new HashSet<>();
+		assertEquals("image_1.csv", MeasurementTableExporter.createFileName("image/1", ".csv", names));
+		assertEquals("image_1 (2).csv", MeasurementTableExporter.createFileName("image:1", ".csv", names));
+		assertEquals("Image_1 (3).csv", MeasurementTableExporter.createFileName("Image?1", ".csv", names));
+		assertEquals("a_b.csv", MeasurementTableExporter.createFileName("a\\b. ", ".csv", names));
+		assertEquals("Image.csv", MeasurementTableExporter.createFileName("..", ".csv", names));
+	}
+
+	@Test
+	public void test_writeBinary() throws IOException {
+		int nObjects = 20;
+		ObservableMeasurementTableData model = createModel(nObjects);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MeasurementTableExporter.writeBinary(model, Collections.emptyList(), bytes);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(MeasurementTableExporter.BINARY_MAGIC, in.readInt());
+		assertEquals(MeasurementTableExporter.BINARY_VERSION, in.readInt());
+		assertEquals(nObjects, in.readInt());
+		int nColumns = in.readInt();
+		assertEquals(model.getAllNames().size(), nColumns);
+
+		List<String> names = new ArrayList<>();
+		byte[] types = new byte[nColumns];
+		for (int c = 0; c < nColumns; c++) {
+			names.add(readString(in));
+			types[c] = in.readByte();
+		}
+		assertEquals(model.getAllNames(), names);
+
+		for (int c = 0; c < nColumns; c++) {
+			String name = names.get(c);
+			if (types[c] == MeasurementTableExporter.TYPE_FLOAT) {
+				for (int i = 0; i < nObjects; i++)
+					assertEquals((float)model.getNumericValue(model.getEntries().get(i), name), in.readFloat(), 0f);
+			} else {
+				assertEquals(MeasurementTableExporter.TYPE_STRING, types[c]);
+				String[] dictionary = new String[in.readInt()];
+				for (int k = 0; k < dictionary.length; k++)
+					dictionary[k] = readString(in);
+				if ("Class".equals(name))
+					assertEquals(2, dictionary.length);
+				for (int i = 0; i < nObjects; i++) {
+					int ind = in.readInt();
+					assertEquals(model.getStringValue(model.getEntries().get(i), name), ind < 0 ? null : dictionary[ind]);
+				}
+			}
+		}
+		assertEquals(-1, in.read());
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
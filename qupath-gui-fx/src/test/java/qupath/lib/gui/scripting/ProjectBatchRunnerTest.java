@@ -0,0 +1,268 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.scripting;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+
+import org.junit.Test;
+
+import qupath.lib.gui.scripting.ProjectBatchRunner.ImageResult;
+import qupath.lib.gui.scripting.ProjectBatchRunner.Status;
+import qupath.lib.images.ImageData;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+
+/**
+ * Tests for running a script across the images of a project.
+ * 
+ * @author Pete Bankhead
+ * 
+ */
+public class ProjectBatchRunnerTest {
+
+	private static final String IMAGE_NAME = "imageName";
+
+	private Set<String> saved = ConcurrentHashMap.newKeySet();
+	private AtomicInteger running = new AtomicInteger();
+	private AtomicInteger maxRunning = new AtomicInteger();
+
+	@Test
+	public void test_failureIsolation() throws Exception {
+		var runner = createRunner(name -> {
+			if (name.equals("b"))
+				throw new ScriptException("Script failed for " + name);
+		}).setSave(true);
+
+		List<ImageResult> results = runner.run(createProject(), createEntries("a", "b", "missing", "unreadable", "e"));
+		assertEquals(Arrays.asList("a", "b", "missing", "unreadable", "e"), getNames(results));
+		assertEquals(Arrays.asList(Status.SUCCEEDED, Status.FAILED, Status.SKIPPED, Status.FAILED, Status.SUCCEEDED), getStatuses(results));
+		assertTrue(results.get(1).getError() instanceof ScriptException);
+		assertTrue(results.get(3).getError() instanceof IOException);
+		assertNull(results.get(0).getError());
+
+		// Only images processed successfully should be saved
+		assertEquals(Set.of("a", "e"), saved);
+	}
+
+	@Test
+	public void test_cancel() throws Exception {
+		var runner = createRunner(name -> {});
+		runner.setListener(result -> runner.cancel());
+
+		List<ImageResult> results = runner.run(createProject(), createEntries("a", "b", "c", "d"));
+		assertTrue(runner.isCancelled());
+		assertEquals(Arrays.asList("a", "b", "c", "d"), getNames(results));
+		assertEquals(Arrays.asList(Status.SUCCEEDED, Status.CANCELLED, Status.CANCELLED, Status.CANCELLED), getStatuses(results));
+	}
+
+	@Test
+	public void test_threads() throws Exception {
+		// Images should be processed sequentially by default
+		var runner = createRunner(name -> Thread.sleep(5));
+		assertEquals(1, runner.getParallelism());
+		runner.run(createProject(), createEntries("a", "b", "c", "d"));
+		assertEquals(1, maxRunning.get());
+
+		// Requesting threads should allow images to be processed concurrently - but no more than requested
+		maxRunning.set(0);
+		CountDownLatch latch = new CountDownLatch(2);
+		runner = createRunner(name -> {
+			latch.countDown();
+			latch.await(10, TimeUnit.SECONDS);
+			Thread.sleep(5);
+		}).setThreads(2).setMemoryPerImage(1);
+		assertEquals(2, runner.getParallelism());
+		List<ImageResult> results = runner.run(createProject(), createEntries("a", "b", "c", "d", "e", "f"));
+		assertEquals(2, maxRunning.get());
+		assertTrue(results.stream().allMatch(r -> r.getStatus() == Status.SUCCEEDED));
+	}
+
+	@Test
+	public void test_memoryLimit() throws Exception {
+		long maxMemory = Runtime.getRuntime().maxMemory();
+
+		// The number of images processed concurrently should be limited by the memory required per image
+		var runner = createRunner(name -> Thread.sleep(5)).setThreads(8);
+		runner.setMemoryPerImage(maxMemory);
+		assertEquals(1, runner.getParallelism());
+		runner.setMemoryPerImage((long)(maxMemory * 0.75 / 2.5));
+		assertEquals(2, runner.getParallelism());
+		runner.setMemoryPerImage(1);
+		assertEquals(8, runner.getParallelism());
+
+		runner.setMemoryPerImage(maxMemory);
+		runner.run(createProject(), createEntries("a", "b", "c", "d"));
+		assertEquals(1, maxRunning.get());
+	}
+
+
+	private ProjectBatchRunner createRunner(ScriptAction action) {
+		return new ProjectBatchRunner(() -> new StubScriptEngine(action), "")
+				.setImportDefaultMethods(false)
+				.setContextFactory(entry -> {
+					ScriptContext context = new SimpleScriptContext();
+					context.setAttribute(IMAGE_NAME, entry.getImageName(), ScriptContext.ENGINE_SCOPE);
+					return context;
+				});
+	}
+
+	private static List<String> getNames(List<ImageResult> results) {
+		return results.stream().map(r -> r.getEntry().getImageName()).collect(Collectors.toList());
+	}
+
+	private static List<Status> getStatuses(List<ImageResult> results) {
+		return results.stream().map(r -> r.getStatus()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Create a project with no storage; the runner only needs to pass it to the script.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Project<BufferedImage> createProject() {
+		return (Project<BufferedImage>)Proxy.newProxyInstance(Project.class.getClassLoader(), new Class<?>[] {Project.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			case "toString":
+				return "Test project";
+			default:
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Create in-memory entries with the specified names.
+	 * An entry named 'missing' has no image data, and one named 'unreadable' throws an exception when read.
+	 */
+	private List<ProjectImageEntry<BufferedImage>> createEntries(String... names) {
+		List<ProjectImageEntry<BufferedImage>> entries = new ArrayList<>();
+		for (String name : names)
+			entries.add(createEntry(name));
+		return entries;
+	}
+
+	@SuppressWarnings("unchecked")
+	private ProjectImageEntry<BufferedImage> createEntry(String name) {
+		return (ProjectImageEntry<BufferedImage>)Proxy.newProxyInstance(ProjectImageEntry.class.getClassLoader(), new Class<?>[] {ProjectImageEntry.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getImageName":
+			case "toString":
+				return name;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			case "readImageData":
+				if (name.equals("missing"))
+					return null;
+				if (name.equals("unreadable"))
+					throw new IOException("Unable to read " + name);
+				return new ImageData<BufferedImage>(null);
+			case "saveImageData":
+				saved.add(name);
+				return null;
+			default:
+				return null;
+			}
+		});
+	}
+
+
+	static interface ScriptAction {
+
+		public void run(String imageName) throws Exception;
+
+	}
+
+	/**
+	 * Script engine that ignores the script, and instead runs an action for the current image while recording
+	 * how many scripts are running at the same time.
+	 */
+	class StubScriptEngine extends AbstractScriptEngine {
+
+		private final ScriptAction action;
+
+		StubScriptEngine(ScriptAction action) {
+			this.action = action;
+		}
+
+		@Override
+		public Object eval(String script, ScriptContext context) throws ScriptException {
+			int n = running.incrementAndGet();
+			maxRunning.accumulateAndGet(n, Math::max);
+			try {
+				action.run((String)context.getAttribute(IMAGE_NAME));
+			} catch (ScriptException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ScriptException(e);
+			} finally {
+				running.decrementAndGet();
+			}
+			return null;
+		}
+
+		@Override
+		public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+			return eval("", context);
+		}
+
+		@Override
+		public Bindings createBindings() {
+			return new SimpleBindings();
+		}
+
+		@Override
+		public ScriptEngineFactory getFactory() {
+			return null;
+		}
+
+	}
+
+}
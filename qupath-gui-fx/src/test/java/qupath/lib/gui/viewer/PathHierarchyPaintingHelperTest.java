@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.viewer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import qupath.lib.geom.Point2;
+import qupath.lib.gui.viewer.PathHierarchyPaintingHelper.ShapeProvider;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.PathShape;
+
+/**
+ * Tests for level-of-detail painting of objects.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class PathHierarchyPaintingHelperTest {
+	
+	@Test
+	public void test_simplifyLevel() {
+		PathShape small = ROIs.createPolygonROI(
+				Arrays.asList(new Point2(0, 0), new Point2(10, 0), new Point2(10, 10), new Point2(0, 10)),
+				ImagePlane.getDefaultPlane());
+		List<Point2> points = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			double theta = i * 2 * Math.PI / 100;
+			points.add(new Point2(50 + 20 * Math.cos(theta), 50 + 20 * Math.sin(theta)));
+		}
+		PathShape large = ROIs.createPolygonROI(points, ImagePlane.getDefaultPlane());
+		
+		// Shapes with few vertices are never simplified
+		assertEquals(-1, ShapeProvider.getSimplifyLevel(small, 100));
+		
+		// Shapes with more vertices are simplified according to the downsample
+		assertEquals(-1, ShapeProvider.getSimplifyLevel(large, 1));
+		assertEquals(-1, ShapeProvider.getSimplifyLevel(large, 2));
+		assertEquals(2, ShapeProvider.SIMPLIFY_DOWNSAMPLES[ShapeProvider.getSimplifyLevel(large, 3)], 0.0);
+		assertEquals(10, ShapeProvider.SIMPLIFY_DOWNSAMPLES[ShapeProvider.getSimplifyLevel(large, 16)], 0.0);
+		assertEquals(50, ShapeProvider.SIMPLIFY_DOWNSAMPLES[ShapeProvider.getSimplifyLevel(large, 64)], 0.0);
+	}
+	
+	@Test
+	public void test_detectionDensity() {
+		PathClass red = PathClassFactory.getPathClass("Density red", 0xff0000);
+		PathClass blue = PathClassFactory.getPathClass("Density blue", 0x0000ff);
+		PathClass hidden = PathClassFactory.getPathClass("Density hidden", 0x00ff00);
+		
+		// Paint 16x16 pixels at a downsample of 4, using bins of 4x4 pixels (i.e. 16x16 image pixels)
+		double downsample = 4;
+		int binSize = 4;
+		ImageRegion region = ImageRegion.createInstance(100, 200, 64, 64, 0, 0);
+		List<PathObject> pathObjects = new ArrayList<>();
+		
+		// Top left bin: one red and one blue object, both in the same bin
+		pathObjects.add(createDetection(102, 202, red));
+		pathObjects.add(createDetection(110, 210, blue));
+		// Next bin: a hidden object only
+		pathObjects.add(createDetection(120, 202, hidden));
+		// Bottom right bin: enough red objects to cover the full bin
+		for (int y = 248; y < 264; y += 2) {
+			for (int x = 148; x < 164; x += 2)
+				pathObjects.add(createDetection(x, y, red));
+		}
+		// Outside the region
+		pathObjects.add(createDetection(50, 50, red));
+		
+		OverlayOptions options = new OverlayOptions();
+		options.hiddenClassesProperty().add(hidden);
+		BufferedImage img = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		PathHierarchyPaintingHelper.paintDetectionDensity(img, region, pathObjects, options, downsample, binSize);
+		
+		// Colors are averaged, opacity is low for sparse bins
+		int argb = img.getRGB(0, 0);
+		assertEquals(argb, img.getRGB(3, 3));
+		assertEquals(127, (argb >> 16) & 0xff);
+		assertEquals(0, (argb >> 8) & 0xff);
+		assertEquals(127, argb & 0xff);
+		int alpha = (argb >>> 24);
+		assertEquals(true, alpha > 0 && alpha < 128);
+		
+		// Hidden classes & empty bins are transparent
+		assertEquals(0, img.getRGB(4, 0));
+		assertEquals(0, img.getRGB(8, 8));
+		
+		// Full bins are opaque
+		assertEquals(0xffff0000, img.getRGB(12, 12));
+		assertEquals(0xffff0000, img.getRGB(15, 15));
+	}
+	
+	private static PathObject createDetection(double x, double y, PathClass pathClass) {
+		return PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 2, 2, ImagePlane.getDefaultPlane()), pathClass);
+	}
+
+}
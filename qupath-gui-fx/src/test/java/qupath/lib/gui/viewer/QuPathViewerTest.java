@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.viewer;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import qupath.lib.geom.Point2;
+import qupath.lib.gui.viewer.overlays.GridOverlay;
+import qupath.lib.gui.viewer.overlays.PathOverlay;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+/**
+ * Tests for the viewer.
+ * 
+ * @author Pete Bankhead
+ *
+ */
+public class QuPathViewerTest {
+	
+	@Test
+	public void test_dirtyBounds() {
+		int w = 300, h = 200;
+		var img = createImage(w, h);
+		var imgPrevious = createImage(w, h);
+		
+		// Everything is dirty if there is no previous image, or the size has changed
+		assertEquals(new Rectangle(0, 0, w, h), QuPathViewer.getDirtyBounds(img, null));
+		assertEquals(new Rectangle(0, 0, w, h), QuPathViewer.getDirtyBounds(img, createImage(w+1, h)));
+		
+		// Nothing is dirty if the images are the same
+		assertNull(QuPathViewer.getDirtyBounds(img, imgPrevious));
+		
+		// Single pixels
+		img.setRGB(0, 0, Color.RED.getRGB());
+		assertEquals(new Rectangle(0, 0, 1, 1), QuPathViewer.getDirtyBounds(img, imgPrevious));
+		img.setRGB(w-1, h-1, Color.RED.getRGB());
+		assertEquals(new Rectangle(0, 0, w, h), QuPathViewer.getDirtyBounds(img, imgPrevious));
+		
+		// Regions
+		img = createImage(w, h);
+		var g2d = img.createGraphics();
+		g2d.setColor(Color.GREEN);
+		g2d.fillRect(20, 30, 40, 10);
+		g2d.fillRect(100, 50, 5, 60);
+		g2d.dispose();
+		assertEquals(new Rectangle(20, 30, 85, 80), QuPathViewer.getDirtyBounds(img, imgPrevious));
+	}
+	
+	@Test
+	public void test_renderStateSnapshot() {
+		AffineTransform transform = AffineTransform.getScaleInstance(0.5, 0.5);
+		List<PathOverlay> overlays = new ArrayList<>();
+		overlays.add(new GridOverlay(null, null));
+		OverlayOptions options = new OverlayOptions();
+		options.setOpacity(0.5f);
+		PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		PathObject selected = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 10, 10, ImagePlane.getDefaultPlane()));
+		List<PathObject> selectedObjects = new ArrayList<>(Collections.singletonList(selected));
+		List<Point2> handles = new ArrayList<>(Collections.singletonList(new Point2(1, 2)));
+		
+		var state = new QuPathViewer.RenderState(100, 50, null, ImagePlane.getDefaultPlane(), 2.0, 10, 20,
+				transform, new Rectangle2D.Double(0, 0, 200, 100), overlays, options,
+				hierarchy, selectedObjects, selected, handles,
+				Color.BLACK, Color.WHITE, null, false, false, true,
+				null, null, null);
+		
+		// Change everything that might be changed on the JavaFX thread while rendering
+		transform.translate(100, 100);
+		overlays.add(new GridOverlay(null, null));
+		options.setOpacity(1.0f);
+		options.setShowDetections(false);
+		options.setPathClassHidden(null, true);
+		selectedObjects.clear();
+		handles.add(new Point2(3, 4));
+		
+		// The snapshot should be unchanged
+		assertEquals(AffineTransform.getScaleInstance(0.5, 0.5), state.transform);
+		assertEquals(1, state.overlays.size());
+		assertEquals(0.5f, state.overlayOptions.getOpacity(), 1e-6);
+		assertTrue(state.overlayOptions.getShowDetections());
+		assertFalse(state.overlayOptions.isPathClassHidden(null));
+		assertEquals(Collections.singletonList(selected), state.selectedObjects);
+		assertEquals(1, state.roiHandles.size());
+		assertTrue(state.updateImage);
+	}
+	
+	private static BufferedImage createImage(int w, int h) {
+		var img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+		var g2d = img.createGraphics();
+		g2d.setColor(Color.BLACK);
+		g2d.fillRect(0, 0, w, h);
+		g2d.dispose();
+		return img;
+	}
+
+}
@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2014 - 2016 The Queen's University of Belfast, Northern Ireland
+ * Contact: IP Management (ipmanagement@qub.ac.uk)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package qupath.lib.gui.viewer;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+/**
+ * Tests for predicting how the view will move.
+ * 
+ * @author Pete Bankhead
+ * 
+ */
+public class ViewMotionPredictorTest {
+	
+	private static final Rectangle2D BOUNDS = new Rectangle2D.Double(0, 0, 1000, 800);
+	
+	private static final double[] DOWNSAMPLES = {1, 4, 16, 64};
+	
+	@Test
+	public void test_stationary() {
+		var predictor = new ViewMotionPredictor();
+		assertNull(predictor.predictRegion(BOUNDS));
+		assertEquals(1.0, predictor.getPredictedZoomRatio(), 1e-6);
+		assertEquals(4.0, predictor.predictDownsample(DOWNSAMPLES, 4.0), 1e-6);
+		
+		// Small movements shouldn't count as panning
+		for (int i = 0; i < 10; i++)
+			predictor.update(i * 20, 500 + i * 0.1, 400, 4.0);
+		assertNull(predictor.predictRegion(BOUNDS));
+	}
+	
+	@Test
+	public void test_panning() {
+		var predictor = new ViewMotionPredictor();
+		// Move right at 2 pixels per millisecond, for long enough for the smoothed velocity to converge
+		for (int i = 0; i < 20; i++)
+			predictor.update(i * 20, 500 + i * 40, 400, 4.0);
+		
+		// The predicted region should be 500 ms ahead, with the same size
+		var region = predictor.predictRegion(BOUNDS);
+		assertNotNull(region);
+		assertEquals(BOUNDS.getCenterX() + 1000, region.getCenterX(), 1.0);
+		assertEquals(BOUNDS.getCenterY(), region.getCenterY(), 1e-6);
+		assertEquals(BOUNDS.getWidth(), region.getWidth(), 1e-6);
+		assertEquals(BOUNDS.getHeight(), region.getHeight(), 1e-6);
+		
+		// Not zooming, so the downsample shouldn't change
+		assertEquals(4.0, predictor.predictDownsample(DOWNSAMPLES, 4.0), 1e-6);
+	}
+	
+	@Test
+	public void test_smoothing() {
+		var predictor = new ViewMotionPredictor();
+		predictor.update(0, 0, 0, 1.0);
+		predictor.update(20, 40, 0, 1.0);
+		// The first velocity estimate should be smoothed towards zero
+		var region = predictor.predictRegion(BOUNDS);
+		assertNotNull(region);
+		assertTrue(region.getCenterX() > BOUNDS.getCenterX());
+		assertTrue(region.getCenterX() < BOUNDS.getCenterX() + 1000);
+		
+		// Updates with no elapsed time should be ignored
+		predictor.update(20, 10000, 10000, 1.0);
+		assertEquals(region, predictor.predictRegion(BOUNDS));
+	}
+	
+	@Test
+	public void test_pauseAndReset() {
+		var predictor = new ViewMotionPredictor();
+		for (int i = 0; i < 10; i++)
+			predictor.update(i * 20, 500 + i * 40, 400, 4.0);
+		assertNotNull(predictor.predictRegion(BOUNDS));
+		
+		// A long pause means the view is stationary, even if it has moved since
+		predictor.update(1000, 2000, 400, 4.0);
+		assertNull(predictor.predictRegion(BOUNDS));
+		
+		// Resetting should also discard the previous velocity
+		for (int i = 0; i < 10; i++)
+			predictor.update(2000 + i * 20, 500 + i * 40, 400, 4.0);
+		assertNotNull(predictor.predictRegion(BOUNDS));
+		predictor.reset();
+		assertNull(predictor.predictRegion(BOUNDS));
+	}
+	
+	@Test
+	public void test_zooming() {
+		// Zoom out, doubling the downsample every 100 ms
+		var predictor = new ViewMotionPredictor();
+		for (int i = 0; i < 20; i++)
+			predictor.update(i * 20, 500, 400, 4.0 * Math.pow(2, i / 5.0));
+		double ratio = predictor.getPredictedZoomRatio();
+		assertEquals(32.0, ratio, 0.1);
+		var region = predictor.predictRegion(BOUNDS);
+		assertNotNull(region);
+		assertEquals(BOUNDS.getWidth() * ratio, region.getWidth(), 1e-6);
+		assertEquals(BOUNDS.getCenterX(), region.getCenterX(), 1e-6);
+		assertEquals(16.0, predictor.predictDownsample(DOWNSAMPLES, 4.0), 1e-6);
+		assertEquals(64.0, predictor.predictDownsample(DOWNSAMPLES, 64.0), 1e-6);
+		
+		// Zoom in, halving the downsample every 100 ms
+		predictor.reset();
+		for (int i = 0; i < 20; i++)
+			predictor.update(i * 20, 500, 400, 16.0 * Math.pow(2, -i / 5.0));
+		assertTrue(predictor.getPredictedZoomRatio() < 1.0);
+		assertTrue(predictor.predictRegion(BOUNDS).getWidth() < BOUNDS.getWidth());
+		assertEquals(4.0, predictor.predictDownsample(DOWNSAMPLES, 16.0), 1e-6);
+		assertEquals(1.0, predictor.predictDownsample(DOWNSAMPLES, 1.0), 1e-6);
+	}
+
+}
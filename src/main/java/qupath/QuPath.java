@@ -42,12 +42,17 @@ import org.slf4j.LoggerFactory;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.gui.QuPathApp;
 import qupath.lib.gui.QuPathGUI;
+import qupath.lib.gui.models.MeasurementTableExporter;
+import qupath.lib.gui.scripting.ProjectBatchRunner;
 import qupath.lib.gui.scripting.QPEx;
 import qupath.lib.gui.tma.QuPathTMAViewer;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.io.PathIO;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectIO;
 import qupath.lib.scripting.QP;
 
 /**
@@ -101,7 +106,32 @@ public class QuPath {
 			// Run a script (& then exit) if required
 			String SCRIPT_KEY = "-script";
 			String IMAGE_KEY = "-image";
-			if (map.containsKey("-script")) {
+			String PROJECT_KEY = "-project";
+			String THREADS_KEY = "-threads";
+			String SAVE_KEY = "-save";
+			String EXPORT_KEY = "-export";
+			
+			// Export detection measurements for a project (& then exit) if required
+			if (map.containsKey(EXPORT_KEY) && !map.containsKey(SCRIPT_KEY)) {
+				String exportPath = map.get(EXPORT_KEY);
+				String projectPath = map.get(PROJECT_KEY);
+				if (exportPath == null || projectPath == null) {
+					logger.error("Both -project and -export paths are needed to export measurements");
+					return;
+				}
+				try {
+					Project<BufferedImage> project = ProjectIO.loadProject(new File(projectPath), BufferedImage.class);
+					File fileOutput = new File(exportPath);
+					String threads = map.get(THREADS_KEY);
+					int nThreads = threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+					MeasurementTableExporter.exportProject(project, PathDetectionObject.class, fileOutput, MeasurementTableExporter.getFormat(fileOutput), nThreads);
+				} catch (Exception e) {
+					logger.error("Error exporting measurements for project!", e);
+				}
+				return;
+			}
+			
+			if (map.containsKey(SCRIPT_KEY)) {
 				
 				String scriptName = map.get(SCRIPT_KEY);
 				
@@ -124,6 +154,24 @@ public class QuPath {
 					return;
 				}
 				
+				// Run the script for all images in a project, if required
+				String projectPath = map.get(PROJECT_KEY);
+				if (projectPath != null) {
+					try {
+						String script = GeneralTools.readFileAsString(scriptName);
+						Project<BufferedImage> project = ProjectIO.loadProject(new File(projectPath), BufferedImage.class);
+						ProjectBatchRunner runner = new ProjectBatchRunner(() -> manager.getEngineByExtension(ext), script)
+								.setSave(map.containsKey(SAVE_KEY));
+						String threads = map.get(THREADS_KEY);
+						if (threads != null)
+							runner.setThreads(Integer.parseInt(threads));
+						runner.run(project, project.getImageList());
+					} catch (Exception e) {
+						logger.error("Error running script for project!", e);
+					}
+					return;
+				}
+				
 				// Try to run the script
 				try {
 //				try (FileReader reader = new FileReader(scriptName)) {